@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.util.Arrays;
+
+/**
+ * In-memory index of the access points seen across scans, keyed by packed BSSID (see {@link
+ * MacAddressUtils}). For each access point it keeps the latest payload (e.g. the ScanResult), when
+ * it was last seen, its last RSSIs, its channel, whether it is an 802.11mc responder and how often
+ * ranging it succeeded. Entries not seen for the maximum age are evicted, and when the index is
+ * full the least recently seen one makes room.
+ *
+ * <p>All per access point state lives in parallel primitive arrays (dense, entries 0 to size - 1)
+ * with an open addressing hash table from BSSID to entry, so updates don't allocate. {@link
+ * #selectTopK} ranks the access points by {@link #getScore} with a binary heap built in O(N) and
+ * popped K times, O(N + K log N). Android-free and not thread safe.
+ *
+ * @param <T> payload kept with every access point
+ */
+public class AccessPointIndex<T> {
+
+    public static final int RSSI_HISTORY_SIZE = 8;
+
+    // Score bonus (in dB of RSSI) for an access point that always ranges successfully, over one
+    // that always fails.
+    private static final double RANGING_SUCCESS_WEIGHT_DB = 20;
+
+    private static final int EMPTY_SLOT = -1;
+
+    private final int mCapacity;
+    private final long mMaxAgeMillis;
+    private int mSize;
+
+    // Bumped whenever the set of access points (or their 802.11mc support) changes.
+    private int mChangeCount;
+
+    private final long[] mBssids;
+    private final Object[] mPayloads;
+    private final long[] mLastSeenMillis;
+    private final int[] mFrequencies;
+    private final boolean[] mIs80211mcResponder;
+    private final int[] mRangingRequests;
+    private final int[] mRangingSuccesses;
+
+    // Ring of the last RSSI_HISTORY_SIZE RSSIs per entry, with their count and sum.
+    private final int[] mRssiHistory;
+    private final int[] mRssiCount;
+    private final int[] mRssiNext;
+    private final int[] mRssiSum;
+
+    // Open addressing (linear probing) from BSSID to entry, at most half full.
+    private final int[] mSlots;
+    private final int mSlotMask;
+
+    // Scratch space for selectTopK().
+    private final int[] mHeap;
+    private final double[] mHeapScores;
+
+    public AccessPointIndex(int capacity, long maxAgeMillis) {
+        mCapacity = capacity;
+        mMaxAgeMillis = maxAgeMillis;
+
+        mBssids = new long[capacity];
+        mPayloads = new Object[capacity];
+        mLastSeenMillis = new long[capacity];
+        mFrequencies = new int[capacity];
+        mIs80211mcResponder = new boolean[capacity];
+        mRangingRequests = new int[capacity];
+        mRangingSuccesses = new int[capacity];
+
+        mRssiHistory = new int[capacity * RSSI_HISTORY_SIZE];
+        mRssiCount = new int[capacity];
+        mRssiNext = new int[capacity];
+        mRssiSum = new int[capacity];
+
+        int slotCount = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2;
+        mSlots = new int[slotCount];
+        mSlotMask = slotCount - 1;
+        Arrays.fill(mSlots, EMPTY_SLOT);
+
+        mHeap = new int[capacity];
+        mHeapScores = new double[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /*
+     * Number of times an access point was added or removed, or changed its 802.11mc support.
+     * Callers compare it before and after a batch of updates to tell if the set really changed.
+     */
+    public int getChangeCount() {
+        return mChangeCount;
+    }
+
+    /*
+     * Adds a sighting of an access point (from a scan) and returns its entry. Evicts the least
+     * recently seen entry if the index is full.
+     */
+    public int update(
+            long bssid,
+            T payload,
+            int rssi,
+            int frequency,
+            boolean is80211mcResponder,
+            long nowMillis) {
+        int index = indexOf(bssid);
+
+        if (index < 0) {
+            if (mSize == mCapacity) {
+                remove(leastRecentlySeen());
+            }
+            index = insert(bssid);
+        } else if (mIs80211mcResponder[index] != is80211mcResponder) {
+            mChangeCount++;
+        }
+
+        mPayloads[index] = payload;
+        mLastSeenMillis[index] = nowMillis;
+        mFrequencies[index] = frequency;
+        mIs80211mcResponder[index] = is80211mcResponder;
+
+        int offset = index * RSSI_HISTORY_SIZE;
+        int next = mRssiNext[index];
+
+        if (mRssiCount[index] == RSSI_HISTORY_SIZE) {
+            mRssiSum[index] -= mRssiHistory[offset + next];
+        } else {
+            mRssiCount[index]++;
+        }
+        mRssiHistory[offset + next] = rssi;
+        mRssiSum[index] += rssi;
+        mRssiNext[index] = (next + 1) % RSSI_HISTORY_SIZE;
+        return index;
+    }
+
+    // Counts a ranging result for bssid (ignored if it isn't in the index).
+    public void onRangingResult(long bssid, boolean success) {
+        int index = indexOf(bssid);
+
+        if (index >= 0) {
+            mRangingRequests[index]++;
+
+            if (success) {
+                mRangingSuccesses[index]++;
+            }
+        }
+    }
+
+    // Removes the entries not seen for more than the maximum age, returns how many.
+    public int evictStale(long nowMillis) {
+        int evicted = 0;
+
+        // Removing moves the last entry into the hole, so walk backwards.
+        for (int i = mSize - 1; i >= 0; i--) {
+            if (nowMillis - mLastSeenMillis[i] > mMaxAgeMillis) {
+                remove(i);
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    public void clear() {
+        Arrays.fill(mSlots, EMPTY_SLOT);
+        Arrays.fill(mPayloads, 0, mSize, null);
+        mSize = 0;
+        mChangeCount++;
+    }
+
+    // Entry of bssid, or -1. Entries move when others are removed.
+    public int indexOf(long bssid) {
+        int slot = slotOf(bssid);
+
+        while (mSlots[slot] != EMPTY_SLOT) {
+            if (mBssids[mSlots[slot]] == bssid) {
+                return mSlots[slot];
+            }
+            slot = (slot + 1) & mSlotMask;
+        }
+        return -1;
+    }
+
+    /*
+     * Writes the entries of the k best access points (only 802.11mc responders if requested),
+     * best first, into out and returns how many were written.
+     */
+    public int selectTopK(int k, boolean only80211mcResponders, int[] out) {
+        int heapSize = 0;
+
+        for (int i = 0; i < mSize; i++) {
+            if (!only80211mcResponders || mIs80211mcResponder[i]) {
+                mHeap[heapSize] = i;
+                mHeapScores[heapSize] = getScore(i);
+                heapSize++;
+            }
+        }
+
+        for (int i = heapSize / 2 - 1; i >= 0; i--) {
+            siftDown(i, heapSize);
+        }
+
+        int count = Math.min(k, heapSize);
+
+        for (int i = 0; i < count; i++) {
+            out[i] = mHeap[0];
+            heapSize--;
+            mHeap[0] = mHeap[heapSize];
+            mHeapScores[0] = mHeapScores[heapSize];
+            siftDown(0, heapSize);
+        }
+        return count;
+    }
+
+    /*
+     * Ranking score of an entry: the mean of its recent RSSIs, plus up to
+     * RANGING_SUCCESS_WEIGHT_DB / 2 for a good ranging success rate (minus for a bad one).
+     */
+    public double getScore(int index) {
+        // Laplace smoothed, so access points never ranged count as 50%.
+        double successRate =
+                (mRangingSuccesses[index] + 1.0) / (mRangingRequests[index] + 2.0);
+        return getMeanRssi(index) + RANGING_SUCCESS_WEIGHT_DB * (successRate - 0.5);
+    }
+
+    public long getBssid(int index) {
+        return mBssids[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public T getPayload(int index) {
+        return (T) mPayloads[index];
+    }
+
+    public long getLastSeenMillis(int index) {
+        return mLastSeenMillis[index];
+    }
+
+    public int getFrequency(int index) {
+        return mFrequencies[index];
+    }
+
+    public boolean is80211mcResponder(int index) {
+        return mIs80211mcResponder[index];
+    }
+
+    public int getLatestRssi(int index) {
+        return mRssiHistory[index * RSSI_HISTORY_SIZE
+                + (mRssiNext[index] + RSSI_HISTORY_SIZE - 1) % RSSI_HISTORY_SIZE];
+    }
+
+    // Mean of the last (up to RSSI_HISTORY_SIZE) RSSIs.
+    public double getMeanRssi(int index) {
+        return (double) mRssiSum[index] / mRssiCount[index];
+    }
+
+    public int getNumberOfRangingRequests(int index) {
+        return mRangingRequests[index];
+    }
+
+    public int getNumberOfRangingSuccesses(int index) {
+        return mRangingSuccesses[index];
+    }
+
+    private int insert(long bssid) {
+        int index = mSize++;
+        mChangeCount++;
+
+        mBssids[index] = bssid;
+        mRssiCount[index] = 0;
+        mRssiNext[index] = 0;
+        mRssiSum[index] = 0;
+        mRangingRequests[index] = 0;
+        mRangingSuccesses[index] = 0;
+
+        int slot = slotOf(bssid);
+
+        while (mSlots[slot] != EMPTY_SLOT) {
+            slot = (slot + 1) & mSlotMask;
+        }
+        mSlots[slot] = index;
+        return index;
+    }
+
+    // Removes an entry by moving the last entry into its place.
+    private void remove(int index) {
+        removeSlot(mBssids[index]);
+
+        int last = --mSize;
+        mChangeCount++;
+
+        if (index != last) {
+            mSlots[findSlot(mBssids[last])] = index;
+
+            mBssids[index] = mBssids[last];
+            mPayloads[index] = mPayloads[last];
+            mLastSeenMillis[index] = mLastSeenMillis[last];
+            mFrequencies[index] = mFrequencies[last];
+            mIs80211mcResponder[index] = mIs80211mcResponder[last];
+            mRangingRequests[index] = mRangingRequests[last];
+            mRangingSuccesses[index] = mRangingSuccesses[last];
+            mRssiCount[index] = mRssiCount[last];
+            mRssiNext[index] = mRssiNext[last];
+            mRssiSum[index] = mRssiSum[last];
+            System.arraycopy(
+                    mRssiHistory,
+                    last * RSSI_HISTORY_SIZE,
+                    mRssiHistory,
+                    index * RSSI_HISTORY_SIZE,
+                    RSSI_HISTORY_SIZE);
+        }
+        mPayloads[last] = null;
+    }
+
+    // Removes the slot of bssid, shifting back later entries of its probe sequence.
+    private void removeSlot(long bssid) {
+        int hole = findSlot(bssid);
+        int slot = hole;
+
+        while (true) {
+            slot = (slot + 1) & mSlotMask;
+
+            if (mSlots[slot] == EMPTY_SLOT) {
+                break;
+            }
+
+            // Move the entry into the hole unless its home slot lies cyclically in (hole, slot].
+            int home = slotOf(mBssids[mSlots[slot]]);
+            boolean homeInRange =
+                    (hole <= slot) ? (hole < home && home <= slot) : (hole < home || home <= slot);
+
+            if (!homeInRange) {
+                mSlots[hole] = mSlots[slot];
+                hole = slot;
+            }
+        }
+        mSlots[hole] = EMPTY_SLOT;
+    }
+
+    // Slot holding bssid (which must be in the index).
+    private int findSlot(long bssid) {
+        int slot = slotOf(bssid);
+
+        while (mBssids[mSlots[slot]] != bssid) {
+            slot = (slot + 1) & mSlotMask;
+        }
+        return slot;
+    }
+
+    private int slotOf(long bssid) {
+        // Spreads the low (vendor specific) bits of the MAC over the whole table.
+        long hash = bssid * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & mSlotMask;
+    }
+
+    private int leastRecentlySeen() {
+        int oldest = 0;
+
+        for (int i = 1; i < mSize; i++) {
+            if (mLastSeenMillis[i] < mLastSeenMillis[oldest]) {
+                oldest = i;
+            }
+        }
+        return oldest;
+    }
+
+    // Max-heap by score over mHeap / mHeapScores.
+    private void siftDown(int position, int heapSize) {
+        int entry = mHeap[position];
+        double score = mHeapScores[position];
+
+        while (true) {
+            int child = 2 * position + 1;
+
+            if (child >= heapSize) {
+                break;
+            }
+
+            if ((child + 1 < heapSize) && (mHeapScores[child + 1] > mHeapScores[child])) {
+                child++;
+            }
+
+            if (mHeapScores[child] <= score) {
+                break;
+            }
+
+            mHeap[position] = mHeap[child];
+            mHeapScores[position] = mHeapScores[child];
+            position = child;
+        }
+
+        mHeap[position] = entry;
+        mHeapScores[position] = score;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Known coordinates (meters, in any local frame) of access points, used as anchors by the {@link
+ * MultilaterationSolver}. Keyed by packed BSSID and backed by primitive arrays.
+ *
+ * <p>The text form has one access point per line: "aa:bb:cc:dd:ee:ff x y [z]" (separated by
+ * spaces or commas). Empty lines and lines starting with '#' are ignored.
+ */
+public class AccessPointLocations {
+
+    private int mSize;
+    private long[] mBssids = new long[8];
+    private double[] mX = new double[8];
+    private double[] mY = new double[8];
+    private double[] mZ = new double[8];
+    private boolean mHasHeights = true;
+
+    // Reads the text form, throws an IOException (with the line number) for malformed lines.
+    public static AccessPointLocations read(Reader reader) throws IOException {
+        AccessPointLocations locations = new AccessPointLocations();
+        BufferedReader bufferedReader = new BufferedReader(reader);
+
+        String line;
+        int lineNumber = 0;
+
+        while ((line = bufferedReader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] fields = line.split("[,\\s]+");
+            long bssid = MacAddressUtils.toLong(fields[0]);
+
+            if ((bssid == MacAddressUtils.INVALID_MAC_ADDRESS)
+                    || (fields.length < 3)
+                    || (fields.length > 4)) {
+                throw new IOException("Malformed access point location, line " + lineNumber);
+            }
+
+            try {
+                double x = Double.parseDouble(fields[1]);
+                double y = Double.parseDouble(fields[2]);
+
+                if (fields.length == 4) {
+                    locations.put(bssid, x, y, Double.parseDouble(fields[3]));
+                } else {
+                    locations.put(bssid, x, y);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed access point location, line " + lineNumber);
+            }
+        }
+        return locations;
+    }
+
+    // Adds (or moves) an access point without a known height.
+    public void put(long bssid, double x, double y) {
+        put(bssid, x, y, 0);
+        mHasHeights = false;
+    }
+
+    public void put(long bssid, double x, double y, double z) {
+        int index = indexOf(bssid);
+
+        if (index < 0) {
+            if (mSize == mBssids.length) {
+                int capacity = mSize * 2;
+                mBssids = Arrays.copyOf(mBssids, capacity);
+                mX = Arrays.copyOf(mX, capacity);
+                mY = Arrays.copyOf(mY, capacity);
+                mZ = Arrays.copyOf(mZ, capacity);
+            }
+            index = mSize++;
+            mBssids[index] = bssid;
+        }
+
+        mX[index] = x;
+        mY[index] = y;
+        mZ[index] = z;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    // Index of bssid, or -1 if its location isn't known.
+    public int indexOf(long bssid) {
+        for (int i = 0; i < mSize; i++) {
+            if (mBssids[i] == bssid) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // True if every access point has a height (z), so positions can be solved in 3D.
+    public boolean hasHeights() {
+        return mHasHeights && (mSize > 0);
+    }
+
+    public long getBssid(int index) {
+        return mBssids[index];
+    }
+
+    public double getX(int index) {
+        return mX[index];
+    }
+
+    public double getY(int index) {
+        return mY[index];
+    }
+
+    public double getZ(int index) {
+        return mZ[index];
+    }
+}
@@ -16,31 +16,39 @@
 package com.example.android.wifirttscan;
 
 import android.Manifest.permission;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.net.wifi.ScanResult;
-import android.net.wifi.rtt.RangingRequest;
-import android.net.wifi.rtt.RangingResult;
-import android.net.wifi.rtt.RangingResultCallback;
-import android.net.wifi.rtt.WifiRttManager;
 import android.os.Bundle;
 import android.os.Handler;
-import androidx.annotation.NonNull;
+import android.os.IBinder;
 import androidx.core.app.ActivityCompat;
 import androidx.appcompat.app.AppCompatActivity;
-import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
+import android.widget.CompoundButton;
 import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
- * Displays ranging information about a particular access point chosen by the user. Uses {@link
- * Handler} to trigger new requests based on
+ * Displays ranging information about a particular access point chosen by the user. Ranging runs
+ * in a {@link RangingSession} owned by {@link RangingService} (so it survives rotation and keeps
+ * going with the screen off), which triggers new requests based on the ranging period. In batched
+ * mode, requests also include the other RTT capable access points found by {@link MainActivity}
+ * (picked by a {@link PeerSelectionPolicy} when they don't all fit in {@link
+ * RangingSource#getMaxPeers()}), and each result is added to the statistics of its own BSSID.
+ * More than one request can be kept in flight (see {@link PipelinedRangingController}).
+ *
+ * <p>The UI is updated from a {@link RangingSnapshot} at most once per frame, using {@link
+ * Choreographer}.
  */
 public class AccessPointRangingResultsActivity extends AppCompatActivity {
     private static final String TAG = "APRRActivity";
@@ -48,56 +56,134 @@ public class AccessPointRangingResultsActivity extends AppCompatActivity {
     public static final String SCAN_RESULT_EXTRA =
             "com.example.android.wifirttscan.extra.SCAN_RESULT";
 
+    // Optional list of all RTT capable access points (used for batched ranging).
+    public static final String ACCESS_POINTS_EXTRA =
+            "com.example.android.wifirttscan.extra.ACCESS_POINTS";
+
+    // BSSIDs of the running session, so a recreated activity finds the session again.
+    private static final String REQUEST_BSSIDS_STATE = "request_bssids";
+
     private static final int SAMPLE_SIZE_DEFAULT = 50;
     private static final int MILLISECONDS_DELAY_BEFORE_NEW_RANGING_REQUEST_DEFAULT = 1000;
+    private static final int REQUESTS_IN_FLIGHT_DEFAULT = 1;
 
     // UI Elements.
     private TextView mSsidTextView;
     private TextView mBssidTextView;
 
-    private TextView mRangeTextView;
-    private TextView mRangeMeanTextView;
-    private TextView mRangeSDTextView;
-    private TextView mRangeSDMeanTextView;
-    private TextView mRssiTextView;
-    private TextView mSuccessesInBurstTextView;
-    private TextView mSuccessRatioTextView;
-    private TextView mNumberOfRequestsTextView;
+    // Updated for every snapshot, so formatted without temporary Strings.
+    private FormattedText mRangeText;
+    private FormattedText mRangeMeanText;
+    private FormattedText mRangeFilteredText;
+    private FormattedText mRangePercentilesText;
+    private FormattedText mRangeSDText;
+    private FormattedText mRangeSDMeanText;
+    private FormattedText mRangeSDMedianText;
+    private FormattedText mRssiText;
+    private FormattedText mSuccessesInBurstText;
+    private FormattedText mSuccessRatioText;
+    private FormattedText mNumberOfRequestsText;
+    private FormattedText mResultsPerSecondText;
+    private FormattedText mPositionText;
 
     private EditText mSampleSizeEditText;
     private EditText mMillisecondsDelayBeforeNewRangingRequestEditText;
+    private EditText mRequestsInFlightEditText;
+    private CompoundButton mBatchedRangingSwitch;
+    private CompoundButton mAdaptiveRangingSwitch;
+    private CompoundButton mCaptureSwitch;
+    private CompoundButton mMetricsSwitch;
+    private View mExportButton;
 
     // Non UI variables.
     private ScanResult mScanResult;
-    private String mMAC;
+    private long mMAC;
 
-    private int mNumberOfRangeRequests;
-    private int mNumberOfSuccessfulRangeRequests;
+    private ArrayList<ScanResult> mAccessPoints;
 
-    private int mMillisecondsDelayBeforeNewRangingRequest;
+    // BSSIDs ranged (only mScanResult unless batched). The selected access point is always first.
+    private long[] mRequestBssids;
+    private int mRequestPeerCount;
 
-    // Max sample size to calculate average for
-    // 1. Distance to device (getDistanceMm) over time
-    // 2. Standard deviation of the measured distance to the device (getDistanceStdDevMm) over time
-    // Note: A RangeRequest result already consists of the average of 7 readings from a burst,
-    // so the average in (1) is the average of these averages.
-    private int mSampleSize;
+    // Set while bound to RangingService (only used on the UI thread).
+    private RangingService mRangingService;
+    private RangingSession mRangingSession;
 
-    // Used to loop over a list of distances to calculate averages (ensures data structure never
-    // get larger than sample size).
-    private int mStatisticRangeHistoryEndIndex;
-    private ArrayList<Integer> mStatisticRangeHistory;
+    // Latest snapshot shown in the UI (only used on the UI thread).
+    private final RangingSnapshot mDisplaySnapshot = new RangingSnapshot();
+    private int mNumberOfUnknownResults;
 
-    // Used to loop over a list of the standard deviation of the measured distance to calculate
-    // averages  (ensures data structure never get larger than sample size).
-    private int mStatisticRangeSDHistoryEndIndex;
-    private ArrayList<Integer> mStatisticRangeSDHistory;
+    private final Handler mUiHandler = new Handler();
+    private Choreographer mChoreographer;
 
-    private WifiRttManager mWifiRttManager;
-    private RttRangingResultCallback mRttRangingResultCallback;
+    // Set (on the ranging thread) once a frame callback has been requested, cleared on the frame.
+    private volatile boolean mFrameCallbackPending;
 
-    // Triggers additional RangingRequests with delay (mMillisecondsDelayBeforeNewRangingRequest).
-    final Handler mRangeRequestDelayHandler = new Handler();
+    private final Runnable mPostFrameCallbackRunnable =
+            new Runnable() {
+                @Override
+                public void run() {
+                    mChoreographer.postFrameCallback(mFrameCallback);
+                }
+            };
+
+    private final Choreographer.FrameCallback mFrameCallback =
+            new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mFrameCallbackPending = false;
+
+                    if ((mRangingSession != null)
+                            && mRangingSession.copySnapshot(mDisplaySnapshot)) {
+                        displaySnapshot();
+                    }
+                }
+            };
+
+    // Coalesces snapshot changes into (at most) one UI update per frame.
+    private final RangingSession.SnapshotListener mSnapshotListener =
+            new RangingSession.SnapshotListener() {
+                @Override
+                public void onSnapshotChanged() {
+                    if (!mFrameCallbackPending) {
+                        mFrameCallbackPending = true;
+                        mUiHandler.post(mPostFrameCallbackRunnable);
+                    }
+                }
+            };
+
+    private final ServiceConnection mServiceConnection =
+            new ServiceConnection() {
+                @Override
+                public void onServiceConnected(ComponentName name, IBinder service) {
+                    mRangingService = ((RangingService.LocalBinder) service).getService();
+
+                    mCaptureSwitch.setChecked(mRangingService.isCaptureEnabled());
+                    mCaptureSwitch.setEnabled(true);
+                    mMetricsSwitch.setChecked(mRangingService.isMetricsServerEnabled());
+                    mMetricsSwitch.setEnabled(true);
+                    mExportButton.setEnabled(true);
+
+                    // Keeps the statistics of a session started before a configuration change.
+                    mRangingSession =
+                            mRangingService.findSession(mRequestBssids, mRequestPeerCount);
+
+                    if (mRangingSession == null) {
+                        resetData();
+                    } else {
+                        mRangingSession.setSnapshotListener(mSnapshotListener);
+                    }
+                }
+
+                @Override
+                public void onServiceDisconnected(ComponentName name) {
+                    mCaptureSwitch.setEnabled(false);
+                    mMetricsSwitch.setEnabled(false);
+                    mExportButton.setEnabled(false);
+                    mRangingService = null;
+                    mRangingSession = null;
+                }
+            };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -108,14 +194,19 @@ public class AccessPointRangingResultsActivity extends AppCompatActivity {
         mSsidTextView = findViewById(R.id.ssid);
         mBssidTextView = findViewById(R.id.bssid);
 
-        mRangeTextView = findViewById(R.id.range_value);
-        mRangeMeanTextView = findViewById(R.id.range_mean_value);
-        mRangeSDTextView = findViewById(R.id.range_sd_value);
-        mRangeSDMeanTextView = findViewById(R.id.range_sd_mean_value);
-        mRssiTextView = findViewById(R.id.rssi_value);
-        mSuccessesInBurstTextView = findViewById(R.id.successes_in_burst_value);
-        mSuccessRatioTextView = findViewById(R.id.success_ratio_value);
-        mNumberOfRequestsTextView = findViewById(R.id.number_of_requests_value);
+        mRangeText = findFormattedText(R.id.range_value);
+        mRangeMeanText = findFormattedText(R.id.range_mean_value);
+        mRangeFilteredText = findFormattedText(R.id.range_filtered_value);
+        mRangePercentilesText = findFormattedText(R.id.range_percentiles_value);
+        mRangeSDText = findFormattedText(R.id.range_sd_value);
+        mRangeSDMeanText = findFormattedText(R.id.range_sd_mean_value);
+        mRangeSDMedianText = findFormattedText(R.id.range_sd_median_value);
+        mRssiText = findFormattedText(R.id.rssi_value);
+        mSuccessesInBurstText = findFormattedText(R.id.successes_in_burst_value);
+        mSuccessRatioText = findFormattedText(R.id.success_ratio_value);
+        mNumberOfRequestsText = findFormattedText(R.id.number_of_requests_value);
+        mResultsPerSecondText = findFormattedText(R.id.results_per_second_value);
+        mPositionText = findFormattedText(R.id.position_value);
 
         mSampleSizeEditText = findViewById(R.id.stats_window_size_edit_value);
         mSampleSizeEditText.setText(SAMPLE_SIZE_DEFAULT + "");
@@ -125,6 +216,35 @@ public class AccessPointRangingResultsActivity extends AppCompatActivity {
         mMillisecondsDelayBeforeNewRangingRequestEditText.setText(
                 MILLISECONDS_DELAY_BEFORE_NEW_RANGING_REQUEST_DEFAULT + "");
 
+        mRequestsInFlightEditText = findViewById(R.id.requests_in_flight_edit_value);
+        mRequestsInFlightEditText.setText(REQUESTS_IN_FLIGHT_DEFAULT + "");
+
+        mBatchedRangingSwitch = findViewById(R.id.batched_ranging_switch);
+        mAdaptiveRangingSwitch = findViewById(R.id.adaptive_ranging_switch);
+
+        // Recording applies to all sessions of the service, so it only works while bound.
+        mCaptureSwitch = findViewById(R.id.capture_switch);
+        mCaptureSwitch.setEnabled(false);
+        mCaptureSwitch.setOnClickListener(
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        onCaptureSwitchClick();
+                    }
+                });
+
+        // Off by default, like recording, since the endpoint serves location data.
+        mMetricsSwitch = findViewById(R.id.metrics_switch);
+        mMetricsSwitch.setEnabled(false);
+        mMetricsSwitch.setOnClickListener(
+                new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        onMetricsSwitchClick();
+                    }
+                });
+        mExportButton = findViewById(R.id.export_button);
+
         // Retrieve ScanResult from Intent.
         Intent intent = getIntent();
         mScanResult = intent.getParcelableExtra(SCAN_RESULT_EXTRA);
@@ -133,42 +253,93 @@ public class AccessPointRangingResultsActivity extends AppCompatActivity {
             finish();
         }
 
-        mMAC = mScanResult.BSSID;
+        mMAC = MacAddressUtils.toLong(mScanResult.BSSID);
 
         mSsidTextView.setText(mScanResult.SSID);
         mBssidTextView.setText(mScanResult.BSSID);
 
-        mWifiRttManager = (WifiRttManager) getSystemService(Context.WIFI_RTT_RANGING_SERVICE);
-        mRttRangingResultCallback = new RttRangingResultCallback();
+        // The selected access point goes first, followed by the other RTT capable access points.
+        mAccessPoints = new ArrayList<>();
+        mAccessPoints.add(mScanResult);
 
-        // Used to store range (distance) and rangeSd (standard deviation of the measured distance)
-        // history to calculate averages.
-        mStatisticRangeHistory = new ArrayList<>();
-        mStatisticRangeSDHistory = new ArrayList<>();
+        ArrayList<ScanResult> accessPoints =
+                intent.getParcelableArrayListExtra(ACCESS_POINTS_EXTRA);
 
-        resetData();
+        if (accessPoints != null) {
+            for (ScanResult scanResult : accessPoints) {
+                if (!mScanResult.BSSID.equals(scanResult.BSSID)) {
+                    mAccessPoints.add(scanResult);
+                }
+            }
+        }
+
+        // Batched ranging only makes sense if there is more than the selected access point.
+        mBatchedRangingSwitch.setEnabled(mAccessPoints.size() > 1);
+
+        mRequestBssids = new long[mAccessPoints.size()];
+
+        // The switches aren't restored yet, and may not match the session anyway if they were
+        // changed without a reset, so a recreated activity uses the BSSIDs it last ranged.
+        long[] requestBssids =
+                (savedInstanceState != null)
+                        ? savedInstanceState.getLongArray(REQUEST_BSSIDS_STATE)
+                        : null;
 
-        startRangingRequest();
+        if ((requestBssids != null) && (requestBssids.length <= mRequestBssids.length)) {
+            System.arraycopy(requestBssids, 0, mRequestBssids, 0, requestBssids.length);
+            mRequestPeerCount = requestBssids.length;
+        } else {
+            updateRequestBssids();
+        }
+
+        mChoreographer = Choreographer.getInstance();
     }
 
-    private void resetData() {
-        mSampleSize = Integer.parseInt(mSampleSizeEditText.getText().toString());
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putLongArray(
+                REQUEST_BSSIDS_STATE, Arrays.copyOf(mRequestBssids, mRequestPeerCount));
+    }
 
-        mMillisecondsDelayBeforeNewRangingRequest =
-                Integer.parseInt(
-                        mMillisecondsDelayBeforeNewRangingRequestEditText.getText().toString());
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(
+                new Intent(this, RangingService.class),
+                mServiceConnection,
+                Context.BIND_AUTO_CREATE);
+    }
 
-        mNumberOfSuccessfulRangeRequests = 0;
-        mNumberOfRangeRequests = 0;
+    @Override
+    protected void onStop() {
+        super.onStop();
 
-        mStatisticRangeHistoryEndIndex = 0;
-        mStatisticRangeHistory.clear();
+        if (mRangingSession != null) {
+            mRangingSession.removeSnapshotListener(mSnapshotListener);
 
-        mStatisticRangeSDHistoryEndIndex = 0;
-        mStatisticRangeSDHistory.clear();
+            // Leaving the activity for good ends its session; otherwise ranging continues in the
+            // background (screen off, other app in front, configuration change).
+            if (isFinishing()) {
+                mRangingService.stopSession(mRangingSession);
+            }
+        }
+        mRangingSession = null;
+        mRangingService = null;
+        mCaptureSwitch.setEnabled(false);
+        mMetricsSwitch.setEnabled(false);
+        mExportButton.setEnabled(false);
+        unbindService(mServiceConnection);
+
+        mChoreographer.removeFrameCallback(mFrameCallback);
+        mUiHandler.removeCallbacks(mPostFrameCallbackRunnable);
+        mFrameCallbackPending = false;
     }
 
-    private void startRangingRequest() {
+    @Override
+    protected void onResume() {
+        super.onResume();
+
         // Permission for fine location should already be granted via MainActivity (you can't get
         // to this class unless you already have permission. If they get to this class, then disable
         // fine location permission, we kick them back to main activity.
@@ -176,159 +347,225 @@ public class AccessPointRangingResultsActivity extends AppCompatActivity {
                 != PackageManager.PERMISSION_GRANTED) {
             finish();
         }
+    }
 
-        mNumberOfRangeRequests++;
-
-        RangingRequest rangingRequest =
-                new RangingRequest.Builder().addAccessPoint(mScanResult).build();
+    // Fills mRequestBssids / mRequestPeerCount from the batched ranging setting.
+    private void updateRequestBssids() {
+        boolean batchedRanging =
+                mBatchedRangingSwitch.isEnabled() && mBatchedRangingSwitch.isChecked();
 
-        mWifiRttManager.startRanging(
-                rangingRequest, getApplication().getMainExecutor(), mRttRangingResultCallback);
-    }
+        // The selected access point always goes first, so it is never dropped by the peer limit.
+        mRequestBssids[0] = mMAC;
+        mRequestPeerCount = 1;
 
-    // Calculates average distance based on stored history.
-    private float getDistanceMean() {
-        float distanceSum = 0;
+        if (batchedRanging) {
+            for (ScanResult scanResult : mAccessPoints) {
+                long bssid = MacAddressUtils.toLong(scanResult.BSSID);
 
-        for (int distance : mStatisticRangeHistory) {
-            distanceSum += distance;
+                if (bssid != mMAC) {
+                    mRequestBssids[mRequestPeerCount++] = bssid;
+                }
+            }
         }
-
-        return distanceSum / mStatisticRangeHistory.size();
     }
 
-    // Adds distance to history. If larger than sample size value, loops back over and replaces the
-    // oldest distance record in the list.
-    private void addDistanceToHistory(int distance) {
+    // Reads the settings and (re)starts ranging with them, dropping all statistics.
+    private void resetData() {
+        if (mRangingService == null) {
+            return;
+        }
 
-        if (mStatisticRangeHistory.size() >= mSampleSize) {
+        int sampleSize = Integer.parseInt(mSampleSizeEditText.getText().toString());
 
-            if (mStatisticRangeHistoryEndIndex >= mSampleSize) {
-                mStatisticRangeHistoryEndIndex = 0;
-            }
-
-            mStatisticRangeHistory.set(mStatisticRangeHistoryEndIndex, distance);
-            mStatisticRangeHistoryEndIndex++;
+        int millisecondsDelayBeforeNewRangingRequest =
+                Integer.parseInt(
+                        mMillisecondsDelayBeforeNewRangingRequestEditText.getText().toString());
 
-        } else {
-            mStatisticRangeHistory.add(distance);
-        }
-    }
+        int requestsInFlight =
+                Math.max(1, Integer.parseInt(mRequestsInFlightEditText.getText().toString()));
 
-    // Calculates standard deviation of the measured distance based on stored history.
-    private float getStandardDeviationOfDistanceMean() {
-        float distanceSdSum = 0;
+        updateRequestBssids();
 
-        for (int distanceSd : mStatisticRangeSDHistory) {
-            distanceSdSum += distanceSd;
+        // A different set of peers gets a new session, so the old one must be stopped.
+        if ((mRangingSession != null)
+                && !mRangingSession.hasPeers(mRequestBssids, mRequestPeerCount)) {
+            mRangingSession.setSnapshotListener(null);
+            mRangingService.stopSession(mRangingSession);
         }
 
-        return distanceSdSum / mStatisticRangeHistory.size();
+        mNumberOfUnknownResults = 0;
+
+        // Started (not only bound) so ranging continues while no activity is bound.
+        startForegroundService(new Intent(this, RangingService.class));
+
+        mRangingSession =
+                mRangingService.startSession(
+                        mAccessPoints,
+                        mRequestBssids,
+                        mRequestPeerCount,
+                        sampleSize,
+                        millisecondsDelayBeforeNewRangingRequest,
+                        mAdaptiveRangingSwitch.isChecked(),
+                        requestsInFlight);
+        mRangingSession.setSnapshotListener(mSnapshotListener);
     }
 
-    // Adds standard deviation of the measured distance to history. If larger than sample size
-    // value, loops back over and replaces the oldest distance record in the list.
-    private void addStandardDeviationOfDistanceToHistory(int distanceSd) {
+    public void onResetButtonClick(View view) {
+        resetData();
+    }
 
-        if (mStatisticRangeSDHistory.size() >= mSampleSize) {
+    public void onDashboardButtonClick(View view) {
+        Intent intent = new Intent(this, RangingDashboardActivity.class);
+        intent.putExtra(
+                RangingDashboardActivity.BSSIDS_EXTRA,
+                Arrays.copyOf(mRequestBssids, mRequestPeerCount));
+        startActivity(intent);
+    }
 
-            if (mStatisticRangeSDHistoryEndIndex >= mSampleSize) {
-                mStatisticRangeSDHistoryEndIndex = 0;
-            }
+    // Exports the captures in the background (one export at a time).
+    public void onExportButtonClick(View view) {
+        if (mRangingService == null) {
+            return;
+        }
 
-            mStatisticRangeSDHistory.set(mStatisticRangeSDHistoryEndIndex, distanceSd);
-            mStatisticRangeSDHistoryEndIndex++;
+        mExportButton.setEnabled(false);
+        mRangingService.exportCaptures(
+                new RangingService.ExportListener() {
+                    @Override
+                    public void onExportFinished(File file) {
+                        showExportResult(file);
+                    }
+                });
+    }
 
-        } else {
-            mStatisticRangeSDHistory.add(distanceSd);
+    private void showExportResult(File file) {
+        // Unless the activity was unbound (or destroyed) in the meantime.
+        mExportButton.setEnabled(mRangingService != null);
+
+        if (file == null) {
+            Toast.makeText(
+                            getApplicationContext(),
+                            R.string.export_failed_message_activity_access_point_ranging_results,
+                            Toast.LENGTH_LONG)
+                    .show();
+            return;
         }
+
+        int messageId = R.string.export_finished_message_activity_access_point_ranging_results;
+        Toast.makeText(
+                        getApplicationContext(),
+                        getString(messageId, file.getPath(), file.length() / 1024),
+                        Toast.LENGTH_LONG)
+                .show();
     }
 
-    public void onResetButtonClick(View view) {
-        resetData();
+    private void onCaptureSwitchClick() {
+        if (mRangingService == null) {
+            return;
+        }
+
+        if (!mRangingService.setCaptureEnabled(mCaptureSwitch.isChecked())) {
+            mCaptureSwitch.setChecked(false);
+            Toast.makeText(
+                            getApplicationContext(),
+                            R.string.capture_failed_message_activity_access_point_ranging_results,
+                            Toast.LENGTH_LONG)
+                    .show();
+        }
     }
 
-    // Class that handles callbacks for all RangingRequests and issues new RangingRequests.
-    private class RttRangingResultCallback extends RangingResultCallback {
-
-        private void queueNextRangingRequest() {
-            mRangeRequestDelayHandler.postDelayed(
-                    new Runnable() {
-                        @Override
-                        public void run() {
-                            startRangingRequest();
-                        }
-                    },
-                    mMillisecondsDelayBeforeNewRangingRequest);
+    private void onMetricsSwitchClick() {
+        if (mRangingService == null) {
+            return;
         }
 
-        @Override
-        public void onRangingFailure(int code) {
-            Log.d(TAG, "onRangingFailure() code: " + code);
-            queueNextRangingRequest();
+        if (!mRangingService.setMetricsServerEnabled(mMetricsSwitch.isChecked())) {
+            mMetricsSwitch.setChecked(false);
+            Toast.makeText(
+                            getApplicationContext(),
+                            R.string.metrics_failed_message_activity_access_point_ranging_results,
+                            Toast.LENGTH_LONG)
+                    .show();
         }
+    }
 
-        @Override
-        public void onRangingResults(@NonNull List<RangingResult> list) {
-            Log.d(TAG, "onRangingResults(): " + list);
+    // Updates the UI with the latest snapshot for the access point chosen by the user.
+    private void displaySnapshot() {
+        RangingSnapshot snapshot = mDisplaySnapshot;
 
-            // Because we are only requesting RangingResult for one access point (not multiple
-            // access points), this will only ever be one. (Use loops when requesting RangingResults
-            // for multiple access points.)
-            if (list.size() == 1) {
+        if (snapshot.getNumberOfUnknownResults() > mNumberOfUnknownResults) {
+            Toast.makeText(
+                            getApplicationContext(),
+                            R.string.mac_mismatch_message_activity_access_point_ranging_results,
+                            Toast.LENGTH_LONG)
+                    .show();
+        }
+        mNumberOfUnknownResults = snapshot.getNumberOfUnknownResults();
+
+        if (snapshot.hasPosition()) {
+            mPositionText
+                    .clear()
+                    .append(snapshot.getPositionX(), 2)
+                    .append(", ")
+                    .append(snapshot.getPositionY(), 2)
+                    .append(", ")
+                    .append(snapshot.getPositionZ(), 2)
+                    .append(" (\u00b1")
+                    .append(snapshot.getPositionAccuracy(), 2)
+                    .append(')');
+            mPositionText.show();
+        }
 
-                RangingResult rangingResult = list.get(0);
+        int index = snapshot.indexOf(mMAC);
 
-                if (mMAC.equals(rangingResult.getMacAddress().toString())) {
+        if ((index < 0) || !snapshot.hasResult(index)) {
+            return;
+        }
 
-                    if (rangingResult.getStatus() == RangingResult.STATUS_SUCCESS) {
+        showMeters(mRangeText, snapshot.getDistanceMm(index));
+        showMeters(mRangeMeanText, snapshot.getDistanceMeanMm(index));
+        showMeters(mRangeFilteredText, snapshot.getDistanceFilteredMm(index));
 
-                        mNumberOfSuccessfulRangeRequests++;
+        CharFormatter percentiles = mRangePercentilesText.clear();
+        appendMeters(percentiles, snapshot.getDistanceP50Mm(index)).append(" / ");
+        appendMeters(percentiles, snapshot.getDistanceP90Mm(index)).append(" / ");
+        appendMeters(percentiles, snapshot.getDistanceP99Mm(index));
+        mRangePercentilesText.show();
 
-                        mRangeTextView.setText((rangingResult.getDistanceMm() / 1000f) + "");
-                        addDistanceToHistory(rangingResult.getDistanceMm());
-                        mRangeMeanTextView.setText((getDistanceMean() / 1000f) + "");
+        showMeters(mRangeSDText, snapshot.getDistanceStdDevMm(index));
+        showMeters(mRangeSDMeanText, snapshot.getDistanceStdDevMeanMm(index));
+        showMeters(mRangeSDMedianText, snapshot.getDistanceStdDevMedianMm(index));
 
-                        mRangeSDTextView.setText(
-                                (rangingResult.getDistanceStdDevMm() / 1000f) + "");
-                        addStandardDeviationOfDistanceToHistory(
-                                rangingResult.getDistanceStdDevMm());
-                        mRangeSDMeanTextView.setText(
-                                (getStandardDeviationOfDistanceMean() / 1000f) + "");
+        mRssiText.clear().append(snapshot.getRssi(index));
+        mRssiText.show();
 
-                        mRssiTextView.setText(rangingResult.getRssi() + "");
-                        mSuccessesInBurstTextView.setText(
-                                rangingResult.getNumSuccessfulMeasurements()
-                                        + "/"
-                                        + rangingResult.getNumAttemptedMeasurements());
+        mSuccessesInBurstText
+                .clear()
+                .append(snapshot.getNumSuccessfulMeasurements(index))
+                .append('/')
+                .append(snapshot.getNumAttemptedMeasurements(index));
+        mSuccessesInBurstText.show();
 
-                        float successRatio =
-                                ((float) mNumberOfSuccessfulRangeRequests
-                                                / (float) mNumberOfRangeRequests)
-                                        * 100;
-                        mSuccessRatioTextView.setText(successRatio + "%");
+        mSuccessRatioText.clear().append(snapshot.getSuccessRatio(index), 1).append('%');
+        mSuccessRatioText.show();
 
-                        mNumberOfRequestsTextView.setText(mNumberOfRangeRequests + "");
+        mNumberOfRequestsText.clear().append(snapshot.getNumberOfRequests(index));
+        mNumberOfRequestsText.show();
 
-                    } else if (rangingResult.getStatus()
-                            == RangingResult.STATUS_RESPONDER_DOES_NOT_SUPPORT_IEEE80211MC) {
-                        Log.d(TAG, "RangingResult failed (AP doesn't support IEEE80211 MC.");
+        mResultsPerSecondText.clear().append(snapshot.getResultsPerSecond(index), 1);
+        mResultsPerSecondText.show();
+    }
 
-                    } else {
-                        Log.d(TAG, "RangingResult failed.");
-                    }
+    private FormattedText findFormattedText(int id) {
+        return new FormattedText((TextView) findViewById(id));
+    }
 
-                } else {
-                    Toast.makeText(
-                                    getApplicationContext(),
-                                    R.string
-                                            .mac_mismatch_message_activity_access_point_ranging_results,
-                                    Toast.LENGTH_LONG)
-                            .show();
-                }
-            }
+    private static void showMeters(FormattedText text, float millimeters) {
+        appendMeters(text.clear(), millimeters);
+        text.show();
+    }
 
-            queueNextRangingRequest();
-        }
+    private static CharFormatter appendMeters(CharFormatter formatter, float millimeters) {
+        return formatter.append(millimeters / 1000.0, 3);
     }
 }
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Ranging statistics for a single access point (BSSID). Keeps the number of requests the access
+ * point was part of, the number of successful results, and {@link RangeStatistics} over the last
+ * sample size distances and distance standard deviations. Percentiles of the distances and
+ * standard deviations over the last {@link #QUANTILE_WINDOW_MILLIS} are kept in fixed size
+ * {@link SlidingQuantileSketch}es, which unlike the mean aren't thrown off by multipath outliers.
+ *
+ * <p>With an {@link OutlierRejector}, measurements it rejects don't reach any of the statistics
+ * (nor the range filter) and don't count as successful.
+ */
+public class AccessPointStatistics {
+
+    // Time covered by the percentiles, in panes of QUANTILE_WINDOW_MILLIS / QUANTILE_PANES.
+    public static final long QUANTILE_WINDOW_MILLIS = 60 * 1000;
+    private static final int QUANTILE_PANES = 4;
+    private static final int QUANTILE_SKETCH_SIZE = 64;
+
+    // BSSID packed with MacAddressUtils.
+    private final long mBssid;
+
+    private int mNumberOfRangeRequests;
+    private int mNumberOfSuccessfulRangeRequests;
+
+    private boolean mLastResultSuccessful;
+    private boolean mLastResultRejected;
+    private boolean mLastResultDownWeighted;
+    private long mLastSuccessMillis;
+
+    // Distance (getDistanceMm) and standard deviation of the measured distance
+    // (getDistanceStdDevMm) over the last sample size results.
+    private final RangeStatistics mDistanceStatistics;
+    private final RangeStatistics mDistanceSdStatistics;
+
+    // Same, over the last QUANTILE_WINDOW_MILLIS (by measurement timestamp).
+    private final SlidingQuantileSketch mDistanceQuantiles;
+    private final SlidingQuantileSketch mDistanceSdQuantiles;
+
+    // Optional smoother of the successful distances.
+    private RangeFilter mRangeFilter;
+
+    // Optional stage dropping outliers before all of the above.
+    private OutlierRejector mOutlierRejector;
+
+    public AccessPointStatistics(long bssid, int sampleSize) {
+        mBssid = bssid;
+        mDistanceStatistics = new RangeStatistics(sampleSize);
+        mDistanceSdStatistics = new RangeStatistics(sampleSize);
+        mDistanceQuantiles =
+                new SlidingQuantileSketch(
+                        QUANTILE_WINDOW_MILLIS, QUANTILE_PANES, QUANTILE_SKETCH_SIZE);
+        mDistanceSdQuantiles =
+                new SlidingQuantileSketch(
+                        QUANTILE_WINDOW_MILLIS, QUANTILE_PANES, QUANTILE_SKETCH_SIZE);
+        reset(sampleSize);
+    }
+
+    public long getBssid() {
+        return mBssid;
+    }
+
+    public void reset(int sampleSize) {
+        mNumberOfSuccessfulRangeRequests = 0;
+        mNumberOfRangeRequests = 0;
+
+        mLastResultSuccessful = false;
+        mLastResultRejected = false;
+        mLastResultDownWeighted = false;
+        mLastSuccessMillis = 0;
+
+        mDistanceStatistics.reset(sampleSize);
+        mDistanceSdStatistics.reset(sampleSize);
+        mDistanceQuantiles.reset();
+        mDistanceSdQuantiles.reset();
+
+        if (mRangeFilter != null) {
+            mRangeFilter.reset();
+        }
+
+        if (mOutlierRejector != null) {
+            mOutlierRejector.reset();
+        }
+    }
+
+    // Sets (or clears) the filter fed with every successful measurement.
+    public void setRangeFilter(RangeFilter rangeFilter) {
+        mRangeFilter = rangeFilter;
+    }
+
+    public RangeFilter getRangeFilter() {
+        return mRangeFilter;
+    }
+
+    // Sets (or clears) the rejector every successful measurement goes through first.
+    public void setOutlierRejector(OutlierRejector outlierRejector) {
+        mOutlierRejector = outlierRejector;
+    }
+
+    public OutlierRejector getOutlierRejector() {
+        return mOutlierRejector;
+    }
+
+    // Called every time a RangingRequest including this access point is sent.
+    public void onRangingRequest() {
+        mNumberOfRangeRequests++;
+    }
+
+    // Called for every RangingMeasurement received for this access point. Returns true if the
+    // measurement was successful (and not rejected) and added to the statistics.
+    public boolean onRangingResult(RangingMeasurement measurement) {
+        mLastResultSuccessful = measurement.isSuccess();
+        mLastResultRejected = false;
+        mLastResultDownWeighted = false;
+
+        if (!mLastResultSuccessful) {
+            return false;
+        }
+
+        int verdict = OutlierRejector.ACCEPTED;
+
+        if (mOutlierRejector != null) {
+            verdict =
+                    mOutlierRejector.check(
+                            measurement.getDistanceMm(),
+                            measurement.getDistanceStdDevMm(),
+                            measurement.getRssi(),
+                            measurement.getNumAttemptedMeasurements(),
+                            measurement.getNumSuccessfulMeasurements());
+
+            if (verdict == OutlierRejector.REJECTED) {
+                mLastResultSuccessful = false;
+                mLastResultRejected = true;
+                return false;
+            }
+        }
+
+        mLastResultDownWeighted = (verdict == OutlierRejector.DOWN_WEIGHTED);
+        mLastSuccessMillis = measurement.getTimestampMillis();
+        onRangingSuccess(measurement.getDistanceMm(), measurement.getDistanceStdDevMm());
+        mDistanceQuantiles.add(mLastSuccessMillis, measurement.getDistanceMm());
+        mDistanceSdQuantiles.add(mLastSuccessMillis, measurement.getDistanceStdDevMm());
+
+        if (mRangeFilter != null) {
+            int distanceStdDevMm = measurement.getDistanceStdDevMm();
+
+            if (mLastResultDownWeighted) {
+                distanceStdDevMm *= OutlierRejector.DOWN_WEIGHT_STD_DEV_FACTOR;
+            }
+            mRangeFilter.update(mLastSuccessMillis, measurement.getDistanceMm(), distanceStdDevMm);
+        }
+        return true;
+    }
+
+    // Called for every successful result received for this access point. Only onRangingResult
+    // updates the percentiles, as they need the measurement time.
+    public void onRangingSuccess(int distanceMm, int distanceStdDevMm) {
+        mNumberOfSuccessfulRangeRequests++;
+        mDistanceStatistics.add(distanceMm);
+        mDistanceSdStatistics.add(distanceStdDevMm);
+    }
+
+    public int getNumberOfRangeRequests() {
+        return mNumberOfRangeRequests;
+    }
+
+    public int getNumberOfSuccessfulRangeRequests() {
+        return mNumberOfSuccessfulRangeRequests;
+    }
+
+    public boolean isLastResultSuccessful() {
+        return mLastResultSuccessful;
+    }
+
+    // True if the last result was successful, but rejected by the OutlierRejector.
+    public boolean isLastResultRejected() {
+        return mLastResultRejected;
+    }
+
+    /*
+     * True if the last result was accepted, but down-weighted (probably NLOS) by the
+     * OutlierRejector, so its standard deviation should be scaled by DOWN_WEIGHT_STD_DEV_FACTOR.
+     */
+    public boolean isLastResultDownWeighted() {
+        return mLastResultDownWeighted;
+    }
+
+    // Timestamp of the last successful measurement (same clock as RangingMeasurement).
+    public long getLastSuccessMillis() {
+        return mLastSuccessMillis;
+    }
+
+    // Percentage of requests including this access point that returned a successful result.
+    public float getSuccessRatio() {
+        return ((float) mNumberOfSuccessfulRangeRequests / (float) mNumberOfRangeRequests) * 100;
+    }
+
+    public RangeStatistics getDistanceStatistics() {
+        return mDistanceStatistics;
+    }
+
+    public RangeStatistics getDistanceSdStatistics() {
+        return mDistanceSdStatistics;
+    }
+
+    // Distances and standard deviations of the last QUANTILE_WINDOW_MILLIS.
+    public SlidingQuantileSketch getDistanceQuantiles() {
+        return mDistanceQuantiles;
+    }
+
+    public SlidingQuantileSketch getDistanceSdQuantiles() {
+        return mDistanceSdQuantiles;
+    }
+
+    // Average distance over the stored history.
+    public float getDistanceMean() {
+        return (float) mDistanceStatistics.getMean();
+    }
+
+    // Average standard deviation of the measured distance over the stored history.
+    public float getStandardDeviationOfDistanceMean() {
+        return (float) mDistanceSdStatistics.getMean();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.util.List;
+
+/**
+ * Picks the delay before the next ranging request. Starting from the user's ranging period, the
+ * period is shortened while distances are noisy or a peer hasn't had a successful result for a
+ * while (stale), and lengthened while all peers are stable, within [period / 4, period * 4].
+ * Failed requests (or requests where every peer failed) back off exponentially, and failed peers
+ * stretch the delay in proportion to the share of peers that failed.
+ *
+ * <p>Android-free and allocation-free, so it can be driven by any {@link RangingSource}.
+ */
+public class AdaptiveRangingScheduler {
+
+    private static final int PERIOD_RANGE_FACTOR = 4;
+    private static final int MIN_PERIOD_MILLIS = 50;
+    private static final int MAX_BACKOFF_SHIFT = 6;
+
+    private static final float SPEED_UP_FACTOR = 1.5f;
+    private static final float SLOW_DOWN_FACTOR = 1.25f;
+
+    // Window standard deviation of the distance above / below which a peer is noisy / stable.
+    private static final int NOISY_DISTANCE_SD_MM = 1000;
+    private static final int STABLE_DISTANCE_SD_MM = 300;
+    private static final int MIN_SAMPLES_FOR_STABLE = 5;
+
+    // A peer is stale if its last success is older than this many maximum periods.
+    private static final int STALE_AFTER_MAX_PERIODS = 2;
+
+    private boolean mAdaptive;
+
+    private long mMinPeriodMillis;
+    private long mMaxPeriodMillis;
+    private long mMaxBackoffMillis;
+    private float mPeriodMillis;
+
+    private int mConsecutiveFailures;
+
+    public AdaptiveRangingScheduler(int periodMillis, boolean adaptive) {
+        reset(periodMillis, adaptive);
+    }
+
+    /*
+     * Restarts from periodMillis. If adaptive is false the period stays fixed, but failures still
+     * back off.
+     */
+    public void reset(int periodMillis, boolean adaptive) {
+        mAdaptive = adaptive;
+        mPeriodMillis = periodMillis;
+
+        if (adaptive) {
+            mMinPeriodMillis = Math.max(MIN_PERIOD_MILLIS, periodMillis / PERIOD_RANGE_FACTOR);
+            mMaxPeriodMillis = Math.max(mMinPeriodMillis, periodMillis * PERIOD_RANGE_FACTOR);
+        } else {
+            mMinPeriodMillis = periodMillis;
+            mMaxPeriodMillis = periodMillis;
+        }
+
+        mMaxBackoffMillis = Math.max(mMaxPeriodMillis, (long) periodMillis << MAX_BACKOFF_SHIFT);
+        mConsecutiveFailures = 0;
+    }
+
+    // Current (not backed off) ranging period.
+    public long getPeriodMillis() {
+        return (long) mPeriodMillis;
+    }
+
+    public int getConsecutiveFailures() {
+        return mConsecutiveFailures;
+    }
+
+    // Returns the delay before the next request after a whole request failed.
+    public long onRangingFailure(int code) {
+        mConsecutiveFailures++;
+        return getBackoffMillis();
+    }
+
+    /*
+     * Returns the delay before the next request after results were received. statistics holds
+     * every peer in the request (already updated with the results), and nowMillis uses the same
+     * clock as the measurement timestamps.
+     */
+    public long onRangingResults(List<AccessPointStatistics> statistics, long nowMillis) {
+        int peerCount = statistics.size();
+        int failedPeers = 0;
+        boolean speedUp = false;
+        boolean allStable = true;
+
+        long staleAfterMillis = mMaxPeriodMillis * STALE_AFTER_MAX_PERIODS;
+
+        for (int i = 0; i < peerCount; i++) {
+            AccessPointStatistics peer = statistics.get(i);
+
+            if (!peer.isLastResultSuccessful()) {
+                failedPeers++;
+                allStable = false;
+
+                // Only chase peers that have worked before, not ones that never respond.
+                if ((peer.getNumberOfSuccessfulRangeRequests() > 0)
+                        && (nowMillis - peer.getLastSuccessMillis() > staleAfterMillis)) {
+                    speedUp = true;
+                }
+                continue;
+            }
+
+            RangeStatistics distances = peer.getDistanceStatistics();
+            double distanceSd = distances.getStandardDeviation();
+
+            if (distanceSd > NOISY_DISTANCE_SD_MM) {
+                speedUp = true;
+            }
+
+            if ((distances.getCount() < MIN_SAMPLES_FOR_STABLE)
+                    || (distanceSd > STABLE_DISTANCE_SD_MM)) {
+                allStable = false;
+            }
+        }
+
+        if ((peerCount > 0) && (failedPeers == peerCount)) {
+            mConsecutiveFailures++;
+            return getBackoffMillis();
+        }
+
+        mConsecutiveFailures = 0;
+
+        if (mAdaptive) {
+            if (speedUp) {
+                mPeriodMillis /= SPEED_UP_FACTOR;
+            } else if (allStable) {
+                mPeriodMillis *= SLOW_DOWN_FACTOR;
+            }
+            mPeriodMillis = Math.max(mMinPeriodMillis, Math.min(mMaxPeriodMillis, mPeriodMillis));
+        }
+
+        if (failedPeers == 0) {
+            return (long) mPeriodMillis;
+        }
+        return (long) (mPeriodMillis * (1 + (float) failedPeers / peerCount));
+    }
+
+    private long getBackoffMillis() {
+        int shift = Math.min(mConsecutiveFailures, MAX_BACKOFF_SHIFT);
+        return Math.min(mMaxBackoffMillis, (long) mPeriodMillis << shift);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * File format shared by {@link CaptureLogWriter} and {@link CaptureLogReader}: an append-only
+ * binary log of {@link RangingMeasurement}s, split over numbered files
+ * ("&lt;prefix&gt;-000001.rttlog", ...).
+ *
+ * <p>Each file starts with a {@link #HEADER_SIZE} byte header followed by fixed size records (all
+ * values little endian):
+ *
+ * <pre>
+ *  0  long   timestamp (ms)      16  int    distanceMm       26  byte  attempted (unsigned)
+ *  8  long   BSSID (packed)      20  int    distanceStdDevMm 27  byte  successful (unsigned)
+ *                                24  short  RSSI             28  byte  status
+ *                                                            29  byte  RECORD_MARKER
+ *                                                            30  short Fletcher-16 of bytes 0-29
+ * </pre>
+ *
+ * <p>A crash can only leave a partial or garbage record at the end of the last file. The marker
+ * and checksum let {@link #recover(FileChannel)} find and cut off such a tail.
+ */
+public final class CaptureLog {
+
+    public static final String FILE_EXTENSION = ".rttlog";
+
+    // "RTTC"
+    public static final int MAGIC = 0x43545452;
+    public static final int VERSION = 1;
+
+    // magic (int), version (short), record size (short), creation time (long).
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_SIZE = 32;
+
+    private static final byte RECORD_MARKER = (byte) 0xA5;
+
+    private static final int MARKER_OFFSET = 29;
+    private static final int CHECKSUM_OFFSET = 30;
+
+    private CaptureLog() {}
+
+    // Returns the name of the sequence-th file of a capture.
+    public static String getFileName(String prefix, int sequence) {
+        return prefix + "-" + String.format(Locale.US, "%06d", sequence) + FILE_EXTENSION;
+    }
+
+    // Returns the sequence number of a file named by getFileName(prefix, ...), or -1.
+    public static int getSequence(String prefix, String fileName) {
+        if (!fileName.startsWith(prefix + "-") || !fileName.endsWith(FILE_EXTENSION)) {
+            return -1;
+        }
+
+        try {
+            return Integer.parseInt(
+                    fileName.substring(
+                            prefix.length() + 1, fileName.length() - FILE_EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Returns the files of the capture in directory, in the order they were written.
+    public static File[] listFiles(File directory, final String prefix) {
+        File[] files =
+                directory.listFiles(
+                        new FileFilter() {
+                            @Override
+                            public boolean accept(File file) {
+                                return getSequence(prefix, file.getName()) >= 0;
+                            }
+                        });
+
+        if (files == null) {
+            return new File[0];
+        }
+
+        // Names are zero padded, so the name order is the sequence order.
+        Arrays.sort(files);
+        return files;
+    }
+
+    static void writeHeader(ByteBuffer buffer, long creationTimeMillis) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) RECORD_SIZE);
+        buffer.putLong(creationTimeMillis);
+    }
+
+    // Returns true if the header at the start of buffer (little endian) is valid.
+    static boolean isValidHeader(ByteBuffer buffer) {
+        return (buffer.getInt(0) == MAGIC)
+                && (buffer.getShort(4) == VERSION)
+                && (buffer.getShort(6) == RECORD_SIZE);
+    }
+
+    // Writes a record at the position of buffer (little endian) and advances it.
+    static void writeRecord(
+            ByteBuffer buffer,
+            long timestampMillis,
+            long bssid,
+            int status,
+            int distanceMm,
+            int distanceStdDevMm,
+            int rssi,
+            int numAttemptedMeasurements,
+            int numSuccessfulMeasurements) {
+        int offset = buffer.position();
+
+        buffer.putLong(timestampMillis);
+        buffer.putLong(bssid);
+        buffer.putInt(distanceMm);
+        buffer.putInt(distanceStdDevMm);
+        buffer.putShort((short) clamp(rssi, Short.MIN_VALUE, Short.MAX_VALUE));
+        buffer.put((byte) clamp(numAttemptedMeasurements, 0, 255));
+        buffer.put((byte) clamp(numSuccessfulMeasurements, 0, 255));
+        buffer.put((byte) status);
+        buffer.put(RECORD_MARKER);
+        buffer.putShort(checksum(buffer, offset));
+    }
+
+    // Returns true if the record at offset of buffer (little endian) is complete and intact.
+    static boolean isValidRecord(ByteBuffer buffer, int offset) {
+        return (buffer.get(offset + MARKER_OFFSET) == RECORD_MARKER)
+                && (buffer.getShort(offset + CHECKSUM_OFFSET) == checksum(buffer, offset));
+    }
+
+    // Fills out from the (valid) record at offset of buffer (little endian).
+    static void readRecord(ByteBuffer buffer, int offset, RangingMeasurement out) {
+        out.set(
+                buffer.getLong(offset + 8),
+                buffer.get(offset + 28),
+                buffer.getInt(offset + 16),
+                buffer.getInt(offset + 20),
+                buffer.getShort(offset + 24),
+                buffer.get(offset + 26) & 0xff,
+                buffer.get(offset + 27) & 0xff,
+                buffer.getLong(offset));
+    }
+
+    /*
+     * Cuts off a partially written or corrupt tail (left by a crash) from a capture file and
+     * returns the new size. Scans backwards from the end, so only the damaged tail is read.
+     * Throws an IOException if the file doesn't have a valid header.
+     */
+    public static long recover(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        if ((readFully(channel, header, 0) < HEADER_SIZE) || !isValidHeader(header)) {
+            throw new IOException("Not a capture file");
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        long records = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+
+        while (records > 0) {
+            record.clear();
+            readFully(channel, record, HEADER_SIZE + (records - 1) * RECORD_SIZE);
+
+            if (isValidRecord(record, 0)) {
+                break;
+            }
+            records--;
+        }
+
+        long size = HEADER_SIZE + records * RECORD_SIZE;
+
+        if (channel.size() > size) {
+            channel.truncate(size);
+        }
+        return size;
+    }
+
+    // Reads from position until buffer is full or the end of the file, returns the bytes read.
+    static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position() - start);
+
+            if (read < 0) {
+                break;
+            }
+        }
+        return buffer.position() - start;
+    }
+
+    private static short checksum(ByteBuffer buffer, int offset) {
+        int sum1 = 0;
+        int sum2 = 0;
+
+        for (int i = offset; i < offset + CHECKSUM_OFFSET; i++) {
+            sum1 = (sum1 + (buffer.get(i) & 0xff)) % 255;
+            sum2 = (sum2 + sum1) % 255;
+        }
+        return (short) ((sum2 << 8) | sum1);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
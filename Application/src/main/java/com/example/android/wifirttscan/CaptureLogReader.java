@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams the records of a {@link CaptureLog} (one or more files, in order) into a reused {@link
+ * RangingMeasurement}. Files are read in chunks through a direct buffer, so memory use doesn't
+ * depend on the size of the capture. A damaged tail (see {@link CaptureLog#recover(FileChannel)})
+ * ends its file and is counted in {@link #getNumberOfCorruptRecords()}. Not thread safe.
+ */
+public class CaptureLogReader implements Closeable {
+
+    private static final int BUFFER_RECORDS = 2048;
+
+    private final File[] mFiles;
+    private int mFileIndex = -1;
+
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private long mFilePosition;
+
+    private final ByteBuffer mBuffer =
+            ByteBuffer.allocateDirect(BUFFER_RECORDS * CaptureLog.RECORD_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+    private int mBufferOffset;
+
+    private long mNumberOfRecords;
+    private int mNumberOfCorruptRecords;
+
+    // Reads all files of the capture with the given prefix in directory.
+    public CaptureLogReader(File directory, String prefix) {
+        this(CaptureLog.listFiles(directory, prefix));
+    }
+
+    public CaptureLogReader(File... files) {
+        mFiles = files.clone();
+        mBuffer.limit(0);
+    }
+
+    /*
+     * Fills out with the next record and returns true, or returns false at the end of the
+     * capture. Throws an IOException if a file can't be read or isn't a capture file.
+     */
+    public boolean next(RangingMeasurement out) throws IOException {
+        while (true) {
+            if (mBuffer.limit() - mBufferOffset >= CaptureLog.RECORD_SIZE) {
+                if (!CaptureLog.isValidRecord(mBuffer, mBufferOffset)) {
+                    // Only the tail of a file can be damaged, skip the rest of it.
+                    mNumberOfCorruptRecords++;
+                    closeFile();
+                    continue;
+                }
+
+                CaptureLog.readRecord(mBuffer, mBufferOffset, out);
+                mBufferOffset += CaptureLog.RECORD_SIZE;
+                mNumberOfRecords++;
+                return true;
+            }
+
+            if ((mChannel != null) && fillBuffer()) {
+                continue;
+            }
+
+            if (!openNextFile()) {
+                return false;
+            }
+        }
+    }
+
+    // Number of records returned by next() so far.
+    public long getNumberOfRecords() {
+        return mNumberOfRecords;
+    }
+
+    // Number of damaged tails (or partial records) skipped so far.
+    public int getNumberOfCorruptRecords() {
+        return mNumberOfCorruptRecords;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeFile();
+        mFileIndex = mFiles.length;
+    }
+
+    // Reads the next chunk of whole records of the current file, returns false at its end.
+    private boolean fillBuffer() throws IOException {
+        mBuffer.clear();
+        int read = CaptureLog.readFully(mChannel, mBuffer, mFilePosition);
+        mFilePosition += read;
+
+        // A partial record can only be the (torn) end of the file.
+        int remainder = read % CaptureLog.RECORD_SIZE;
+
+        if (remainder != 0) {
+            mNumberOfCorruptRecords++;
+        }
+
+        mBuffer.limit(read - remainder);
+        mBufferOffset = 0;
+
+        if (read - remainder == 0) {
+            closeFile();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean openNextFile() throws IOException {
+        closeFile();
+
+        while (++mFileIndex < mFiles.length) {
+            File file = mFiles[mFileIndex];
+            mRandomAccessFile = new RandomAccessFile(file, "r");
+            mChannel = mRandomAccessFile.getChannel();
+
+            ByteBuffer header = mBuffer;
+            header.clear();
+            header.limit(CaptureLog.HEADER_SIZE);
+            int read = CaptureLog.readFully(mChannel, header, 0);
+
+            if (read == CaptureLog.HEADER_SIZE && CaptureLog.isValidHeader(header)) {
+                mFilePosition = CaptureLog.HEADER_SIZE;
+                mBuffer.limit(0);
+                mBufferOffset = 0;
+                return true;
+            }
+
+            closeFile();
+
+            // A file cut off before its header was written (crash) is just empty.
+            if (read == CaptureLog.HEADER_SIZE) {
+                throw new IOException("Not a capture file: " + file);
+            }
+        }
+        return false;
+    }
+
+    private void closeFile() throws IOException {
+        mBuffer.limit(0);
+        mBufferOffset = 0;
+
+        if (mRandomAccessFile == null) {
+            return;
+        }
+
+        RandomAccessFile randomAccessFile = mRandomAccessFile;
+        mRandomAccessFile = null;
+        mChannel = null;
+        randomAccessFile.close();
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends {@link RangingMeasurement}s to a {@link CaptureLog}. Records are encoded into a direct
+ * buffer and written to the file channel once it is full (or older than the flush interval), so
+ * appending doesn't allocate and costs one write per buffer instead of one per result. Since the
+ * age is only checked when a record is appended, the owner should also call {@link #flushIfDue()}
+ * every {@link #FLUSH_INTERVAL_MILLIS}, so the tail is written out when results stop coming. A new
+ * file is started whenever the current one would exceed the maximum file size.
+ *
+ * <p>Opening a writer repairs the tail of the newest existing file (see {@link
+ * CaptureLog#recover(FileChannel)}) and continues with the next sequence number. Not thread safe.
+ */
+public class CaptureLogWriter implements Closeable {
+
+    public static final long MAX_FILE_BYTES_DEFAULT = 16 * 1024 * 1024;
+    public static final int BUFFER_RECORDS_DEFAULT = 1024;
+
+    // Buffered records are written out at least this often.
+    public static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long FLUSH_INTERVAL_NANOS = FLUSH_INTERVAL_MILLIS * 1000000L;
+
+    private final File mDirectory;
+    private final String mPrefix;
+    private final long mMaxFileBytes;
+
+    private final ByteBuffer mBuffer;
+    private long mFirstBufferedNanos;
+
+    private int mSequence;
+    private File mFile;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private long mFileBytes;
+
+    private long mNumberOfRecords;
+    private int mNumberOfFiles;
+
+    public CaptureLogWriter(File directory, String prefix) throws IOException {
+        this(directory, prefix, MAX_FILE_BYTES_DEFAULT, BUFFER_RECORDS_DEFAULT);
+    }
+
+    public CaptureLogWriter(File directory, String prefix, long maxFileBytes, int bufferRecords)
+            throws IOException {
+        if (maxFileBytes < CaptureLog.HEADER_SIZE + CaptureLog.RECORD_SIZE) {
+            throw new IllegalArgumentException("maxFileBytes too small: " + maxFileBytes);
+        }
+
+        mDirectory = directory;
+        mPrefix = prefix;
+        mMaxFileBytes = maxFileBytes;
+        mBuffer =
+                ByteBuffer.allocateDirect(Math.max(1, bufferRecords) * CaptureLog.RECORD_SIZE)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+
+        File[] files = CaptureLog.listFiles(directory, prefix);
+
+        if (files.length > 0) {
+            File last = files[files.length - 1];
+            mSequence = CaptureLog.getSequence(prefix, last.getName());
+            recoverFile(last);
+        }
+
+        openNextFile();
+    }
+
+    public void append(RangingMeasurement measurement) throws IOException {
+        append(
+                measurement.getTimestampMillis(),
+                measurement.getBssid(),
+                measurement.getStatus(),
+                measurement.getDistanceMm(),
+                measurement.getDistanceStdDevMm(),
+                measurement.getRssi(),
+                measurement.getNumAttemptedMeasurements(),
+                measurement.getNumSuccessfulMeasurements());
+    }
+
+    public void append(
+            long timestampMillis,
+            long bssid,
+            int status,
+            int distanceMm,
+            int distanceStdDevMm,
+            int rssi,
+            int numAttemptedMeasurements,
+            int numSuccessfulMeasurements)
+            throws IOException {
+        if (mChannel == null) {
+            throw new IOException("Writer is closed");
+        }
+
+        if (!mBuffer.hasRemaining()) {
+            flush();
+        }
+
+        if (mBuffer.position() == 0) {
+            mFirstBufferedNanos = System.nanoTime();
+        }
+
+        CaptureLog.writeRecord(
+                mBuffer,
+                timestampMillis,
+                bssid,
+                status,
+                distanceMm,
+                distanceStdDevMm,
+                rssi,
+                numAttemptedMeasurements,
+                numSuccessfulMeasurements);
+        mNumberOfRecords++;
+
+        flushIfDue();
+    }
+
+    // Writes the buffered records if the oldest one is older than the flush interval.
+    public void flushIfDue() throws IOException {
+        if ((mBuffer.position() > 0)
+                && (System.nanoTime() - mFirstBufferedNanos >= FLUSH_INTERVAL_NANOS)) {
+            flush();
+        }
+    }
+
+    // Writes the buffered records to the file(s), rotating files as needed.
+    public void flush() throws IOException {
+        if (mChannel == null) {
+            return;
+        }
+
+        mBuffer.flip();
+
+        while (mBuffer.hasRemaining()) {
+            if (mFileBytes + CaptureLog.RECORD_SIZE > mMaxFileBytes) {
+                openNextFile();
+            }
+
+            // Only whole records that still fit into the current file.
+            int records =
+                    (int)
+                            Math.min(
+                                    mBuffer.remaining() / CaptureLog.RECORD_SIZE,
+                                    (mMaxFileBytes - mFileBytes) / CaptureLog.RECORD_SIZE);
+            int limit = mBuffer.limit();
+            mBuffer.limit(mBuffer.position() + records * CaptureLog.RECORD_SIZE);
+
+            while (mBuffer.hasRemaining()) {
+                mFileBytes += mChannel.write(mBuffer);
+            }
+            mBuffer.limit(limit);
+        }
+        mBuffer.clear();
+    }
+
+    // Flushes and forces the data to the storage device.
+    public void sync() throws IOException {
+        flush();
+
+        if (mChannel != null) {
+            mChannel.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChannel == null) {
+            return;
+        }
+
+        try {
+            sync();
+        } finally {
+            closeFile();
+        }
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public File getCurrentFile() {
+        return mFile;
+    }
+
+    // Number of records appended (including buffered ones) since the writer was opened.
+    public long getNumberOfRecords() {
+        return mNumberOfRecords;
+    }
+
+    // Number of files started since the writer was opened.
+    public int getNumberOfFiles() {
+        return mNumberOfFiles;
+    }
+
+    private void openNextFile() throws IOException {
+        closeFile();
+
+        mSequence++;
+        mFile = new File(mDirectory, CaptureLog.getFileName(mPrefix, mSequence));
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        mChannel.truncate(0);
+
+        ByteBuffer header = ByteBuffer.allocate(CaptureLog.HEADER_SIZE);
+        CaptureLog.writeHeader(header, System.currentTimeMillis());
+        header.flip();
+
+        while (header.hasRemaining()) {
+            mChannel.write(header);
+        }
+        mFileBytes = CaptureLog.HEADER_SIZE;
+        mNumberOfFiles++;
+    }
+
+    private void closeFile() throws IOException {
+        if (mChannel == null) {
+            return;
+        }
+
+        // Closing the file closes its channel too.
+        RandomAccessFile randomAccessFile = mRandomAccessFile;
+        mRandomAccessFile = null;
+        mChannel = null;
+        randomAccessFile.close();
+    }
+
+    private static void recoverFile(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+        try {
+            CaptureLog.recover(randomAccessFile.getChannel());
+        } catch (IOException e) {
+            // Crashed before the header was written, nothing to keep.
+            if (randomAccessFile.length() < CaptureLog.HEADER_SIZE) {
+                randomAccessFile.setLength(0);
+            } else {
+                throw e;
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
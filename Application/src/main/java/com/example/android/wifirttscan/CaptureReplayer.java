@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.io.IOException;
+
+/**
+ * Feeds the results of a recorded capture ({@link CaptureLogReader}) through the same {@link
+ * RangingResultProcessor} used for live ranging, either as fast as possible or paced by the
+ * recorded timestamps (real time, or faster / slower with a speed factor). Records are streamed
+ * one at a time, so captures of any size can be replayed. Android-free and not thread safe.
+ *
+ * <p>Every recorded result is replayed as a request for its BSSID followed by the result, so the
+ * per-peer request counts and success ratios match the ones seen live.
+ */
+public class CaptureReplayer {
+
+    // Replays without any pacing.
+    public static final double SPEED_MAX = 0;
+    public static final double SPEED_REAL_TIME = 1;
+
+    // Optional, called after every replayed result (index is -1 for unknown BSSIDs).
+    public interface Listener {
+        void onResult(RangingMeasurement measurement, int statisticsIndex);
+    }
+
+    private final CaptureLogReader mReader;
+    private final RangingResultProcessor mProcessor;
+    private final double mSpeed;
+    private Listener mListener;
+
+    private final RangingMeasurement mMeasurement = new RangingMeasurement();
+    private final long[] mRequestBssid = new long[1];
+
+    private boolean mStarted;
+    private long mStartNanos;
+    private long mLastNanos;
+
+    // Recorded time (first non-zero timestamp) and wall clock time pacing is relative to.
+    private long mBaseTimestampMillis;
+    private long mBaseNanos;
+    private long mNumberOfResults;
+
+    /*
+     * speed scales the recorded time (2 replays twice as fast as recorded), SPEED_MAX replays as
+     * fast as possible.
+     */
+    public CaptureReplayer(
+            CaptureLogReader reader, RangingResultProcessor processor, double speed) {
+        if (speed < 0) {
+            throw new IllegalArgumentException("speed < 0: " + speed);
+        }
+
+        mReader = reader;
+        mProcessor = processor;
+        mSpeed = speed;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /*
+     * Replays the next result, waiting for its (scaled) recorded time first unless replaying at
+     * SPEED_MAX. Returns false at the end of the capture.
+     */
+    public boolean replayNext() throws IOException, InterruptedException {
+        if (!mReader.next(mMeasurement)) {
+            return false;
+        }
+
+        if (!mStarted) {
+            mStarted = true;
+            mStartNanos = System.nanoTime();
+        }
+
+        if (mSpeed != SPEED_MAX) {
+            waitUntil(mMeasurement.getTimestampMillis());
+        }
+
+        mRequestBssid[0] = mMeasurement.getBssid();
+        mProcessor.onRangingRequest(mRequestBssid, 1);
+        int index = mProcessor.onRangingResult(mMeasurement);
+
+        if (mListener != null) {
+            mListener.onResult(mMeasurement, index);
+        }
+
+        mNumberOfResults++;
+        mLastNanos = System.nanoTime();
+        return true;
+    }
+
+    // Replays the rest of the capture, returns the number of results replayed by this call.
+    public long replayAll() throws IOException, InterruptedException {
+        long start = mNumberOfResults;
+
+        while (replayNext()) {
+            // All work is done in replayNext().
+        }
+        return mNumberOfResults - start;
+    }
+
+    public long getNumberOfResults() {
+        return mNumberOfResults;
+    }
+
+    // Wall clock time from the first to the last replayed result.
+    public long getElapsedNanos() {
+        return mStarted ? mLastNanos - mStartNanos : 0;
+    }
+
+    // Results replayed per second of wall clock time.
+    public double getResultsPerSecond() {
+        long elapsedNanos = getElapsedNanos();
+        return (elapsedNanos > 0) ? mNumberOfResults * 1e9 / elapsedNanos : 0;
+    }
+
+    /*
+     * Failed results recorded before they were timestamped have a timestamp of 0. They are replayed
+     * right away, and don't count as the start of the recorded time.
+     */
+    private void waitUntil(long timestampMillis) throws InterruptedException {
+        if (timestampMillis <= 0) {
+            return;
+        }
+
+        if (mBaseTimestampMillis <= 0) {
+            mBaseTimestampMillis = timestampMillis;
+            mBaseNanos = System.nanoTime();
+            return;
+        }
+
+        // Out of order timestamps are replayed right away instead of waiting a negative time.
+        long recordedMillis = Math.max(0, timestampMillis - mBaseTimestampMillis);
+        long dueNanos = mBaseNanos + (long) (recordedMillis * 1e6 / mSpeed);
+
+        // Results of the same request share a timestamp, so most calls don't sleep.
+        long delayNanos = dueNanos - System.nanoTime();
+
+        if (delayNanos >= 1000000) {
+            Thread.sleep(delayNanos / 1000000, (int) (delayNanos % 1000000));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Formats numbers and text into a reusable char buffer, e.g. for TextView#setText(char[], int,
+ * int), so updating the UI for every ranging result doesn't build temporary Strings. The buffer
+ * only grows (rarely, to the longest text formatted) and nothing else is allocated.
+ *
+ * <p>Views keep a reference to the chars they are given, so each view needs its own formatter.
+ */
+public class CharFormatter {
+
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000};
+
+    public static final int MAX_DECIMALS = POWERS_OF_TEN.length - 1;
+
+    private char[] mChars = new char[16];
+    private int mLength;
+
+    public CharFormatter clear() {
+        mLength = 0;
+        return this;
+    }
+
+    // The formatted text is in getChars()[0..length()).
+    public char[] getChars() {
+        return mChars;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    public CharFormatter append(char c) {
+        ensureCapacity(1);
+        mChars[mLength++] = c;
+        return this;
+    }
+
+    public CharFormatter append(String text) {
+        ensureCapacity(text.length());
+        text.getChars(0, text.length(), mChars, mLength);
+        mLength += text.length();
+        return this;
+    }
+
+    public CharFormatter append(long value) {
+        if (value < 0) {
+            append('-');
+
+            if (value == Long.MIN_VALUE) {
+                // Can't be negated; its last digit is 8.
+                appendDigits(-(value / 10), 0);
+                return append('8');
+            }
+            value = -value;
+        }
+        return appendDigits(value, 0);
+    }
+
+    // Appends value rounded to a fixed number of decimals (at most MAX_DECIMALS), the way
+    // Float#toString would show NaN and infinities.
+    public CharFormatter append(double value, int decimals) {
+        if ((decimals < 0) || (decimals > MAX_DECIMALS)) {
+            throw new IllegalArgumentException(decimals + " isn't a valid number of decimals.");
+        }
+
+        if (Double.isNaN(value)) {
+            return append("NaN");
+        } else if (Double.isInfinite(value)) {
+            return append((value > 0) ? "Infinity" : "-Infinity");
+        }
+
+        long scaled = Math.round(Math.abs(value) * POWERS_OF_TEN[decimals]);
+
+        if ((value < 0) && (scaled != 0)) {
+            append('-');
+        }
+        appendDigits(scaled / POWERS_OF_TEN[decimals], 0);
+
+        if (decimals > 0) {
+            append('.');
+            appendDigits(scaled % POWERS_OF_TEN[decimals], decimals);
+        }
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return new String(mChars, 0, mLength);
+    }
+
+    // Appends a non-negative value, zero padded to at least minDigits.
+    private CharFormatter appendDigits(long value, int minDigits) {
+        int digits = 1;
+
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        digits = Math.max(digits, minDigits);
+        ensureCapacity(digits);
+
+        for (int i = mLength + digits - 1; i >= mLength; i--) {
+            mChars[i] = (char) ('0' + (value % 10));
+            value /= 10;
+        }
+        mLength += digits;
+        return this;
+    }
+
+    private void ensureCapacity(int count) {
+        if (mLength + count > mChars.length) {
+            char[] chars = new char[Math.max(mChars.length * 2, mLength + count)];
+            System.arraycopy(mChars, 0, chars, 0, mLength);
+            mChars = chars;
+        }
+    }
+}
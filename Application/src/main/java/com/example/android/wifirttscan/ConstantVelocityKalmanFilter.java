@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Kalman filter with a constant velocity model (white noise acceleration) for 1 to 3 independent
+ * axes, used for ranges ({@link KalmanRangeFilter}) and position fixes. Each axis keeps its
+ * position, velocity and 2x2 covariance in primitive arrays, so updates don't allocate.
+ *
+ * <p>Measurements are gated: if the normalized innovation squared (summed over the axes) exceeds
+ * the gate, the measurement is rejected as an outlier. After {@link #MAX_CONSECUTIVE_REJECTIONS}
+ * rejections in a row the filter assumes a real jump and restarts at the next measurement.
+ * Android-free and not thread safe.
+ */
+public class ConstantVelocityKalmanFilter {
+
+    public static final int MAX_CONSECUTIVE_REJECTIONS = 3;
+
+    // Gaps longer than this (e.g. while ranging was paused) restart the filter.
+    private static final long MAX_GAP_MILLIS = 10000;
+
+    private final int mDimensions;
+    private final double mProcessNoise;
+    private final double mInitialVelocityVariance;
+    private final double mGate;
+
+    private final double[] mPosition;
+    private final double[] mVelocity;
+    private final double[] mP00;
+    private final double[] mP01;
+    private final double[] mP11;
+
+    private boolean mInitialized;
+    private long mLastTimestampMillis;
+    private int mConsecutiveRejections;
+    private int mNumberOfRejections;
+
+    /*
+     * processNoise is the spectral density of the acceleration (unit^2 / s^3),
+     * initialVelocityVariance the variance of the unknown velocity at the first measurement
+     * (unit^2 / s^2) and gate the maximum normalized innovation squared (chi-square with
+     * dimensions degrees of freedom, e.g. 9 for 3 sigma in 1D).
+     */
+    public ConstantVelocityKalmanFilter(
+            int dimensions, double processNoise, double initialVelocityVariance, double gate) {
+        if ((dimensions < 1) || (dimensions > 3)) {
+            throw new IllegalArgumentException("dimensions must be 1 to 3: " + dimensions);
+        }
+
+        mDimensions = dimensions;
+        mProcessNoise = processNoise;
+        mInitialVelocityVariance = initialVelocityVariance;
+        mGate = gate;
+
+        mPosition = new double[dimensions];
+        mVelocity = new double[dimensions];
+        mP00 = new double[dimensions];
+        mP01 = new double[dimensions];
+        mP11 = new double[dimensions];
+    }
+
+    public int getDimensions() {
+        return mDimensions;
+    }
+
+    public void reset() {
+        mInitialized = false;
+        mConsecutiveRejections = 0;
+        mNumberOfRejections = 0;
+    }
+
+    /*
+     * Adds a measurement of all axes with the same variance per axis. Returns false if it was
+     * rejected by the gate.
+     */
+    public boolean update(long timestampMillis, double[] measurement, double variance) {
+        long gapMillis = timestampMillis - mLastTimestampMillis;
+
+        if (!mInitialized
+                || (mConsecutiveRejections >= MAX_CONSECUTIVE_REJECTIONS)
+                || (gapMillis > MAX_GAP_MILLIS)
+                || (gapMillis < 0)) {
+            initialize(timestampMillis, measurement, variance);
+            return true;
+        }
+
+        predict(gapMillis / 1000.0);
+
+        double normalizedInnovationSquared = 0;
+
+        for (int i = 0; i < mDimensions; i++) {
+            double innovation = measurement[i] - mPosition[i];
+            normalizedInnovationSquared += innovation * innovation / (mP00[i] + variance);
+        }
+
+        if (normalizedInnovationSquared > mGate) {
+            // The prediction is kept, so time still moves on for the next measurement.
+            mLastTimestampMillis = timestampMillis;
+            mConsecutiveRejections++;
+            mNumberOfRejections++;
+            return false;
+        }
+
+        for (int i = 0; i < mDimensions; i++) {
+            double innovation = measurement[i] - mPosition[i];
+            double innovationVariance = mP00[i] + variance;
+            double gain0 = mP00[i] / innovationVariance;
+            double gain1 = mP01[i] / innovationVariance;
+
+            mPosition[i] += gain0 * innovation;
+            mVelocity[i] += gain1 * innovation;
+
+            mP11[i] -= gain1 * mP01[i];
+            mP01[i] *= 1 - gain0;
+            mP00[i] *= 1 - gain0;
+        }
+
+        mLastTimestampMillis = timestampMillis;
+        mConsecutiveRejections = 0;
+        return true;
+    }
+
+    // False until the first measurement.
+    public boolean isInitialized() {
+        return mInitialized;
+    }
+
+    public double getPosition(int axis) {
+        return mPosition[axis];
+    }
+
+    public double getVelocity(int axis) {
+        return mVelocity[axis];
+    }
+
+    // Variance of the position estimate of an axis.
+    public double getPositionVariance(int axis) {
+        return mP00[axis];
+    }
+
+    public int getNumberOfRejections() {
+        return mNumberOfRejections;
+    }
+
+    private void initialize(long timestampMillis, double[] measurement, double variance) {
+        for (int i = 0; i < mDimensions; i++) {
+            mPosition[i] = measurement[i];
+            mVelocity[i] = 0;
+            mP00[i] = variance;
+            mP01[i] = 0;
+            mP11[i] = mInitialVelocityVariance;
+        }
+
+        mInitialized = true;
+        mLastTimestampMillis = timestampMillis;
+        mConsecutiveRejections = 0;
+    }
+
+    // x = F x, P = F P F^T + Q for a step of dt seconds.
+    private void predict(double dt) {
+        double dt2 = dt * dt;
+        double q00 = mProcessNoise * dt2 * dt / 3;
+        double q01 = mProcessNoise * dt2 / 2;
+        double q11 = mProcessNoise * dt;
+
+        for (int i = 0; i < mDimensions; i++) {
+            mPosition[i] += mVelocity[i] * dt;
+
+            mP00[i] += 2 * dt * mP01[i] + dt2 * mP11[i] + q00;
+            mP01[i] += dt * mP11[i] + q01;
+            mP11[i] += q11;
+        }
+    }
+}
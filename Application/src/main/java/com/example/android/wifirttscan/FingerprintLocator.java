@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Locates the device in a {@link FingerprintMap} from the live ranges to its access points, with
+ * weighted k nearest neighbors: every fingerprint is scored by the squared mismatch of its
+ * distances (and, scaled, RSSIs) to the access points ranged now, and the position is the mean of
+ * the k best fingerprints, weighted by their inverse score. Works without any access point
+ * coordinates, where the {@link MultilaterationSolver} can't.
+ *
+ * <p>The search is exhaustive, but each fingerprint only reads the columns of the access points
+ * ranged now (looked up once by {@link #addRange}), and is abandoned as soon as its partial score
+ * exceeds the k-th best so far. A KD-tree wouldn't do better: there is one dimension per access
+ * point and most of them are missing at any fingerprint. Nothing is allocated after
+ * construction. Android-free and not thread safe.
+ *
+ * <p>Usage: {@link #clear()}, {@link #addRange} for every access point with a result, {@link
+ * #locate()}.
+ */
+public class FingerprintLocator {
+
+    // Fewer matched access points can't tell fingerprints on a circle apart.
+    public static final int MIN_RANGES = 2;
+
+    // An access point ranged now but not seen at a fingerprint costs as much as a distance
+    // mismatch of this many meters.
+    private static final float MISSING_PENALTY_METERS = 5;
+
+    // An RSSI mismatch of this many dB costs as much as 1 m of distance mismatch.
+    private static final float RSSI_DB_PER_METER = 6;
+
+    // Keeps the weight of an exact match finite (meters^2).
+    private static final double MIN_COST = 0.01;
+
+    private final FingerprintMap mMap;
+    private final int mK;
+
+    // Live ranges: column in the map, distance (cm) and RSSI.
+    private final int[] mColumns;
+    private final int[] mDistancesCm;
+    private final int[] mRssis;
+    private int mRangeCount;
+
+    // The best fingerprints so far, by ascending cost (sum of squared mismatches, meters^2).
+    private final int[] mNeighbors;
+    private final double[] mNeighborCosts;
+    private int mNeighborCount;
+
+    private boolean mValid;
+    private double mX;
+    private double mY;
+    private double mZ;
+    private double mAccuracy;
+    private double mMatchRms;
+
+    public FingerprintLocator(FingerprintMap map, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException(k + " isn't a valid number of neighbors.");
+        }
+
+        mMap = map;
+        mK = k;
+        mColumns = new int[map.getBssidCount()];
+        mDistancesCm = new int[map.getBssidCount()];
+        mRssis = new int[map.getBssidCount()];
+        mNeighbors = new int[k];
+        mNeighborCosts = new double[k];
+    }
+
+    public FingerprintMap getMap() {
+        return mMap;
+    }
+
+    // Removes all ranges.
+    public void clear() {
+        mRangeCount = 0;
+    }
+
+    public int getRangeCount() {
+        return mRangeCount;
+    }
+
+    /*
+     * Adds the live range to an access point. Returns false (and ignores the range) if the access
+     * point wasn't seen in the survey or was already added.
+     */
+    public boolean addRange(long bssid, int distanceMm, int rssi) {
+        int column = mMap.indexOfBssid(bssid);
+
+        if (column < 0) {
+            return false;
+        }
+
+        for (int i = 0; i < mRangeCount; i++) {
+            if (mColumns[i] == column) {
+                return false;
+            }
+        }
+
+        mColumns[mRangeCount] = column;
+        mDistancesCm[mRangeCount] = (distanceMm + 5) / 10;
+        mRssis[mRangeCount] = rssi;
+        mRangeCount++;
+        return true;
+    }
+
+    // Finds the nearest fingerprints, returns false if there are too few ranges or fingerprints.
+    public boolean locate() {
+        mValid = false;
+        mNeighborCount = 0;
+
+        int pointCount = mMap.getPointCount();
+
+        if ((mRangeCount < MIN_RANGES) || (pointCount == 0)) {
+            return false;
+        }
+
+        double worstCost = Double.POSITIVE_INFINITY;
+
+        for (int point = 0; point < pointCount; point++) {
+            double cost = 0;
+
+            for (int i = 0; (i < mRangeCount) && (cost < worstCost); i++) {
+                cost += getMismatch(point, i);
+            }
+
+            if (cost < worstCost) {
+                insertNeighbor(point, cost);
+
+                if (mNeighborCount == mK) {
+                    worstCost = mNeighborCosts[mK - 1];
+                }
+            }
+        }
+
+        estimatePosition();
+        mValid = true;
+        return true;
+    }
+
+    // True if the last locate() succeeded.
+    public boolean isValid() {
+        return mValid;
+    }
+
+    public double getX() {
+        return mX;
+    }
+
+    public double getY() {
+        return mY;
+    }
+
+    public double getZ() {
+        return mZ;
+    }
+
+    /*
+     * Rough one sigma accuracy (meters): the weighted spread of the neighbors around the
+     * position, combined with the mismatch of the best one.
+     */
+    public double getAccuracy() {
+        return mAccuracy;
+    }
+
+    // Root mean square mismatch per range of the best fingerprint (meters).
+    public double getMatchRms() {
+        return mMatchRms;
+    }
+
+    public int getNeighborCount() {
+        return mNeighborCount;
+    }
+
+    // Index (in the map) of the i-th best fingerprint of the last locate().
+    public int getNeighbor(int i) {
+        return mNeighbors[i];
+    }
+
+    // Squared mismatch (meters^2) of the i-th live range at a fingerprint.
+    private double getMismatch(int point, int i) {
+        int column = mColumns[i];
+        int distanceCm = mMap.getDistanceCm(point, column);
+
+        if (distanceCm == FingerprintMap.MISSING_DISTANCE) {
+            return MISSING_PENALTY_METERS * MISSING_PENALTY_METERS;
+        }
+
+        float distanceMismatch = (mDistancesCm[i] - distanceCm) * 0.01f;
+        float mismatch = distanceMismatch * distanceMismatch;
+        int rssi = mMap.getRssi(point, column);
+
+        if (rssi != FingerprintMap.MISSING_RSSI) {
+            float rssiMismatch = (mRssis[i] - rssi) / RSSI_DB_PER_METER;
+            mismatch += rssiMismatch * rssiMismatch;
+        }
+        return mismatch;
+    }
+
+    // Inserts into the sorted neighbors, dropping the worst one when there are already k.
+    private void insertNeighbor(int point, double cost) {
+        int i = (mNeighborCount < mK) ? mNeighborCount++ : mK - 1;
+
+        while ((i > 0) && (mNeighborCosts[i - 1] > cost)) {
+            mNeighbors[i] = mNeighbors[i - 1];
+            mNeighborCosts[i] = mNeighborCosts[i - 1];
+            i--;
+        }
+        mNeighbors[i] = point;
+        mNeighborCosts[i] = cost;
+    }
+
+    private void estimatePosition() {
+        double weightSum = 0;
+        double x = 0;
+        double y = 0;
+        double z = 0;
+
+        for (int i = 0; i < mNeighborCount; i++) {
+            int point = mNeighbors[i];
+            double weight = 1 / Math.max(MIN_COST, mNeighborCosts[i]);
+
+            weightSum += weight;
+            x += weight * mMap.getX(point);
+            y += weight * mMap.getY(point);
+            z += weight * mMap.getZ(point);
+        }
+
+        mX = x / weightSum;
+        mY = y / weightSum;
+        mZ = z / weightSum;
+
+        double spread = 0;
+
+        for (int i = 0; i < mNeighborCount; i++) {
+            int point = mNeighbors[i];
+            double weight = 1 / Math.max(MIN_COST, mNeighborCosts[i]);
+            double dx = mMap.getX(point) - mX;
+            double dy = mMap.getY(point) - mY;
+            double dz = mMap.getZ(point) - mZ;
+
+            spread += weight * (dx * dx + dy * dy + dz * dz);
+        }
+
+        mMatchRms = Math.sqrt(mNeighborCosts[0] / mRangeCount);
+        mAccuracy = Math.sqrt(spread / weightSum + mMatchRms * mMatchRms);
+    }
+}
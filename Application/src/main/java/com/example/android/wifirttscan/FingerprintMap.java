@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only map of surveyed fingerprints: positions (meters, in any local frame) with the RTT
+ * distance and RSSI to every access point seen there. Written by {@link FingerprintMapWriter},
+ * searched by {@link FingerprintLocator}.
+ *
+ * <p>The file is memory-mapped, so opening it reads nothing up front and only the pages a search
+ * touches are paged in. All values are little endian:
+ *
+ * <pre>
+ *  header       int magic, short version, short 0, int BSSID count (b), int point count (p)
+ *  BSSIDs       b longs (packed, ascending)
+ *  positions    p * 3 floats (x, y, z)
+ *  distances    p * b unsigned shorts (cm), {@link #MISSING_DISTANCE} if not seen
+ *  RSSIs        p * b bytes (dBm), {@link #MISSING_RSSI} if not seen
+ * </pre>
+ *
+ * <p>Thread safe (only absolute reads of an immutable buffer).
+ */
+public class FingerprintMap {
+
+    // "RTTF"
+    public static final int MAGIC = 0x46545452;
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 16;
+
+    // Stored as unsigned shorts of centimeters, so distances are clamped to MAX_DISTANCE_MM.
+    public static final int MISSING_DISTANCE = 0xFFFF;
+    public static final int MAX_DISTANCE_MM = (MISSING_DISTANCE - 1) * 10;
+    public static final int MISSING_RSSI = Byte.MAX_VALUE;
+
+    private final ByteBuffer mBuffer;
+    private final int mBssidCount;
+    private final int mPointCount;
+
+    private final int mPositionsOffset;
+    private final int mDistancesOffset;
+    private final int mRssisOffset;
+
+    // Maps file read-only. Throws an IOException if it isn't a (complete) fingerprint map.
+    public static FingerprintMap open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+
+            // The mapping stays valid after the channel is closed.
+            return new FingerprintMap(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    // Reads a map from buffer (from position 0), which must not be modified afterwards.
+    public FingerprintMap(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        if ((mBuffer.limit() < HEADER_SIZE)
+                || (mBuffer.getInt(0) != MAGIC)
+                || (mBuffer.getShort(4) != VERSION)) {
+            throw new IOException("Not a fingerprint map");
+        }
+
+        mBssidCount = mBuffer.getInt(8);
+        mPointCount = mBuffer.getInt(12);
+
+        long positionsOffset = HEADER_SIZE + 8L * mBssidCount;
+        long distancesOffset = positionsOffset + 12L * mPointCount;
+        long rssisOffset = distancesOffset + 2L * mPointCount * mBssidCount;
+        long size = rssisOffset + (long) mPointCount * mBssidCount;
+
+        if ((mBssidCount < 0) || (mPointCount < 0) || (size != mBuffer.limit())) {
+            throw new IOException("Truncated or corrupt fingerprint map");
+        }
+
+        mPositionsOffset = (int) positionsOffset;
+        mDistancesOffset = (int) distancesOffset;
+        mRssisOffset = (int) rssisOffset;
+    }
+
+    // Size in bytes of a map with the given dimensions.
+    public static long getSize(int bssidCount, int pointCount) {
+        return HEADER_SIZE + 8L * bssidCount + 12L * pointCount + 3L * pointCount * bssidCount;
+    }
+
+    public int getBssidCount() {
+        return mBssidCount;
+    }
+
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    public long getBssid(int column) {
+        return mBuffer.getLong(HEADER_SIZE + 8 * column);
+    }
+
+    // Column of bssid, or -1 if it wasn't seen in the survey (binary search).
+    public int indexOfBssid(long bssid) {
+        int low = 0;
+        int high = mBssidCount - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long value = getBssid(middle);
+
+            if (value < bssid) {
+                low = middle + 1;
+            } else if (value > bssid) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    public float getX(int point) {
+        return mBuffer.getFloat(mPositionsOffset + 12 * point);
+    }
+
+    public float getY(int point) {
+        return mBuffer.getFloat(mPositionsOffset + 12 * point + 4);
+    }
+
+    public float getZ(int point) {
+        return mBuffer.getFloat(mPositionsOffset + 12 * point + 8);
+    }
+
+    // Distance in cm, or MISSING_DISTANCE.
+    public int getDistanceCm(int point, int column) {
+        return mBuffer.getShort(mDistancesOffset + 2 * (point * mBssidCount + column)) & 0xFFFF;
+    }
+
+    // RSSI in dBm, or MISSING_RSSI.
+    public int getRssi(int point, int column) {
+        return mBuffer.get(mRssisOffset + point * mBssidCount + column);
+    }
+
+    @Override
+    public String toString() {
+        return "FingerprintMap{points: "
+                + mPointCount
+                + ", BSSIDs: "
+                + mBssidCount
+                + ", bytes: "
+                + mBuffer.limit()
+                + "}";
+    }
+
+    // Writes the dimensions into the first HEADER_SIZE bytes of buffer (little endian).
+    static void writeHeader(ByteBuffer buffer, int bssidCount, int pointCount) {
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, (short) VERSION);
+        buffer.putShort(6, (short) 0);
+        buffer.putInt(8, bssidCount);
+        buffer.putInt(12, pointCount);
+    }
+}
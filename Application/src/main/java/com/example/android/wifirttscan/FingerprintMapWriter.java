@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Collects fingerprints (a surveyed position and the ranges measured there) in memory and writes
+ * them as a {@link FingerprintMap}. An existing map can be added first, so a survey can be
+ * continued over several sessions. Not thread safe.
+ *
+ * <p>Usage: {@link #beginFingerprint} with the position, {@link #addRange} for every access
+ * point seen, then {@link #write(File)} once all fingerprints are in.
+ */
+public class FingerprintMapWriter {
+
+    private int mPointCount;
+    private float[] mPositions = new float[3 * 16];
+
+    // Ranges of point i start at mRangeStarts[i] and end where those of the next point start (the
+    // last ones at mRangeCount).
+    private int[] mRangeStarts = new int[16];
+    private int mRangeCount;
+    private long[] mBssids = new long[64];
+    private int[] mDistancesMm = new int[64];
+    private int[] mRssis = new int[64];
+
+    public int getNumberOfFingerprints() {
+        return mPointCount;
+    }
+
+    // Adds all fingerprints of map.
+    public void addAll(FingerprintMap map) {
+        int bssidCount = map.getBssidCount();
+
+        for (int point = 0; point < map.getPointCount(); point++) {
+            beginFingerprint(map.getX(point), map.getY(point), map.getZ(point));
+
+            for (int column = 0; column < bssidCount; column++) {
+                int distanceCm = map.getDistanceCm(point, column);
+
+                if (distanceCm != FingerprintMap.MISSING_DISTANCE) {
+                    addRange(map.getBssid(column), distanceCm * 10, map.getRssi(point, column));
+                }
+            }
+        }
+    }
+
+    // Starts a fingerprint at (x, y, z) meters; the following ranges belong to it.
+    public void beginFingerprint(float x, float y, float z) {
+        if (mPointCount == mRangeStarts.length) {
+            mRangeStarts = Arrays.copyOf(mRangeStarts, mPointCount * 2);
+            mPositions = Arrays.copyOf(mPositions, mPointCount * 2 * 3);
+        }
+
+        mPositions[3 * mPointCount] = x;
+        mPositions[3 * mPointCount + 1] = y;
+        mPositions[3 * mPointCount + 2] = z;
+        mRangeStarts[mPointCount] = mRangeCount;
+        mPointCount++;
+    }
+
+    /*
+     * Adds the distance and RSSI of an access point to the last fingerprint. If a BSSID is added
+     * twice, the last range is kept.
+     */
+    public void addRange(long bssid, int distanceMm, int rssi) {
+        if (mPointCount == 0) {
+            throw new IllegalStateException("beginFingerprint() wasn't called");
+        }
+
+        if (mRangeCount == mBssids.length) {
+            int capacity = mRangeCount * 2;
+            mBssids = Arrays.copyOf(mBssids, capacity);
+            mDistancesMm = Arrays.copyOf(mDistancesMm, capacity);
+            mRssis = Arrays.copyOf(mRssis, capacity);
+        }
+
+        mBssids[mRangeCount] = bssid;
+        mDistancesMm[mRangeCount] = distanceMm;
+        mRssis[mRangeCount] = rssi;
+        mRangeCount++;
+    }
+
+    // Returns the map in a heap buffer (see FingerprintMap for the format).
+    public ByteBuffer toByteBuffer() {
+        long[] bssids = sortedUnique(mBssids, mRangeCount);
+        int bssidCount = bssids.length;
+
+        long size = FingerprintMap.getSize(bssidCount, mPointCount);
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many fingerprints: " + mPointCount);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        FingerprintMap.writeHeader(buffer, bssidCount, mPointCount);
+        buffer.position(FingerprintMap.HEADER_SIZE);
+
+        for (int i = 0; i < bssidCount; i++) {
+            buffer.putLong(bssids[i]);
+        }
+
+        for (int i = 0; i < 3 * mPointCount; i++) {
+            buffer.putFloat(mPositions[i]);
+        }
+
+        int distancesOffset = buffer.position();
+        int rssisOffset = distancesOffset + 2 * mPointCount * bssidCount;
+
+        // Every cell starts out missing, then the ranges of each point are filled in.
+        for (int i = 0; i < mPointCount * bssidCount; i++) {
+            buffer.putShort((short) FingerprintMap.MISSING_DISTANCE);
+        }
+
+        for (int i = 0; i < mPointCount * bssidCount; i++) {
+            buffer.put((byte) FingerprintMap.MISSING_RSSI);
+        }
+
+        for (int point = 0; point < mPointCount; point++) {
+            int end = (point + 1 < mPointCount) ? mRangeStarts[point + 1] : mRangeCount;
+
+            for (int i = mRangeStarts[point]; i < end; i++) {
+                int cell = point * bssidCount + Arrays.binarySearch(bssids, mBssids[i]);
+                int distanceMm =
+                        Math.max(0, Math.min(FingerprintMap.MAX_DISTANCE_MM, mDistancesMm[i]));
+                int rssi =
+                        Math.max(
+                                Byte.MIN_VALUE,
+                                Math.min(FingerprintMap.MISSING_RSSI - 1, mRssis[i]));
+
+                buffer.putShort(distancesOffset + 2 * cell, (short) ((distanceMm + 5) / 10));
+                buffer.put(rssisOffset + cell, (byte) rssi);
+            }
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /*
+     * Writes the map to file. It is written to a temporary file first and renamed, so readers
+     * never see a partial map.
+     */
+    public void write(File file) throws IOException {
+        ByteBuffer buffer = toByteBuffer();
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(temporaryFile, "rw");
+
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            channel.truncate(0);
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            throw new IOException("Can't rename " + temporaryFile + " to " + file);
+        }
+    }
+
+    private static long[] sortedUnique(long[] values, int count) {
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+
+        int unique = 0;
+
+        for (int i = 0; i < count; i++) {
+            if ((unique == 0) || (sorted[unique - 1] != sorted[i])) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, unique);
+    }
+}
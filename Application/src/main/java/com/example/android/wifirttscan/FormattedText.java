@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import android.widget.TextView;
+
+/**
+ * A TextView with its own {@link CharFormatter}, for text updated on every frame: format with
+ * {@link #clear()} and the append methods it returns, then {@link #show()}. The view keeps a
+ * reference to the chars it shows, which is why the formatter can't be shared.
+ */
+public final class FormattedText {
+    private final TextView mTextView;
+    private final CharFormatter mFormatter = new CharFormatter();
+
+    public FormattedText(TextView textView) {
+        mTextView = textView;
+    }
+
+    public CharFormatter clear() {
+        return mFormatter.clear();
+    }
+
+    public void show() {
+        mTextView.setText(mFormatter.getChars(), 0, mFormatter.length());
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative long values (e.g. latencies) with HDR-style log-linear
+ * buckets: values below 2^precisionBits get a bucket each, larger values get 2^(precisionBits - 1)
+ * buckets per power of two, so every value is recorded within a relative error of 2^(1 -
+ * precisionBits) with a fixed, small number of buckets. Values above the maximum are clamped.
+ *
+ * <p>{@link #record(long)} is wait-free apart from the CAS loop of the maximum and can be called
+ * from any thread; {@link #copyTo(HistogramSnapshot)} takes a (weakly consistent) copy for
+ * reading.
+ */
+public class Histogram {
+
+    private final int mPrecisionBits;
+    private final long mMaxValue;
+
+    private final AtomicLongArray mCounts;
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public Histogram(long maxValue, int precisionBits) {
+        if ((precisionBits < 1) || (precisionBits > 16)) {
+            throw new IllegalArgumentException(precisionBits + " isn't a valid precision.");
+        }
+
+        mPrecisionBits = precisionBits;
+        mMaxValue = maxValue;
+        mCounts = new AtomicLongArray(bucketOf(maxValue, precisionBits) + 1);
+    }
+
+    public long getMaxValue() {
+        return mMaxValue;
+    }
+
+    public int getPrecisionBits() {
+        return mPrecisionBits;
+    }
+
+    public int getBucketCount() {
+        return mCounts.length();
+    }
+
+    public void record(long value) {
+        value = Math.max(0, Math.min(mMaxValue, value));
+
+        mCounts.incrementAndGet(bucketOf(value, mPrecisionBits));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+
+        long max = mMax.get();
+
+        while ((value > max) && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    // Not atomic with concurrent record() calls; values recorded meanwhile may be kept or lost.
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /*
+     * Copies the histogram into out (reusing its buckets when they fit). Concurrent record() calls
+     * may or may not be included, so the total count is recomputed from the copied buckets.
+     */
+    public void copyTo(HistogramSnapshot out) {
+        long[] counts = out.prepare(mCounts.length(), mPrecisionBits);
+        long count = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mCounts.get(i);
+            count += counts[i];
+        }
+        out.setTotals(count, mSum.get(), mMax.get());
+    }
+
+    // Bucket of a value, see the class comment.
+    static int bucketOf(long value, int precisionBits) {
+        if (value < (1L << precisionBits)) {
+            return (int) value;
+        }
+
+        // Shifts the value into [2^(precisionBits - 1), 2^precisionBits).
+        int shift = 64 - Long.numberOfLeadingZeros(value) - precisionBits;
+        return (shift << (precisionBits - 1)) + (int) (value >>> shift);
+    }
+
+    // Smallest value of a bucket.
+    static long lowestValueOf(int bucket, int precisionBits) {
+        int halfCount = 1 << (precisionBits - 1);
+
+        if (bucket < 2 * halfCount) {
+            return bucket;
+        }
+
+        int shift = bucket / halfCount - 1;
+        long subBucket = bucket % halfCount + halfCount;
+        return subBucket << shift;
+    }
+
+    // Largest value of a bucket.
+    static long highestValueOf(int bucket, int precisionBits) {
+        return lowestValueOf(bucket + 1, precisionBits) - 1;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Plain copy of a {@link Histogram} for reading: count, mean, max and quantiles. Snapshots are
+ * reusable and can be merged. Not thread safe.
+ */
+public class HistogramSnapshot {
+
+    private long[] mCounts = new long[0];
+    private int mBucketCount;
+    private int mPrecisionBits = 1;
+
+    private long mCount;
+    private long mSum;
+    private long mMax;
+
+    // Sizes the buckets for a copy and returns them (called by Histogram).
+    long[] prepare(int bucketCount, int precisionBits) {
+        if (mCounts.length != bucketCount) {
+            mCounts = new long[bucketCount];
+        }
+        mBucketCount = bucketCount;
+        mPrecisionBits = precisionBits;
+        return mCounts;
+    }
+
+    void setTotals(long count, long sum, long max) {
+        mCount = count;
+        mSum = sum;
+        mMax = max;
+    }
+
+    public void clear() {
+        for (int i = 0; i < mBucketCount; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mSum = 0;
+        mMax = 0;
+    }
+
+    // Adds the values of other, which must come from a histogram with the same buckets.
+    public void add(HistogramSnapshot other) {
+        // An empty snapshot takes the buckets of the first one added.
+        if ((mCount == 0)
+                && ((other.mBucketCount != mBucketCount)
+                        || (other.mPrecisionBits != mPrecisionBits))) {
+            prepare(other.mBucketCount, other.mPrecisionBits);
+            clear();
+        }
+
+        if ((other.mBucketCount != mBucketCount) || (other.mPrecisionBits != mPrecisionBits)) {
+            throw new IllegalArgumentException("Histograms have different buckets.");
+        }
+
+        for (int i = 0; i < mBucketCount; i++) {
+            mCounts[i] += other.mCounts[i];
+        }
+        mCount += other.mCount;
+        mSum += other.mSum;
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getSum() {
+        return mSum;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public double getMean() {
+        return (mCount == 0) ? 0 : (double) mSum / mCount;
+    }
+
+    /*
+     * Value at quantile q (0 to 1): the highest value of the bucket holding it, capped by the
+     * maximum recorded value. 0 if empty.
+     */
+    public long getValueAtQuantile(double q) {
+        if (mCount == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(q * mCount));
+        long seen = 0;
+
+        for (int i = 0; i < mBucketCount; i++) {
+            seen += mCounts[i];
+
+            if (seen >= rank) {
+                return Math.min(mMax, Histogram.highestValueOf(i, mPrecisionBits));
+            }
+        }
+        return mMax;
+    }
+
+    public int getBucketCount() {
+        return mBucketCount;
+    }
+
+    public long getCountInBucket(int bucket) {
+        return mCounts[bucket];
+    }
+
+    // Highest value counted in a bucket.
+    public long getBucketUpperBound(int bucket) {
+        return Histogram.highestValueOf(bucket, mPrecisionBits);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * {@link RangeFilter} tracking distance and its rate of change with a {@link
+ * ConstantVelocityKalmanFilter}. Each distance is weighted by its reported standard deviation and
+ * gated against it, so single multipath spikes are dropped. Unlike a moving average, it follows a
+ * walking user with little lag and settles down when they stand still.
+ */
+public class KalmanRangeFilter implements RangeFilter {
+
+    // Acceleration noise of a walking user (about 1 m/s^2), in mm^2 / s^3.
+    public static final double PROCESS_NOISE_DEFAULT = 1e6;
+
+    // Walking speed is unknown at the first distance, up to about 2 m/s.
+    private static final double INITIAL_VELOCITY_VARIANCE = 2000.0 * 2000.0;
+
+    // 3 sigma.
+    private static final double GATE = 9;
+
+    // Reported standard deviations can be 0; no distance is trusted more than this.
+    private static final int MIN_STD_DEV_MM = 100;
+
+    public static final Factory FACTORY =
+            new Factory() {
+                @Override
+                public RangeFilter create() {
+                    return new KalmanRangeFilter(PROCESS_NOISE_DEFAULT);
+                }
+            };
+
+    private final ConstantVelocityKalmanFilter mFilter;
+    private final double[] mMeasurement = new double[1];
+
+    public KalmanRangeFilter(double processNoise) {
+        mFilter =
+                new ConstantVelocityKalmanFilter(1, processNoise, INITIAL_VELOCITY_VARIANCE, GATE);
+    }
+
+    @Override
+    public void reset() {
+        mFilter.reset();
+    }
+
+    @Override
+    public boolean update(long timestampMillis, int distanceMm, int distanceStdDevMm) {
+        double stdDevMm = Math.max(MIN_STD_DEV_MM, distanceStdDevMm);
+        mMeasurement[0] = distanceMm;
+        return mFilter.update(timestampMillis, mMeasurement, stdDevMm * stdDevMm);
+    }
+
+    @Override
+    public boolean hasEstimate() {
+        return mFilter.isInitialized();
+    }
+
+    @Override
+    public double getDistanceMm() {
+        return mFilter.getPosition(0);
+    }
+
+    // Rate of change of the distance (mm/s, positive when moving away).
+    public double getVelocityMmPerSecond() {
+        return mFilter.getVelocity(0);
+    }
+
+    @Override
+    public int getNumberOfRejections() {
+        return mFilter.getNumberOfRejections();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Converts MAC addresses (BSSIDs) between the "aa:bb:cc:dd:ee:ff" string form and a packed long
+ * (lower 48 bits), so they can be compared and stored without allocating Strings.
+ */
+public final class MacAddressUtils {
+
+    public static final long INVALID_MAC_ADDRESS = -1;
+
+    private static final int MAC_ADDRESS_LENGTH = 6;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private MacAddressUtils() {}
+
+    // Returns the packed form of macAddress, or INVALID_MAC_ADDRESS if it can't be parsed.
+    public static long toLong(String macAddress) {
+        if ((macAddress == null) || (macAddress.length() != MAC_ADDRESS_LENGTH * 3 - 1)) {
+            return INVALID_MAC_ADDRESS;
+        }
+
+        long packed = 0;
+
+        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
+            int high = Character.digit(macAddress.charAt(i * 3), 16);
+            int low = Character.digit(macAddress.charAt(i * 3 + 1), 16);
+
+            if ((high < 0) || (low < 0) || ((i > 0) && (macAddress.charAt(i * 3 - 1) != ':'))) {
+                return INVALID_MAC_ADDRESS;
+            }
+
+            packed = (packed << 8) | (high << 4) | low;
+        }
+        return packed;
+    }
+
+    public static long toLong(byte[] macAddress) {
+        if ((macAddress == null) || (macAddress.length != MAC_ADDRESS_LENGTH)) {
+            return INVALID_MAC_ADDRESS;
+        }
+
+        long packed = 0;
+
+        for (byte octet : macAddress) {
+            packed = (packed << 8) | (octet & 0xff);
+        }
+        return packed;
+    }
+
+    public static String toString(long macAddress) {
+        char[] chars = new char[MAC_ADDRESS_LENGTH * 3 - 1];
+        toChars(macAddress, chars, 0);
+        return new String(chars);
+    }
+
+    // Writes the string form of macAddress (17 chars) into buffer at offset.
+    public static void toChars(long macAddress, char[] buffer, int offset) {
+        for (int i = 0; i < MAC_ADDRESS_LENGTH; i++) {
+            int octet = (int) (macAddress >>> ((MAC_ADDRESS_LENGTH - 1 - i) * 8)) & 0xff;
+            int position = offset + i * 3;
+
+            if (i > 0) {
+                buffer[position - 1] = ':';
+            }
+            buffer[position] = HEX_DIGITS[octet >>> 4];
+            buffer[position + 1] = HEX_DIGITS[octet & 0xf];
+        }
+    }
+}
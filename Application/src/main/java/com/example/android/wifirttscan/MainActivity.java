@@ -15,20 +15,15 @@
  */
 package com.example.android.wifirttscan;
 
+import static com.example.android.wifirttscan.AccessPointRangingResultsActivity.ACCESS_POINTS_EXTRA;
 import static com.example.android.wifirttscan.AccessPointRangingResultsActivity.SCAN_RESULT_EXTRA;
 
 import android.Manifest.permission;
-import android.annotation.SuppressLint;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.net.wifi.ScanResult;
-import android.net.wifi.WifiManager;
 import android.net.wifi.rtt.RangingRequest;
 import android.os.Bundle;
-import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
@@ -42,27 +37,41 @@ import com.example.android.wifirttscan.MyAdapter.ScanResultClickListener;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Displays list of Access Points enabled with WifiRTT (to check distance). Requests location
  * permissions if they are not approved via secondary splash screen explaining why they are needed.
+ * Scanning is left to the {@link WifiScanScheduler}, which keeps the list fresh in the background
+ * and within the platform scan throttling.
  */
 public class MainActivity extends AppCompatActivity implements ScanResultClickListener {
 
     private static final String TAG = "MainActivity";
 
+    // Batched ranging gets up to this many requests worth of access points.
+    private static final int BATCHED_REQUESTS_PER_ROTATION = 4;
+
     private boolean mLocationPermissionApproved = false;
 
     List<ScanResult> mAccessPointsSupporting80211mc;
 
-    private WifiManager mWifiManager;
-    private WifiScanReceiver mWifiScanReceiver;
+    private WifiScanScheduler mWifiScanScheduler;
+    private boolean mWifiScanSchedulerStarted;
 
     private TextView mOutputTextView;
     private RecyclerView mRecyclerView;
 
     private MyAdapter mAdapter;
 
+    private final WifiScanScheduler.Listener mAccessPointsListener =
+            new WifiScanScheduler.Listener() {
+                @Override
+                public void onAccessPointsChanged() {
+                    showAccessPoints();
+                }
+            };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -84,8 +93,13 @@ public class MainActivity extends AppCompatActivity implements ScanResultClickLi
         mAdapter = new MyAdapter(mAccessPointsSupporting80211mc, this);
         mRecyclerView.setAdapter(mAdapter);
 
-        mWifiManager = (WifiManager) getSystemService(Context.WIFI_SERVICE);
-        mWifiScanReceiver = new WifiScanReceiver();
+        mWifiScanScheduler = WifiScanScheduler.getInstance(this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mAdapter.release();
     }
 
     @Override
@@ -97,15 +111,27 @@ public class MainActivity extends AppCompatActivity implements ScanResultClickLi
                 ActivityCompat.checkSelfPermission(this, permission.ACCESS_FINE_LOCATION)
                         == PackageManager.PERMISSION_GRANTED;
 
-        registerReceiver(
-                mWifiScanReceiver, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+        if (mLocationPermissionApproved) {
+            mWifiScanScheduler.addListener(mAccessPointsListener);
+            mWifiScanScheduler.start();
+            mWifiScanSchedulerStarted = true;
+            showAccessPoints();
+        } else {
+            // TODO (jewalker): Add Snackbar regarding permissions
+            Log.d(TAG, "Permissions not allowed.");
+        }
     }
 
     @Override
     protected void onPause() {
         Log.d(TAG, "onPause()");
         super.onPause();
-        unregisterReceiver(mWifiScanReceiver);
+
+        if (mWifiScanSchedulerStarted) {
+            mWifiScanScheduler.stop();
+            mWifiScanScheduler.removeListener(mAccessPointsListener);
+            mWifiScanSchedulerStarted = false;
+        }
     }
 
     private void logToUi(final String message) {
@@ -121,13 +147,30 @@ public class MainActivity extends AppCompatActivity implements ScanResultClickLi
 
         Intent intent = new Intent(this, AccessPointRangingResultsActivity.class);
         intent.putExtra(SCAN_RESULT_EXTRA, scanResult);
+        // Allows the ranging activity to batch the best ranked RTT capable access points; when
+        // there are more than fit in one request, the session picks the peers of every request.
+        ArrayList<ScanResult> accessPoints = new ArrayList<>();
+        ScanResultCache.getInstance()
+                .getRanked80211mcResponders(
+                        BATCHED_REQUESTS_PER_ROTATION * RangingRequest.getMaxPeers(),
+                        accessPoints);
+        intent.putParcelableArrayListExtra(ACCESS_POINTS_EXTRA, accessPoints);
         startActivity(intent);
     }
 
     public void onClickFindDistancesToAccessPoints(View view) {
         if (mLocationPermissionApproved) {
-            logToUi(getString(R.string.retrieving_access_points));
-            mWifiManager.startScan();
+            if (mWifiScanScheduler.requestScan()) {
+                // The list only changes (through the listener) if the access points change.
+                logToUi(getString(R.string.retrieving_access_points));
+                showAccessPoints();
+            } else {
+                logToUi(
+                        getString(
+                                R.string.scan_throttled_message,
+                                TimeUnit.MILLISECONDS.toSeconds(
+                                        mWifiScanScheduler.getMillisUntilNextScan())));
+            }
 
         } else {
             // On 23+ (M+) devices, fine location permission not granted. Request permission.
@@ -136,49 +179,20 @@ public class MainActivity extends AppCompatActivity implements ScanResultClickLi
         }
     }
 
-    private class WifiScanReceiver extends BroadcastReceiver {
-
-        private List<ScanResult> find80211mcSupportedAccessPoints(
-                @NonNull List<ScanResult> originalList) {
-            List<ScanResult> newList = new ArrayList<>();
+    // Lists all RTT capable access points seen recently, best ranked first.
+    private void showAccessPoints() {
+        ScanResultCache scanResultCache = ScanResultCache.getInstance();
+        scanResultCache.getRanked80211mcResponders(
+                Integer.MAX_VALUE, mAccessPointsSupporting80211mc);
 
-            for (ScanResult scanResult : originalList) {
+        mAdapter.swapData(mAccessPointsSupporting80211mc);
 
-                if (scanResult.is80211mcResponder()) {
-                    newList.add(scanResult);
-                }
-
-                if (newList.size() >= RangingRequest.getMaxPeers()) {
-                    break;
-                }
-            }
-            return newList;
-        }
-
-        // This is checked via mLocationPermissionApproved boolean
-        @SuppressLint("MissingPermission")
-        public void onReceive(Context context, Intent intent) {
-
-            List<ScanResult> scanResults = mWifiManager.getScanResults();
-
-            if (scanResults != null) {
-
-                if (mLocationPermissionApproved) {
-                    mAccessPointsSupporting80211mc = find80211mcSupportedAccessPoints(scanResults);
-
-                    mAdapter.swapData(mAccessPointsSupporting80211mc);
-
-                    logToUi(
-                            scanResults.size()
-                                    + " APs discovered, "
-                                    + mAccessPointsSupporting80211mc.size()
-                                    + " RTT capable.");
-
-                } else {
-                    // TODO (jewalker): Add Snackbar regarding permissions
-                    Log.d(TAG, "Permissions not allowed.");
-                }
-            }
+        if (scanResultCache.size() > 0) {
+            logToUi(
+                    scanResultCache.size()
+                            + " APs discovered, "
+                            + mAccessPointsSupporting80211mc.size()
+                            + " RTT capable.");
         }
     }
 }
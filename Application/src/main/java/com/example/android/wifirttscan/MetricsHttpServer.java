@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Minimal HTTP/1.x server for Prometheus scrapes: answers "GET /metrics" (and "HEAD") with the
+ * text rendered by a {@link Renderer}, anything else with 404. Connections are served one at a
+ * time on a single background thread and closed after every response, which is all a scraper
+ * needs. The response buffers are reused, so a steady state scrape only allocates the socket.
+ *
+ * <p>Android-free, so it can be run (and scraped) on any JVM.
+ */
+public class MetricsHttpServer {
+
+    public static final String METRICS_PATH = "/metrics";
+
+    // Slow or stuck clients are dropped after this long.
+    private static final int SOCKET_TIMEOUT_MILLIS = 2000;
+
+    // Longest request head read; anything longer is answered as it is.
+    private static final int MAX_REQUEST_BYTES = 4096;
+
+    private static final int INITIAL_RESPONSE_BYTES = 16 * 1024;
+
+    // Called on the server thread to render a page.
+    public interface Renderer {
+        void render(PrometheusTextWriter writer);
+    }
+
+    private final Renderer mRenderer;
+
+    // Only used on the server thread.
+    private final byte[] mRequest = new byte[MAX_REQUEST_BYTES];
+    private final PrometheusTextWriter mBody = new PrometheusTextWriter(INITIAL_RESPONSE_BYTES);
+
+    private ServerSocket mServerSocket;
+    private Thread mThread;
+
+    private volatile int mNumberOfScrapes;
+    private volatile int mNumberOfErrors;
+
+    public MetricsHttpServer(Renderer renderer) {
+        mRenderer = renderer;
+    }
+
+    /*
+     * Starts listening on address (e.g. the loopback address, so only adb forwarding or local
+     * processes can scrape) and port (0 picks a free one, see getPort()).
+     */
+    public synchronized void start(InetAddress address, int port) throws IOException {
+        if (mServerSocket != null) {
+            throw new IllegalStateException("Already started.");
+        }
+
+        final ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(address, port));
+        mServerSocket = serverSocket;
+
+        mThread =
+                new Thread("MetricsHttpServer") {
+                    @Override
+                    public void run() {
+                        serve(serverSocket);
+                    }
+                };
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    // Stops listening and waits for the response in progress (if any).
+    public void stop() throws InterruptedException {
+        Thread thread;
+
+        synchronized (this) {
+            if (mServerSocket == null) {
+                return;
+            }
+
+            try {
+                mServerSocket.close();
+            } catch (IOException e) {
+                // Closing anyway.
+            }
+            mServerSocket = null;
+            thread = mThread;
+            mThread = null;
+        }
+        thread.join();
+    }
+
+    // Port listened on, or -1 if not started.
+    public synchronized int getPort() {
+        return (mServerSocket == null) ? -1 : mServerSocket.getLocalPort();
+    }
+
+    // Metrics pages served.
+    public int getNumberOfScrapes() {
+        return mNumberOfScrapes;
+    }
+
+    // Connections that failed (e.g. timed out or reset).
+    public int getNumberOfErrors() {
+        return mNumberOfErrors;
+    }
+
+    private void serve(ServerSocket serverSocket) {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // Closed by stop() (or broken, in which case there is nothing left to do).
+                return;
+            }
+
+            try {
+                socket.setSoTimeout(SOCKET_TIMEOUT_MILLIS);
+                respond(socket.getInputStream(), socket.getOutputStream());
+            } catch (IOException e) {
+                mNumberOfErrors++;
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Nothing to do.
+                }
+            }
+        }
+    }
+
+    private void respond(InputStream in, OutputStream out) throws IOException {
+        int length = readRequestHead(in);
+
+        boolean head = startsWith(mRequest, length, "HEAD ");
+        int pathStart = head ? 5 : 4;
+
+        if (!head && !startsWith(mRequest, length, "GET ")) {
+            writeHead(out, "405 Method Not Allowed", 0);
+            return;
+        }
+
+        if (!isMetricsPath(pathStart, length)) {
+            writeHead(out, "404 Not Found", 0);
+            return;
+        }
+
+        mBody.clear();
+        mRenderer.render(mBody);
+        mNumberOfScrapes++;
+
+        writeHead(out, "200 OK", mBody.length());
+
+        if (!head) {
+            mBody.writeTo(out);
+        }
+        out.flush();
+    }
+
+    // Reads until the empty line ending the request head (or the buffer is full).
+    private int readRequestHead(InputStream in) throws IOException {
+        int length = 0;
+
+        while (length < mRequest.length) {
+            int count = in.read(mRequest, length, mRequest.length - length);
+
+            if (count < 0) {
+                break;
+            }
+            length += count;
+
+            if (endsHead(length)) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    // True once the head ends with an empty line ("\r\n\r\n", or "\n\n" from lax clients).
+    private boolean endsHead(int length) {
+        for (int i = 1; i < length; i++) {
+            if (mRequest[i] != '\n') {
+                continue;
+            }
+
+            int previous = (mRequest[i - 1] == '\r') ? i - 2 : i - 1;
+
+            if ((previous >= 0) && (mRequest[previous] == '\n')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // True for "/metrics", optionally followed by a query, before the protocol version.
+    private boolean isMetricsPath(int start, int length) {
+        int end = start + METRICS_PATH.length();
+
+        if ((end > length) || !regionMatches(mRequest, start, METRICS_PATH)) {
+            return false;
+        }
+        return (end == length) || (mRequest[end] == ' ') || (mRequest[end] == '?');
+    }
+
+    private static void writeHead(OutputStream out, String status, int contentLength)
+            throws IOException {
+        String head =
+                "HTTP/1.1 "
+                        + status
+                        + "\r\nContent-Type: "
+                        + PrometheusTextWriter.CONTENT_TYPE
+                        + "\r\nContent-Length: "
+                        + contentLength
+                        + "\r\nConnection: close\r\n\r\n";
+        out.write(head.getBytes("US-ASCII"));
+    }
+
+    private static boolean startsWith(byte[] bytes, int length, String prefix) {
+        return (prefix.length() <= length) && regionMatches(bytes, 0, prefix);
+    }
+
+    private static boolean regionMatches(byte[] bytes, int offset, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (bytes[offset + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
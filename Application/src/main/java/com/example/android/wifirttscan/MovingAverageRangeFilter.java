@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * {@link RangeFilter} averaging the last window size distances (the boxcar mean shown as
+ * "Range-mean"), as a baseline for other filters. Never rejects a distance.
+ */
+public class MovingAverageRangeFilter implements RangeFilter {
+
+    private final RangeStatistics mStatistics;
+
+    public MovingAverageRangeFilter(int windowSize) {
+        mStatistics = new RangeStatistics(windowSize);
+    }
+
+    @Override
+    public void reset() {
+        mStatistics.reset(mStatistics.getWindowSize());
+    }
+
+    @Override
+    public boolean update(long timestampMillis, int distanceMm, int distanceStdDevMm) {
+        mStatistics.add(distanceMm);
+        return true;
+    }
+
+    @Override
+    public boolean hasEstimate() {
+        return mStatistics.getCount() > 0;
+    }
+
+    @Override
+    public double getDistanceMm() {
+        return mStatistics.getMean();
+    }
+
+    @Override
+    public int getNumberOfRejections() {
+        return 0;
+    }
+}
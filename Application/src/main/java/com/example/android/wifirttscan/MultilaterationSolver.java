@@ -0,0 +1,508 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Solves for the device position from ranges to access points with known coordinates (anchors),
+ * using weighted Gauss-Newton least squares. Each range is weighted by 1 / sigma^2, where sigma is
+ * the reported standard deviation of the distance, inflated for weak signals (low RSSI), so noisy
+ * and far away access points pull less on the fix.
+ *
+ * <p>A fix is only returned if the iterations converged and the residuals fit the sigmas (a
+ * stationary point that doesn't explain the ranges, e.g. a local minimum on the wrong side of the
+ * anchors, is rejected). Its accuracy is the covariance of the position scaled by the posterior
+ * variance of the ranges, so ranges that disagree more than their sigmas widen it.
+ *
+ * <p>Works in 2D (x, y; anchor heights are ignored) or 3D and needs at least dimensions + 1
+ * anchors. All state lives in arrays allocated up front for the maximum number of anchors, so
+ * {@link #solve()} doesn't allocate. Android-free and not thread safe.
+ *
+ * <p>Usage: {@link #clear()}, {@link #addRange} for every anchor with a result, {@link #solve()}.
+ */
+public class MultilaterationSolver {
+
+    static final int MAX_ITERATIONS = 20;
+
+    // A step that increases the cost is halved up to this many times.
+    private static final int MAX_STEP_HALVINGS = 8;
+
+    /*
+     * Stop once a step moves the position less than CONVERGENCE_METERS, or less than 1% of a sigma
+     * of the position (step^T J^T W J step below CONVERGENCE_DECREMENT). Along weakly determined
+     * axes Gauss-Newton zigzags in slowly shrinking steps, long after the cost stopped changing.
+     */
+    private static final double CONVERGENCE_METERS = 1e-4;
+    private static final double CONVERGENCE_DECREMENT = 1e-4;
+
+    // Reported standard deviations can be 0; no range is trusted more than this (meters).
+    private static final double MIN_SIGMA_METERS = 0.1;
+
+    // Sigma grows by 100% for every RSSI_SCALE_DBM below RSSI_REFERENCE_DBM.
+    private static final int RSSI_REFERENCE_DBM = -60;
+    private static final double RSSI_SCALE_DBM = 20;
+
+    /*
+     * Fixes whose weighted residual sum of squares per degree of freedom (the posterior variance of
+     * the ranges relative to their sigmas) is above this are rejected: the RMS residual is more
+     * than 4 sigma.
+     */
+    static final double MAX_POSTERIOR_VARIANCE = 16;
+
+    /*
+     * The normal equations are degenerate (e.g. collinear anchors in 2D, or a position on their
+     * line) if a pivot of their factorization is below this fraction of their trace: the position
+     * is undetermined along some axis.
+     */
+    private static final double MIN_PIVOT_RATIO = 1e-6;
+
+    private final int mDimensions;
+    private final int mMaxAnchors;
+
+    // Anchor coordinates, measured distances and weights (meters, 1 / meters^2).
+    private final double[] mAnchors;
+    private final double[] mDistances;
+    private final double[] mWeights;
+    private int mAnchorCount;
+
+    // Position estimate (and the one before the last step), normal matrix J^T W J, its Cholesky
+    // factor and right hand side / step.
+    private final double[] mPosition;
+    private final double[] mPreviousPosition;
+    private final double[] mNormal;
+    private final double[] mCholesky;
+    private final double[] mStep;
+
+    private boolean mHasInitialPosition;
+    private boolean mValid;
+    private int mIterations;
+    private double mResidualRms;
+    private double mPosteriorVariance;
+    private double mAccuracy;
+
+    public MultilaterationSolver(int maxAnchors, boolean threeDimensional) {
+        mDimensions = threeDimensional ? 3 : 2;
+        mMaxAnchors = maxAnchors;
+
+        mAnchors = new double[maxAnchors * mDimensions];
+        mDistances = new double[maxAnchors];
+        mWeights = new double[maxAnchors];
+
+        mPosition = new double[mDimensions];
+        mPreviousPosition = new double[mDimensions];
+        mNormal = new double[mDimensions * mDimensions];
+        mCholesky = new double[mDimensions * mDimensions];
+        mStep = new double[mDimensions];
+    }
+
+    public int getDimensions() {
+        return mDimensions;
+    }
+
+    public int getMaxAnchors() {
+        return mMaxAnchors;
+    }
+
+    // Removes all ranges (keeps the last position, see setInitialPosition()).
+    public void clear() {
+        mAnchorCount = 0;
+    }
+
+    public int getAnchorCount() {
+        return mAnchorCount;
+    }
+
+    /*
+     * Adds the range to an anchor at (x, y, z) meters (z is ignored in 2D). Returns false (and
+     * ignores the range) if the maximum number of anchors was already added.
+     */
+    public boolean addRange(
+            double x, double y, double z, int distanceMm, int distanceStdDevMm, int rssi) {
+        if (mAnchorCount == mMaxAnchors) {
+            return false;
+        }
+
+        int offset = mAnchorCount * mDimensions;
+        mAnchors[offset] = x;
+        mAnchors[offset + 1] = y;
+
+        if (mDimensions == 3) {
+            mAnchors[offset + 2] = z;
+        }
+
+        double sigma = Math.max(MIN_SIGMA_METERS, distanceStdDevMm / 1000.0);
+
+        if (rssi < RSSI_REFERENCE_DBM) {
+            sigma *= 1 + (RSSI_REFERENCE_DBM - rssi) / RSSI_SCALE_DBM;
+        }
+
+        mDistances[mAnchorCount] = distanceMm / 1000.0;
+        mWeights[mAnchorCount] = 1 / (sigma * sigma);
+        mAnchorCount++;
+        return true;
+    }
+
+    /*
+     * Starts the next solve() from this position instead of the weighted centroid of the anchors.
+     * Set automatically by every successful solve(), so consecutive fixes converge faster.
+     */
+    public void setInitialPosition(double x, double y, double z) {
+        mPosition[0] = x;
+        mPosition[1] = y;
+
+        if (mDimensions == 3) {
+            mPosition[2] = z;
+        }
+        mHasInitialPosition = true;
+    }
+
+    public void clearInitialPosition() {
+        mHasInitialPosition = false;
+    }
+
+    /*
+     * Solves for the position. Returns false if there are too few or degenerate anchors, if the
+     * iterations don't converge, or if the residuals at the solution are too large for the sigmas.
+     */
+    public boolean solve() {
+        mValid = false;
+        mIterations = 0;
+
+        if (mAnchorCount <= mDimensions) {
+            return false;
+        }
+
+        if (!mHasInitialPosition) {
+            setCentroid();
+        }
+
+        int n = mDimensions;
+        boolean converged = false;
+
+        while (mIterations < MAX_ITERATIONS) {
+            mIterations++;
+            double cost = buildNormalEquations();
+
+            if (!factorize()) {
+                mHasInitialPosition = false;
+                return false;
+            }
+
+            // Gauss-Newton step: (J^T W J) step = -J^T W r.
+            solveInPlace(mStep);
+
+            System.arraycopy(mPosition, 0, mPreviousPosition, 0, n);
+            double stepSquared = 0;
+
+            for (int i = 0; i < n; i++) {
+                stepSquared += mStep[i] * mStep[i];
+            }
+
+            // Full steps can overshoot with poor anchor geometry; back off until the cost drops.
+            for (int halvings = 0; ; halvings++) {
+                for (int i = 0; i < n; i++) {
+                    mPosition[i] = mPreviousPosition[i] + mStep[i];
+                }
+
+                if ((cost() <= cost) || (halvings == MAX_STEP_HALVINGS)) {
+                    break;
+                }
+
+                for (int i = 0; i < n; i++) {
+                    mStep[i] *= 0.5;
+                }
+                stepSquared *= 0.25;
+            }
+
+            if ((stepSquared < CONVERGENCE_METERS * CONVERGENCE_METERS)
+                    || (decrement() < CONVERGENCE_DECREMENT)) {
+                converged = true;
+                break;
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (Double.isNaN(mPosition[i]) || Double.isInfinite(mPosition[i])) {
+                converged = false;
+            }
+        }
+
+        if (!converged) {
+            mHasInitialPosition = false;
+            return false;
+        }
+
+        // Factor and residuals at the final position, for the accuracy estimate.
+        double cost = buildNormalEquations();
+        mResidualRms = residualRms();
+        mPosteriorVariance = cost / (mAnchorCount - n);
+
+        if ((mPosteriorVariance > MAX_POSTERIOR_VARIANCE) || !factorize()) {
+            mHasInitialPosition = false;
+            return false;
+        }
+
+        /*
+         * The covariance (J^T W J)^-1 only reflects the geometry and the sigmas. Scaled by the
+         * posterior variance, it grows when the ranges disagree more than their sigmas. It isn't
+         * scaled down when they agree better: with few degrees of freedom the estimate is too noisy
+         * to trust over the reported sigmas.
+         */
+        mAccuracy = Math.sqrt(Math.max(1, mPosteriorVariance) * traceOfInverse());
+
+        mHasInitialPosition = true;
+        mValid = true;
+        return true;
+    }
+
+    // True if the last solve() succeeded.
+    public boolean isValid() {
+        return mValid;
+    }
+
+    public double getX() {
+        return mPosition[0];
+    }
+
+    public double getY() {
+        return mPosition[1];
+    }
+
+    // 0 in 2D.
+    public double getZ() {
+        return (mDimensions == 3) ? mPosition[2] : 0;
+    }
+
+    public int getIterations() {
+        return mIterations;
+    }
+
+    // Root mean square of the range residuals at the solution (meters).
+    public double getResidualRms() {
+        return mResidualRms;
+    }
+
+    /*
+     * Weighted residual sum of squares per degree of freedom at the solution (1 if the residuals
+     * match the sigmas).
+     */
+    public double getPosteriorVariance() {
+        return mPosteriorVariance;
+    }
+
+    // Square root of the trace of the scaled position covariance (meters, one sigma).
+    public double getAccuracy() {
+        return mAccuracy;
+    }
+
+    private void setCentroid() {
+        int n = mDimensions;
+        double weightSum = 0;
+
+        for (int i = 0; i < n; i++) {
+            mPosition[i] = 0;
+        }
+
+        for (int a = 0; a < mAnchorCount; a++) {
+            weightSum += mWeights[a];
+
+            for (int i = 0; i < n; i++) {
+                mPosition[i] += mWeights[a] * mAnchors[a * n + i];
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            mPosition[i] /= weightSum;
+        }
+    }
+
+    /*
+     * Fills mNormal with J^T W J and mStep with -J^T W r at the current position, returns the
+     * cost (sum of w r^2).
+     */
+    private double buildNormalEquations() {
+        int n = mDimensions;
+
+        for (int i = 0; i < n * n; i++) {
+            mNormal[i] = 0;
+        }
+
+        for (int i = 0; i < n; i++) {
+            mStep[i] = 0;
+        }
+
+        double cost = 0;
+
+        for (int a = 0; a < mAnchorCount; a++) {
+            int offset = a * n;
+
+            double dx = mPosition[0] - mAnchors[offset];
+            double dy = mPosition[1] - mAnchors[offset + 1];
+            double dz = (n == 3) ? mPosition[2] - mAnchors[offset + 2] : 0;
+            double range = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+            // On top of an anchor the direction is undefined; any unit vector will do.
+            if (range < 1e-9) {
+                range = 1e-9;
+                dx = range;
+            }
+
+            double residual = range - mDistances[a];
+            double weight = mWeights[a];
+            cost += weight * residual * residual;
+
+            double jx = dx / range;
+            double jy = dy / range;
+            double jz = dz / range;
+
+            mNormal[0] += weight * jx * jx;
+            mNormal[1] += weight * jx * jy;
+            mStep[0] -= weight * jx * residual;
+            mStep[1] -= weight * jy * residual;
+
+            if (n == 2) {
+                mNormal[3] += weight * jy * jy;
+            } else {
+                mNormal[2] += weight * jx * jz;
+                mNormal[4] += weight * jy * jy;
+                mNormal[5] += weight * jy * jz;
+                mNormal[8] += weight * jz * jz;
+                mStep[2] -= weight * jz * residual;
+            }
+        }
+
+        // Only the upper triangle was accumulated.
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < i; j++) {
+                mNormal[i * n + j] = mNormal[j * n + i];
+            }
+        }
+        return cost;
+    }
+
+    // step^T J^T W J step for the (last) step in mStep.
+    private double decrement() {
+        int n = mDimensions;
+        double decrement = 0;
+
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                decrement += mStep[i] * mNormal[i * n + j] * mStep[j];
+            }
+        }
+        return decrement;
+    }
+
+    // Cost (sum of w r^2) at the current position.
+    private double cost() {
+        double cost = 0;
+
+        for (int a = 0; a < mAnchorCount; a++) {
+            double residual = rangeTo(a) - mDistances[a];
+            cost += mWeights[a] * residual * residual;
+        }
+        return cost;
+    }
+
+    private double residualRms() {
+        double sum = 0;
+
+        for (int a = 0; a < mAnchorCount; a++) {
+            double residual = rangeTo(a) - mDistances[a];
+            sum += residual * residual;
+        }
+        return Math.sqrt(sum / mAnchorCount);
+    }
+
+    // Distance from the current position to anchor a.
+    private double rangeTo(int a) {
+        int offset = a * mDimensions;
+        double sum = 0;
+
+        for (int i = 0; i < mDimensions; i++) {
+            double d = mPosition[i] - mAnchors[offset + i];
+            sum += d * d;
+        }
+        return Math.sqrt(sum);
+    }
+
+    // Cholesky factorization of mNormal into mCholesky (lower), false if (nearly) degenerate.
+    private boolean factorize() {
+        int n = mDimensions;
+        double trace = 0;
+
+        for (int i = 0; i < n; i++) {
+            trace += mNormal[i * n + i];
+        }
+
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                double sum = mNormal[i * n + j];
+
+                for (int k = 0; k < j; k++) {
+                    sum -= mCholesky[i * n + k] * mCholesky[j * n + k];
+                }
+
+                if (i == j) {
+                    if (!(sum > MIN_PIVOT_RATIO * trace)) {
+                        return false;
+                    }
+                    mCholesky[i * n + i] = Math.sqrt(sum);
+                } else {
+                    mCholesky[i * n + j] = sum / mCholesky[j * n + j];
+                }
+            }
+        }
+        return true;
+    }
+
+    // Solves L L^T x = b in place, with L in mCholesky.
+    private void solveInPlace(double[] b) {
+        int n = mDimensions;
+
+        for (int i = 0; i < n; i++) {
+            double sum = b[i];
+
+            for (int k = 0; k < i; k++) {
+                sum -= mCholesky[i * n + k] * b[k];
+            }
+            b[i] = sum / mCholesky[i * n + i];
+        }
+
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = b[i];
+
+            for (int k = i + 1; k < n; k++) {
+                sum -= mCholesky[k * n + i] * b[k];
+            }
+            b[i] = sum / mCholesky[i * n + i];
+        }
+    }
+
+    // Trace of (J^T W J)^-1, one column at a time (uses mStep as scratch).
+    private double traceOfInverse() {
+        int n = mDimensions;
+        double trace = 0;
+
+        for (int column = 0; column < n; column++) {
+            for (int i = 0; i < n; i++) {
+                mStep[i] = (i == column) ? 1 : 0;
+            }
+            solveInPlace(mStep);
+            trace += mStep[column];
+        }
+        return trace;
+    }
+}
@@ -16,6 +16,10 @@
 package com.example.android.wifirttscan;
 
 import android.net.wifi.ScanResult;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.RecyclerView.ViewHolder;
 import android.view.LayoutInflater;
@@ -23,11 +27,20 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Displays the ssid and bssid from a list of {@link ScanResult}s including a header at the top of
  * the {@link RecyclerView} to label the data.
+ *
+ * <p>New lists are diffed against the displayed one (keyed by BSSID) on a background thread, and
+ * only the rows that were inserted, removed, moved or changed are notified. Access points whose
+ * displayed and ranging fields didn't change keep their previous {@link ScanResult}, so their rows
+ * aren't rebound.
  */
 public class MyAdapter extends RecyclerView.Adapter<ViewHolder> {
     private static final int HEADER_POSITION = 0;
@@ -37,10 +50,41 @@ public class MyAdapter extends RecyclerView.Adapter<ViewHolder> {
 
     private static ScanResultClickListener sScanResultClickListener;
 
+    // Replaced (never modified) on the main thread, so diffs can read it on the diff thread.
     private List<ScanResult> mWifiAccessPointsWithRtt;
 
+    private final ExecutorService mDiffExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Incremented by every swapData(), so only the diff of the latest list is applied.
+    private int mGeneration;
+
+    // Positions in the diff don't include the header.
+    private final ListUpdateCallback mListUpdateCallback =
+            new ListUpdateCallback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    notifyItemRangeInserted(position + 1, count);
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    notifyItemRangeRemoved(position + 1, count);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    notifyItemMoved(fromPosition + 1, toPosition + 1);
+                }
+
+                @Override
+                public void onChanged(int position, int count, Object payload) {
+                    notifyItemRangeChanged(position + 1, count, payload);
+                }
+            };
+
     public MyAdapter(List<ScanResult> list, ScanResultClickListener scanResultClickListener) {
-        mWifiAccessPointsWithRtt = list;
+        mWifiAccessPointsWithRtt = new ArrayList<>(list);
         sScanResultClickListener = scanResultClickListener;
     }
 
@@ -63,20 +107,57 @@ public class MyAdapter extends RecyclerView.Adapter<ViewHolder> {
 
         @Override
         public void onClick(View view) {
-            sScanResultClickListener.onScanResultItemClick(getItem(getAdapterPosition()));
+            int position = getAdapterPosition();
+
+            // The row is being removed by an update.
+            if (position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            sScanResultClickListener.onScanResultItemClick(getItem(position));
         }
     }
 
+    /*
+     * Shows list (copied, so the caller may reuse it) once it has been diffed against the current
+     * one. Must be called on the main thread.
+     */
     public void swapData(List<ScanResult> list) {
 
-        // Always clear with any update, as even an empty list means no WifiRtt devices were found.
-        mWifiAccessPointsWithRtt.clear();
+        // Always replace with any update, as even an empty list means no WifiRtt devices were
+        // found.
+        final List<ScanResult> oldList = mWifiAccessPointsWithRtt;
+        final List<ScanResult> newList =
+                (list != null) ? new ArrayList<>(list) : new ArrayList<ScanResult>();
+        final int generation = ++mGeneration;
 
-        if ((list != null) && (list.size() > 0)) {
-            mWifiAccessPointsWithRtt.addAll(list);
-        }
+        mDiffExecutor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        final DiffUtil.DiffResult diffResult =
+                                DiffUtil.calculateDiff(
+                                        new ScanResultDiffCallback(oldList, newList));
+
+                        mMainHandler.post(
+                                new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        // A newer list is being diffed against the same old one.
+                                        if (generation != mGeneration) {
+                                            return;
+                                        }
+                                        mWifiAccessPointsWithRtt = newList;
+                                        diffResult.dispatchUpdatesTo(mListUpdateCallback);
+                                    }
+                                });
+                    }
+                });
+    }
 
-        notifyDataSetChanged();
+    // Stops the diff thread; the adapter must not be updated afterwards.
+    public void release() {
+        mDiffExecutor.shutdown();
+        mMainHandler.removeCallbacksAndMessages(null);
     }
 
     @Override
@@ -143,6 +224,57 @@ public class MyAdapter extends RecyclerView.Adapter<ViewHolder> {
         }
     }
 
+    /*
+     * Matches access points by BSSID. Unchanged ones are replaced by their old ScanResult in the
+     * new list (only touched on the diff thread until the list is published).
+     */
+    private static class ScanResultDiffCallback extends DiffUtil.Callback {
+        private final List<ScanResult> mOldList;
+        private final List<ScanResult> mNewList;
+
+        ScanResultDiffCallback(List<ScanResult> oldList, List<ScanResult> newList) {
+            mOldList = oldList;
+            mNewList = newList;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldList.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewList.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return Objects.equals(
+                    mOldList.get(oldItemPosition).BSSID, mNewList.get(newItemPosition).BSSID);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            ScanResult oldScanResult = mOldList.get(oldItemPosition);
+            ScanResult newScanResult = mNewList.get(newItemPosition);
+
+            // Displayed fields, plus the ones RangingRequest uses.
+            boolean same =
+                    Objects.equals(oldScanResult.SSID, newScanResult.SSID)
+                            && (oldScanResult.frequency == newScanResult.frequency)
+                            && (oldScanResult.centerFreq0 == newScanResult.centerFreq0)
+                            && (oldScanResult.centerFreq1 == newScanResult.centerFreq1)
+                            && (oldScanResult.channelWidth == newScanResult.channelWidth)
+                            && (oldScanResult.is80211mcResponder()
+                                    == newScanResult.is80211mcResponder());
+
+            if (same) {
+                mNewList.set(newItemPosition, oldScanResult);
+            }
+            return same;
+        }
+    }
+
     // Used to inform the class containing the RecyclerView that one of the ScanResult items in the
     // list was clicked.
     public interface ScanResultClickListener {
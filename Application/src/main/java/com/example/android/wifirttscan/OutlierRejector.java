@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Streaming outlier and NLOS rejection for the successful measurements of one peer, applied by
+ * its {@link AccessPointStatistics} before a measurement reaches any statistics or the {@link
+ * RangeFilter}. Every measurement goes through these stages, in order:
+ *
+ * <ol>
+ *   <li>{@link #STAGE_INVALID}: negative distance or standard deviation (always on).
+ *   <li>{@link #STAGE_BURST}: too few of the measurements in the burst succeeded.
+ *   <li>{@link #STAGE_STD_DEV}: the reported standard deviation is too large.
+ *   <li>{@link #STAGE_HAMPEL}: Hampel filter, the distance is more than a threshold of scaled
+ *       median absolute deviations (MAD) from the median of the last few distances (multipath
+ *       spikes).
+ *   <li>{@link #STAGE_RSSI}: the RSSI is stronger than free space path loss allows at the
+ *       distance, so the path was probably longer than the direct one (NLOS). As RSSIs aren't
+ *       calibrated, these are only down-weighted: accepted, with a larger standard deviation for
+ *       the range filter.
+ * </ol>
+ *
+ * <p>The Hampel window sees every measurement that passed the first three stages (rejected or
+ * not), so a real step in distance is accepted once it fills half the window. All stages are O(1)
+ * per measurement except the Hampel stage, which is O(window size): adding to the window keeps a
+ * sorted copy, and its median absolute deviation is a merge over it (see {@link RangeStatistics}).
+ * With the default window of 9 that is a few dozen steps. Nothing is allocated after
+ * construction. Rejections are counted per stage. Android-free and not thread safe.
+ */
+public class OutlierRejector {
+
+    public static final int STAGE_INVALID = 0;
+    public static final int STAGE_BURST = 1;
+    public static final int STAGE_STD_DEV = 2;
+    public static final int STAGE_HAMPEL = 3;
+    public static final int STAGE_RSSI = 4;
+    public static final int STAGE_COUNT = 5;
+
+    // Outcomes of check().
+    public static final int ACCEPTED = 0;
+    public static final int DOWN_WEIGHTED = 1;
+    public static final int REJECTED = 2;
+
+    // Down-weighted measurements reach the range filter with this much larger standard deviation.
+    public static final int DOWN_WEIGHT_STD_DEV_FACTOR = 3;
+
+    public static final int HAMPEL_WINDOW_DEFAULT = 9;
+    public static final float HAMPEL_THRESHOLD_DEFAULT = 3;
+    public static final float MIN_BURST_SUCCESS_RATIO_DEFAULT = 0.25f;
+    public static final int MAX_STD_DEV_MM_DEFAULT = 2000;
+    public static final int RSSI_MARGIN_DB_DEFAULT = 10;
+
+    // Creates a rejector for every new peer.
+    public interface Factory {
+        OutlierRejector create();
+    }
+
+    // All stages on, with the defaults.
+    public static final Factory FACTORY =
+            new Factory() {
+                @Override
+                public OutlierRejector create() {
+                    return new OutlierRejector(
+                            HAMPEL_WINDOW_DEFAULT,
+                            HAMPEL_THRESHOLD_DEFAULT,
+                            MIN_BURST_SUCCESS_RATIO_DEFAULT,
+                            MAX_STD_DEV_MM_DEFAULT,
+                            RSSI_MARGIN_DB_DEFAULT);
+                }
+            };
+
+    // Scales a MAD to the standard deviation of normally distributed samples.
+    private static final float MAD_TO_STD_DEV = 1.4826f;
+
+    // RTT distances are quantized and often repeat, so a MAD is never taken as less than this.
+    private static final int MIN_MAD_MM = 100;
+
+    // Free space RSSI at 1 m (dBm), and the distance below which the RSSI check is skipped.
+    private static final double RSSI_AT_1M_DBM = -40;
+    private static final int MIN_RSSI_CHECK_DISTANCE_MM = 1000;
+
+    private final RangeStatistics mHampelWindow;
+    private final float mHampelThreshold;
+    private final float mMinBurstSuccessRatio;
+    private final int mMaxStdDevMm;
+    private final int mRssiMarginDb;
+
+    private final int[] mCounts = new int[STAGE_COUNT];
+    private int mNumberOfChecks;
+
+    /*
+     * A hampelWindow of 0, minBurstSuccessRatio of 0, maxStdDevMm of Integer.MAX_VALUE or
+     * rssiMarginDb of Integer.MAX_VALUE turns the respective stage off.
+     */
+    public OutlierRejector(
+            int hampelWindow,
+            float hampelThreshold,
+            float minBurstSuccessRatio,
+            int maxStdDevMm,
+            int rssiMarginDb) {
+        mHampelWindow = (hampelWindow > 0) ? new RangeStatistics(hampelWindow) : null;
+        mHampelThreshold = hampelThreshold;
+        mMinBurstSuccessRatio = minBurstSuccessRatio;
+        mMaxStdDevMm = maxStdDevMm;
+        mRssiMarginDb = rssiMarginDb;
+    }
+
+    public void reset() {
+        if (mHampelWindow != null) {
+            mHampelWindow.reset(mHampelWindow.getWindowSize());
+        }
+
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mCounts[i] = 0;
+        }
+        mNumberOfChecks = 0;
+    }
+
+    /*
+     * Runs a successful measurement through all stages, returns ACCEPTED, DOWN_WEIGHTED or
+     * REJECTED.
+     */
+    public int check(
+            int distanceMm,
+            int distanceStdDevMm,
+            int rssi,
+            int numAttemptedMeasurements,
+            int numSuccessfulMeasurements) {
+        mNumberOfChecks++;
+
+        if ((distanceMm < 0) || (distanceStdDevMm < 0)) {
+            return reject(STAGE_INVALID);
+        }
+
+        if ((numAttemptedMeasurements > 0)
+                && (numSuccessfulMeasurements
+                        < mMinBurstSuccessRatio * numAttemptedMeasurements)) {
+            return reject(STAGE_BURST);
+        }
+
+        if (distanceStdDevMm > mMaxStdDevMm) {
+            return reject(STAGE_STD_DEV);
+        }
+
+        if ((mHampelWindow != null) && isHampelOutlier(distanceMm)) {
+            return reject(STAGE_HAMPEL);
+        }
+
+        if (isStrongerThanFreeSpace(distanceMm, rssi)) {
+            mCounts[STAGE_RSSI]++;
+            return DOWN_WEIGHTED;
+        }
+        return ACCEPTED;
+    }
+
+    // Number of check() calls since the last reset().
+    public int getNumberOfChecks() {
+        return mNumberOfChecks;
+    }
+
+    // Measurements rejected (or, for STAGE_RSSI, down-weighted) by stage since the last reset().
+    public int getCount(int stage) {
+        return mCounts[stage];
+    }
+
+    // Total number of rejected measurements (down-weighted ones aren't included).
+    public int getNumberOfRejections() {
+        int rejections = 0;
+
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            if (i != STAGE_RSSI) {
+                rejections += mCounts[i];
+            }
+        }
+        return rejections;
+    }
+
+    private int reject(int stage) {
+        mCounts[stage]++;
+        return REJECTED;
+    }
+
+    // Tests distanceMm against the window before it, then adds it.
+    private boolean isHampelOutlier(int distanceMm) {
+        RangeStatistics window = mHampelWindow;
+        boolean outlier = false;
+
+        // Only judged once the median can't be an outlier itself.
+        if (window.getCount() > window.getWindowSize() / 2) {
+            int mad = Math.max(MIN_MAD_MM, window.getMedianAbsoluteDeviation());
+            outlier =
+                    Math.abs(distanceMm - window.getMedian())
+                            > mHampelThreshold * MAD_TO_STD_DEV * mad;
+        }
+
+        window.add(distanceMm);
+        return outlier;
+    }
+
+    private boolean isStrongerThanFreeSpace(int distanceMm, int rssi) {
+        if ((mRssiMarginDb == Integer.MAX_VALUE) || (distanceMm < MIN_RSSI_CHECK_DISTANCE_MM)) {
+            return false;
+        }
+
+        double freeSpaceRssi = RSSI_AT_1M_DBM - 20 * Math.log10(distanceMm / 1000.0);
+        return rssi > freeSpaceRssi + mRssiMarginDb;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import androidx.recyclerview.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+
+/**
+ * Displays one row per ranged peer of a {@link RangingSnapshot}: its BSSID, current and filtered
+ * distance, success ratio and a {@link SparklineView} of its latest distances.
+ *
+ * <p>{@link #update(RangingSnapshot)} is meant to be called once per frame. It only rebinds (and
+ * invalidates) the rows attached to the {@link RecyclerView}, and doesn't allocate unless the peers
+ * changed.
+ */
+public class PeerDashboardAdapter extends RecyclerView.Adapter<PeerDashboardAdapter.ViewHolder> {
+
+    private RangingSnapshot mSnapshot;
+
+    // Per peer (in snapshot order): BSSID, latest distances (meters) and the number of successful
+    // requests when the last distance was added.
+    private long[] mBssids = new long[0];
+    private int mPeerCount;
+    private SampleRingBuffer[] mDistanceHistories = new SampleRingBuffer[0];
+    private int[] mNumberOfSuccessfulRequests = new int[0];
+
+    // Rows currently attached to the RecyclerView (visible, or about to be).
+    private final ArrayList<ViewHolder> mAttachedViewHolders = new ArrayList<>();
+
+    public static class ViewHolder extends RecyclerView.ViewHolder {
+        private final TextView mBssidTextView;
+        private final FormattedText mDistanceText;
+        private final FormattedText mDistanceFilteredText;
+        private final FormattedText mSuccessRatioText;
+        private final SparklineView mSparklineView;
+
+        public ViewHolder(View view) {
+            super(view);
+            mBssidTextView = view.findViewById(R.id.peer_bssid_text_view);
+            mDistanceText = new FormattedText((TextView) view.findViewById(R.id.peer_range_value));
+            mDistanceFilteredText =
+                    new FormattedText((TextView) view.findViewById(R.id.peer_range_filtered_value));
+            mSuccessRatioText =
+                    new FormattedText((TextView) view.findViewById(R.id.peer_success_ratio_value));
+            mSparklineView = view.findViewById(R.id.peer_sparkline);
+        }
+    }
+
+    /*
+     * Shows snapshot, which is read again by later binds, so it must not change until the next
+     * update. Must be called on the main thread.
+     */
+    public void update(RangingSnapshot snapshot) {
+        mSnapshot = snapshot;
+
+        if (!hasPeers(snapshot)) {
+            setPeers(snapshot);
+            notifyDataSetChanged();
+        }
+
+        for (int i = 0; i < mPeerCount; i++) {
+            int numberOfSuccessfulRequests = snapshot.getNumberOfSuccessfulRequests(i);
+
+            // The session was restarted with the same peers.
+            if (numberOfSuccessfulRequests < mNumberOfSuccessfulRequests[i]) {
+                mNumberOfSuccessfulRequests[i] = 0;
+                mDistanceHistories[i].clear();
+            }
+
+            if (snapshot.hasResult(i)
+                    && (numberOfSuccessfulRequests != mNumberOfSuccessfulRequests[i])) {
+                mNumberOfSuccessfulRequests[i] = numberOfSuccessfulRequests;
+                mDistanceHistories[i].add(snapshot.getDistanceMm(i) / 1000f);
+            }
+        }
+
+        for (int i = 0; i < mAttachedViewHolders.size(); i++) {
+            ViewHolder viewHolder = mAttachedViewHolders.get(i);
+            int position = viewHolder.getAdapterPosition();
+
+            // Rows pending a rebind after notifyDataSetChanged() are bound by the RecyclerView.
+            if ((position != RecyclerView.NO_POSITION) && (position < mPeerCount)) {
+                bindValues(viewHolder, position);
+            }
+        }
+    }
+
+    private boolean hasPeers(RangingSnapshot snapshot) {
+        if (snapshot.getPeerCount() != mPeerCount) {
+            return false;
+        }
+
+        for (int i = 0; i < mPeerCount; i++) {
+            if (snapshot.getBssid(i) != mBssids[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Starts new (empty) histories for the peers of snapshot.
+    private void setPeers(RangingSnapshot snapshot) {
+        mPeerCount = snapshot.getPeerCount();
+
+        if (mBssids.length < mPeerCount) {
+            mBssids = new long[mPeerCount];
+            mNumberOfSuccessfulRequests = new int[mPeerCount];
+            mDistanceHistories = new SampleRingBuffer[mPeerCount];
+
+            for (int i = 0; i < mPeerCount; i++) {
+                mDistanceHistories[i] = new SampleRingBuffer(SparklineView.SAMPLE_CAPACITY);
+            }
+        }
+
+        for (int i = 0; i < mPeerCount; i++) {
+            mBssids[i] = snapshot.getBssid(i);
+            mNumberOfSuccessfulRequests[i] = 0;
+            mDistanceHistories[i].clear();
+        }
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        return new ViewHolder(
+                LayoutInflater.from(parent.getContext())
+                        .inflate(R.layout.recycler_row_peer, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder viewHolder, int position) {
+        viewHolder.mBssidTextView.setText(MacAddressUtils.toString(mBssids[position]));
+        viewHolder.mSparklineView.setSamples(mDistanceHistories[position]);
+        bindValues(viewHolder, position);
+    }
+
+    // Updates the fields that change with every snapshot.
+    private void bindValues(ViewHolder viewHolder, int position) {
+        RangingSnapshot snapshot = mSnapshot;
+
+        if (snapshot.hasResult(position)) {
+            showMeters(viewHolder.mDistanceText, snapshot.getDistanceMm(position));
+            showMeters(
+                    viewHolder.mDistanceFilteredText, snapshot.getDistanceFilteredMm(position));
+        } else {
+            viewHolder.mDistanceText.clear().append('-');
+            viewHolder.mDistanceText.show();
+            viewHolder.mDistanceFilteredText.clear().append('-');
+            viewHolder.mDistanceFilteredText.show();
+        }
+        CharFormatter successRatio = viewHolder.mSuccessRatioText.clear();
+        successRatio.append(snapshot.getSuccessRatio(position), 1).append('%');
+        viewHolder.mSuccessRatioText.show();
+        viewHolder.mSparklineView.invalidate();
+    }
+
+    private static void showMeters(FormattedText text, float millimeters) {
+        text.clear().append(millimeters / 1000.0, 3);
+        text.show();
+    }
+
+    @Override
+    public void onViewAttachedToWindow(ViewHolder viewHolder) {
+        mAttachedViewHolders.add(viewHolder);
+    }
+
+    @Override
+    public void onViewDetachedFromWindow(ViewHolder viewHolder) {
+        mAttachedViewHolders.remove(viewHolder);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mPeerCount;
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Picks the peers of each ranging request when there are more peers than fit in one request.
+ * Every peer gets a score in [0, 4] from its smoothed RSSI, its recent ranging success rate and
+ * how many requests ago it was last picked (staleness), and a request is then filled greedily,
+ * adding a geometric diversity bonus for peers with a known location: a peer far away from (or,
+ * once the position of the device is known, at a right angle to) the peers already picked helps
+ * multilateration more than one next to them.
+ *
+ * <p>Strong peers get ranged most of the time, but rotation stays fair: a peer left out for {@link
+ * #STARVATION_ROUNDS} times the requests needed to cover all peers once is forced into the next
+ * request, oldest first. Pinned peers (the first ones) are in every request.
+ *
+ * <p>Peers are identified by their index in the peer list; selection doesn't allocate. Not thread
+ * safe.
+ */
+public class PeerSelectionPolicy {
+
+    // Weights of the score terms (every term is in [0, 1]).
+    private static final double RSSI_WEIGHT = 1;
+    private static final double SUCCESS_WEIGHT = 2;
+    private static final double STALENESS_WEIGHT = 1;
+    private static final double DIVERSITY_WEIGHT = 1;
+
+    // RSSI term goes from 0 to 1 between these (dBm).
+    private static final int RSSI_MIN = -90;
+    private static final int RSSI_MAX = -40;
+
+    // Exponential smoothing factors (about 1 / factor results of memory).
+    private static final double RSSI_SMOOTHING = 0.25;
+    private static final double SUCCESS_SMOOTHING = 0.1;
+
+    // Term of peers without results yet.
+    private static final double UNKNOWN_TERM = 0.5;
+
+    // Staleness grows to 1, and peers are forced in, after these multiples of the number of
+    // requests needed to range all peers once.
+    private static final int STALENESS_ROUNDS = 2;
+    public static final int STARVATION_ROUNDS = 4;
+
+    // Anchors at least this far apart (meters) get the full diversity bonus.
+    private static final double DIVERSITY_DISTANCE_METERS = 10;
+
+    private int mPeerCount;
+    private int mPinnedPeerCount;
+
+    // Per peer, indexed like the peer list.
+    private double[] mRssiTerm = new double[0];
+    private double[] mSuccessTerm = new double[0];
+    private long[] mLastSelectedRequest = new long[0];
+    private boolean[] mHasLocation = new boolean[0];
+    private double[] mX = new double[0];
+    private double[] mY = new double[0];
+
+    // Scratch space of select().
+    private double[] mScores = new double[0];
+    private boolean[] mSelected = new boolean[0];
+
+    private boolean mHasReferencePosition;
+    private double mReferenceX;
+    private double mReferenceY;
+
+    private long mNumberOfRequests;
+    private int mRounds = 1;
+    private int mNumberOfForcedSelections;
+
+    // The first pinnedPeerCount peers are in every request (kept across reset()).
+    public void setPinnedPeerCount(int pinnedPeerCount) {
+        mPinnedPeerCount = pinnedPeerCount;
+    }
+
+    // Starts over with peerCount peers without results or locations.
+    public void reset(int peerCount) {
+        if (mRssiTerm.length < peerCount) {
+            mRssiTerm = new double[peerCount];
+            mSuccessTerm = new double[peerCount];
+            mLastSelectedRequest = new long[peerCount];
+            mHasLocation = new boolean[peerCount];
+            mX = new double[peerCount];
+            mY = new double[peerCount];
+            mScores = new double[peerCount];
+            mSelected = new boolean[peerCount];
+        }
+
+        mPeerCount = peerCount;
+
+        for (int i = 0; i < peerCount; i++) {
+            mRssiTerm[i] = UNKNOWN_TERM;
+            mSuccessTerm[i] = UNKNOWN_TERM;
+            // Never picked peers are the stalest.
+            mLastSelectedRequest[i] = Long.MIN_VALUE / 2;
+            mHasLocation[i] = false;
+        }
+
+        mHasReferencePosition = false;
+        mNumberOfRequests = 0;
+        mNumberOfForcedSelections = 0;
+    }
+
+    public int getPeerCount() {
+        return mPeerCount;
+    }
+
+    // Location (meters) of a peer, used for the diversity bonus.
+    public void setPeerLocation(int peer, double x, double y) {
+        mHasLocation[peer] = true;
+        mX[peer] = x;
+        mY[peer] = y;
+    }
+
+    // Latest position of the device (same frame as the peer locations).
+    public void setReferencePosition(double x, double y) {
+        mHasReferencePosition = true;
+        mReferenceX = x;
+        mReferenceY = y;
+    }
+
+    // Called for every result of a picked peer (rssi is ignored unless successful).
+    public void onRangingResult(int peer, boolean success, int rssi) {
+        mSuccessTerm[peer] += SUCCESS_SMOOTHING * ((success ? 1 : 0) - mSuccessTerm[peer]);
+
+        if (success) {
+            double rssiTerm = (double) (rssi - RSSI_MIN) / (RSSI_MAX - RSSI_MIN);
+            rssiTerm = Math.max(0, Math.min(1, rssiTerm));
+            mRssiTerm[peer] += RSSI_SMOOTHING * (rssiTerm - mRssiTerm[peer]);
+        }
+    }
+
+    /*
+     * Picks the peers of the next request into outPeers and returns how many were picked (all
+     * peers if they fit). Counts as sending the request.
+     */
+    public int select(int maxPeers, int[] outPeers) {
+        int count = Math.min(maxPeers, mPeerCount);
+        int rounds = Math.max(1, (mPeerCount + maxPeers - 1) / Math.max(1, maxPeers));
+        mRounds = rounds;
+        long request = mNumberOfRequests++;
+        int selected = 0;
+
+        for (int i = 0; i < mPeerCount; i++) {
+            mSelected[i] = false;
+            mScores[i] = getScore(i, request, rounds);
+        }
+
+        // Pinned peers first.
+        for (int i = 0; (i < mPinnedPeerCount) && (i < mPeerCount) && (selected < count); i++) {
+            selected = add(i, request, outPeers, selected);
+        }
+
+        // Then starving peers, oldest first, in at most a quarter of the request, so strong
+        // peers keep being ranged while the backlog drains.
+        int maxForced = selected + Math.max(1, count / 4);
+        long starvationRequests = (long) STARVATION_ROUNDS * rounds;
+
+        while ((selected < count) && (selected < maxForced)) {
+            int oldest = -1;
+
+            for (int i = 0; i < mPeerCount; i++) {
+                if (!mSelected[i]
+                        && (request - mLastSelectedRequest[i] > starvationRequests)
+                        && ((oldest < 0)
+                                || (mLastSelectedRequest[i] < mLastSelectedRequest[oldest]))) {
+                    oldest = i;
+                }
+            }
+
+            if (oldest < 0) {
+                break;
+            }
+            mNumberOfForcedSelections++;
+            selected = add(oldest, request, outPeers, selected);
+        }
+
+        // Then the best score, counting the diversity with the peers picked so far.
+        while (selected < count) {
+            int best = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+
+            for (int i = 0; i < mPeerCount; i++) {
+                if (mSelected[i]) {
+                    continue;
+                }
+
+                double score = mScores[i] + DIVERSITY_WEIGHT * getDiversity(i, outPeers, selected);
+
+                if (score > bestScore) {
+                    best = i;
+                    bestScore = score;
+                }
+            }
+            selected = add(best, request, outPeers, selected);
+        }
+        return selected;
+    }
+
+    // Score of a peer for the next request, without the diversity bonus.
+    public double getScore(int peer) {
+        return getScore(peer, mNumberOfRequests, mRounds);
+    }
+
+    // Peers forced into a request because they were left out for too long.
+    public int getNumberOfForcedSelections() {
+        return mNumberOfForcedSelections;
+    }
+
+    private double getScore(int peer, long request, int rounds) {
+        double staleness =
+                (double) (request - mLastSelectedRequest[peer]) / (STALENESS_ROUNDS * rounds);
+
+        return RSSI_WEIGHT * mRssiTerm[peer]
+                + SUCCESS_WEIGHT * mSuccessTerm[peer]
+                + STALENESS_WEIGHT * Math.min(1, staleness);
+    }
+
+    private int add(int peer, long request, int[] outPeers, int selected) {
+        mSelected[peer] = true;
+        mLastSelectedRequest[peer] = request;
+        outPeers[selected] = peer;
+        return selected + 1;
+    }
+
+    /*
+     * Diversity of a peer with the located peers already picked, in [0, 1]: the smallest |sine|
+     * of the angle between their bearings from the device if its position is known, otherwise
+     * the smallest distance between them (relative to DIVERSITY_DISTANCE_METERS). Peers without a
+     * location get half.
+     */
+    private double getDiversity(int peer, int[] outPeers, int selected) {
+        if (!mHasLocation[peer]) {
+            return UNKNOWN_TERM;
+        }
+
+        double diversity = 1;
+
+        for (int i = 0; i < selected; i++) {
+            int other = outPeers[i];
+
+            if (!mHasLocation[other]) {
+                continue;
+            }
+
+            double value;
+
+            if (mHasReferencePosition) {
+                double ax = mX[peer] - mReferenceX;
+                double ay = mY[peer] - mReferenceY;
+                double bx = mX[other] - mReferenceX;
+                double by = mY[other] - mReferenceY;
+                double lengths = Math.hypot(ax, ay) * Math.hypot(bx, by);
+
+                // Sine of the angle between the bearings (cross product over lengths).
+                value = (lengths == 0) ? 1 : Math.abs(ax * by - ay * bx) / lengths;
+            } else {
+                value =
+                        Math.hypot(mX[peer] - mX[other], mY[peer] - mY[other])
+                                / DIVERSITY_DISTANCE_METERS;
+            }
+            diversity = Math.min(diversity, value);
+        }
+        return diversity;
+    }
+}
@@ -0,0 +1,501 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps up to {@code maxInFlight} ranging requests in flight on a {@link RangingSource}. Each
+ * pipeline slot sends a request, waits for its callback (or timeout), then waits the delay returned
+ * by the {@link Listener} before sending its next request. With one slot this is the classic
+ * request / callback / delay loop; with more, firmware round trips overlap.
+ *
+ * <p>Peers are split into subsets of at most {@link RangingSource#getMaxPeers()} and requests
+ * rotate over them round robin, unless a {@link PeerSelectionPolicy} is set: it then picks the
+ * peers of every request (when they don't all fit) and is fed every result. Every request gets a
+ * sequence number; requests without a callback after {@code timeoutMillis} are abandoned and their
+ * late callbacks are dropped (and counted). Requests, callbacks, latencies and results are also
+ * recorded into {@link RangingMetrics}, if set.
+ *
+ * <p>Not thread safe: {@link #pump()} and the source callbacks must run on the same thread.
+ */
+public class PipelinedRangingController {
+
+    // Provides the clock and wakes the controller up by calling pump() at the requested time.
+    public interface Host {
+        long nowMillis();
+
+        void wakeUpAt(long timeMillis);
+    }
+
+    /*
+     * Receives requests and callbacks. The result, failure and timeout methods return the delay in
+     * milliseconds before the slot that sent the request sends its next request.
+     */
+    public interface Listener {
+        void onRangingRequest(int sequence, long[] bssids, int peerCount);
+
+        long onRangingResults(int sequence, List<RangingMeasurement> measurements);
+
+        long onRangingFailure(int sequence, int code);
+
+        long onRangingTimeout(int sequence);
+    }
+
+    private final RangingSource mRangingSource;
+    private final long mTimeoutMillis;
+    private final Host mHost;
+    private final Listener mListener;
+
+    private final Slot[] mSlots;
+    private final ArrayList<Request> mRequestPool = new ArrayList<>();
+    private PeerSelectionPolicy mPeerSelectionPolicy;
+    private RangingMetrics mMetrics;
+
+    private long[] mPeerBssids = new long[0];
+    private int mPeerCount;
+    private int mNextPeer;
+
+    private boolean mRunning;
+    private boolean mPumping;
+    private int mSequence;
+
+    // Counters since start().
+    private long mStartMillis;
+    private long[] mPeerResultCounts = new long[0];
+    private int mNumberOfRequests;
+    private int mNumberOfCompletedRequests;
+    private int mNumberOfTimeouts;
+    private int mNumberOfLateCallbacks;
+    private long mTotalLatencyMillis;
+    private long mMaxLatencyMillis;
+
+    public PipelinedRangingController(
+            RangingSource rangingSource,
+            int maxInFlight,
+            long timeoutMillis,
+            Host host,
+            Listener listener) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException(maxInFlight + " isn't a valid number of requests.");
+        }
+
+        mRangingSource = rangingSource;
+        mTimeoutMillis = timeoutMillis;
+        mHost = host;
+        mListener = listener;
+
+        mSlots = new Slot[maxInFlight];
+
+        for (int i = 0; i < maxInFlight; i++) {
+            mSlots[i] = new Slot();
+        }
+    }
+
+    /*
+     * Sets (or clears) the policy picking the peers of every request. It is reset by setPeers(),
+     * so peer details (e.g. locations) must be given to it afterwards. Only allowed while stopped.
+     */
+    public void setPeerSelectionPolicy(PeerSelectionPolicy peerSelectionPolicy) {
+        if (mRunning) {
+            throw new IllegalStateException("Can't change peer selection while running.");
+        }
+        mPeerSelectionPolicy = peerSelectionPolicy;
+    }
+
+    // Sets (or clears) the metrics everything is recorded into. Only allowed while stopped.
+    public void setMetrics(RangingMetrics metrics) {
+        if (mRunning) {
+            throw new IllegalStateException("Can't change metrics while running.");
+        }
+        mMetrics = metrics;
+    }
+
+    // Sets the peers to rotate over (copied). Only allowed while stopped.
+    public void setPeers(long[] bssids, int peerCount) {
+        if (mRunning) {
+            throw new IllegalStateException("Can't change peers while running.");
+        }
+
+        if (mPeerSelectionPolicy != null) {
+            mPeerSelectionPolicy.reset(peerCount);
+        }
+
+        if (mPeerBssids.length < peerCount) {
+            mPeerBssids = new long[peerCount];
+            mPeerResultCounts = new long[peerCount];
+        }
+
+        System.arraycopy(bssids, 0, mPeerBssids, 0, peerCount);
+        mPeerCount = peerCount;
+        mNextPeer = 0;
+    }
+
+    public int getMaxInFlight() {
+        return mSlots.length;
+    }
+
+    // Resets all counters and sends the first request of every slot.
+    public void start() {
+        mRunning = true;
+        mStartMillis = mHost.nowMillis();
+
+        for (int i = 0; i < mPeerCount; i++) {
+            mPeerResultCounts[i] = 0;
+        }
+
+        mNumberOfRequests = 0;
+        mNumberOfCompletedRequests = 0;
+        mNumberOfTimeouts = 0;
+        mNumberOfLateCallbacks = 0;
+        mTotalLatencyMillis = 0;
+        mMaxLatencyMillis = 0;
+
+        for (Slot slot : mSlots) {
+            slot.mDueMillis = mStartMillis;
+        }
+
+        pump();
+    }
+
+    // Stops sending requests. Callbacks of requests still in flight are dropped.
+    public void stop() {
+        mRunning = false;
+
+        for (Slot slot : mSlots) {
+            if (slot.mRequest != null) {
+                slot.mRequest.mAbandoned = true;
+                slot.mRequest = null;
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /*
+     * Abandons timed out requests and sends requests for every idle slot that is due, then asks
+     * the host to wake up for the next due slot or timeout.
+     */
+    public void pump() {
+        if (!mRunning) {
+            return;
+        }
+
+        mPumping = true;
+        long nowMillis = mHost.nowMillis();
+
+        for (Slot slot : mSlots) {
+            Request request = slot.mRequest;
+
+            if ((request != null) && (nowMillis - request.mStartMillis >= mTimeoutMillis)) {
+                request.mAbandoned = true;
+                slot.mRequest = null;
+                mNumberOfTimeouts++;
+
+                if (mMetrics != null) {
+                    mMetrics.onRangingFailure(RangingSource.FAILURE_CODE_TIMEOUT);
+                }
+                slot.mDueMillis = nowMillis + mListener.onRangingTimeout(request.mSequence);
+            }
+        }
+
+        for (Slot slot : mSlots) {
+            if (mRunning && (slot.mRequest == null) && (nowMillis >= slot.mDueMillis)) {
+                sendRequest(slot, nowMillis);
+            }
+        }
+
+        mPumping = false;
+        scheduleWakeUp();
+    }
+
+    private void sendRequest(Slot slot, long nowMillis) {
+        if (mPeerCount == 0) {
+            return;
+        }
+
+        Request request = obtainRequest();
+        request.mSequence = ++mSequence;
+        request.mSlot = slot;
+        request.mStartMillis = nowMillis;
+        request.mAbandoned = false;
+
+        int maxPeers = mRangingSource.getMaxPeers();
+        int count;
+
+        if ((mPeerSelectionPolicy != null) && (mPeerCount > maxPeers)) {
+            count = mPeerSelectionPolicy.select(maxPeers, request.mPeerIndices);
+
+            for (int i = 0; i < count; i++) {
+                request.mBssids[i] = mPeerBssids[request.mPeerIndices[i]];
+            }
+        } else {
+            // Takes the next subset of peers, wrapping around so every request is as full as
+            // possible.
+            count = Math.min(maxPeers, mPeerCount);
+
+            for (int i = 0; i < count; i++) {
+                request.mPeerIndices[i] = mNextPeer;
+                request.mBssids[i] = mPeerBssids[mNextPeer];
+                mNextPeer = (mNextPeer + 1) % mPeerCount;
+            }
+        }
+        request.mPeerCount = count;
+
+        slot.mRequest = request;
+        mNumberOfRequests++;
+
+        if (mMetrics != null) {
+            mMetrics.onRangingRequest(request.mBssids, count);
+        }
+
+        mListener.onRangingRequest(request.mSequence, request.mBssids, count);
+        mRangingSource.startRanging(request.mBssids, count, request);
+    }
+
+    // Returns false (and recycles the request) if its callback should be dropped.
+    private boolean complete(Request request, long nowMillis) {
+        Slot slot = request.mSlot;
+
+        if (request.mAbandoned || (slot.mRequest != request)) {
+            mNumberOfLateCallbacks++;
+
+            if (mMetrics != null) {
+                mMetrics.onLateCallback();
+            }
+            recycleRequest(request);
+            return false;
+        }
+
+        slot.mRequest = null;
+
+        long latencyMillis = nowMillis - request.mStartMillis;
+        mNumberOfCompletedRequests++;
+        mTotalLatencyMillis += latencyMillis;
+        mMaxLatencyMillis = Math.max(mMaxLatencyMillis, latencyMillis);
+
+        if (mMetrics != null) {
+            mMetrics.onRangingCallback(latencyMillis);
+        }
+        return true;
+    }
+
+    private void onRequestResults(Request request, List<RangingMeasurement> measurements) {
+        long nowMillis = mHost.nowMillis();
+
+        if (!complete(request, nowMillis)) {
+            return;
+        }
+
+        for (int i = 0; i < measurements.size(); i++) {
+            RangingMeasurement measurement = measurements.get(i);
+            int peer = request.indexOfPeer(measurement.getBssid());
+
+            if (mMetrics != null) {
+                mMetrics.onRangingResult(measurement);
+            }
+
+            if (peer < 0) {
+                continue;
+            }
+
+            if (measurement.isSuccess()) {
+                mPeerResultCounts[peer]++;
+            }
+
+            if (mPeerSelectionPolicy != null) {
+                mPeerSelectionPolicy.onRangingResult(
+                        peer, measurement.isSuccess(), measurement.getRssi());
+            }
+        }
+
+        Slot slot = request.mSlot;
+        long delayMillis = mListener.onRangingResults(request.mSequence, measurements);
+        finishRequest(slot, request, nowMillis + delayMillis);
+    }
+
+    private void onRequestFailure(Request request, int code) {
+        long nowMillis = mHost.nowMillis();
+
+        if (!complete(request, nowMillis)) {
+            return;
+        }
+
+        if (mMetrics != null) {
+            mMetrics.onRangingFailure(code);
+        }
+
+        Slot slot = request.mSlot;
+        long delayMillis = mListener.onRangingFailure(request.mSequence, code);
+        finishRequest(slot, request, nowMillis + delayMillis);
+    }
+
+    private void finishRequest(Slot slot, Request request, long dueMillis) {
+        slot.mDueMillis = dueMillis;
+        recycleRequest(request);
+
+        // If called from inside pump() (synchronous source), pump() schedules the wake up.
+        if (!mPumping) {
+            scheduleWakeUp();
+        }
+    }
+
+    private void scheduleWakeUp() {
+        if (!mRunning) {
+            return;
+        }
+
+        long nextMillis = Long.MAX_VALUE;
+
+        for (Slot slot : mSlots) {
+            long slotMillis =
+                    (slot.mRequest == null)
+                            ? slot.mDueMillis
+                            : slot.mRequest.mStartMillis + mTimeoutMillis;
+            nextMillis = Math.min(nextMillis, slotMillis);
+        }
+
+        if ((nextMillis != Long.MAX_VALUE) && (mPeerCount > 0)) {
+            mHost.wakeUpAt(nextMillis);
+        }
+    }
+
+    private Request obtainRequest() {
+        int size = mRequestPool.size();
+
+        if (size > 0) {
+            return mRequestPool.remove(size - 1);
+        }
+        return new Request(mRangingSource.getMaxPeers());
+    }
+
+    private void recycleRequest(Request request) {
+        request.mSlot = null;
+        mRequestPool.add(request);
+    }
+
+    public int getNumberOfInFlightRequests() {
+        int inFlight = 0;
+
+        for (Slot slot : mSlots) {
+            if (slot.mRequest != null) {
+                inFlight++;
+            }
+        }
+        return inFlight;
+    }
+
+    public int getNumberOfRequests() {
+        return mNumberOfRequests;
+    }
+
+    public int getNumberOfCompletedRequests() {
+        return mNumberOfCompletedRequests;
+    }
+
+    public int getNumberOfTimeouts() {
+        return mNumberOfTimeouts;
+    }
+
+    // Callbacks received after their request timed out (or after stop()).
+    public int getNumberOfLateCallbacks() {
+        return mNumberOfLateCallbacks;
+    }
+
+    // Mean request-to-callback latency of completed requests (0 if there are none).
+    public float getMeanLatencyMillis() {
+        return (mNumberOfCompletedRequests == 0)
+                ? 0
+                : (float) mTotalLatencyMillis / mNumberOfCompletedRequests;
+    }
+
+    public long getMaxLatencyMillis() {
+        return mMaxLatencyMillis;
+    }
+
+    // Index of bssid in the peers passed to setPeers(), or -1.
+    public int indexOfPeer(long bssid) {
+        for (int i = 0; i < mPeerCount; i++) {
+            if (mPeerBssids[i] == bssid) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Successful results per second for a peer since start().
+    public float getResultsPerSecond(int peerIndex) {
+        long elapsedMillis = mHost.nowMillis() - mStartMillis;
+        return (elapsedMillis <= 0) ? 0 : mPeerResultCounts[peerIndex] * 1000f / elapsedMillis;
+    }
+
+    // Successful results per second over all peers since start().
+    public float getTotalResultsPerSecond() {
+        long total = 0;
+
+        for (int i = 0; i < mPeerCount; i++) {
+            total += mPeerResultCounts[i];
+        }
+
+        long elapsedMillis = mHost.nowMillis() - mStartMillis;
+        return (elapsedMillis <= 0) ? 0 : total * 1000f / elapsedMillis;
+    }
+
+    // A pipeline position: idle until mDueMillis, or waiting for mRequest.
+    private static class Slot {
+        private Request mRequest;
+        private long mDueMillis;
+    }
+
+    // A single request and its callback. Pooled, and only recycled once its callback arrives.
+    private class Request implements RangingSource.Callback {
+        private final long[] mBssids;
+        private final int[] mPeerIndices;
+        private int mPeerCount;
+
+        private int mSequence;
+        private Slot mSlot;
+        private long mStartMillis;
+        private boolean mAbandoned;
+
+        private Request(int maxPeers) {
+            mBssids = new long[maxPeers];
+            mPeerIndices = new int[maxPeers];
+        }
+
+        private int indexOfPeer(long bssid) {
+            for (int i = 0; i < mPeerCount; i++) {
+                if (mBssids[i] == bssid) {
+                    return mPeerIndices[i];
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void onRangingFailure(int code) {
+            onRequestFailure(this, code);
+        }
+
+        @Override
+        public void onRangingResults(List<RangingMeasurement> measurements) {
+            onRequestResults(this, measurements);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes metrics in the Prometheus text exposition format (version 0.0.4) into a reusable ASCII
+ * byte buffer. Numbers and BSSIDs are formatted by hand, so once the buffer has grown to the size
+ * of a typical page, rendering doesn't allocate. Not thread safe.
+ *
+ * <p>Metric names, help texts and label names must be plain ASCII without characters that need
+ * escaping. String label values are escaped (backslash, double quote and line feed), and must be
+ * ASCII too.
+ */
+public class PrometheusTextWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public static final String TYPE_COUNTER = "counter";
+    public static final String TYPE_GAUGE = "gauge";
+    public static final String TYPE_HISTOGRAM = "histogram";
+
+    // Non-integer values are written with up to 3 decimals.
+    private static final long DECIMAL_SCALE = 1000;
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+
+    private byte[] mBuffer;
+    private int mLength;
+
+    // Scratch space for digits, written backwards.
+    private final byte[] mDigits = new byte[20];
+
+    public PrometheusTextWriter(int initialCapacity) {
+        mBuffer = new byte[initialCapacity];
+    }
+
+    public void clear() {
+        mLength = 0;
+    }
+
+    public int length() {
+        return mLength;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(mBuffer, 0, mLength);
+    }
+
+    // Writes the HELP and TYPE lines of a metric family.
+    public void family(String name, String type, String help) {
+        append("# HELP ").append(name).append(' ').append(help).append('\n');
+        append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    // Writes "name value" (or "name{" to be followed by labels, see below).
+    public void sample(String name, long value) {
+        append(name).append(' ').append(value).append('\n');
+    }
+
+    public void sample(String name, double value) {
+        append(name).append(' ').appendDecimal(value).append('\n');
+    }
+
+    /*
+     * Samples with labels are written as startSample(), one or more label() calls and then
+     * endSample() with the value.
+     */
+    public PrometheusTextWriter startSample(String name) {
+        append(name);
+        return this;
+    }
+
+    public PrometheusTextWriter label(String name, String value) {
+        startLabel(name);
+        appendEscaped(value);
+        return endLabel();
+    }
+
+    public PrometheusTextWriter label(String name, long value) {
+        startLabel(name);
+        append(value);
+        return endLabel();
+    }
+
+    // Label with a decimal value (e.g. a histogram bound or a quantile).
+    public PrometheusTextWriter labelDecimal(String name, double value) {
+        startLabel(name);
+        appendDecimal(value);
+        return endLabel();
+    }
+
+    // Label with a BSSID packed with MacAddressUtils, as "aa:bb:cc:dd:ee:ff".
+    public PrometheusTextWriter labelBssid(String name, long bssid) {
+        startLabel(name);
+
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int octet = (int) (bssid >>> shift) & 0xff;
+            append(HEX_DIGITS[octet >>> 4]);
+            append(HEX_DIGITS[octet & 0xf]);
+
+            if (shift > 0) {
+                append(':');
+            }
+        }
+        return endLabel();
+    }
+
+    public void endSample(long value) {
+        closeLabels();
+        append(' ').append(value).append('\n');
+    }
+
+    public void endSample(double value) {
+        closeLabels();
+        append(' ').appendDecimal(value).append('\n');
+    }
+
+    private void startLabel(String name) {
+        // The first label opens the braces, the others follow a comma.
+        append((mBuffer[mLength - 1] == '"') ? ',' : '{');
+        append(name).append("=\"");
+    }
+
+    private PrometheusTextWriter endLabel() {
+        return append('"');
+    }
+
+    private void closeLabels() {
+        if (mBuffer[mLength - 1] == '"') {
+            append('}');
+        }
+    }
+
+    private PrometheusTextWriter append(String text) {
+        int length = text.length();
+        ensureCapacity(length);
+
+        for (int i = 0; i < length; i++) {
+            mBuffer[mLength++] = (byte) text.charAt(i);
+        }
+        return this;
+    }
+
+    // Appends a label value with backslashes, double quotes and line feeds escaped.
+    private void appendEscaped(String value) {
+        int length = value.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+
+            if ((c == '\\') || (c == '"')) {
+                append('\\').append(c);
+            } else if (c == '\n') {
+                append('\\').append('n');
+            } else {
+                append(c);
+            }
+        }
+    }
+
+    private PrometheusTextWriter append(char c) {
+        ensureCapacity(1);
+        mBuffer[mLength++] = (byte) c;
+        return this;
+    }
+
+    private PrometheusTextWriter append(byte b) {
+        ensureCapacity(1);
+        mBuffer[mLength++] = b;
+        return this;
+    }
+
+    private PrometheusTextWriter append(long value) {
+        if (value == Long.MIN_VALUE) {
+            return append("-9223372036854775808");
+        }
+
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+
+        int count = 0;
+
+        do {
+            mDigits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+
+        ensureCapacity(count);
+
+        while (count > 0) {
+            mBuffer[mLength++] = mDigits[--count];
+        }
+        return this;
+    }
+
+    // Fixed point with up to 3 decimals; NaN and infinities spelled as Prometheus does.
+    private PrometheusTextWriter appendDecimal(double value) {
+        if (Double.isNaN(value)) {
+            return append("NaN");
+        }
+
+        if (Double.isInfinite(value) || (Math.abs(value) >= Long.MAX_VALUE / DECIMAL_SCALE)) {
+            return append((value > 0) ? "+Inf" : "-Inf");
+        }
+
+        long scaled = Math.round(value * DECIMAL_SCALE);
+
+        if (scaled < 0) {
+            append('-');
+            scaled = -scaled;
+        }
+
+        append(scaled / DECIMAL_SCALE);
+        long fraction = scaled % DECIMAL_SCALE;
+
+        if (fraction != 0) {
+            append('.');
+
+            // Digit by digit, with leading zeros, until only zeros are left.
+            for (long divisor = DECIMAL_SCALE / 10; fraction != 0; divisor /= 10) {
+                append((char) ('0' + fraction / divisor));
+                fraction %= divisor;
+            }
+        }
+        return this;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mLength + extra > mBuffer.length) {
+            byte[] buffer = new byte[Math.max(mBuffer.length * 2, mLength + extra)];
+            System.arraycopy(mBuffer, 0, buffer, 0, mLength);
+            mBuffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.util.Arrays;
+
+/**
+ * Streaming quantile sketch of integer samples (e.g. distances in mm) in fixed memory, after the
+ * KLL sketch (Karnin, Lang and Liberty, "Optimal Quantile Approximation in Streams").
+ *
+ * <p>Samples go to level 0. When the sketch is full, the lowest level at capacity is sorted and
+ * every other sample of it (starting at a random offset) is promoted to the next level, where it
+ * counts twice; level h samples stand for 2^h samples of the stream. Level capacities shrink
+ * geometrically (by 2/3) from the top level (k) down, so the number of samples kept is bounded by
+ * about 3k plus a few per level no matter how many are added. With k = 64, rank errors are
+ * typically about 2% of the number of samples and stay below 4%. Up to k samples, and the min and
+ * max, are exact.
+ *
+ * <p>All the memory is allocated on construction; adding samples and queries don't allocate. The
+ * random offsets come from a fixed seed, so replaying the same samples gives the same results.
+ */
+public class QuantileSketch {
+
+    // Enough levels for more than 2^33 samples.
+    private static final int MAX_LEVELS = 32;
+    private static final int MIN_LEVEL_CAPACITY = 4;
+
+    private static final int RANDOM_SEED = 0x2545f491;
+
+    private final int mK;
+
+    // Capacity of the levels, by depth from the top level, and their sums.
+    private final int[] mDepthCapacities = new int[MAX_LEVELS];
+    private final int[] mTotalCapacities = new int[MAX_LEVELS + 1];
+
+    // Levels are stored back to back at the end of mItems, level h in
+    // [mLevelStarts[h], mLevelStarts[h + 1]); level 0 grows towards the start. Levels above 0 are
+    // always sorted.
+    private final int[] mItems;
+    private final int[] mLevelStarts = new int[MAX_LEVELS + 1];
+    private int mLevelCount;
+    private boolean mLevelZeroSorted;
+
+    // Samples promoted by the compaction in progress. Levels are compacted lazily (only when the
+    // sketch is full), so a level can hold more than its capacity.
+    private final int[] mPromoted;
+
+    private long mCount;
+    private int mMin;
+    private int mMax;
+
+    private int mRandom;
+
+    public QuantileSketch(int k) {
+        if (k < MIN_LEVEL_CAPACITY) {
+            throw new IllegalArgumentException(k + " isn't a valid sketch size.");
+        }
+        mK = k;
+
+        double capacity = k;
+
+        for (int depth = 0; depth < MAX_LEVELS; depth++) {
+            mDepthCapacities[depth] = Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(capacity));
+            mTotalCapacities[depth + 1] = mTotalCapacities[depth] + mDepthCapacities[depth];
+            capacity *= 2.0 / 3.0;
+        }
+
+        mItems = new int[mTotalCapacities[MAX_LEVELS]];
+        mPromoted = new int[mItems.length / 2];
+        reset();
+    }
+
+    public void reset() {
+        mLevelCount = 1;
+        mLevelStarts[0] = mItems.length;
+        mLevelStarts[1] = mItems.length;
+        mLevelZeroSorted = true;
+
+        mCount = 0;
+        mMin = Integer.MAX_VALUE;
+        mMax = Integer.MIN_VALUE;
+
+        mRandom = RANDOM_SEED;
+    }
+
+    public int getK() {
+        return mK;
+    }
+
+    public void add(int value) {
+        if (getRetainedCount() >= mTotalCapacities[mLevelCount]) {
+            compress();
+        }
+
+        mLevelStarts[0]--;
+        mItems[mLevelStarts[0]] = value;
+        mLevelZeroSorted = false;
+
+        mCount++;
+
+        if (value < mMin) {
+            mMin = value;
+        }
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    // Number of samples added since the last reset.
+    public long getCount() {
+        return mCount;
+    }
+
+    // Number of samples kept (at most about 3k plus a few per level).
+    public int getRetainedCount() {
+        return mItems.length - mLevelStarts[0];
+    }
+
+    // Smallest and largest sample. These are exact.
+    public int getMin() {
+        checkNotEmpty();
+        return mMin;
+    }
+
+    public int getMax() {
+        checkNotEmpty();
+        return mMax;
+    }
+
+    // Estimated number of samples less than or equal to value.
+    public long getRank(int value) {
+        if (!mLevelZeroSorted) {
+            Arrays.sort(mItems, mLevelStarts[0], mLevelStarts[1]);
+            mLevelZeroSorted = true;
+        }
+
+        long rank = 0;
+
+        for (int level = 0; level < mLevelCount; level++) {
+            int start = mLevelStarts[level];
+            rank += (long) (upperBound(start, mLevelStarts[level + 1], value) - start) << level;
+        }
+        return rank;
+    }
+
+    // Estimated nearest-rank percentile, where percentile is in [0, 100].
+    public int getPercentile(double percentile) {
+        checkNotEmpty();
+        long rank = rankOfPercentile(percentile, mCount);
+
+        // The extremes are known exactly.
+        if (rank == 1) {
+            return mMin;
+        } else if (rank >= mCount) {
+            return mMax;
+        }
+
+        // Smallest value whose rank reaches the target, which is always one of the samples kept.
+        long low = mMin;
+        long high = mMax;
+
+        while (low < high) {
+            long middle = (low + high) >> 1;
+
+            if (getRank((int) middle) >= rank) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return (int) low;
+    }
+
+    public int getMedian() {
+        return getPercentile(50);
+    }
+
+    // Rank (1 based) of a nearest-rank percentile of count samples, as in RangeStatistics.
+    static long rankOfPercentile(double percentile, long count) {
+        if ((percentile < 0) || (percentile > 100)) {
+            throw new IllegalArgumentException(percentile + " isn't a valid percentile.");
+        }
+        return Math.max((long) Math.ceil((percentile / 100) * count), 1);
+    }
+
+    private void checkNotEmpty() {
+        if (mCount == 0) {
+            throw new IllegalStateException("No samples in sketch.");
+        }
+    }
+
+    private int getLevelCapacity(int level) {
+        return mDepthCapacities[mLevelCount - 1 - level];
+    }
+
+    // Compacts the lowest level at capacity. As the sketch is full, there is always one.
+    private void compress() {
+        for (int level = 0; level < mLevelCount; level++) {
+            if (mLevelStarts[level + 1] - mLevelStarts[level] >= getLevelCapacity(level)) {
+                compact(level);
+                return;
+            }
+        }
+    }
+
+    // Promotes every other sample of a level to the next one, merging them in order. If the
+    // level holds an odd number of samples, its smallest one stays.
+    private void compact(int level) {
+        if (level == mLevelCount - 1) {
+            if (mLevelCount == MAX_LEVELS) {
+                throw new IllegalStateException("Sketch is full.");
+            }
+            mLevelCount++;
+            mLevelStarts[mLevelCount] = mItems.length;
+        }
+
+        int start = mLevelStarts[level];
+        int end = mLevelStarts[level + 1];
+        int nextEnd = mLevelStarts[level + 2];
+
+        if ((level == 0) && !mLevelZeroSorted) {
+            Arrays.sort(mItems, start, end);
+        }
+
+        int kept = (end - start) & 1;
+        int pairs = (end - start - kept) / 2;
+        int offset = start + kept + nextRandomBit();
+
+        for (int i = 0; i < pairs; i++) {
+            mPromoted[i] = mItems[offset + 2 * i];
+        }
+
+        // Merges into [end - pairs, nextEnd). Writes stay behind the next level's unread samples,
+        // and once the promoted ones are used up the rest are already in place.
+        int write = end - pairs;
+        int promoted = 0;
+        int next = end;
+
+        while (promoted < pairs) {
+            if ((next < nextEnd) && (mItems[next] < mPromoted[promoted])) {
+                mItems[write++] = mItems[next++];
+            } else {
+                mItems[write++] = mPromoted[promoted++];
+            }
+        }
+
+        // The levels below, and the sample kept on this one, move up into the space freed.
+        int lowest = mLevelStarts[0];
+        System.arraycopy(mItems, lowest, mItems, lowest + pairs, start + kept - lowest);
+
+        for (int i = 0; i <= level; i++) {
+            mLevelStarts[i] += pairs;
+        }
+        mLevelStarts[level + 1] = end - pairs;
+
+        if (level == 0) {
+            mLevelZeroSorted = true;
+        }
+    }
+
+    // First index in mItems[start, end) holding a value greater than value.
+    private int upperBound(int start, int end, int value) {
+        int low = start;
+        int high = end;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (mItems[middle] <= value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Xorshift, so compactions don't always promote the same half.
+    private int nextRandomBit() {
+        mRandom ^= mRandom << 13;
+        mRandom ^= mRandom >>> 17;
+        mRandom ^= mRandom << 5;
+        return mRandom & 1;
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Linear corrections of RTT distances (corrected = scale * measured + offset), fitted by {@link
+ * RangeCalibrator} from a reference capture. Access points have their own profile. The device
+ * profile (fitted over all access points) is applied to access points without one. A calibration
+ * is only valid for the device it was fitted on, which is recorded by name.
+ *
+ * <p>The store is small (16 bytes per access point) and read in one go into primitive arrays, so
+ * {@link #correct} is a binary search and a multiply-add without allocating. All values are
+ * little endian:
+ *
+ * <pre>
+ *  header       int magic, short version, short device name length (d), int BSSID count (b),
+ *               float device scale, int device offset (mm)
+ *  device name  d bytes (UTF-8)
+ *  BSSIDs       b longs (packed, ascending)
+ *  scales       b floats
+ *  offsets      b ints (mm)
+ * </pre>
+ *
+ * <p>Immutable and thread safe.
+ */
+public class RangeCalibration {
+
+    // "RTTK"
+    public static final int MAGIC = 0x4B545452;
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 20;
+
+    private final String mDeviceName;
+    private final float mDeviceScale;
+    private final int mDeviceOffsetMm;
+
+    private final long[] mBssids;
+    private final float[] mScales;
+    private final int[] mOffsetsMm;
+
+    // Reads a calibration file. Throws an IOException if it isn't a (complete) calibration.
+    public static RangeCalibration read(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Not a range calibration");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Truncated range calibration");
+                }
+            }
+
+            buffer.flip();
+            return new RangeCalibration(buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    // Reads a calibration from buffer (from position 0).
+    public RangeCalibration(ByteBuffer buffer) throws IOException {
+        ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+        if ((in.limit() < HEADER_SIZE)
+                || (in.getInt(0) != MAGIC)
+                || (in.getShort(4) != VERSION)) {
+            throw new IOException("Not a range calibration");
+        }
+
+        int deviceNameLength = in.getShort(6) & 0xFFFF;
+        int bssidCount = in.getInt(8);
+
+        if ((bssidCount < 0) || (getSize(deviceNameLength, bssidCount) != in.limit())) {
+            throw new IOException("Truncated or corrupt range calibration");
+        }
+
+        mDeviceScale = in.getFloat(12);
+        mDeviceOffsetMm = in.getInt(16);
+
+        byte[] deviceName = new byte[deviceNameLength];
+        in.position(HEADER_SIZE);
+        in.get(deviceName);
+        mDeviceName = new String(deviceName, StandardCharsets.UTF_8);
+
+        mBssids = new long[bssidCount];
+        mScales = new float[bssidCount];
+        mOffsetsMm = new int[bssidCount];
+
+        for (int i = 0; i < bssidCount; i++) {
+            mBssids[i] = in.getLong();
+        }
+
+        for (int i = 0; i < bssidCount; i++) {
+            mScales[i] = in.getFloat();
+        }
+
+        for (int i = 0; i < bssidCount; i++) {
+            mOffsetsMm[i] = in.getInt();
+        }
+
+        for (int i = 1; i < bssidCount; i++) {
+            if (mBssids[i - 1] >= mBssids[i]) {
+                throw new IOException("Range calibration BSSIDs aren't sorted");
+            }
+        }
+    }
+
+    /*
+     * Creates a calibration from the device profile and the first bssidCount access point profiles
+     * in bssids (which must be ascending), scales and offsetsMm. The arrays are copied.
+     */
+    public RangeCalibration(
+            String deviceName,
+            float deviceScale,
+            int deviceOffsetMm,
+            long[] bssids,
+            float[] scales,
+            int[] offsetsMm,
+            int bssidCount) {
+        mDeviceName = deviceName;
+        mDeviceScale = deviceScale;
+        mDeviceOffsetMm = deviceOffsetMm;
+        mBssids = Arrays.copyOf(bssids, bssidCount);
+        mScales = Arrays.copyOf(scales, bssidCount);
+        mOffsetsMm = Arrays.copyOf(offsetsMm, bssidCount);
+
+        for (int i = 1; i < bssidCount; i++) {
+            if (mBssids[i - 1] >= mBssids[i]) {
+                throw new IllegalArgumentException("BSSIDs aren't ascending");
+            }
+        }
+    }
+
+    // Size in bytes of a calibration with the given device name length (UTF-8) and BSSIDs.
+    public static long getSize(int deviceNameLength, int bssidCount) {
+        return HEADER_SIZE + deviceNameLength + 16L * bssidCount;
+    }
+
+    /*
+     * Corrects the distance and its standard deviation of measurement in place, with the profile
+     * of its BSSID (or the device profile). Failed measurements are left alone. A distance that
+     * is corrected below 0 (a bad calibration, or NLOS) is kept negative, so the OutlierRejector
+     * rejects it as invalid instead of it passing as a plausible 0.
+     */
+    public void correct(RangingMeasurement measurement) {
+        if (!measurement.isSuccess()) {
+            return;
+        }
+
+        int index = indexOfBssid(measurement.getBssid());
+        float scale = (index >= 0) ? mScales[index] : mDeviceScale;
+        int offsetMm = (index >= 0) ? mOffsetsMm[index] : mDeviceOffsetMm;
+
+        measurement.setDistance(
+                Math.round(scale * measurement.getDistanceMm()) + offsetMm,
+                Math.round(scale * measurement.getDistanceStdDevMm()));
+    }
+
+    // Index of the profile of bssid, or -1 if it has none (binary search).
+    public int indexOfBssid(long bssid) {
+        int index = Arrays.binarySearch(mBssids, bssid);
+        return (index >= 0) ? index : -1;
+    }
+
+    public String getDeviceName() {
+        return mDeviceName;
+    }
+
+    public float getDeviceScale() {
+        return mDeviceScale;
+    }
+
+    public int getDeviceOffsetMm() {
+        return mDeviceOffsetMm;
+    }
+
+    public int getBssidCount() {
+        return mBssids.length;
+    }
+
+    public long getBssid(int index) {
+        return mBssids[index];
+    }
+
+    public float getScale(int index) {
+        return mScales[index];
+    }
+
+    public int getOffsetMm(int index) {
+        return mOffsetsMm[index];
+    }
+
+    // Returns the calibration in a heap buffer (see above for the format).
+    public ByteBuffer toByteBuffer() {
+        byte[] deviceName = mDeviceName.getBytes(StandardCharsets.UTF_8);
+
+        if (deviceName.length > 0xFFFF) {
+            throw new IllegalStateException("Device name too long: " + mDeviceName);
+        }
+
+        int bssidCount = mBssids.length;
+        ByteBuffer buffer =
+                ByteBuffer.allocate((int) getSize(deviceName.length, bssidCount))
+                        .order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) deviceName.length);
+        buffer.putInt(bssidCount);
+        buffer.putFloat(mDeviceScale);
+        buffer.putInt(mDeviceOffsetMm);
+        buffer.put(deviceName);
+
+        for (int i = 0; i < bssidCount; i++) {
+            buffer.putLong(mBssids[i]);
+        }
+
+        for (int i = 0; i < bssidCount; i++) {
+            buffer.putFloat(mScales[i]);
+        }
+
+        for (int i = 0; i < bssidCount; i++) {
+            buffer.putInt(mOffsetsMm[i]);
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /*
+     * Writes the calibration to file. It is written to a temporary file first and renamed, so
+     * readers never see a partial calibration.
+     */
+    public void write(File file) throws IOException {
+        ByteBuffer buffer = toByteBuffer();
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(temporaryFile, "rw");
+
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            channel.truncate(0);
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } finally {
+            randomAccessFile.close();
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            throw new IOException("Can't rename " + temporaryFile + " to " + file);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RangeCalibration{device: "
+                + mDeviceName
+                + ", scale: "
+                + mDeviceScale
+                + ", offset: "
+                + mDeviceOffsetMm
+                + " mm, BSSIDs: "
+                + mBssids.length
+                + "}";
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.util.Arrays;
+
+/**
+ * Fits a {@link RangeCalibration} from a reference capture: successful distances measured at
+ * known (reference) distances. A least squares line (reference = scale * measured + offset) is
+ * fitted per access point. The device profile is the mean of those (weighted by samples), as one
+ * line through the samples of all access points would be skewed by their different offsets and
+ * distances. Only running sums are kept, so captures of any size can be streamed through {@link
+ * #add}. Not thread safe.
+ *
+ * <p>The scale is only fitted where the reference distances spread over at least {@link
+ * #MIN_REFERENCE_SPREAD_MM} and comes out plausible. Otherwise only the offset is fitted, with the
+ * device scale. Access points with fewer than {@link #MIN_SAMPLES} samples get no profile.
+ */
+public class RangeCalibrator {
+
+    public static final int MIN_SAMPLES = 20;
+
+    // Standard deviation of the reference distances needed to fit a scale.
+    public static final int MIN_REFERENCE_SPREAD_MM = 1000;
+
+    // Scales outside this range point at a bad reference rather than at the hardware.
+    public static final float MIN_SCALE = 0.8f;
+    public static final float MAX_SCALE = 1.25f;
+
+    // Running sums of the measured (x) and reference (y) distances in mm, SUMS per slot.
+    private static final int COUNT = 0;
+    private static final int SUM_X = 1;
+    private static final int SUM_Y = 2;
+    private static final int SUM_XX = 3;
+    private static final int SUM_XY = 4;
+    private static final int SUM_YY = 5;
+    private static final int SUMS = 6;
+
+    private final String mDeviceName;
+
+    // Access points in order of their first sample.
+    private int mBssidCount;
+    private long[] mBssids = new long[16];
+    private double[] mSums = new double[16 * SUMS];
+
+    // Over all access points, fitted if no access point profile could be.
+    private final double[] mDeviceSums = new double[SUMS];
+
+    // deviceName identifies the device the reference capture was taken with.
+    public RangeCalibrator(String deviceName) {
+        mDeviceName = deviceName;
+    }
+
+    // Adds a successful distance measured to bssid at a known reference distance.
+    public void add(long bssid, int referenceDistanceMm, int distanceMm) {
+        int index = indexOfBssid(bssid);
+
+        if (index < 0) {
+            index = addBssid(bssid);
+        }
+
+        addSample(mSums, index * SUMS, distanceMm, referenceDistanceMm);
+        addSample(mDeviceSums, 0, distanceMm, referenceDistanceMm);
+    }
+
+    public int getBssidCount() {
+        return mBssidCount;
+    }
+
+    public long getBssid(int index) {
+        return mBssids[index];
+    }
+
+    // Index of bssid, or -1 if it has no samples.
+    public int indexOfBssid(long bssid) {
+        for (int i = 0; i < mBssidCount; i++) {
+            if (mBssids[i] == bssid) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getNumberOfSamples(int index) {
+        return (int) mSums[index * SUMS + COUNT];
+    }
+
+    public int getNumberOfSamples() {
+        return (int) mDeviceSums[COUNT];
+    }
+
+    // Fits the device profile and the profiles of all access points with enough samples.
+    public RangeCalibration fit() {
+        double scaleSum = 0;
+        double scaleSamples = 0;
+
+        for (int i = 0; i < mBssidCount; i++) {
+            int samples = getNumberOfSamples(i);
+            float scale = fitScale(mSums, i * SUMS, Float.NaN);
+
+            if ((samples >= MIN_SAMPLES) && !Float.isNaN(scale)) {
+                scaleSum += scale * samples;
+                scaleSamples += samples;
+            }
+        }
+
+        float deviceScale =
+                (scaleSamples > 0)
+                        ? (float) (scaleSum / scaleSamples)
+                        : fitScale(mDeviceSums, 0, 1);
+
+        // Profiles are stored sorted by BSSID.
+        long[] bssids = Arrays.copyOf(mBssids, mBssidCount);
+        Arrays.sort(bssids);
+
+        float[] scales = new float[mBssidCount];
+        int[] offsetsMm = new int[mBssidCount];
+        int count = 0;
+        double offsetSum = 0;
+        double offsetSamples = 0;
+
+        for (int i = 0; i < mBssidCount; i++) {
+            int index = indexOfBssid(bssids[i]);
+            int samples = getNumberOfSamples(index);
+
+            if (samples >= MIN_SAMPLES) {
+                bssids[count] = bssids[i];
+                scales[count] = fitScale(mSums, index * SUMS, deviceScale);
+                offsetsMm[count] = fitOffsetMm(mSums, index * SUMS, scales[count]);
+                offsetSum += (double) offsetsMm[count] * samples;
+                offsetSamples += samples;
+                count++;
+            }
+        }
+
+        int deviceOffsetMm = 0;
+
+        if (offsetSamples > 0) {
+            deviceOffsetMm = (int) Math.round(offsetSum / offsetSamples);
+        } else if (getNumberOfSamples() > 0) {
+            deviceOffsetMm = fitOffsetMm(mDeviceSums, 0, deviceScale);
+        }
+
+        return new RangeCalibration(
+                mDeviceName, deviceScale, deviceOffsetMm, bssids, scales, offsetsMm, count);
+    }
+
+    // RMS error (mm) of the samples of an access point corrected with scale and offsetMm.
+    public double getRmsErrorMm(int index, float scale, int offsetMm) {
+        return getRmsErrorMm(mSums, index * SUMS, scale, offsetMm);
+    }
+
+    // RMS error (mm) of all samples, each corrected with its profile in calibration.
+    public double getRmsErrorMm(RangeCalibration calibration) {
+        double squaredErrors = 0;
+
+        for (int i = 0; i < mBssidCount; i++) {
+            int index = calibration.indexOfBssid(mBssids[i]);
+            float scale =
+                    (index >= 0) ? calibration.getScale(index) : calibration.getDeviceScale();
+            int offsetMm =
+                    (index >= 0) ? calibration.getOffsetMm(index) : calibration.getDeviceOffsetMm();
+            double rmsErrorMm = getRmsErrorMm(i, scale, offsetMm);
+
+            squaredErrors += rmsErrorMm * rmsErrorMm * getNumberOfSamples(i);
+        }
+
+        int count = getNumberOfSamples();
+        return (count > 0) ? Math.sqrt(squaredErrors / count) : 0;
+    }
+
+    private int addBssid(long bssid) {
+        if (mBssidCount == mBssids.length) {
+            mBssids = Arrays.copyOf(mBssids, mBssidCount * 2);
+            mSums = Arrays.copyOf(mSums, mBssidCount * 2 * SUMS);
+        }
+
+        mBssids[mBssidCount] = bssid;
+        return mBssidCount++;
+    }
+
+    private static void addSample(double[] sums, int offset, double x, double y) {
+        sums[offset + COUNT]++;
+        sums[offset + SUM_X] += x;
+        sums[offset + SUM_Y] += y;
+        sums[offset + SUM_XX] += x * x;
+        sums[offset + SUM_XY] += x * y;
+        sums[offset + SUM_YY] += y * y;
+    }
+
+    // Least squares scale, or defaultScale if it can't be fitted (see the class comment).
+    private static float fitScale(double[] sums, int offset, float defaultScale) {
+        double count = sums[offset + COUNT];
+        double meanX = sums[offset + SUM_X] / count;
+        double meanY = sums[offset + SUM_Y] / count;
+        double varianceX = sums[offset + SUM_XX] / count - meanX * meanX;
+        double varianceY = sums[offset + SUM_YY] / count - meanY * meanY;
+        double covariance = sums[offset + SUM_XY] / count - meanX * meanY;
+
+        if ((varianceY < (double) MIN_REFERENCE_SPREAD_MM * MIN_REFERENCE_SPREAD_MM)
+                || (varianceX <= 0)) {
+            return defaultScale;
+        }
+
+        double scale = covariance / varianceX;
+        return ((scale >= MIN_SCALE) && (scale <= MAX_SCALE)) ? (float) scale : defaultScale;
+    }
+
+    // Least squares offset for a given scale.
+    private static int fitOffsetMm(double[] sums, int offset, float scale) {
+        return (int)
+                Math.round(
+                        (sums[offset + SUM_Y] - scale * sums[offset + SUM_X])
+                                / sums[offset + COUNT]);
+    }
+
+    // Sum of (y - (scale * x + offsetMm))^2, expanded into the running sums.
+    private static double getRmsErrorMm(double[] sums, int offset, float scale, int offsetMm) {
+        double count = sums[offset + COUNT];
+
+        if (count == 0) {
+            return 0;
+        }
+
+        double squaredErrors =
+                sums[offset + SUM_YY]
+                        - 2 * scale * sums[offset + SUM_XY]
+                        - 2 * offsetMm * sums[offset + SUM_Y]
+                        + (double) scale * scale * sums[offset + SUM_XX]
+                        + 2 * (double) scale * offsetMm * sums[offset + SUM_X]
+                        + count * offsetMm * offsetMm;
+        return Math.sqrt(Math.max(0, squaredErrors) / count);
+    }
+}
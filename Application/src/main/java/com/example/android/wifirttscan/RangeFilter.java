@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Streaming smoother for the successful distances of one peer, kept by its {@link
+ * AccessPointStatistics}. Implementations keep their state in primitives and don't allocate per
+ * update.
+ */
+public interface RangeFilter {
+
+    // Creates a filter for every new peer.
+    interface Factory {
+        RangeFilter create();
+    }
+
+    void reset();
+
+    // Adds a successful distance, returns false if the filter rejected it as an outlier.
+    boolean update(long timestampMillis, int distanceMm, int distanceStdDevMm);
+
+    // False until the first distance was added.
+    boolean hasEstimate();
+
+    double getDistanceMm();
+
+    // Number of distances rejected as outliers since the last reset().
+    int getNumberOfRejections();
+}
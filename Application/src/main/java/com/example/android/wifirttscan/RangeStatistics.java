@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.util.Arrays;
+
+/**
+ * Streaming statistics over the last {@code windowSize} integer samples (e.g. distances in mm).
+ *
+ * <p>Samples are kept in a primitive ring buffer. Mean and variance are updated in O(1) per sample
+ * with a sliding-window form of Welford's algorithm. A sorted copy of the window is also maintained
+ * in place, so min, max and exact percentiles are O(1) reads, but keeping it sorted makes {@link
+ * #add(int)} O(window size) overall (a binary search plus one System.arraycopy shift), and {@link
+ * #getMedianAbsoluteDeviation()} is O(window size) too. Nothing is allocated after construction
+ * (or after a {@link #reset(int)} to a larger window), and the class has no Android dependencies.
+ */
+public class RangeStatistics {
+
+    private int[] mRing;
+    private int[] mSorted;
+
+    private int mWindowSize;
+    private int mCount;
+
+    // Index in mRing where the next sample is written (oldest sample once the window is full).
+    private int mNextIndex;
+
+    private double mMean;
+    // Sum of squared differences from the current mean (Welford's M2).
+    private double mSumOfSquaredDifferences;
+
+    public RangeStatistics(int windowSize) {
+        reset(windowSize);
+    }
+
+    // Clears all samples. Only allocates if the new window is larger than the current buffers.
+    public void reset(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException(windowSize + " isn't a valid window size.");
+        }
+
+        if ((mRing == null) || (mRing.length < windowSize)) {
+            mRing = new int[windowSize];
+            mSorted = new int[windowSize];
+        }
+
+        mWindowSize = windowSize;
+        mCount = 0;
+        mNextIndex = 0;
+        mMean = 0;
+        mSumOfSquaredDifferences = 0;
+    }
+
+    // Adds a sample in O(window size). If the window is full, the oldest sample is replaced.
+    public void add(int value) {
+        if (mCount < mWindowSize) {
+            mCount++;
+
+            double delta = value - mMean;
+            mMean += delta / mCount;
+            mSumOfSquaredDifferences += delta * (value - mMean);
+
+            insertSorted(value, mCount - 1);
+
+        } else {
+            int oldest = mRing[mNextIndex];
+
+            double oldMean = mMean;
+            mMean += (double) (value - oldest) / mCount;
+            mSumOfSquaredDifferences += (value - oldest) * (value - mMean + oldest - oldMean);
+
+            // Rounding can push M2 slightly below zero when the window holds equal values.
+            if (mSumOfSquaredDifferences < 0) {
+                mSumOfSquaredDifferences = 0;
+            }
+
+            replaceSorted(oldest, value);
+        }
+
+        mRing[mNextIndex] = value;
+        mNextIndex++;
+
+        if (mNextIndex >= mWindowSize) {
+            mNextIndex = 0;
+        }
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getWindowSize() {
+        return mWindowSize;
+    }
+
+    // Returns the most recent sample (0 if there are none).
+    public int getLatest() {
+        if (mCount == 0) {
+            return 0;
+        }
+        return mRing[(mNextIndex + mWindowSize - 1) % mWindowSize];
+    }
+
+    // Mean of the samples in the window (NaN if there are none).
+    public double getMean() {
+        return (mCount == 0) ? Double.NaN : mMean;
+    }
+
+    // Population variance of the samples in the window (NaN if there are none).
+    public double getVariance() {
+        return (mCount == 0) ? Double.NaN : mSumOfSquaredDifferences / mCount;
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    public int getMin() {
+        checkNotEmpty();
+        return mSorted[0];
+    }
+
+    public int getMax() {
+        checkNotEmpty();
+        return mSorted[mCount - 1];
+    }
+
+    // Nearest-rank percentile, where percentile is in [0, 100].
+    public int getPercentile(double percentile) {
+        checkNotEmpty();
+
+        if ((percentile < 0) || (percentile > 100)) {
+            throw new IllegalArgumentException(percentile + " isn't a valid percentile.");
+        }
+
+        int rank = (int) Math.ceil((percentile / 100) * mCount);
+        return mSorted[Math.max(rank, 1) - 1];
+    }
+
+    public int getMedian() {
+        return getPercentile(50);
+    }
+
+    /*
+     * Median of the absolute deviations from the median (nearest rank, like getMedian()). The
+     * deviations grow outwards from the median in the sorted window, so the two sides are merged
+     * up to the middle rank in O(window size) without sorting.
+     */
+    public int getMedianAbsoluteDeviation() {
+        checkNotEmpty();
+
+        int rank = (mCount + 1) / 2;
+        int middle = rank - 1;
+        int median = mSorted[middle];
+        int below = middle - 1;
+        int above = middle + 1;
+        int deviation = 0;
+
+        // The median itself is the smallest deviation (rank 1).
+        for (int i = 1; i < rank; i++) {
+            boolean takeBelow =
+                    (below >= 0)
+                            && ((above >= mCount)
+                                    || (median - mSorted[below] <= mSorted[above] - median));
+
+            if (takeBelow) {
+                deviation = median - mSorted[below--];
+            } else {
+                deviation = mSorted[above++] - median;
+            }
+        }
+        return deviation;
+    }
+
+    private void checkNotEmpty() {
+        if (mCount == 0) {
+            throw new IllegalStateException("No samples in window.");
+        }
+    }
+
+    // Inserts value into mSorted[0..size], where size is the number of values already sorted.
+    private void insertSorted(int value, int size) {
+        int index = insertionPoint(value, size);
+        System.arraycopy(mSorted, index, mSorted, index + 1, size - index);
+        mSorted[index] = value;
+    }
+
+    // Removes one occurrence of oldValue from the full sorted window and inserts newValue, only
+    // shifting the elements between the two positions.
+    private void replaceSorted(int oldValue, int newValue) {
+        int removeIndex = Arrays.binarySearch(mSorted, 0, mCount, oldValue);
+
+        if (newValue >= oldValue) {
+            int index = insertionPoint(newValue, mCount) - 1;
+            System.arraycopy(mSorted, removeIndex + 1, mSorted, removeIndex, index - removeIndex);
+            mSorted[index] = newValue;
+
+        } else {
+            int index = insertionPoint(newValue, mCount);
+            System.arraycopy(mSorted, index, mSorted, index + 1, removeIndex - index);
+            mSorted[index] = newValue;
+        }
+    }
+
+    // First index in mSorted[0..size) holding a value greater than value.
+    private int insertionPoint(int value, int size) {
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (mSorted[middle] <= value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import android.view.Choreographer;
+import android.view.View;
+import android.widget.EditText;
+import android.widget.TextView;
+import android.widget.Toast;
+
+/**
+ * Live view of every peer of a running {@link RangingSession} (one row each, see {@link
+ * PeerDashboardAdapter}). The session is found by the BSSIDs it ranges, so ranging is neither
+ * started nor stopped here.
+ *
+ * <p>Also the survey mode of the {@link FingerprintMap}: standing still at a known position, the
+ * current ranges of all peers are added as a fingerprint (see {@link
+ * RangingService#addFingerprint}).
+ *
+ * <p>Like {@link AccessPointRangingResultsActivity}, the rows are updated from a {@link
+ * RangingSnapshot} at most once per frame, using {@link Choreographer}.
+ */
+public class RangingDashboardActivity extends AppCompatActivity {
+
+    // BSSIDs (long[]) of the session to show.
+    public static final String BSSIDS_EXTRA = "com.example.android.wifirttscan.extra.BSSIDS";
+
+    private long[] mBssids;
+
+    private FormattedText mSummaryText;
+    private String mPeersLabel;
+    private String mResultsPerSecondLabel;
+    private String mRejectedLabel;
+    private String mPositionLabel;
+
+    private EditText mSurveyXEditText;
+    private EditText mSurveyYEditText;
+    private EditText mSurveyZEditText;
+    private PeerDashboardAdapter mAdapter;
+
+    // Set while bound to RangingService (only used on the UI thread).
+    private RangingService mRangingService;
+    private RangingSession mRangingSession;
+
+    // Latest snapshot shown in the UI (only used on the UI thread).
+    private final RangingSnapshot mDisplaySnapshot = new RangingSnapshot();
+
+    private final Handler mUiHandler = new Handler();
+    private Choreographer mChoreographer;
+
+    // Set (on the ranging thread) once a frame callback has been requested, cleared on the frame.
+    private volatile boolean mFrameCallbackPending;
+
+    private final Runnable mPostFrameCallbackRunnable =
+            new Runnable() {
+                @Override
+                public void run() {
+                    mChoreographer.postFrameCallback(mFrameCallback);
+                }
+            };
+
+    private final Choreographer.FrameCallback mFrameCallback =
+            new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    mFrameCallbackPending = false;
+
+                    if ((mRangingSession != null)
+                            && mRangingSession.copySnapshot(mDisplaySnapshot)) {
+                        displaySnapshot();
+                    }
+                }
+            };
+
+    // Coalesces snapshot changes into (at most) one UI update per frame.
+    private final RangingSession.SnapshotListener mSnapshotListener =
+            new RangingSession.SnapshotListener() {
+                @Override
+                public void onSnapshotChanged() {
+                    if (!mFrameCallbackPending) {
+                        mFrameCallbackPending = true;
+                        mUiHandler.post(mPostFrameCallbackRunnable);
+                    }
+                }
+            };
+
+    private final ServiceConnection mServiceConnection =
+            new ServiceConnection() {
+                @Override
+                public void onServiceConnected(ComponentName name, IBinder service) {
+                    mRangingService = ((RangingService.LocalBinder) service).getService();
+                    mRangingSession = mRangingService.findSession(mBssids, mBssids.length);
+
+                    if (mRangingSession == null) {
+                        mSummaryText.clear().append(getString(R.string.dashboard_no_session));
+                        mSummaryText.show();
+                    } else {
+                        mRangingSession.setSnapshotListener(mSnapshotListener);
+                    }
+                }
+
+                @Override
+                public void onServiceDisconnected(ComponentName name) {
+                    mRangingService = null;
+                    mRangingSession = null;
+                }
+            };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_ranging_dashboard);
+
+        mBssids = getIntent().getLongArrayExtra(BSSIDS_EXTRA);
+
+        if (mBssids == null) {
+            finish();
+            return;
+        }
+
+        mSummaryText =
+                new FormattedText((TextView) findViewById(R.id.dashboard_summary_text_view));
+        mPeersLabel = getString(R.string.dashboard_peers);
+        mResultsPerSecondLabel = getString(R.string.dashboard_results_per_second);
+        mRejectedLabel = getString(R.string.dashboard_rejected);
+        mPositionLabel = getString(R.string.dashboard_position);
+
+        mSurveyXEditText = findViewById(R.id.survey_x_edit_value);
+        mSurveyYEditText = findViewById(R.id.survey_y_edit_value);
+        mSurveyZEditText = findViewById(R.id.survey_z_edit_value);
+
+        RecyclerView recyclerView = findViewById(R.id.dashboard_recycler_view);
+        recyclerView.setHasFixedSize(true);
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+
+        mAdapter = new PeerDashboardAdapter();
+        recyclerView.setAdapter(mAdapter);
+
+        mChoreographer = Choreographer.getInstance();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(
+                new Intent(this, RangingService.class),
+                mServiceConnection,
+                Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        if (mRangingSession != null) {
+            mRangingSession.removeSnapshotListener(mSnapshotListener);
+        }
+        mRangingService = null;
+        mRangingSession = null;
+        unbindService(mServiceConnection);
+
+        mChoreographer.removeFrameCallback(mFrameCallback);
+        mUiHandler.removeCallbacks(mPostFrameCallbackRunnable);
+        mFrameCallbackPending = false;
+    }
+
+    // Adds the current ranges as a fingerprint at the position entered (z defaults to 0).
+    public void onAddFingerprintButtonClick(View view) {
+        if ((mRangingService == null) || (mRangingSession == null)) {
+            return;
+        }
+
+        float x;
+        float y;
+        float z;
+
+        try {
+            x = Float.parseFloat(mSurveyXEditText.getText().toString());
+            y = Float.parseFloat(mSurveyYEditText.getText().toString());
+            String zText = mSurveyZEditText.getText().toString();
+            z = zText.isEmpty() ? 0 : Float.parseFloat(zText);
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, R.string.survey_invalid_position_message, Toast.LENGTH_SHORT)
+                    .show();
+            return;
+        }
+
+        // Written in the background; fingerprints added meanwhile are written one after another.
+        mRangingService.addFingerprint(
+                x,
+                y,
+                z,
+                mDisplaySnapshot,
+                new RangingService.FingerprintListener() {
+                    @Override
+                    public void onFingerprintAdded(int numberOfFingerprints) {
+                        showFingerprintResult(numberOfFingerprints);
+                    }
+                });
+    }
+
+    // Also called if the activity was stopped in the meantime, hence the application context.
+    private void showFingerprintResult(int numberOfFingerprints) {
+        if (numberOfFingerprints == 0) {
+            Toast.makeText(
+                            getApplicationContext(),
+                            R.string.survey_failed_message,
+                            Toast.LENGTH_SHORT)
+                    .show();
+            return;
+        }
+
+        Toast.makeText(
+                        getApplicationContext(),
+                        getString(R.string.survey_added_message, numberOfFingerprints),
+                        Toast.LENGTH_SHORT)
+                .show();
+    }
+
+    private void displaySnapshot() {
+        RangingSnapshot snapshot = mDisplaySnapshot;
+
+        mAdapter.update(snapshot);
+
+        CharFormatter summary =
+                mSummaryText
+                        .clear()
+                        .append(snapshot.getPeerCount())
+                        .append(' ')
+                        .append(mPeersLabel)
+                        .append(", ")
+                        .append(snapshot.getTotalResultsPerSecond(), 1)
+                        .append(' ')
+                        .append(mResultsPerSecondLabel)
+                        .append(", ")
+                        .append(snapshot.getNumberOfRejectedResults())
+                        .append(' ')
+                        .append(mRejectedLabel);
+
+        if (snapshot.hasPosition()) {
+            summary
+                    .append('\n')
+                    .append(mPositionLabel)
+                    .append(' ')
+                    .append(snapshot.getPositionX(), 2)
+                    .append(", ")
+                    .append(snapshot.getPositionY(), 2)
+                    .append(", ")
+                    .append(snapshot.getPositionZ(), 2)
+                    .append(" (\u00b1")
+                    .append(snapshot.getPositionAccuracy(), 2)
+                    .append(')');
+        }
+        mSummaryText.show();
+    }
+}
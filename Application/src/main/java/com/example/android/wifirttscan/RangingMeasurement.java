@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Android-free copy of the fields read from a {@link android.net.wifi.rtt.RangingResult}, so the
+ * statistics code can consume results from any {@link RangingSource}. Instances are reused by the
+ * sources, so consumers must copy out any values they want to keep after a callback returns.
+ */
+public class RangingMeasurement {
+
+    // Same values as the RangingResult status codes.
+    public static final int STATUS_SUCCESS = 0;
+    public static final int STATUS_FAIL = 1;
+    public static final int STATUS_RESPONDER_DOES_NOT_SUPPORT_IEEE80211MC = 2;
+
+    private long mBssid;
+    private int mStatus;
+    private int mDistanceMm;
+    private int mDistanceStdDevMm;
+    private int mRssi;
+    private int mNumAttemptedMeasurements;
+    private int mNumSuccessfulMeasurements;
+    private long mTimestampMillis;
+
+    public void set(
+            long bssid,
+            int status,
+            int distanceMm,
+            int distanceStdDevMm,
+            int rssi,
+            int numAttemptedMeasurements,
+            int numSuccessfulMeasurements,
+            long timestampMillis) {
+        mBssid = bssid;
+        mStatus = status;
+        mDistanceMm = distanceMm;
+        mDistanceStdDevMm = distanceStdDevMm;
+        mRssi = rssi;
+        mNumAttemptedMeasurements = numAttemptedMeasurements;
+        mNumSuccessfulMeasurements = numSuccessfulMeasurements;
+        mTimestampMillis = timestampMillis;
+    }
+
+    public void set(RangingMeasurement other) {
+        set(
+                other.mBssid,
+                other.mStatus,
+                other.mDistanceMm,
+                other.mDistanceStdDevMm,
+                other.mRssi,
+                other.mNumAttemptedMeasurements,
+                other.mNumSuccessfulMeasurements,
+                other.mTimestampMillis);
+    }
+
+    // Replaces the distance (e.g. with a calibrated one), keeping everything else.
+    public void setDistance(int distanceMm, int distanceStdDevMm) {
+        mDistanceMm = distanceMm;
+        mDistanceStdDevMm = distanceStdDevMm;
+    }
+
+    // BSSID packed with MacAddressUtils.
+    public long getBssid() {
+        return mBssid;
+    }
+
+    public int getStatus() {
+        return mStatus;
+    }
+
+    public boolean isSuccess() {
+        return mStatus == STATUS_SUCCESS;
+    }
+
+    public int getDistanceMm() {
+        return mDistanceMm;
+    }
+
+    public int getDistanceStdDevMm() {
+        return mDistanceStdDevMm;
+    }
+
+    public int getRssi() {
+        return mRssi;
+    }
+
+    public int getNumAttemptedMeasurements() {
+        return mNumAttemptedMeasurements;
+    }
+
+    public int getNumSuccessfulMeasurements() {
+        return mNumSuccessfulMeasurements;
+    }
+
+    public long getTimestampMillis() {
+        return mTimestampMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "RangingMeasurement: bssid="
+                + MacAddressUtils.toString(mBssid)
+                + ", status="
+                + mStatus
+                + ", distanceMm="
+                + mDistanceMm
+                + ", distanceStdDevMm="
+                + mDistanceStdDevMm
+                + ", rssi="
+                + mRssi
+                + ", measurements="
+                + mNumSuccessfulMeasurements
+                + "/"
+                + mNumAttemptedMeasurements
+                + ", timestampMillis="
+                + mTimestampMillis;
+    }
+}
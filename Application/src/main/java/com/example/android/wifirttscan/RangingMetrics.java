@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Registry of ranging metrics, shared by all sessions: request / callback counters, a {@link
+ * Histogram} of request-to-callback latency, failure codes (including timeouts), and per BSSID
+ * request counts, result status counts and distributions of attempted / successful measurements
+ * per result, and the latest successful distance, its standard deviation and RSSI.
+ *
+ * <p>Recording is lock-free (atomic counters, and a copy-on-write array of peers updated with a
+ * compare-and-set) and can happen on any thread; {@link #copyTo(RangingMetricsSnapshot, long)}
+ * takes a snapshot for reading or exporting.
+ */
+public class RangingMetrics {
+
+    // Latencies above this are counted as this.
+    public static final long MAX_LATENCY_MILLIS = 60 * 1000;
+
+    // Under 1% latency error.
+    private static final int LATENCY_PRECISION_BITS = 8;
+
+    // Peers beyond this count are only included in the totals.
+    public static final int MAX_PEERS = 256;
+
+    // Failure codes from FAILURE_CODE_TIMEOUT up get a counter each but the last, which counts
+    // all other codes.
+    public static final int MIN_FAILURE_CODE = RangingSource.FAILURE_CODE_TIMEOUT;
+    public static final int FAILURE_CODE_COUNT = 8;
+
+    // Result statuses from STATUS_SUCCESS up get a counter each but the last (other statuses).
+    public static final int STATUS_COUNT = 4;
+
+    // Attempted / successful measurements per result; MAX_MEASUREMENTS counts larger ones too.
+    public static final int MAX_MEASUREMENTS = 31;
+
+    private volatile long mStartMillis;
+
+    private final AtomicLong mNumberOfRequests = new AtomicLong();
+    private final AtomicLong mNumberOfCallbacks = new AtomicLong();
+    private final AtomicLong mNumberOfLateCallbacks = new AtomicLong();
+    private final AtomicLong mNumberOfResults = new AtomicLong();
+    private final AtomicLong mNumberOfSuccessfulResults = new AtomicLong();
+    private final AtomicLong mNumberOfDroppedPeers = new AtomicLong();
+    private final AtomicLongArray mFailures = new AtomicLongArray(FAILURE_CODE_COUNT);
+    private final Histogram mLatencyMillis =
+            new Histogram(MAX_LATENCY_MILLIS, LATENCY_PRECISION_BITS);
+
+    // Replaced (never modified) when a peer is added.
+    private final AtomicReference<Peer[]> mPeers = new AtomicReference<>(new Peer[0]);
+
+    public RangingMetrics(long nowMillis) {
+        mStartMillis = nowMillis;
+    }
+
+    // Zeroes all metrics (and forgets all peers). Recording while resetting may be partly lost.
+    public void reset(long nowMillis) {
+        mStartMillis = nowMillis;
+        mNumberOfRequests.set(0);
+        mNumberOfCallbacks.set(0);
+        mNumberOfLateCallbacks.set(0);
+        mNumberOfResults.set(0);
+        mNumberOfSuccessfulResults.set(0);
+        mNumberOfDroppedPeers.set(0);
+
+        for (int i = 0; i < FAILURE_CODE_COUNT; i++) {
+            mFailures.set(i, 0);
+        }
+        mLatencyMillis.reset();
+        mPeers.set(new Peer[0]);
+    }
+
+    // A request was sent to the first peerCount BSSIDs.
+    public void onRangingRequest(long[] bssids, int peerCount) {
+        mNumberOfRequests.incrementAndGet();
+
+        for (int i = 0; i < peerCount; i++) {
+            Peer peer = getPeer(bssids[i]);
+
+            if (peer != null) {
+                peer.mNumberOfRequests.incrementAndGet();
+            }
+        }
+    }
+
+    // The callback (results or failure) of a request arrived in time.
+    public void onRangingCallback(long latencyMillis) {
+        mNumberOfCallbacks.incrementAndGet();
+        mLatencyMillis.record(latencyMillis);
+    }
+
+    // The callback of an abandoned request arrived.
+    public void onLateCallback() {
+        mNumberOfLateCallbacks.incrementAndGet();
+    }
+
+    // A request failed with a RangingResultCallback code or RangingSource.FAILURE_CODE_TIMEOUT.
+    public void onRangingFailure(int code) {
+        mFailures.incrementAndGet(slotOf(code - MIN_FAILURE_CODE, FAILURE_CODE_COUNT));
+    }
+
+    public void onRangingResult(RangingMeasurement measurement) {
+        mNumberOfResults.incrementAndGet();
+
+        if (measurement.isSuccess()) {
+            mNumberOfSuccessfulResults.incrementAndGet();
+        }
+
+        Peer peer = getPeer(measurement.getBssid());
+
+        if (peer == null) {
+            return;
+        }
+
+        peer.mStatuses.incrementAndGet(slotOf(measurement.getStatus(), STATUS_COUNT));
+
+        if (measurement.isSuccess()) {
+            peer.mAttemptedMeasurements.incrementAndGet(
+                    slotOf(measurement.getNumAttemptedMeasurements(), MAX_MEASUREMENTS + 1));
+            peer.mSuccessfulMeasurements.incrementAndGet(
+                    slotOf(measurement.getNumSuccessfulMeasurements(), MAX_MEASUREMENTS + 1));
+
+            // Readers may see a mix of two consecutive results, which is fine for display.
+            peer.mLastDistanceMm = measurement.getDistanceMm();
+            peer.mLastDistanceStdDevMm = measurement.getDistanceStdDevMm();
+            peer.mLastRssi = measurement.getRssi();
+        }
+    }
+
+    // Copies all metrics into out, with rates over the time since the last reset.
+    public void copyTo(RangingMetricsSnapshot out, long nowMillis) {
+        out.mElapsedMillis = nowMillis - mStartMillis;
+        out.mNumberOfRequests = mNumberOfRequests.get();
+        out.mNumberOfCallbacks = mNumberOfCallbacks.get();
+        out.mNumberOfLateCallbacks = mNumberOfLateCallbacks.get();
+        out.mNumberOfResults = mNumberOfResults.get();
+        out.mNumberOfSuccessfulResults = mNumberOfSuccessfulResults.get();
+        out.mNumberOfDroppedPeers = mNumberOfDroppedPeers.get();
+
+        for (int i = 0; i < FAILURE_CODE_COUNT; i++) {
+            out.mFailures[i] = mFailures.get(i);
+        }
+        mLatencyMillis.copyTo(out.mLatencyMillis);
+
+        Peer[] peers = mPeers.get();
+        out.setPeerCount(peers.length);
+
+        for (int i = 0; i < peers.length; i++) {
+            Peer peer = peers[i];
+            RangingMetricsSnapshot.PeerSnapshot peerOut = out.getPeer(i);
+
+            peerOut.mBssid = peer.mBssid;
+            peerOut.mNumberOfRequests = peer.mNumberOfRequests.get();
+            peerOut.mLastDistanceMm = peer.mLastDistanceMm;
+            peerOut.mLastDistanceStdDevMm = peer.mLastDistanceStdDevMm;
+            peerOut.mLastRssi = peer.mLastRssi;
+
+            for (int j = 0; j < STATUS_COUNT; j++) {
+                peerOut.mStatuses[j] = peer.mStatuses.get(j);
+            }
+
+            for (int j = 0; j <= MAX_MEASUREMENTS; j++) {
+                peerOut.mAttemptedMeasurements[j] = peer.mAttemptedMeasurements.get(j);
+                peerOut.mSuccessfulMeasurements[j] = peer.mSuccessfulMeasurements.get(j);
+            }
+        }
+    }
+
+    // Finds (or adds) the metrics of a BSSID, null if there are too many peers.
+    private Peer getPeer(long bssid) {
+        while (true) {
+            Peer[] peers = mPeers.get();
+
+            // Peer counts are small, a scan is cheaper than hashing.
+            for (Peer peer : peers) {
+                if (peer.mBssid == bssid) {
+                    return peer;
+                }
+            }
+
+            if (peers.length == MAX_PEERS) {
+                mNumberOfDroppedPeers.incrementAndGet();
+                return null;
+            }
+
+            Peer[] newPeers = new Peer[peers.length + 1];
+            System.arraycopy(peers, 0, newPeers, 0, peers.length);
+            newPeers[peers.length] = new Peer(bssid);
+
+            // Lost the race with another thread adding a peer: look again.
+            if (mPeers.compareAndSet(peers, newPeers)) {
+                return newPeers[peers.length];
+            }
+        }
+    }
+
+    // Counter of a value: its own below count - 1, the last one otherwise.
+    private static int slotOf(int value, int count) {
+        return ((value < 0) || (value >= count - 1)) ? count - 1 : value;
+    }
+
+    private static class Peer {
+        private final long mBssid;
+        private final AtomicLong mNumberOfRequests = new AtomicLong();
+        private final AtomicLongArray mStatuses = new AtomicLongArray(STATUS_COUNT);
+        private final AtomicLongArray mAttemptedMeasurements =
+                new AtomicLongArray(MAX_MEASUREMENTS + 1);
+        private final AtomicLongArray mSuccessfulMeasurements =
+                new AtomicLongArray(MAX_MEASUREMENTS + 1);
+
+        private volatile int mLastDistanceMm;
+        private volatile int mLastDistanceStdDevMm;
+        private volatile int mLastRssi;
+
+        private Peer(long bssid) {
+            mBssid = bssid;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Renders {@link RangingMetrics} as Prometheus metrics: totals, rates, failure codes, a request
+ * latency histogram (with quantiles as gauges, since histograms of different devices aggregate but
+ * quantiles don't) and per BSSID counters, success ratios and latest distances. The snapshot and
+ * the text buffer are reused, so a steady state render doesn't allocate. Not thread safe.
+ */
+public class RangingMetricsExporter {
+
+    // Upper bounds of the exported latency buckets (the registry keeps much finer ones).
+    private static final long[] LATENCY_BUCKETS_MILLIS = {
+        5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000
+    };
+
+    private static final double[] LATENCY_QUANTILES = {0.5, 0.9, 0.99};
+
+    private static final String[] STATUS_LABELS = {"success", "fail", "no_80211mc", "other"};
+
+    private final RangingMetrics mMetrics;
+    private final RangingMetricsSnapshot mSnapshot = new RangingMetricsSnapshot();
+
+    public RangingMetricsExporter(RangingMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    // Appends all metrics as of nowMillis (same clock as the metrics) to writer.
+    public void render(PrometheusTextWriter writer, long nowMillis) {
+        RangingMetricsSnapshot snapshot = mSnapshot;
+        mMetrics.copyTo(snapshot, nowMillis);
+
+        writer.family(
+                "wifirtt_metrics_age_seconds",
+                PrometheusTextWriter.TYPE_GAUGE,
+                "Time since the metrics were reset.");
+        writer.sample("wifirtt_metrics_age_seconds", snapshot.getElapsedMillis() / 1000.0);
+
+        writer.family(
+                "wifirtt_requests_total",
+                PrometheusTextWriter.TYPE_COUNTER,
+                "Ranging requests sent.");
+        writer.sample("wifirtt_requests_total", snapshot.getNumberOfRequests());
+
+        writer.family(
+                "wifirtt_callbacks_total",
+                PrometheusTextWriter.TYPE_COUNTER,
+                "Ranging callbacks received before the request timed out.");
+        writer.sample("wifirtt_callbacks_total", snapshot.getNumberOfCallbacks());
+
+        writer.family(
+                "wifirtt_late_callbacks_total",
+                PrometheusTextWriter.TYPE_COUNTER,
+                "Ranging callbacks received after the request timed out.");
+        writer.sample("wifirtt_late_callbacks_total", snapshot.getNumberOfLateCallbacks());
+
+        writer.family(
+                "wifirtt_failures_total",
+                PrometheusTextWriter.TYPE_COUNTER,
+                "Failed requests by onRangingFailure code (-1 for timeouts).");
+
+        for (int i = 0; i < RangingMetrics.FAILURE_CODE_COUNT - 1; i++) {
+            int code = RangingMetrics.MIN_FAILURE_CODE + i;
+            writer.startSample("wifirtt_failures_total")
+                    .label("code", code)
+                    .endSample(snapshot.getNumberOfFailures(code));
+        }
+        writer.startSample("wifirtt_failures_total")
+                .label("code", "other")
+                .endSample(
+                        snapshot.getNumberOfFailures(
+                                RangingMetrics.MIN_FAILURE_CODE
+                                        + RangingMetrics.FAILURE_CODE_COUNT
+                                        - 1));
+
+        writer.family(
+                "wifirtt_results_total",
+                PrometheusTextWriter.TYPE_COUNTER,
+                "Ranging results (one per peer of every request).");
+        writer.sample("wifirtt_results_total", snapshot.getNumberOfResults());
+
+        writer.family(
+                "wifirtt_successful_results_total",
+                PrometheusTextWriter.TYPE_COUNTER,
+                "Successful ranging results.");
+        writer.sample("wifirtt_successful_results_total", snapshot.getNumberOfSuccessfulResults());
+
+        writer.family(
+                "wifirtt_successful_results_per_second",
+                PrometheusTextWriter.TYPE_GAUGE,
+                "Successful ranging results per second since the metrics were reset.");
+        writer.sample("wifirtt_successful_results_per_second", snapshot.getResultsPerSecond());
+
+        renderLatency(writer, snapshot.getLatencyMillis());
+
+        renderPeers(writer, snapshot);
+    }
+
+    private static void renderLatency(PrometheusTextWriter writer, HistogramSnapshot latency) {
+        writer.family(
+                "wifirtt_request_latency_milliseconds",
+                PrometheusTextWriter.TYPE_HISTOGRAM,
+                "Time from a ranging request to its callback.");
+
+        // Fine buckets entirely below a bound are counted in it, so counts are exact to within
+        // the precision of the registry.
+        long count = 0;
+        int bucket = 0;
+
+        for (long bound : LATENCY_BUCKETS_MILLIS) {
+            while ((bucket < latency.getBucketCount())
+                    && (latency.getBucketUpperBound(bucket) <= bound)) {
+                count += latency.getCountInBucket(bucket++);
+            }
+            writer.startSample("wifirtt_request_latency_milliseconds_bucket")
+                    .label("le", bound)
+                    .endSample(count);
+        }
+        writer.startSample("wifirtt_request_latency_milliseconds_bucket")
+                .label("le", "+Inf")
+                .endSample(latency.getCount());
+        writer.sample("wifirtt_request_latency_milliseconds_sum", latency.getSum());
+        writer.sample("wifirtt_request_latency_milliseconds_count", latency.getCount());
+
+        writer.family(
+                "wifirtt_request_latency_quantile_milliseconds",
+                PrometheusTextWriter.TYPE_GAUGE,
+                "Quantiles of the time from a ranging request to its callback.");
+
+        for (double quantile : LATENCY_QUANTILES) {
+            writer.startSample("wifirtt_request_latency_quantile_milliseconds")
+                    .labelDecimal("quantile", quantile)
+                    .endSample(latency.getValueAtQuantile(quantile));
+        }
+    }
+
+    // Every family is written as one group of samples, one (or more) per peer.
+    private static void renderPeers(PrometheusTextWriter writer, RangingMetricsSnapshot snapshot) {
+        int peerCount = snapshot.getPeerCount();
+        long elapsedMillis = snapshot.getElapsedMillis();
+
+        writer.family(
+                "wifirtt_peer_requests_total",
+                PrometheusTextWriter.TYPE_COUNTER,
+                "Ranging requests including the peer.");
+
+        for (int i = 0; i < peerCount; i++) {
+            RangingMetricsSnapshot.PeerSnapshot peer = snapshot.getPeer(i);
+            writer.startSample("wifirtt_peer_requests_total")
+                    .labelBssid("bssid", peer.getBssid())
+                    .endSample(peer.getNumberOfRequests());
+        }
+
+        writer.family(
+                "wifirtt_peer_results_total",
+                PrometheusTextWriter.TYPE_COUNTER,
+                "Ranging results of the peer by status.");
+
+        for (int i = 0; i < peerCount; i++) {
+            RangingMetricsSnapshot.PeerSnapshot peer = snapshot.getPeer(i);
+
+            for (int status = 0; status < RangingMetrics.STATUS_COUNT; status++) {
+                writer.startSample("wifirtt_peer_results_total")
+                        .labelBssid("bssid", peer.getBssid())
+                        .label("status", STATUS_LABELS[status])
+                        .endSample(peer.getNumberOfResults(status));
+            }
+        }
+
+        writer.family(
+                "wifirtt_peer_success_ratio",
+                PrometheusTextWriter.TYPE_GAUGE,
+                "Successful results per request including the peer.");
+
+        for (int i = 0; i < peerCount; i++) {
+            RangingMetricsSnapshot.PeerSnapshot peer = snapshot.getPeer(i);
+            writer.startSample("wifirtt_peer_success_ratio")
+                    .labelBssid("bssid", peer.getBssid())
+                    .endSample(peer.getSuccessRatio());
+        }
+
+        writer.family(
+                "wifirtt_peer_measurement_success_ratio",
+                PrometheusTextWriter.TYPE_GAUGE,
+                "Successful per attempted measurements of the successful results.");
+
+        for (int i = 0; i < peerCount; i++) {
+            RangingMetricsSnapshot.PeerSnapshot peer = snapshot.getPeer(i);
+            writer.startSample("wifirtt_peer_measurement_success_ratio")
+                    .labelBssid("bssid", peer.getBssid())
+                    .endSample(peer.getMeanMeasurementSuccessRatio());
+        }
+
+        writer.family(
+                "wifirtt_peer_successful_results_per_second",
+                PrometheusTextWriter.TYPE_GAUGE,
+                "Successful results of the peer per second.");
+
+        for (int i = 0; i < peerCount; i++) {
+            RangingMetricsSnapshot.PeerSnapshot peer = snapshot.getPeer(i);
+            writer.startSample("wifirtt_peer_successful_results_per_second")
+                    .labelBssid("bssid", peer.getBssid())
+                    .endSample(
+                            (elapsedMillis <= 0)
+                                    ? 0
+                                    : peer.getNumberOfSuccessfulResults() * 1000.0 / elapsedMillis);
+        }
+
+        // Peers that never succeeded have no distance or RSSI.
+        writer.family(
+                "wifirtt_peer_distance_meters",
+                PrometheusTextWriter.TYPE_GAUGE,
+                "Latest successfully ranged distance.");
+
+        for (int i = 0; i < peerCount; i++) {
+            RangingMetricsSnapshot.PeerSnapshot peer = snapshot.getPeer(i);
+
+            if (peer.getNumberOfSuccessfulResults() > 0) {
+                writer.startSample("wifirtt_peer_distance_meters")
+                        .labelBssid("bssid", peer.getBssid())
+                        .endSample(peer.getLastDistanceMm() / 1000.0);
+            }
+        }
+
+        writer.family(
+                "wifirtt_peer_distance_stddev_meters",
+                PrometheusTextWriter.TYPE_GAUGE,
+                "Standard deviation of the latest successfully ranged distance.");
+
+        for (int i = 0; i < peerCount; i++) {
+            RangingMetricsSnapshot.PeerSnapshot peer = snapshot.getPeer(i);
+
+            if (peer.getNumberOfSuccessfulResults() > 0) {
+                writer.startSample("wifirtt_peer_distance_stddev_meters")
+                        .labelBssid("bssid", peer.getBssid())
+                        .endSample(peer.getLastDistanceStdDevMm() / 1000.0);
+            }
+        }
+
+        writer.family(
+                "wifirtt_peer_rssi_dbm",
+                PrometheusTextWriter.TYPE_GAUGE,
+                "RSSI of the latest successful result.");
+
+        for (int i = 0; i < peerCount; i++) {
+            RangingMetricsSnapshot.PeerSnapshot peer = snapshot.getPeer(i);
+
+            if (peer.getNumberOfSuccessfulResults() > 0) {
+                writer.startSample("wifirtt_peer_rssi_dbm")
+                        .labelBssid("bssid", peer.getBssid())
+                        .endSample(peer.getLastRssi());
+            }
+        }
+    }
+}
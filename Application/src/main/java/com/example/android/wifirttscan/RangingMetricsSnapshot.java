@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Plain copy of {@link RangingMetrics} for reading and exporting (see {@link #print}). Reusable:
+ * copying into the same snapshot again doesn't allocate unless new peers showed up. Not thread
+ * safe.
+ */
+public class RangingMetricsSnapshot {
+
+    long mElapsedMillis;
+    long mNumberOfRequests;
+    long mNumberOfCallbacks;
+    long mNumberOfLateCallbacks;
+    long mNumberOfResults;
+    long mNumberOfSuccessfulResults;
+    long mNumberOfDroppedPeers;
+    final long[] mFailures = new long[RangingMetrics.FAILURE_CODE_COUNT];
+    final HistogramSnapshot mLatencyMillis = new HistogramSnapshot();
+
+    private final ArrayList<PeerSnapshot> mPeers = new ArrayList<>();
+    private int mPeerCount;
+
+    public static class PeerSnapshot {
+        long mBssid;
+        long mNumberOfRequests;
+        int mLastDistanceMm;
+        int mLastDistanceStdDevMm;
+        int mLastRssi;
+        final long[] mStatuses = new long[RangingMetrics.STATUS_COUNT];
+        final long[] mAttemptedMeasurements = new long[RangingMetrics.MAX_MEASUREMENTS + 1];
+        final long[] mSuccessfulMeasurements = new long[RangingMetrics.MAX_MEASUREMENTS + 1];
+
+        public long getBssid() {
+            return mBssid;
+        }
+
+        // Requests including this peer.
+        public long getNumberOfRequests() {
+            return mNumberOfRequests;
+        }
+
+        public long getNumberOfResults() {
+            long results = 0;
+
+            for (long count : mStatuses) {
+                results += count;
+            }
+            return results;
+        }
+
+        public long getNumberOfSuccessfulResults() {
+            return mStatuses[RangingMeasurement.STATUS_SUCCESS];
+        }
+
+        // Successful results per request including this peer (0 to 1).
+        public double getSuccessRatio() {
+            return (mNumberOfRequests == 0)
+                    ? 0
+                    : (double) getNumberOfSuccessfulResults() / mNumberOfRequests;
+        }
+
+        // Latest successful result (only meaningful if there is any).
+        public int getLastDistanceMm() {
+            return mLastDistanceMm;
+        }
+
+        public int getLastDistanceStdDevMm() {
+            return mLastDistanceStdDevMm;
+        }
+
+        public int getLastRssi() {
+            return mLastRssi;
+        }
+
+        // Results with a RangingMeasurement status (STATUS_COUNT - 1 for all other statuses).
+        public long getNumberOfResults(int status) {
+            return mStatuses[status];
+        }
+
+        // Successful results with this many attempted measurements (MAX_MEASUREMENTS or more).
+        public long getNumberOfResultsWithAttempted(int measurements) {
+            return mAttemptedMeasurements[measurements];
+        }
+
+        // Successful results with this many successful measurements (MAX_MEASUREMENTS or more).
+        public long getNumberOfResultsWithSuccessful(int measurements) {
+            return mSuccessfulMeasurements[measurements];
+        }
+
+        // Mean successful / attempted measurements of the successful results.
+        public double getMeanMeasurementSuccessRatio() {
+            long attempted = 0;
+            long successful = 0;
+
+            for (int i = 0; i <= RangingMetrics.MAX_MEASUREMENTS; i++) {
+                attempted += i * mAttemptedMeasurements[i];
+                successful += i * mSuccessfulMeasurements[i];
+            }
+            return (attempted == 0) ? 0 : (double) successful / attempted;
+        }
+    }
+
+    // Time the metrics cover (since the last reset).
+    public long getElapsedMillis() {
+        return mElapsedMillis;
+    }
+
+    public long getNumberOfRequests() {
+        return mNumberOfRequests;
+    }
+
+    // Callbacks (results or failures) received in time.
+    public long getNumberOfCallbacks() {
+        return mNumberOfCallbacks;
+    }
+
+    public long getNumberOfLateCallbacks() {
+        return mNumberOfLateCallbacks;
+    }
+
+    public long getNumberOfResults() {
+        return mNumberOfResults;
+    }
+
+    public long getNumberOfSuccessfulResults() {
+        return mNumberOfSuccessfulResults;
+    }
+
+    public float getResultsPerSecond() {
+        return (mElapsedMillis <= 0) ? 0 : mNumberOfSuccessfulResults * 1000f / mElapsedMillis;
+    }
+
+    // Failures with a code (codes past the tracked ones are counted together, see RangingMetrics).
+    public long getNumberOfFailures(int code) {
+        int slot = code - RangingMetrics.MIN_FAILURE_CODE;
+        return ((slot < 0) || (slot >= mFailures.length - 1))
+                ? mFailures[mFailures.length - 1]
+                : mFailures[slot];
+    }
+
+    public long getNumberOfFailures() {
+        long failures = 0;
+
+        for (long count : mFailures) {
+            failures += count;
+        }
+        return failures;
+    }
+
+    // Requests and results of peers past RangingMetrics.MAX_PEERS (only in the totals).
+    public long getNumberOfDroppedPeers() {
+        return mNumberOfDroppedPeers;
+    }
+
+    // Request-to-callback latency.
+    public HistogramSnapshot getLatencyMillis() {
+        return mLatencyMillis;
+    }
+
+    public int getPeerCount() {
+        return mPeerCount;
+    }
+
+    public PeerSnapshot getPeer(int index) {
+        return mPeers.get(index);
+    }
+
+    void setPeerCount(int peerCount) {
+        while (mPeers.size() < peerCount) {
+            mPeers.add(new PeerSnapshot());
+        }
+        mPeerCount = peerCount;
+    }
+
+    // Prints a human readable dump (e.g. for dumpsys).
+    public void print(PrintWriter writer) {
+        writer.printf(Locale.US, "Ranging metrics over %.1f s:%n", mElapsedMillis / 1000f);
+        writer.printf(
+                Locale.US,
+                "  requests: %d, callbacks: %d, late callbacks: %d, failures: %d%n",
+                mNumberOfRequests,
+                mNumberOfCallbacks,
+                mNumberOfLateCallbacks,
+                getNumberOfFailures());
+
+        for (int i = 0; i < mFailures.length; i++) {
+            if (mFailures[i] > 0) {
+                writer.printf(
+                        Locale.US,
+                        "    failure code %s: %d%n",
+                        (i == mFailures.length - 1)
+                                ? "other"
+                                : String.valueOf(i + RangingMetrics.MIN_FAILURE_CODE),
+                        mFailures[i]);
+            }
+        }
+
+        writer.printf(
+                Locale.US,
+                "  results: %d, successful: %d (%.1f/s)%n",
+                mNumberOfResults,
+                mNumberOfSuccessfulResults,
+                getResultsPerSecond());
+        writer.printf(
+                Locale.US,
+                "  latency (ms): mean %.1f, p50 %d, p90 %d, p99 %d, max %d%n",
+                mLatencyMillis.getMean(),
+                mLatencyMillis.getValueAtQuantile(0.5),
+                mLatencyMillis.getValueAtQuantile(0.9),
+                mLatencyMillis.getValueAtQuantile(0.99),
+                mLatencyMillis.getMax());
+
+        for (int i = 0; i < mPeerCount; i++) {
+            PeerSnapshot peer = mPeers.get(i);
+            writer.printf(
+                    Locale.US,
+                    "  %s: requests %d, results %d, statuses %d/%d/%d/%d, measurements %.2f%n",
+                    MacAddressUtils.toString(peer.mBssid),
+                    peer.mNumberOfRequests,
+                    peer.getNumberOfResults(),
+                    peer.mStatuses[0],
+                    peer.mStatuses[1],
+                    peer.mStatuses[2],
+                    peer.mStatuses[3],
+                    peer.getMeanMeasurementSuccessRatio());
+        }
+
+        if (mNumberOfDroppedPeers > 0) {
+            writer.printf(Locale.US, "  untracked peer events: %d%n", mNumberOfDroppedPeers);
+        }
+    }
+}
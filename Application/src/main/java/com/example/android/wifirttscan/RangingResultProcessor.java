@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Processing applied to every ranging result, shared by live ranging ({@link RangingSession}) and
+ * replayed captures ({@link CaptureReplayer}): corrects the result with the {@link
+ * RangeCalibration} (if set), finds the {@link AccessPointStatistics} of the result's BSSID and
+ * adds the result to them (through the peer's {@link OutlierRejector}, if set). Android-free and
+ * not thread safe.
+ */
+public class RangingResultProcessor {
+
+    private final ArrayList<AccessPointStatistics> mStatistics = new ArrayList<>();
+    private int mSampleSize;
+    private boolean mAddUnknownPeers;
+    private RangeFilter.Factory mRangeFilterFactory;
+    private OutlierRejector.Factory mOutlierRejectorFactory;
+    private RangeCalibration mCalibration;
+
+    private int mNumberOfResults;
+    private int mNumberOfUnknownResults;
+    private int mNumberOfRejectedResults;
+
+    // Sets (or clears) the filter given to the statistics of every peer from the next reset() on.
+    public void setRangeFilterFactory(RangeFilter.Factory rangeFilterFactory) {
+        mRangeFilterFactory = rangeFilterFactory;
+    }
+
+    // Sets (or clears) the rejector given to the statistics of every peer from the next reset() on.
+    public void setOutlierRejectorFactory(OutlierRejector.Factory outlierRejectorFactory) {
+        mOutlierRejectorFactory = outlierRejectorFactory;
+    }
+
+    /*
+     * Sets (or clears) the calibration. Results are corrected in place, so everything reading them
+     * after onRangingResult() sees calibrated distances.
+     */
+    public void setCalibration(RangeCalibration calibration) {
+        mCalibration = calibration;
+    }
+
+    public RangeCalibration getCalibration() {
+        return mCalibration;
+    }
+
+    /*
+     * Drops all statistics and starts over with the first peerCount BSSIDs. Results for other
+     * BSSIDs are only counted as unknown, unless addUnknownPeers is set (e.g. for replays, where
+     * the peers aren't known up front).
+     */
+    public void reset(long[] bssids, int peerCount, int sampleSize, boolean addUnknownPeers) {
+        mStatistics.clear();
+        mSampleSize = sampleSize;
+        mAddUnknownPeers = addUnknownPeers;
+
+        for (int i = 0; i < peerCount; i++) {
+            addStatistics(bssids[i]);
+        }
+
+        mNumberOfResults = 0;
+        mNumberOfUnknownResults = 0;
+        mNumberOfRejectedResults = 0;
+    }
+
+    // Called every time a request for the first peerCount BSSIDs is sent.
+    public void onRangingRequest(long[] bssids, int peerCount) {
+        for (int i = 0; i < peerCount; i++) {
+            int index = indexOf(bssids[i]);
+
+            if (index >= 0) {
+                mStatistics.get(index).onRangingRequest();
+            }
+        }
+    }
+
+    /*
+     * Adds a result to the statistics of its BSSID and returns their index, or -1 if the BSSID
+     * isn't a peer. Whether the result was used is in isLastResultSuccessful() of the statistics.
+     */
+    public int onRangingResult(RangingMeasurement measurement) {
+        mNumberOfResults++;
+
+        if (mCalibration != null) {
+            mCalibration.correct(measurement);
+        }
+
+        int index = indexOf(measurement.getBssid());
+
+        if (index < 0) {
+            if (!mAddUnknownPeers) {
+                mNumberOfUnknownResults++;
+                return -1;
+            }
+
+            index = mStatistics.size();
+            addStatistics(measurement.getBssid());
+        }
+
+        AccessPointStatistics statistics = mStatistics.get(index);
+        statistics.onRangingResult(measurement);
+
+        if (statistics.isLastResultRejected()) {
+            mNumberOfRejectedResults++;
+        }
+        return index;
+    }
+
+    // Returns the index of the statistics for bssid, or -1 if it isn't a peer.
+    public int indexOf(long bssid) {
+        for (int i = 0; i < mStatistics.size(); i++) {
+            if (mStatistics.get(i).getBssid() == bssid) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getPeerCount() {
+        return mStatistics.size();
+    }
+
+    public AccessPointStatistics getStatistics(int index) {
+        return mStatistics.get(index);
+    }
+
+    // Statistics of all peers, in the order of the BSSIDs passed to reset() (then first seen).
+    public List<AccessPointStatistics> getStatistics() {
+        return mStatistics;
+    }
+
+    public int getNumberOfResults() {
+        return mNumberOfResults;
+    }
+
+    // Results for BSSIDs that aren't peers.
+    public int getNumberOfUnknownResults() {
+        return mNumberOfUnknownResults;
+    }
+
+    // Successful results dropped by the OutlierRejectors.
+    public int getNumberOfRejectedResults() {
+        return mNumberOfRejectedResults;
+    }
+
+    // Results rejected (or, for STAGE_RSSI, down-weighted) in an OutlierRejector stage, all peers.
+    public int getNumberOfRejectedResults(int stage) {
+        int count = 0;
+
+        for (int i = 0; i < mStatistics.size(); i++) {
+            OutlierRejector outlierRejector = mStatistics.get(i).getOutlierRejector();
+
+            if (outlierRejector != null) {
+                count += outlierRejector.getCount(stage);
+            }
+        }
+        return count;
+    }
+
+    private void addStatistics(long bssid) {
+        AccessPointStatistics statistics = new AccessPointStatistics(bssid, mSampleSize);
+
+        if (mRangeFilterFactory != null) {
+            statistics.setRangeFilter(mRangeFilterFactory.create());
+        }
+
+        if (mOutlierRejectorFactory != null) {
+            statistics.setOutlierRejector(mOutlierRejectorFactory.create());
+        }
+        mStatistics.add(statistics);
+    }
+}
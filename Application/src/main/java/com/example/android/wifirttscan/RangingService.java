@@ -0,0 +1,756 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.net.wifi.ScanResult;
+import android.net.wifi.rtt.WifiRttManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Foreground service that owns all {@link RangingSession}s, so ranging (and its statistics and
+ * scheduling) survives activity recreation and keeps going with the screen off. A partial wake
+ * lock is held while any session runs, so the CPU doesn't suspend (stopping the ranging thread's
+ * delayed requests and the RTT callbacks) during long captures. Activities start the service,
+ * bind to it to start / stop sessions for a set of BSSIDs, and read the sessions' snapshots. The
+ * service stops itself once the last session is stopped.
+ *
+ * <p>Raw results of all sessions can be recorded into a {@link CaptureLog} in the "captures"
+ * directory of the app files (see {@link #setCaptureEnabled(boolean)}). For offline analysis,
+ * captures are exported into a compact {@link SessionExport} in the "exports" directory of the
+ * external app files, where "adb pull" can get it (see {@link #exportCaptures}). If the app files
+ * contain
+ * {@link AccessPointLocations} ("access_point_locations.txt"), sessions also solve for position.
+ * Sessions also locate the device in the {@link FingerprintMap} ("fingerprints.rttmap", memory
+ * mapped on creation), which is extended by surveying (see {@link #addFingerprint}). Distances
+ * are corrected with the {@link RangeCalibration} in the app files ("calibration.rttcal", fitted
+ * offline from a reference capture), if it was fitted on this device model.
+ *
+ * <p>Requests, callbacks and results of all sessions are recorded into {@link RangingMetrics} and
+ * printed by "adb shell dumpsys activity service RangingService". On request (see {@link
+ * #setMetricsServerEnabled(boolean)}), they are also served in the Prometheus text format by a
+ * {@link MetricsHttpServer} on the loopback interface. Scrape it from the development machine
+ * through "adb forward tcp:9464 tcp:9464", at http://localhost:9464/metrics.
+ *
+ * <p>While running, the service keeps the {@link WifiScanScheduler} going, so access points stay
+ * fresh with the screen off, and hands changed access points to the ranging source.
+ */
+public class RangingService extends Service {
+    private static final String TAG = "RangingService";
+
+    // Stops all sessions (used by the notification).
+    public static final String ACTION_STOP_ALL_SESSIONS =
+            "com.example.android.wifirttscan.action.STOP_ALL_SESSIONS";
+
+    private static final String WAKE_LOCK_TAG = "WifiRttScan:RangingService";
+
+    private static final String NOTIFICATION_CHANNEL_ID = "ranging";
+    private static final int NOTIFICATION_ID = 1;
+
+    private static final String CAPTURE_DIRECTORY = "captures";
+    private static final String CAPTURE_PREFIX = "ranging";
+    private static final String EXPORT_DIRECTORY = "exports";
+    private static final String ACCESS_POINT_LOCATIONS_FILE = "access_point_locations.txt";
+    private static final String FINGERPRINT_MAP_FILE = "fingerprints.rttmap";
+    private static final String CALIBRATION_FILE = "calibration.rttcal";
+
+    // Port of the metrics endpoint (the usual Prometheus exporter port range).
+    private static final int METRICS_PORT = 9464;
+
+    // Called on the main thread when exportCaptures() is done.
+    public interface ExportListener {
+        // file is null if the export failed.
+        void onExportFinished(File file);
+    }
+
+    // Called on the main thread when addFingerprint() is done.
+    public interface FingerprintListener {
+        // numberOfFingerprints is 0 if there were no ranges or the map couldn't be written.
+        void onFingerprintAdded(int numberOfFingerprints);
+    }
+
+    private final IBinder mBinder = new LocalBinder();
+
+    // Held while there are sessions (main thread).
+    private PowerManager.WakeLock mWakeLock;
+
+    private HandlerThread mRangingThread;
+    private Handler mRangingHandler;
+    private WifiRttRangingSource mRangingSource;
+
+    // Exports and fingerprint map writes run on their own thread, so neither ranging nor the UI
+    // is held up by the file I/O.
+    private HandlerThread mExportThread;
+    private Handler mExportHandler;
+
+    // Latest fingerprint map written, which the next fingerprint is added to (export thread).
+    private FingerprintMap mSurveyFingerprintMap;
+
+    // Only used on the main thread.
+    private final ArrayList<RangingSession> mSessions = new ArrayList<>();
+    private CaptureLogWriter mCaptureLogWriter;
+    private Runnable mCaptureFlushRunnable;
+    private AccessPointLocations mAccessPointLocations;
+    private FingerprintMap mFingerprintMap;
+    private RangeCalibration mCalibration;
+    private final RangingMetrics mMetrics = new RangingMetrics(SystemClock.elapsedRealtime());
+    private MetricsHttpServer mMetricsServer;
+
+    private WifiScanScheduler mWifiScanScheduler;
+    private final ArrayList<ScanResult> mScanResults = new ArrayList<>();
+
+    private final WifiScanScheduler.Listener mAccessPointsListener =
+            new WifiScanScheduler.Listener() {
+                @Override
+                public void onAccessPointsChanged() {
+                    // Requests are built from the latest ScanResult of every access point.
+                    ScanResultCache.getInstance()
+                            .getRanked80211mcResponders(Integer.MAX_VALUE, mScanResults);
+                    mRangingSource.addAccessPoints(mScanResults);
+                }
+            };
+
+    public class LocalBinder extends Binder {
+        public RangingService getService() {
+            return RangingService.this;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Ranging, statistics and scheduling of all sessions run on this thread.
+        mRangingThread = new HandlerThread("RangingThread", Process.THREAD_PRIORITY_BACKGROUND);
+        mRangingThread.start();
+        mRangingHandler = new Handler(mRangingThread.getLooper());
+
+        mExportThread = new HandlerThread("ExportThread", Process.THREAD_PRIORITY_BACKGROUND);
+        mExportThread.start();
+        mExportHandler = new Handler(mExportThread.getLooper());
+
+        // Ranging callbacks are delivered on the ranging thread instead of the main thread.
+        Executor rangingExecutor =
+                new Executor() {
+                    @Override
+                    public void execute(Runnable runnable) {
+                        mRangingHandler.post(runnable);
+                    }
+                };
+
+        mWakeLock =
+                ((PowerManager) getSystemService(Context.POWER_SERVICE))
+                        .newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_TAG);
+        mWakeLock.setReferenceCounted(false);
+
+        mRangingSource =
+                new WifiRttRangingSource(
+                        (WifiRttManager) getSystemService(Context.WIFI_RTT_RANGING_SERVICE),
+                        rangingExecutor);
+
+        NotificationChannel channel =
+                new NotificationChannel(
+                        NOTIFICATION_CHANNEL_ID,
+                        getString(R.string.notification_channel_name_ranging_service),
+                        NotificationManager.IMPORTANCE_LOW);
+        ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE))
+                .createNotificationChannel(channel);
+
+        mAccessPointLocations = readAccessPointLocations();
+        mFingerprintMap = openFingerprintMap();
+        mSurveyFingerprintMap = mFingerprintMap;
+        mCalibration = readCalibration();
+
+        // Sessions are only started by activities holding the location permission.
+        mWifiScanScheduler = WifiScanScheduler.getInstance(this);
+        mWifiScanScheduler.addListener(mAccessPointsListener);
+        mWifiScanScheduler.start();
+
+        mMetricsServer = createMetricsServer();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        Log.d(TAG, "onStartCommand(): " + intent);
+
+        // Must always be called after startForegroundService(), even if we stop right away.
+        startForeground(NOTIFICATION_ID, buildNotification());
+
+        if ((intent != null) && ACTION_STOP_ALL_SESSIONS.equals(intent.getAction())) {
+            stopAllSessions();
+        } else if (mSessions.isEmpty()) {
+            // Started without a session following (e.g. restarted after being killed).
+            stopIfIdle();
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        for (RangingSession session : mSessions) {
+            stopSessionInternal(session);
+        }
+        mSessions.clear();
+        updateWakeLock();
+
+        mWifiScanScheduler.stop();
+        mWifiScanScheduler.removeListener(mAccessPointsListener);
+
+        stopMetricsServer();
+        closeCaptureLog();
+        mRangingThread.quitSafely();
+        mExportThread.quitSafely();
+    }
+
+    // Returns the session ranging exactly the first peerCount BSSIDs, or null.
+    public RangingSession findSession(long[] bssids, int peerCount) {
+        for (RangingSession session : mSessions) {
+            if (session.hasPeers(bssids, peerCount)) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Starts ranging the first peerCount BSSIDs (all must be in accessPoints). If a session for the
+     * same BSSIDs exists it is restarted with the new settings, otherwise a new one is created.
+     */
+    public RangingSession startSession(
+            List<ScanResult> accessPoints,
+            long[] bssids,
+            int peerCount,
+            int sampleSize,
+            int periodMillis,
+            boolean adaptivePeriod,
+            int requestsInFlight) {
+        mRangingSource.addAccessPoints(accessPoints);
+
+        RangingSession session = findSession(bssids, peerCount);
+
+        if (session == null) {
+            session = new RangingSession(mRangingSource, mRangingHandler);
+            session.setCaptureLogWriter(mCaptureLogWriter);
+            session.setAccessPointLocations(mAccessPointLocations);
+            session.setFingerprintMap(mFingerprintMap);
+            session.setCalibration(mCalibration);
+            session.setScanResultCache(ScanResultCache.getInstance());
+            session.setMetrics(mMetrics);
+            mSessions.add(session);
+        }
+
+        session.start(
+                bssids, peerCount, sampleSize, periodMillis, adaptivePeriod, requestsInFlight);
+        updateWakeLock();
+        updateNotification();
+        return session;
+    }
+
+    public void stopSession(RangingSession session) {
+        if (mSessions.remove(session)) {
+            stopSessionInternal(session);
+        }
+        stopIfIdle();
+    }
+
+    public void stopAllSessions() {
+        for (RangingSession session : mSessions) {
+            stopSessionInternal(session);
+        }
+        mSessions.clear();
+        stopIfIdle();
+    }
+
+    public int getNumberOfSessions() {
+        return mSessions.size();
+    }
+
+    // Metrics of all sessions since the service was created (recorded on the ranging thread).
+    public RangingMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Sessions: " + mSessions.size() + ", capturing: " + isCaptureEnabled());
+        writer.println("Device: " + getDeviceName() + ", calibration: " + mCalibration);
+
+        RangingMetricsSnapshot snapshot = new RangingMetricsSnapshot();
+        mMetrics.copyTo(snapshot, SystemClock.elapsedRealtime());
+        snapshot.print(writer);
+    }
+
+    /*
+     * Starts (in a new file) or stops recording the raw results of all sessions. Returns false if
+     * the capture log couldn't be opened.
+     */
+    public boolean setCaptureEnabled(boolean enabled) {
+        if (!enabled) {
+            closeCaptureLog();
+            return true;
+        }
+
+        if (mCaptureLogWriter != null) {
+            return true;
+        }
+
+        try {
+            mCaptureLogWriter =
+                    new CaptureLogWriter(
+                            new File(getFilesDir(), CAPTURE_DIRECTORY), CAPTURE_PREFIX);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't open capture log: " + e);
+            return false;
+        }
+
+        for (RangingSession session : mSessions) {
+            session.setCaptureLogWriter(mCaptureLogWriter);
+        }
+
+        mCaptureFlushRunnable = newCaptureFlushRunnable(mCaptureLogWriter);
+        mRangingHandler.postDelayed(mCaptureFlushRunnable, CaptureLogWriter.FLUSH_INTERVAL_MILLIS);
+        return true;
+    }
+
+    public boolean isCaptureEnabled() {
+        return mCaptureLogWriter != null;
+    }
+
+    /*
+     * Starts or stops the metrics endpoint. It is off by default: every app holding the INTERNET
+     * permission can connect to the loopback interface, and the per BSSID ranges and RSSI are
+     * location data. Returns false if the endpoint couldn't be started (e.g. port in use).
+     */
+    public boolean setMetricsServerEnabled(boolean enabled) {
+        if (!enabled) {
+            stopMetricsServer();
+            return true;
+        }
+
+        if (isMetricsServerEnabled()) {
+            return true;
+        }
+
+        try {
+            mMetricsServer.start(InetAddress.getLoopbackAddress(), METRICS_PORT);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't start metrics endpoint: " + e);
+            return false;
+        }
+        return true;
+    }
+
+    public boolean isMetricsServerEnabled() {
+        return mMetricsServer.getPort() >= 0;
+    }
+
+    /*
+     * Exports all captures into a new SessionExport (the one being recorded up to its last flush)
+     * on the export thread. listener is called on the main thread once it is done.
+     */
+    public void exportCaptures(final ExportListener listener) {
+        final Executor mainExecutor = getMainExecutor();
+
+        mExportHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        final File file = exportCaptures();
+
+                        mainExecutor.execute(
+                                new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        listener.onExportFinished(file);
+                                    }
+                                });
+                    }
+                });
+    }
+
+    /*
+     * Surveys a fingerprint at (x, y, z) meters: the mean distance and the RSSI of every peer of
+     * snapshot with a result. The whole map file is rewritten on the export thread (its size grows
+     * with the survey), then the new map is handed to all sessions and listener is called on the
+     * main thread.
+     */
+    public void addFingerprint(
+            final float x,
+            final float y,
+            final float z,
+            RangingSnapshot snapshot,
+            final FingerprintListener listener) {
+        // The snapshot keeps changing, so the ranges are copied first.
+        final long[] bssids = new long[snapshot.getPeerCount()];
+        final int[] distancesMm = new int[bssids.length];
+        final int[] rssis = new int[bssids.length];
+        int ranges = 0;
+
+        for (int i = 0; i < snapshot.getPeerCount(); i++) {
+            if (snapshot.hasResult(i)) {
+                bssids[ranges] = snapshot.getBssid(i);
+                distancesMm[ranges] = Math.round(snapshot.getDistanceMeanMm(i));
+                rssis[ranges] = snapshot.getRssi(i);
+                ranges++;
+            }
+        }
+
+        final int rangeCount = ranges;
+        final Executor mainExecutor = getMainExecutor();
+
+        mExportHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        final FingerprintMap fingerprintMap =
+                                (rangeCount > 0)
+                                        ? writeFingerprintMap(
+                                                x, y, z, bssids, distancesMm, rssis, rangeCount)
+                                        : null;
+
+                        mainExecutor.execute(
+                                new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        onFingerprintMapWritten(fingerprintMap, listener);
+                                    }
+                                });
+                    }
+                });
+    }
+
+    /*
+     * Adds a fingerprint to the latest map and rewrites the map file (on the export thread).
+     * Returns the new map, or null if it couldn't be written.
+     */
+    private FingerprintMap writeFingerprintMap(
+            float x,
+            float y,
+            float z,
+            long[] bssids,
+            int[] distancesMm,
+            int[] rssis,
+            int rangeCount) {
+        FingerprintMapWriter writer = new FingerprintMapWriter();
+
+        if (mSurveyFingerprintMap != null) {
+            writer.addAll(mSurveyFingerprintMap);
+        }
+        writer.beginFingerprint(x, y, z);
+
+        for (int i = 0; i < rangeCount; i++) {
+            writer.addRange(bssids[i], distancesMm[i], rssis[i]);
+        }
+
+        // Written to a temporary file first, so the map the sessions use stays intact.
+        File file = new File(getFilesDir(), FINGERPRINT_MAP_FILE);
+
+        try {
+            writer.write(file);
+            mSurveyFingerprintMap = FingerprintMap.open(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't write fingerprint map: " + e);
+            return null;
+        }
+        return mSurveyFingerprintMap;
+    }
+
+    // Swaps in the map written by writeFingerprintMap() (on the main thread).
+    private void onFingerprintMapWritten(
+            FingerprintMap fingerprintMap, FingerprintListener listener) {
+        if (fingerprintMap == null) {
+            listener.onFingerprintAdded(0);
+            return;
+        }
+
+        mFingerprintMap = fingerprintMap;
+
+        for (RangingSession session : mSessions) {
+            session.setFingerprintMap(mFingerprintMap);
+        }
+        listener.onFingerprintAdded(mFingerprintMap.getPointCount());
+    }
+
+    // Streams all captures into a new export (on the export thread), returns null if that failed.
+    private File exportCaptures() {
+        File directory = getExternalFilesDir(EXPORT_DIRECTORY);
+
+        if (directory == null) {
+            Log.e(TAG, "Can't export captures: no external storage");
+            return null;
+        }
+
+        File file =
+                new File(
+                        directory,
+                        CAPTURE_PREFIX
+                                + "-"
+                                + System.currentTimeMillis()
+                                + SessionExport.FILE_EXTENSION);
+
+        File captureDirectory = new File(getFilesDir(), CAPTURE_DIRECTORY);
+
+        try {
+            CaptureLogReader reader = new CaptureLogReader(captureDirectory, CAPTURE_PREFIX);
+
+            try {
+                SessionExportWriter writer = new SessionExportWriter(file);
+                RangingMeasurement measurement = new RangingMeasurement();
+
+                try {
+                    while (reader.next(measurement)) {
+                        writer.append(measurement);
+                    }
+                } finally {
+                    writer.close();
+                }
+
+                Log.d(TAG, "Exported " + writer.getNumberOfRecords() + " results to " + file);
+            } finally {
+                reader.close();
+            }
+            return file;
+        } catch (IOException e) {
+            Log.e(TAG, "Can't export captures: " + e);
+            file.delete();
+            return null;
+        }
+    }
+
+    // Returns the access point locations in the app files, or null if there are none.
+    private AccessPointLocations readAccessPointLocations() {
+        File file = new File(getFilesDir(), ACCESS_POINT_LOCATIONS_FILE);
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            FileReader reader = new FileReader(file);
+
+            try {
+                return AccessPointLocations.read(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Can't read access point locations: " + e);
+            return null;
+        }
+    }
+
+    // Maps the fingerprint map in the app files, or returns null if there is none.
+    private FingerprintMap openFingerprintMap() {
+        File file = new File(getFilesDir(), FINGERPRINT_MAP_FILE);
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            return FingerprintMap.open(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't open fingerprint map: " + e);
+            return null;
+        }
+    }
+
+    /*
+     * Reads the calibration in the app files, or returns null if there is none or it was fitted
+     * on another device model (whose biases differ).
+     */
+    private RangeCalibration readCalibration() {
+        File file = new File(getFilesDir(), CALIBRATION_FILE);
+
+        if (!file.exists()) {
+            return null;
+        }
+
+        RangeCalibration calibration;
+
+        try {
+            calibration = RangeCalibration.read(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't read calibration: " + e);
+            return null;
+        }
+
+        if (!calibration.getDeviceName().equals(getDeviceName())) {
+            Log.w(TAG, "Ignoring " + calibration + ", this device is " + getDeviceName());
+            return null;
+        }
+        return calibration;
+    }
+
+    // Name calibrations are fitted for (see dump(), pass it to the calibration tool).
+    public static String getDeviceName() {
+        return Build.MANUFACTURER + " " + Build.MODEL;
+    }
+
+    // Renders the metrics of all sessions; only started by setMetricsServerEnabled().
+    private MetricsHttpServer createMetricsServer() {
+        final RangingMetricsExporter exporter = new RangingMetricsExporter(mMetrics);
+
+        return new MetricsHttpServer(
+                new MetricsHttpServer.Renderer() {
+                    @Override
+                    public void render(PrometheusTextWriter writer) {
+                        exporter.render(writer, SystemClock.elapsedRealtime());
+                    }
+                });
+    }
+
+    private void stopMetricsServer() {
+        try {
+            mMetricsServer.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void stopSessionInternal(RangingSession session) {
+        session.setSnapshotListener(null);
+        session.setCaptureLogWriter(null);
+        session.stop();
+    }
+
+    private void closeCaptureLog() {
+        if (mCaptureLogWriter == null) {
+            return;
+        }
+
+        for (RangingSession session : mSessions) {
+            session.setCaptureLogWriter(null);
+        }
+
+        // Closed on the ranging thread, after the sessions stopped using it.
+        final CaptureLogWriter captureLogWriter = mCaptureLogWriter;
+        final Runnable captureFlushRunnable = mCaptureFlushRunnable;
+        mCaptureLogWriter = null;
+        mCaptureFlushRunnable = null;
+        mRangingHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mRangingHandler.removeCallbacks(captureFlushRunnable);
+
+                        try {
+                            captureLogWriter.close();
+                        } catch (IOException e) {
+                            Log.e(TAG, "Can't close capture log: " + e);
+                        }
+                    }
+                });
+    }
+
+    /*
+     * Returns a runnable (for the ranging thread) that writes out the buffered tail of the capture
+     * log every flush interval, even while ranging stalls and no results are appended.
+     */
+    private Runnable newCaptureFlushRunnable(final CaptureLogWriter captureLogWriter) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    captureLogWriter.flushIfDue();
+                } catch (IOException e) {
+                    // Like the sessions once an append fails (e.g. storage full).
+                    Log.e(TAG, "Can't flush capture log: " + e);
+                    return;
+                }
+                mRangingHandler.postDelayed(this, CaptureLogWriter.FLUSH_INTERVAL_MILLIS);
+            }
+        };
+    }
+
+    private void stopIfIdle() {
+        updateWakeLock();
+
+        if (mSessions.isEmpty()) {
+            // Keeps running while activities are bound, but no longer in the foreground.
+            stopForeground(true);
+            stopSelf();
+        } else {
+            updateNotification();
+        }
+    }
+
+    // Holds the wake lock while there are sessions and releases it after the last one stopped.
+    private void updateWakeLock() {
+        if (!mSessions.isEmpty() && !mWakeLock.isHeld()) {
+            mWakeLock.acquire();
+        } else if (mSessions.isEmpty() && mWakeLock.isHeld()) {
+            mWakeLock.release();
+        }
+    }
+
+    private void updateNotification() {
+        ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE))
+                .notify(NOTIFICATION_ID, buildNotification());
+    }
+
+    private Notification buildNotification() {
+        Intent stopIntent = new Intent(this, RangingService.class);
+        stopIntent.setAction(ACTION_STOP_ALL_SESSIONS);
+
+        Notification.Action stopAction =
+                new Notification.Action.Builder(
+                                null,
+                                getString(R.string.notification_stop_action_ranging_service),
+                                PendingIntent.getService(this, 0, stopIntent, 0))
+                        .build();
+
+        return new Notification.Builder(this, NOTIFICATION_CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_round_network_wifi_white_24px)
+                .setContentTitle(getString(R.string.notification_title_ranging_service))
+                .setContentText(
+                        getString(R.string.notification_text_ranging_service, mSessions.size()))
+                .setOngoing(true)
+                .addAction(stopAction)
+                .build();
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Ranges a set of BSSIDs on a background thread: runs the {@link PipelinedRangingController},
+ * whose {@link RangingSessionListener} feeds every result through the {@link
+ * RangingResultProcessor} (smoothing each peer's distance
+ * with a {@link KalmanRangeFilter}) and picks request delays with the {@link
+ * AdaptiveRangingScheduler}. When there are more peers than fit in one request, a {@link
+ * PeerSelectionPolicy} picks the peers of every request (always including the first one). With
+ * known access point locations, position fixes are tracked with a {@link
+ * ConstantVelocityKalmanFilter}; otherwise (or while too few located access points answer) a
+ * {@link FingerprintMap}, if set, is searched instead. All of this happens on the looper of the
+ * Handler passed in (the source callbacks must be delivered there too); the UI only ever reads a
+ * {@link RangingSnapshot}.
+ *
+ * <p>New results are coalesced: the {@link SnapshotListener} is only called when the snapshot goes
+ * from read to changed, so a reader that copies it once per frame sees at most one update per
+ * frame no matter how fast results arrive.
+ */
+public class RangingSession {
+    private static final String TAG = "RangingSession";
+
+    // Requests without a callback after this long are abandoned.
+    private static final int RANGING_REQUEST_TIMEOUT_MILLISECONDS = 5000;
+
+    // Called on the ranging thread when the snapshot has changed since it was last copied.
+    public interface SnapshotListener {
+        void onSnapshotChanged();
+    }
+
+    private final RangingSource mRangingSource;
+    private final Handler mHandler;
+
+    // BSSIDs and time since boot of the last start() (identifies the session, guarded by this).
+    private long[] mBssids = new long[0];
+    private long mStartTimeMillis;
+
+    // Written on the ranging thread, copied out on any thread (guarded by itself).
+    private final RangingSnapshot mSnapshot = new RangingSnapshot();
+    private boolean mSnapshotChanged;
+    private SnapshotListener mSnapshotListener;
+
+    // Everything below is only used on the ranging thread.
+    private final RangingSessionListener mSessionListener;
+    private PipelinedRangingController mRangingController;
+    private CaptureLogWriter mCaptureLogWriter;
+    private ScanResultCache mScanResultCache;
+    private RangingMetrics mMetrics;
+
+    private final Runnable mPumpRunnable =
+            new Runnable() {
+                @Override
+                public void run() {
+                    if (mRangingController != null) {
+                        mRangingController.pump();
+                    }
+                }
+            };
+
+    private final PipelinedRangingController.Host mRangingControllerHost =
+            new PipelinedRangingController.Host() {
+                @Override
+                public long nowMillis() {
+                    return SystemClock.elapsedRealtime();
+                }
+
+                @Override
+                public void wakeUpAt(long timeMillis) {
+                    mHandler.removeCallbacks(mPumpRunnable);
+                    mHandler.postDelayed(
+                            mPumpRunnable,
+                            Math.max(0, timeMillis - SystemClock.elapsedRealtime()));
+                }
+            };
+
+    private final RangingListener mRangingListener = new RangingListener();
+
+    public RangingSession(RangingSource rangingSource, Handler handler) {
+        mRangingSource = rangingSource;
+        mHandler = handler;
+        mSessionListener =
+                new RangingSessionListener(
+                        mSnapshot, rangingSource.getMaxPeers(), mRangingControllerHost);
+    }
+
+    /*
+     * Sets (or clears) the listener. A new listener is called right away, so it picks up the
+     * current snapshot (e.g. after an activity was recreated).
+     */
+    public void setSnapshotListener(SnapshotListener snapshotListener) {
+        synchronized (mSnapshot) {
+            mSnapshotListener = snapshotListener;
+            mSnapshotChanged = true;
+        }
+
+        if (snapshotListener != null) {
+            snapshotListener.onSnapshotChanged();
+        }
+    }
+
+    /*
+     * Clears the listener if it is still the given one. When one activity starts another one on
+     * the same session, the new listener is set before the old activity stops.
+     */
+    public void removeSnapshotListener(SnapshotListener snapshotListener) {
+        synchronized (mSnapshot) {
+            if (mSnapshotListener == snapshotListener) {
+                mSnapshotListener = null;
+            }
+        }
+    }
+
+    // Time since boot of the last (re)start, which dropped all statistics.
+    public synchronized long getStartTimeMillis() {
+        return mStartTimeMillis;
+    }
+
+    // Returns true if the session ranges exactly the first peerCount BSSIDs (in any order).
+    public synchronized boolean hasPeers(long[] bssids, int peerCount) {
+        if (mBssids.length != peerCount) {
+            return false;
+        }
+
+        for (int i = 0; i < peerCount; i++) {
+            boolean found = false;
+
+            for (long bssid : mBssids) {
+                if (bssid == bssids[i]) {
+                    found = true;
+                    break;
+                }
+            }
+
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * (Re)starts ranging the first peerCount BSSIDs with new settings, dropping all statistics.
+     * Can be called from any thread.
+     */
+    public void start(
+            long[] bssids,
+            final int peerCount,
+            final int sampleSize,
+            final int periodMillis,
+            final boolean adaptivePeriod,
+            final int requestsInFlight) {
+        final long[] peers = new long[peerCount];
+        System.arraycopy(bssids, 0, peers, 0, peerCount);
+
+        synchronized (this) {
+            mBssids = peers;
+            mStartTimeMillis = SystemClock.elapsedRealtime();
+        }
+
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        startOnRangingThread(
+                                peers,
+                                sampleSize,
+                                periodMillis,
+                                adaptivePeriod,
+                                requestsInFlight);
+                    }
+                });
+    }
+
+    /*
+     * Sets (or clears) the log all raw results are appended to. The writer is then only used on
+     * the ranging thread, so it must be closed there too. Can be called from any thread.
+     */
+    public void setCaptureLogWriter(final CaptureLogWriter captureLogWriter) {
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mCaptureLogWriter = captureLogWriter;
+                    }
+                });
+    }
+
+    /*
+     * Sets (or clears) the known access point locations. With locations, every batch of results
+     * with enough located access points is solved for a position fix. Can be called from any
+     * thread, but locations must not be changed afterwards.
+     */
+    public void setAccessPointLocations(final AccessPointLocations accessPointLocations) {
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mSessionListener.setAccessPointLocations(accessPointLocations);
+                    }
+                });
+    }
+
+    /*
+     * Sets (or clears) the fingerprint map. Batches without a multilateration fix are then
+     * located by their nearest fingerprints. Can be called from any thread.
+     */
+    public void setFingerprintMap(final FingerprintMap fingerprintMap) {
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mSessionListener.setFingerprintMap(fingerprintMap);
+                    }
+                });
+    }
+
+    /*
+     * Sets (or clears) the calibration of the distances of all following results (captures keep
+     * the measured distances). Can be called from any thread.
+     */
+    public void setCalibration(final RangeCalibration calibration) {
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mSessionListener.setCalibration(calibration);
+                    }
+                });
+    }
+
+    // Sets (or clears) the cache told about the outcome of every result. Any thread.
+    public void setScanResultCache(final ScanResultCache scanResultCache) {
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mScanResultCache = scanResultCache;
+                    }
+                });
+    }
+
+    // Sets (or clears) the metrics of the next start(). Any thread.
+    public void setMetrics(final RangingMetrics metrics) {
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mMetrics = metrics;
+                    }
+                });
+    }
+
+    // Stops ranging. Can be called from any thread.
+    public void stop() {
+        mHandler.post(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        stopOnRangingThread();
+                    }
+                });
+    }
+
+    /*
+     * Copies the latest snapshot into out and marks it as read. Returns false (without copying)
+     * if nothing changed since the last copy. Can be called from any thread.
+     */
+    public boolean copySnapshot(RangingSnapshot out) {
+        synchronized (mSnapshot) {
+            if (!mSnapshotChanged) {
+                return false;
+            }
+            out.copyFrom(mSnapshot);
+            mSnapshotChanged = false;
+            return true;
+        }
+    }
+
+    private void startOnRangingThread(
+            long[] peers,
+            int sampleSize,
+            int periodMillis,
+            boolean adaptivePeriod,
+            int requestsInFlight) {
+        stopOnRangingThread();
+
+        mRangingController =
+                new PipelinedRangingController(
+                        mRangingSource,
+                        requestsInFlight,
+                        RANGING_REQUEST_TIMEOUT_MILLISECONDS,
+                        mRangingControllerHost,
+                        mRangingListener);
+        mRangingController.setMetrics(mMetrics);
+        mSessionListener.start(
+                mRangingController,
+                peers,
+                peers.length,
+                sampleSize,
+                periodMillis,
+                adaptivePeriod);
+        publishSnapshot();
+
+        mRangingController.start();
+    }
+
+    private void stopOnRangingThread() {
+        // Callbacks for requests still in flight are dropped by the old controller.
+        if (mRangingController != null) {
+            mRangingController.stop();
+            mRangingController = null;
+        }
+        mHandler.removeCallbacks(mPumpRunnable);
+    }
+
+    private void publishSnapshot() {
+        SnapshotListener snapshotListener;
+
+        synchronized (mSnapshot) {
+            if (mSnapshotChanged) {
+                // Reader hasn't picked up the previous change yet; it will see this one too.
+                return;
+            }
+            mSnapshotChanged = true;
+            snapshotListener = mSnapshotListener;
+        }
+
+        if (snapshotListener != null) {
+            snapshotListener.onSnapshotChanged();
+        }
+    }
+
+    /*
+     * Logs, captures and publishes the callbacks of all requests of the session around the
+     * RangingSessionListener, which processes them and picks the delay before the next request.
+     */
+    private class RangingListener implements PipelinedRangingController.Listener {
+
+        @Override
+        public void onRangingRequest(int sequence, long[] bssids, int peerCount) {
+            mSessionListener.onRangingRequest(sequence, bssids, peerCount);
+        }
+
+        @Override
+        public long onRangingFailure(int sequence, int code) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "onRangingFailure() sequence: " + sequence + ", code: " + code);
+            }
+            return mSessionListener.onRangingFailure(sequence, code);
+        }
+
+        @Override
+        public long onRangingTimeout(int sequence) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "onRangingTimeout() sequence: " + sequence);
+            }
+            return mSessionListener.onRangingTimeout(sequence);
+        }
+
+        @Override
+        public long onRangingResults(int sequence, List<RangingMeasurement> list) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "onRangingResults() sequence: " + sequence + ", results: " + list);
+            }
+
+            if (mCaptureLogWriter != null) {
+                appendToCaptureLog(list);
+            }
+
+            for (int i = 0; i < list.size(); i++) {
+                RangingMeasurement rangingResult = list.get(i);
+
+                if (mScanResultCache != null) {
+                    mScanResultCache.onRangingResult(
+                            rangingResult.getBssid(), rangingResult.isSuccess());
+                }
+
+                if (!rangingResult.isSuccess() && Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "RangingResult failed, status: " + rangingResult.getStatus());
+                }
+            }
+
+            long delayMillis = mSessionListener.onRangingResults(sequence, list);
+            publishSnapshot();
+            return delayMillis;
+        }
+
+        private void appendToCaptureLog(List<RangingMeasurement> list) {
+            try {
+                for (int i = 0; i < list.size(); i++) {
+                    mCaptureLogWriter.append(list.get(i));
+                }
+            } catch (IOException e) {
+                // Keeps ranging, but stops capturing (e.g. storage full).
+                Log.e(TAG, "Capture log failed, capture stopped: " + e);
+                mCaptureLogWriter = null;
+            }
+        }
+    }
+}
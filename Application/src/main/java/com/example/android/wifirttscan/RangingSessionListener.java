@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.util.List;
+
+/**
+ * Handles the requests and callbacks of the {@link PipelinedRangingController} of a {@link
+ * RangingSession}: feeds every result through the {@link RangingResultProcessor}, writes the
+ * {@link RangingSnapshot}, solves and tracks position fixes (or searches the {@link
+ * FingerprintMap}) and picks the delay before the next request with the {@link
+ * AdaptiveRangingScheduler}.
+ *
+ * <p>This is the Android-free part of the session; the session adds logging, capturing and
+ * publishing the snapshot around it. Only used on the ranging thread, except that the snapshot is
+ * only written while holding its lock.
+ */
+public class RangingSessionListener implements PipelinedRangingController.Listener {
+
+    // Position tracking: acceleration noise of a walking user (m^2 / s^3), unknown initial speed
+    // (up to 2 m/s) and 3 sigma gates for 2 and 3 degrees of freedom.
+    private static final double POSITION_PROCESS_NOISE = 1;
+    private static final double POSITION_INITIAL_VELOCITY_VARIANCE = 4;
+    private static final double POSITION_GATE_2D = 11.6;
+    private static final double POSITION_GATE_3D = 14.2;
+
+    // Fingerprint fixes are the weighted mean of this many nearest fingerprints.
+    private static final int FINGERPRINT_NEIGHBORS = 4;
+
+    private final RangingSnapshot mSnapshot;
+    private final int mMaxPeers;
+    private final PipelinedRangingController.Host mHost;
+
+    private final RangingResultProcessor mResultProcessor = new RangingResultProcessor();
+    private final PeerSelectionPolicy mPeerSelectionPolicy = new PeerSelectionPolicy();
+    private AdaptiveRangingScheduler mRangingScheduler;
+    private PipelinedRangingController mRangingController;
+
+    // Set when access point locations are known.
+    private AccessPointLocations mAccessPointLocations;
+    private MultilaterationSolver mPositionSolver;
+    private ConstantVelocityKalmanFilter mPositionFilter;
+    private final double[] mPositionFix = new double[3];
+    private long mPositionTimestampMillis;
+
+    // Set when a fingerprint map is known.
+    private FingerprintLocator mFingerprintLocator;
+
+    /*
+     * Writes into snapshot, for requests of up to maxPeers peers. The scheduler is given the time
+     * of host.
+     */
+    public RangingSessionListener(
+            RangingSnapshot snapshot, int maxPeers, PipelinedRangingController.Host host) {
+        mSnapshot = snapshot;
+        mMaxPeers = maxPeers;
+        mHost = host;
+        mResultProcessor.setRangeFilterFactory(KalmanRangeFilter.FACTORY);
+        mResultProcessor.setOutlierRejectorFactory(OutlierRejector.FACTORY);
+        // The first peer is the access point the user selected.
+        mPeerSelectionPolicy.setPinnedPeerCount(1);
+    }
+
+    /*
+     * Sets (or clears) the known access point locations. With locations, every batch of results
+     * with enough located access points is solved for a position fix. Locations must not be
+     * changed afterwards.
+     */
+    public void setAccessPointLocations(AccessPointLocations accessPointLocations) {
+        mAccessPointLocations = accessPointLocations;
+
+        if (accessPointLocations == null) {
+            mPositionSolver = null;
+            mPositionFilter = null;
+            return;
+        }
+
+        boolean threeDimensional = accessPointLocations.hasHeights();
+        mPositionSolver = new MultilaterationSolver(mMaxPeers, threeDimensional);
+        mPositionFilter =
+                new ConstantVelocityKalmanFilter(
+                        mPositionSolver.getDimensions(),
+                        POSITION_PROCESS_NOISE,
+                        POSITION_INITIAL_VELOCITY_VARIANCE,
+                        threeDimensional ? POSITION_GATE_3D : POSITION_GATE_2D);
+    }
+
+    // Sets (or clears) the fingerprint map batches without a multilateration fix are located in.
+    public void setFingerprintMap(FingerprintMap fingerprintMap) {
+        mFingerprintLocator =
+                (fingerprintMap != null)
+                        ? new FingerprintLocator(fingerprintMap, FINGERPRINT_NEIGHBORS)
+                        : null;
+    }
+
+    // Sets (or clears) the calibration of the distances of all following results.
+    public void setCalibration(RangeCalibration calibration) {
+        mResultProcessor.setCalibration(calibration);
+    }
+
+    /*
+     * Drops all statistics and the position, and gives rangingController (stopped) the peer
+     * selection and the first peerCount of peers. Its callbacks must come here from now on.
+     */
+    public void start(
+            PipelinedRangingController rangingController,
+            long[] peers,
+            int peerCount,
+            int sampleSize,
+            int periodMillis,
+            boolean adaptivePeriod) {
+        mRangingController = rangingController;
+        mResultProcessor.reset(peers, peerCount, sampleSize, false);
+
+        synchronized (mSnapshot) {
+            mSnapshot.setPeerCount(peerCount);
+
+            for (int i = 0; i < peerCount; i++) {
+                mSnapshot.clearPeer(i, peers[i]);
+            }
+            mSnapshot.setTotals(0, 0, 0);
+            mSnapshot.clearPosition();
+        }
+
+        if (mPositionSolver != null) {
+            mPositionSolver.clearInitialPosition();
+            mPositionFilter.reset();
+        }
+
+        if (mRangingScheduler == null) {
+            mRangingScheduler = new AdaptiveRangingScheduler(periodMillis, adaptivePeriod);
+        } else {
+            mRangingScheduler.reset(periodMillis, adaptivePeriod);
+        }
+
+        // The controller resets the policy, so locations come after the peers.
+        rangingController.setPeerSelectionPolicy(mPeerSelectionPolicy);
+        rangingController.setPeers(peers, peerCount);
+
+        if (mAccessPointLocations != null) {
+            for (int i = 0; i < peerCount; i++) {
+                int index = mAccessPointLocations.indexOf(peers[i]);
+
+                if (index >= 0) {
+                    mPeerSelectionPolicy.setPeerLocation(
+                            i,
+                            mAccessPointLocations.getX(index),
+                            mAccessPointLocations.getY(index));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onRangingRequest(int sequence, long[] bssids, int peerCount) {
+        mResultProcessor.onRangingRequest(bssids, peerCount);
+    }
+
+    @Override
+    public long onRangingFailure(int sequence, int code) {
+        return mRangingScheduler.onRangingFailure(code);
+    }
+
+    @Override
+    public long onRangingTimeout(int sequence) {
+        return mRangingScheduler.onRangingFailure(RangingSource.FAILURE_CODE_TIMEOUT);
+    }
+
+    @Override
+    public long onRangingResults(int sequence, List<RangingMeasurement> list) {
+        synchronized (mSnapshot) {
+            // One result per access point in the request.
+            for (int i = 0; i < list.size(); i++) {
+                RangingMeasurement rangingResult = list.get(i);
+                int index = mResultProcessor.onRangingResult(rangingResult);
+
+                if (index < 0) {
+                    continue;
+                }
+
+                AccessPointStatistics statistics = mResultProcessor.getStatistics(index);
+                boolean success = statistics.isLastResultSuccessful();
+
+                // Statistics and controller peers are in the same order.
+                mSnapshot.setPeer(
+                        index,
+                        statistics,
+                        success ? rangingResult : null,
+                        mRangingController.getResultsPerSecond(index));
+            }
+
+            mSnapshot.setTotals(
+                    mRangingController.getTotalResultsPerSecond(),
+                    mResultProcessor.getNumberOfUnknownResults(),
+                    mResultProcessor.getNumberOfRejectedResults());
+
+            if ((mPositionSolver != null) && solvePosition(list)) {
+                trackPosition();
+            } else if (mFingerprintLocator != null) {
+                locateFingerprint();
+            }
+        }
+
+        return mRangingScheduler.onRangingResults(
+                mResultProcessor.getStatistics(), mHost.nowMillis());
+    }
+
+    /*
+     * Solves for the position from the successful results of one request, after they went
+     * through the statistics: outliers are left out, and down-weighted (NLOS) ranges get the
+     * same larger standard deviation as in the range filter.
+     */
+    private boolean solvePosition(List<RangingMeasurement> list) {
+        mPositionSolver.clear();
+        mPositionTimestampMillis = 0;
+
+        for (int i = 0; i < list.size(); i++) {
+            RangingMeasurement measurement = list.get(i);
+            int index = mAccessPointLocations.indexOf(measurement.getBssid());
+            int statisticsIndex = mResultProcessor.indexOf(measurement.getBssid());
+
+            if (!measurement.isSuccess() || (index < 0) || (statisticsIndex < 0)) {
+                continue;
+            }
+
+            AccessPointStatistics statistics = mResultProcessor.getStatistics(statisticsIndex);
+
+            if (statistics.isLastResultRejected()) {
+                continue;
+            }
+
+            int distanceStdDevMm = measurement.getDistanceStdDevMm();
+
+            if (statistics.isLastResultDownWeighted()) {
+                distanceStdDevMm *= OutlierRejector.DOWN_WEIGHT_STD_DEV_FACTOR;
+            }
+
+            mPositionTimestampMillis =
+                    Math.max(mPositionTimestampMillis, measurement.getTimestampMillis());
+            mPositionSolver.addRange(
+                    mAccessPointLocations.getX(index),
+                    mAccessPointLocations.getY(index),
+                    mAccessPointLocations.getZ(index),
+                    measurement.getDistanceMm(),
+                    distanceStdDevMm,
+                    measurement.getRssi());
+        }
+        return mPositionSolver.solve();
+    }
+
+    // Smooths the solved fix with the position filter and puts the result into the snapshot.
+    private void trackPosition() {
+        int dimensions = mPositionSolver.getDimensions();
+        double accuracy = mPositionSolver.getAccuracy();
+
+        mPositionFix[0] = mPositionSolver.getX();
+        mPositionFix[1] = mPositionSolver.getY();
+        mPositionFix[2] = mPositionSolver.getZ();
+
+        // The accuracy covers all axes; spread its variance evenly over them.
+        if (!mPositionFilter.update(
+                mPositionTimestampMillis, mPositionFix, accuracy * accuracy / dimensions)) {
+            return;
+        }
+
+        double variance = 0;
+
+        for (int i = 0; i < dimensions; i++) {
+            variance += mPositionFilter.getPositionVariance(i);
+        }
+
+        mSnapshot.setPosition(
+                (float) mPositionFilter.getPosition(0),
+                (float) mPositionFilter.getPosition(1),
+                (dimensions == 3) ? (float) mPositionFilter.getPosition(2) : 0,
+                (float) Math.sqrt(variance));
+
+        // Bearings from here drive the diversity of the next requests.
+        mPeerSelectionPolicy.setReferencePosition(
+                mPositionFilter.getPosition(0), mPositionFilter.getPosition(1));
+    }
+
+    // Locates the latest range of every peer in the fingerprint map.
+    private void locateFingerprint() {
+        mFingerprintLocator.clear();
+
+        for (int i = 0; i < mSnapshot.getPeerCount(); i++) {
+            if (!mSnapshot.hasResult(i)) {
+                continue;
+            }
+
+            // The filtered distance is steadier, but needs a few results first.
+            float distanceMm = mSnapshot.getDistanceFilteredMm(i);
+
+            if (Float.isNaN(distanceMm)) {
+                distanceMm = mSnapshot.getDistanceMm(i);
+            }
+            mFingerprintLocator.addRange(
+                    mSnapshot.getBssid(i), Math.round(distanceMm), mSnapshot.getRssi(i));
+        }
+
+        if (!mFingerprintLocator.locate()) {
+            return;
+        }
+
+        mSnapshot.setPosition(
+                (float) mFingerprintLocator.getX(),
+                (float) mFingerprintLocator.getY(),
+                (float) mFingerprintLocator.getZ(),
+                (float) mFingerprintLocator.getAccuracy());
+        mPeerSelectionPolicy.setReferencePosition(
+                mFingerprintLocator.getX(), mFingerprintLocator.getY());
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Copy of the latest results and statistics of every peer in a {@link RangingSession}, taken on
+ * the ranging thread and read on the UI thread. Backed by primitive arrays that are only
+ * reallocated when the number of peers grows, so taking a snapshot doesn't allocate.
+ */
+public class RangingSnapshot {
+
+    private int mPeerCount;
+
+    private long[] mBssids = new long[0];
+    private boolean[] mHasResult = new boolean[0];
+    private int[] mDistanceMm = new int[0];
+    private float[] mDistanceMeanMm = new float[0];
+    private float[] mDistanceFilteredMm = new float[0];
+    private float[] mDistanceP50Mm = new float[0];
+    private float[] mDistanceP90Mm = new float[0];
+    private float[] mDistanceP99Mm = new float[0];
+    private int[] mDistanceStdDevMm = new int[0];
+    private float[] mDistanceStdDevMeanMm = new float[0];
+    private float[] mDistanceStdDevMedianMm = new float[0];
+    private int[] mRssi = new int[0];
+    private int[] mNumSuccessfulMeasurements = new int[0];
+    private int[] mNumAttemptedMeasurements = new int[0];
+    private float[] mSuccessRatio = new float[0];
+    private int[] mNumberOfRequests = new int[0];
+    private int[] mNumberOfSuccessfulRequests = new int[0];
+    private float[] mResultsPerSecond = new float[0];
+
+    private float mTotalResultsPerSecond;
+    private int mNumberOfUnknownResults;
+    private int mNumberOfRejectedResults;
+
+    // Latest position fix (meters), if any.
+    private boolean mHasPosition;
+    private float mPositionX;
+    private float mPositionY;
+    private float mPositionZ;
+    private float mPositionAccuracy;
+
+    public int getPeerCount() {
+        return mPeerCount;
+    }
+
+    // Sets the number of peers, keeping the backing arrays if they are large enough.
+    public void setPeerCount(int peerCount) {
+        if (mBssids.length < peerCount) {
+            mBssids = new long[peerCount];
+            mHasResult = new boolean[peerCount];
+            mDistanceMm = new int[peerCount];
+            mDistanceMeanMm = new float[peerCount];
+            mDistanceFilteredMm = new float[peerCount];
+            mDistanceP50Mm = new float[peerCount];
+            mDistanceP90Mm = new float[peerCount];
+            mDistanceP99Mm = new float[peerCount];
+            mDistanceStdDevMm = new int[peerCount];
+            mDistanceStdDevMeanMm = new float[peerCount];
+            mDistanceStdDevMedianMm = new float[peerCount];
+            mRssi = new int[peerCount];
+            mNumSuccessfulMeasurements = new int[peerCount];
+            mNumAttemptedMeasurements = new int[peerCount];
+            mSuccessRatio = new float[peerCount];
+            mNumberOfRequests = new int[peerCount];
+            mNumberOfSuccessfulRequests = new int[peerCount];
+            mResultsPerSecond = new float[peerCount];
+        }
+        mPeerCount = peerCount;
+    }
+
+    // Index of bssid, or -1.
+    public int indexOf(long bssid) {
+        for (int i = 0; i < mPeerCount; i++) {
+            if (mBssids[i] == bssid) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Copies the state of a peer. measurement is the latest successful one, or null.
+    public void setPeer(
+            int index,
+            AccessPointStatistics statistics,
+            RangingMeasurement measurement,
+            float resultsPerSecond) {
+        mBssids[index] = statistics.getBssid();
+        mSuccessRatio[index] = statistics.getSuccessRatio();
+        mNumberOfRequests[index] = statistics.getNumberOfRangeRequests();
+        mNumberOfSuccessfulRequests[index] = statistics.getNumberOfSuccessfulRangeRequests();
+        mResultsPerSecond[index] = resultsPerSecond;
+
+        if (measurement != null) {
+            mHasResult[index] = true;
+            mDistanceMm[index] = measurement.getDistanceMm();
+            mDistanceMeanMm[index] = statistics.getDistanceMean();
+
+            RangeFilter rangeFilter = statistics.getRangeFilter();
+            mDistanceFilteredMm[index] =
+                    ((rangeFilter != null) && rangeFilter.hasEstimate())
+                            ? (float) rangeFilter.getDistanceMm()
+                            : Float.NaN;
+            mDistanceStdDevMm[index] = measurement.getDistanceStdDevMm();
+            mDistanceStdDevMeanMm[index] = statistics.getStandardDeviationOfDistanceMean();
+
+            SlidingQuantileSketch distances = statistics.getDistanceQuantiles();
+
+            if (distances.getCount() > 0) {
+                mDistanceP50Mm[index] = distances.getPercentile(50);
+                mDistanceP90Mm[index] = distances.getPercentile(90);
+                mDistanceP99Mm[index] = distances.getPercentile(99);
+                mDistanceStdDevMedianMm[index] = statistics.getDistanceSdQuantiles().getMedian();
+            } else {
+                mDistanceP50Mm[index] = Float.NaN;
+                mDistanceP90Mm[index] = Float.NaN;
+                mDistanceP99Mm[index] = Float.NaN;
+                mDistanceStdDevMedianMm[index] = Float.NaN;
+            }
+            mRssi[index] = measurement.getRssi();
+            mNumSuccessfulMeasurements[index] = measurement.getNumSuccessfulMeasurements();
+            mNumAttemptedMeasurements[index] = measurement.getNumAttemptedMeasurements();
+        }
+    }
+
+    // Marks a peer as having no successful result yet.
+    public void clearPeer(int index, long bssid) {
+        mBssids[index] = bssid;
+        mHasResult[index] = false;
+        mSuccessRatio[index] = 0;
+        mNumberOfRequests[index] = 0;
+        mNumberOfSuccessfulRequests[index] = 0;
+        mResultsPerSecond[index] = 0;
+    }
+
+    public void setTotals(
+            float totalResultsPerSecond, int numberOfUnknownResults, int numberOfRejectedResults) {
+        mTotalResultsPerSecond = totalResultsPerSecond;
+        mNumberOfUnknownResults = numberOfUnknownResults;
+        mNumberOfRejectedResults = numberOfRejectedResults;
+    }
+
+    // Sets the position fix (meters) and its one sigma accuracy.
+    public void setPosition(float x, float y, float z, float accuracy) {
+        mHasPosition = true;
+        mPositionX = x;
+        mPositionY = y;
+        mPositionZ = z;
+        mPositionAccuracy = accuracy;
+    }
+
+    public void clearPosition() {
+        mHasPosition = false;
+    }
+
+    public void copyFrom(RangingSnapshot other) {
+        int peerCount = other.mPeerCount;
+        setPeerCount(peerCount);
+
+        System.arraycopy(other.mBssids, 0, mBssids, 0, peerCount);
+        System.arraycopy(other.mHasResult, 0, mHasResult, 0, peerCount);
+        System.arraycopy(other.mDistanceMm, 0, mDistanceMm, 0, peerCount);
+        System.arraycopy(other.mDistanceMeanMm, 0, mDistanceMeanMm, 0, peerCount);
+        System.arraycopy(other.mDistanceFilteredMm, 0, mDistanceFilteredMm, 0, peerCount);
+        System.arraycopy(other.mDistanceP50Mm, 0, mDistanceP50Mm, 0, peerCount);
+        System.arraycopy(other.mDistanceP90Mm, 0, mDistanceP90Mm, 0, peerCount);
+        System.arraycopy(other.mDistanceP99Mm, 0, mDistanceP99Mm, 0, peerCount);
+        System.arraycopy(other.mDistanceStdDevMm, 0, mDistanceStdDevMm, 0, peerCount);
+        System.arraycopy(other.mDistanceStdDevMeanMm, 0, mDistanceStdDevMeanMm, 0, peerCount);
+        System.arraycopy(
+                other.mDistanceStdDevMedianMm, 0, mDistanceStdDevMedianMm, 0, peerCount);
+        System.arraycopy(other.mRssi, 0, mRssi, 0, peerCount);
+        System.arraycopy(
+                other.mNumSuccessfulMeasurements, 0, mNumSuccessfulMeasurements, 0, peerCount);
+        System.arraycopy(
+                other.mNumAttemptedMeasurements, 0, mNumAttemptedMeasurements, 0, peerCount);
+        System.arraycopy(other.mSuccessRatio, 0, mSuccessRatio, 0, peerCount);
+        System.arraycopy(other.mNumberOfRequests, 0, mNumberOfRequests, 0, peerCount);
+        System.arraycopy(
+                other.mNumberOfSuccessfulRequests, 0, mNumberOfSuccessfulRequests, 0, peerCount);
+        System.arraycopy(other.mResultsPerSecond, 0, mResultsPerSecond, 0, peerCount);
+
+        mTotalResultsPerSecond = other.mTotalResultsPerSecond;
+        mNumberOfUnknownResults = other.mNumberOfUnknownResults;
+        mNumberOfRejectedResults = other.mNumberOfRejectedResults;
+
+        mHasPosition = other.mHasPosition;
+        mPositionX = other.mPositionX;
+        mPositionY = other.mPositionY;
+        mPositionZ = other.mPositionZ;
+        mPositionAccuracy = other.mPositionAccuracy;
+    }
+
+    public long getBssid(int index) {
+        return mBssids[index];
+    }
+
+    // False until the peer has had a successful result.
+    public boolean hasResult(int index) {
+        return mHasResult[index];
+    }
+
+    public int getDistanceMm(int index) {
+        return mDistanceMm[index];
+    }
+
+    public float getDistanceMeanMm(int index) {
+        return mDistanceMeanMm[index];
+    }
+
+    // Output of the peer's RangeFilter, NaN without one.
+    public float getDistanceFilteredMm(int index) {
+        return mDistanceFilteredMm[index];
+    }
+
+    // Percentiles of the distance over AccessPointStatistics.QUANTILE_WINDOW_MILLIS, NaN without
+    // results in the window.
+    public float getDistanceP50Mm(int index) {
+        return mDistanceP50Mm[index];
+    }
+
+    public float getDistanceP90Mm(int index) {
+        return mDistanceP90Mm[index];
+    }
+
+    public float getDistanceP99Mm(int index) {
+        return mDistanceP99Mm[index];
+    }
+
+    public int getDistanceStdDevMm(int index) {
+        return mDistanceStdDevMm[index];
+    }
+
+    public float getDistanceStdDevMeanMm(int index) {
+        return mDistanceStdDevMeanMm[index];
+    }
+
+    // Median standard deviation over AccessPointStatistics.QUANTILE_WINDOW_MILLIS, NaN without
+    // results in the window.
+    public float getDistanceStdDevMedianMm(int index) {
+        return mDistanceStdDevMedianMm[index];
+    }
+
+    public int getRssi(int index) {
+        return mRssi[index];
+    }
+
+    public int getNumSuccessfulMeasurements(int index) {
+        return mNumSuccessfulMeasurements[index];
+    }
+
+    public int getNumAttemptedMeasurements(int index) {
+        return mNumAttemptedMeasurements[index];
+    }
+
+    public float getSuccessRatio(int index) {
+        return mSuccessRatio[index];
+    }
+
+    public int getNumberOfRequests(int index) {
+        return mNumberOfRequests[index];
+    }
+
+    // Changes whenever the peer has a new successful result.
+    public int getNumberOfSuccessfulRequests(int index) {
+        return mNumberOfSuccessfulRequests[index];
+    }
+
+    public float getResultsPerSecond(int index) {
+        return mResultsPerSecond[index];
+    }
+
+    public float getTotalResultsPerSecond() {
+        return mTotalResultsPerSecond;
+    }
+
+    // Results for BSSIDs that weren't part of the request.
+    public int getNumberOfUnknownResults() {
+        return mNumberOfUnknownResults;
+    }
+
+    // Successful results dropped as outliers.
+    public int getNumberOfRejectedResults() {
+        return mNumberOfRejectedResults;
+    }
+
+    // False until a position could be solved (needs known access point locations).
+    public boolean hasPosition() {
+        return mHasPosition;
+    }
+
+    public float getPositionX() {
+        return mPositionX;
+    }
+
+    public float getPositionY() {
+        return mPositionY;
+    }
+
+    // 0 for 2D fixes.
+    public float getPositionZ() {
+        return mPositionZ;
+    }
+
+    // One sigma accuracy of the position (meters).
+    public float getPositionAccuracy() {
+        return mPositionAccuracy;
+    }
+}
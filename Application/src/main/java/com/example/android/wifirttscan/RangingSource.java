@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.util.List;
+
+/**
+ * Source of ranging results for a set of responders (BSSIDs packed with {@link MacAddressUtils}).
+ * Implemented by {@link WifiRttRangingSource} on devices with Wifi RTT and by {@link
+ * SimulatedRangingSource} for load tests and benchmarks without RTT hardware.
+ */
+public interface RangingSource {
+
+    // Not a RangingResultCallback code; used by callers that give up waiting for a callback.
+    int FAILURE_CODE_TIMEOUT = -1;
+
+    // Max number of responders allowed in a single request.
+    int getMaxPeers();
+
+    /*
+     * Ranges the first peerCount BSSIDs in bssids. Exactly one of the callback methods is called
+     * for every request, on a thread chosen by the implementation.
+     */
+    void startRanging(long[] bssids, int peerCount, Callback callback);
+
+    interface Callback {
+        // Same codes as RangingResultCallback#onRangingFailure.
+        void onRangingFailure(int code);
+
+        // One measurement per requested BSSID. The list and its measurements are reused by the
+        // source after this call returns.
+        void onRangingResults(List<RangingMeasurement> measurements);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Fixed capacity ring of float samples (e.g. the latest distances of a peer, for a {@link
+ * SparklineView}). Once full, every new sample replaces the oldest one. Nothing is allocated after
+ * construction.
+ */
+public class SampleRingBuffer {
+
+    private final float[] mSamples;
+    private int mSize;
+
+    // Index where the next sample is written (the oldest sample once full).
+    private int mNextIndex;
+
+    public SampleRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(capacity + " isn't a valid capacity.");
+        }
+        mSamples = new float[capacity];
+    }
+
+    public void clear() {
+        mSize = 0;
+        mNextIndex = 0;
+    }
+
+    public void add(float sample) {
+        mSamples[mNextIndex] = sample;
+        mNextIndex = (mNextIndex + 1) % mSamples.length;
+
+        if (mSize < mSamples.length) {
+            mSize++;
+        }
+    }
+
+    public int getCapacity() {
+        return mSamples.length;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    // Sample at index, from 0 (oldest) to size() - 1 (newest).
+    public float get(int index) {
+        if ((index < 0) || (index >= mSize)) {
+            throw new IndexOutOfBoundsException(index + " isn't in [0, " + mSize + ").");
+        }
+        return mSamples[(mNextIndex - mSize + index + mSamples.length) % mSamples.length];
+    }
+
+    public float getMin() {
+        float min = Float.POSITIVE_INFINITY;
+
+        for (int i = 0; i < mSize; i++) {
+            min = Math.min(min, mSamples[i]);
+        }
+        return min;
+    }
+
+    public float getMax() {
+        float max = Float.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < mSize; i++) {
+            max = Math.max(max, mSamples[i]);
+        }
+        return max;
+    }
+}
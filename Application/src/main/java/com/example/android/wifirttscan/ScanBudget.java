@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * Sliding window budget of Wifi scans, mirroring the platform scan throttling (a foreground app
+ * gets 4 scans per 2 minutes; beyond that, WifiManager#startScan() fails and only returns cached
+ * results). Keeping track of the budget locally lets callers plan their scans instead of finding
+ * out from a failed call. Android-free and not thread safe.
+ */
+public class ScanBudget {
+
+    public static final int FOREGROUND_MAX_SCANS = 4;
+    public static final long FOREGROUND_WINDOW_MILLIS = 2 * 60 * 1000;
+
+    private final long mWindowMillis;
+
+    // Ring of the times of the last maxScans scans, oldest at mNext once full.
+    private final long[] mScanTimesMillis;
+    private int mCount;
+    private int mNext;
+
+    public ScanBudget(int maxScans, long windowMillis) {
+        if (maxScans < 1) {
+            throw new IllegalArgumentException(maxScans + " isn't a valid number of scans.");
+        }
+        mScanTimesMillis = new long[maxScans];
+        mWindowMillis = windowMillis;
+    }
+
+    public void reset() {
+        mCount = 0;
+        mNext = 0;
+    }
+
+    // Uses one scan of the budget and returns true, or returns false if there is none left.
+    public boolean tryAcquire(long nowMillis) {
+        if (getNextAvailableMillis(nowMillis) > nowMillis) {
+            return false;
+        }
+
+        mScanTimesMillis[mNext] = nowMillis;
+        mNext = (mNext + 1) % mScanTimesMillis.length;
+        mCount = Math.min(mCount + 1, mScanTimesMillis.length);
+        return true;
+    }
+
+    // Earliest time (not before nowMillis) a scan is available.
+    public long getNextAvailableMillis(long nowMillis) {
+        if (mCount < mScanTimesMillis.length) {
+            return nowMillis;
+        }
+        // Full: the oldest scan has to leave the window first.
+        return Math.max(nowMillis, mScanTimesMillis[mNext] + mWindowMillis);
+    }
+
+    // Scans left in the window at nowMillis.
+    public int getRemaining(long nowMillis) {
+        int used = 0;
+
+        for (int i = 0; i < mCount; i++) {
+            if (nowMillis - mScanTimesMillis[i] < mWindowMillis) {
+                used++;
+            }
+        }
+        return mScanTimesMillis.length - used;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import android.net.wifi.ScanResult;
+import android.os.SystemClock;
+
+import java.util.List;
+
+/**
+ * Process wide {@link AccessPointIndex} of {@link ScanResult}s, fed by every scan (from {@link
+ * MainActivity}) and by ranging results (from {@link RangingSession}s), so the access points to
+ * range can be picked by rank instead of by scan order. Thread safe.
+ */
+public class ScanResultCache {
+
+    private static final int CAPACITY = 512;
+
+    // Access points not seen in any scan for this long are dropped.
+    private static final long MAX_AGE_MILLIS = 5 * 60 * 1000;
+
+    private static ScanResultCache sInstance;
+
+    private final AccessPointIndex<ScanResult> mIndex =
+            new AccessPointIndex<>(CAPACITY, MAX_AGE_MILLIS);
+    private final int[] mSelection = new int[CAPACITY];
+
+    public static synchronized ScanResultCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new ScanResultCache();
+        }
+        return sInstance;
+    }
+
+    /*
+     * Adds the results of a scan and drops access points that haven't been seen for too long.
+     * Returns true if the set of access points (or their 802.11mc support) changed.
+     */
+    public synchronized boolean onScanResults(List<ScanResult> scanResults) {
+        int changeCount = mIndex.getChangeCount();
+
+        for (int i = 0; i < scanResults.size(); i++) {
+            ScanResult scanResult = scanResults.get(i);
+            long bssid = MacAddressUtils.toLong(scanResult.BSSID);
+
+            if (bssid == MacAddressUtils.INVALID_MAC_ADDRESS) {
+                continue;
+            }
+
+            // Scan results can be cached by the framework; use when they were actually seen.
+            mIndex.update(
+                    bssid,
+                    scanResult,
+                    scanResult.level,
+                    scanResult.frequency,
+                    scanResult.is80211mcResponder(),
+                    scanResult.timestamp / 1000);
+        }
+
+        mIndex.evictStale(SystemClock.elapsedRealtime());
+        return mIndex.getChangeCount() != changeCount;
+    }
+
+    public synchronized void onRangingResult(long bssid, boolean success) {
+        mIndex.onRangingResult(bssid, success);
+    }
+
+    // Replaces the contents of out with the (up to) maxCount best 802.11mc responders, best first.
+    public synchronized void getRanked80211mcResponders(int maxCount, List<ScanResult> out) {
+        out.clear();
+
+        int count = mIndex.selectTopK(Math.min(maxCount, CAPACITY), true, mSelection);
+
+        for (int i = 0; i < count; i++) {
+            out.add(mIndex.getPayload(mSelection[i]));
+        }
+    }
+
+    public synchronized int size() {
+        return mIndex.size();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * File format shared by {@link SessionExportWriter} and {@link SessionExportReader}: the fields of
+ * {@link RangingMeasurement}s stored by column and compressed, for moving long sessions off the
+ * phone and analysing them offline ("&lt;name&gt;.rttx").
+ *
+ * <p>The file starts with a {@link #HEADER_SIZE} byte header (int magic, short version, short 0,
+ * int block records, int 0), followed by blocks of up to block records results. Every block has a
+ * {@link #BLOCK_HEADER_SIZE} byte header (int record count, int encoded size, int compressed size,
+ * int CRC-32 of the encoded bytes) followed by its columns, deflated (raw, without zlib header).
+ * All fixed size values are little endian. The encoded columns are:
+ *
+ * <pre>
+ *  BSSIDs       varint count, then the 6 byte BSSIDs of the block (in order of first result)
+ *  BSSID        varint index into the BSSIDs
+ *  timestamp    zigzag varint, delta to the previous result (ms)
+ *  status       zigzag varint
+ *  distance     zigzag varint, delta to the previous result of the same BSSID (mm)
+ *  std dev      zigzag varint (mm)
+ *  RSSI         zigzag varint, delta to the previous result of the same BSSID (dBm)
+ *  attempted    zigzag varint
+ *  successful   zigzag varint
+ * </pre>
+ *
+ * <p>Deltas of the first results of a block are to 0, so blocks can be decoded on their own and
+ * memory use only depends on the block size. Consecutive values of a column are alike (or equal),
+ * which leaves small varints with long runs for the compressor.
+ */
+public final class SessionExport {
+
+    public static final String FILE_EXTENSION = ".rttx";
+
+    // "RTTX"
+    public static final int MAGIC = 0x58545452;
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 16;
+    public static final int BLOCK_HEADER_SIZE = 16;
+
+    public static final int MAX_BLOCK_RECORDS = 65536;
+
+    // Longest encoded result: BSSID index (3), timestamp (10) and six 32 bit fields (5 each), plus
+    // its BSSID in the dictionary (6).
+    private static final int MAX_RECORD_SIZE = 3 + 10 + 6 * 5 + 6;
+
+    private SessionExport() {}
+
+    // Upper bound of the encoded size of a block.
+    static int getMaxEncodedSize(int blockRecords) {
+        return 3 + blockRecords * MAX_RECORD_SIZE;
+    }
+
+    // Upper bound of the deflated size of encodedSize bytes (as zlib's deflateBound()).
+    static int getMaxCompressedSize(int encodedSize) {
+        return encodedSize + (encodedSize >> 12) + (encodedSize >> 14) + (encodedSize >> 25) + 13;
+    }
+
+    static void writeHeader(ByteBuffer buffer, int blockRecords) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) 0);
+        buffer.putInt(blockRecords);
+        buffer.putInt(0);
+    }
+
+    // Returns true if the header at the start of buffer (little endian) is valid.
+    static boolean isValidHeader(ByteBuffer buffer) {
+        int blockRecords = buffer.getInt(8);
+
+        return (buffer.getInt(0) == MAGIC)
+                && (buffer.getShort(4) == VERSION)
+                && (blockRecords > 0)
+                && (blockRecords <= MAX_BLOCK_RECORDS);
+    }
+
+    // Writes value as an unsigned LEB128 varint at offset, returns the offset after it.
+    static int putVarint(byte[] buffer, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    // Maps signed to unsigned values, small magnitudes to small values (0, -1, 1, -2, ...).
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Streams the results of a {@link SessionExport} into a reused {@link RangingMeasurement}, one
+ * block at a time, so memory use doesn't depend on the size of the export. Throws an IOException
+ * for damaged blocks. Not thread safe.
+ */
+public class SessionExportReader implements Closeable {
+
+    private final FileChannel mChannel;
+    private final int mBlockRecords;
+    private final ByteBuffer mHeaderBuffer =
+            ByteBuffer.allocate(SessionExport.BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Columns of the current block.
+    private int mCount;
+    private int mNext;
+    private final long[] mTimestampsMillis;
+    private final long[] mBssids;
+    private final int[] mStatuses;
+    private final int[] mDistancesMm;
+    private final int[] mDistanceStdDevsMm;
+    private final int[] mRssis;
+    private final int[] mNumAttemptedMeasurements;
+    private final int[] mNumSuccessfulMeasurements;
+
+    private final long[] mDictionary;
+    private final int[] mIndices;
+    private final int[] mPreviousValues;
+
+    private final byte[] mEncoded;
+    private final ByteBuffer mCompressedBuffer;
+    private final Inflater mInflater = new Inflater(true);
+    private final CRC32 mCrc = new CRC32();
+
+    // Position of the next varint in mEncoded and the end of the encoded block.
+    private int mOffset;
+    private int mEncodedSize;
+
+    private long mNumberOfRecords;
+    private int mNumberOfBlocks;
+
+    // Opens file. Throws an IOException if it isn't an export.
+    public SessionExportReader(File file) throws IOException {
+        mChannel = new RandomAccessFile(file, "r").getChannel();
+
+        try {
+            if (!readFully(mHeaderBuffer, SessionExport.HEADER_SIZE)
+                    || !SessionExport.isValidHeader(mHeaderBuffer)) {
+                throw new IOException("Not a session export: " + file);
+            }
+        } catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+
+        mBlockRecords = mHeaderBuffer.getInt(8);
+        mTimestampsMillis = new long[mBlockRecords];
+        mBssids = new long[mBlockRecords];
+        mStatuses = new int[mBlockRecords];
+        mDistancesMm = new int[mBlockRecords];
+        mDistanceStdDevsMm = new int[mBlockRecords];
+        mRssis = new int[mBlockRecords];
+        mNumAttemptedMeasurements = new int[mBlockRecords];
+        mNumSuccessfulMeasurements = new int[mBlockRecords];
+
+        mDictionary = new long[mBlockRecords];
+        mIndices = new int[mBlockRecords];
+        mPreviousValues = new int[mBlockRecords];
+
+        int maxEncodedSize = SessionExport.getMaxEncodedSize(mBlockRecords);
+        mEncoded = new byte[maxEncodedSize + 1];
+        mCompressedBuffer =
+                ByteBuffer.allocate(SessionExport.getMaxCompressedSize(maxEncodedSize));
+    }
+
+    /*
+     * Fills out with the next result and returns true, or returns false at the end of the export.
+     * Throws an IOException if the next block is truncated or damaged.
+     */
+    public boolean next(RangingMeasurement out) throws IOException {
+        if ((mNext == mCount) && !readBlock()) {
+            return false;
+        }
+
+        int i = mNext++;
+        out.set(
+                mBssids[i],
+                mStatuses[i],
+                mDistancesMm[i],
+                mDistanceStdDevsMm[i],
+                mRssis[i],
+                mNumAttemptedMeasurements[i],
+                mNumSuccessfulMeasurements[i],
+                mTimestampsMillis[i]);
+        mNumberOfRecords++;
+        return true;
+    }
+
+    // Number of results returned by next() so far.
+    public long getNumberOfRecords() {
+        return mNumberOfRecords;
+    }
+
+    public int getNumberOfBlocks() {
+        return mNumberOfBlocks;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInflater.end();
+        mChannel.close();
+    }
+
+    // Reads and decodes the next block, returns false at the end of the export.
+    private boolean readBlock() throws IOException {
+        if (!readFully(mHeaderBuffer, SessionExport.BLOCK_HEADER_SIZE)) {
+            return false;
+        }
+
+        int count = mHeaderBuffer.getInt(0);
+        int encodedSize = mHeaderBuffer.getInt(4);
+        int compressedSize = mHeaderBuffer.getInt(8);
+        int crc = mHeaderBuffer.getInt(12);
+
+        if ((count < 1)
+                || (count > mBlockRecords)
+                || (encodedSize < 0)
+                || (encodedSize >= mEncoded.length)
+                || (compressedSize < 0)
+                || (compressedSize > mCompressedBuffer.capacity())) {
+            throw new IOException("Corrupt block header, block " + mNumberOfBlocks);
+        }
+
+        if (!readFully(mCompressedBuffer, compressedSize)) {
+            throw new IOException("Truncated block " + mNumberOfBlocks);
+        }
+
+        try {
+            mInflater.reset();
+            mInflater.setInput(mCompressedBuffer.array(), 0, compressedSize);
+
+            int inflatedSize = 0;
+
+            // Inflating into more room than the block needs, so the end of the stream is seen.
+            while (!mInflater.finished() && (inflatedSize < mEncoded.length)) {
+                int inflated =
+                        mInflater.inflate(mEncoded, inflatedSize, mEncoded.length - inflatedSize);
+
+                if ((inflated == 0) && (mInflater.needsInput() || mInflater.needsDictionary())) {
+                    break;
+                }
+                inflatedSize += inflated;
+            }
+
+            if ((inflatedSize != encodedSize) || !mInflater.finished()) {
+                throw new IOException("Corrupt block " + mNumberOfBlocks);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + mNumberOfBlocks + ": " + e.getMessage());
+        }
+
+        mCrc.reset();
+        mCrc.update(mEncoded, 0, encodedSize);
+
+        if ((int) mCrc.getValue() != crc) {
+            throw new IOException("Checksum mismatch, block " + mNumberOfBlocks);
+        }
+
+        decodeBlock(count, encodedSize);
+        mCount = count;
+        mNext = 0;
+        mNumberOfBlocks++;
+        return true;
+    }
+
+    private void decodeBlock(int count, int encodedSize) throws IOException {
+        mOffset = 0;
+        mEncodedSize = encodedSize;
+
+        int dictionarySize = (int) getVarint();
+
+        if ((dictionarySize < 0) || (dictionarySize > count)) {
+            throw new IOException("Corrupt BSSIDs, block " + mNumberOfBlocks);
+        }
+
+        for (int i = 0; i < dictionarySize; i++) {
+            long bssid = 0;
+
+            for (int shift = 0; shift < 48; shift += 8) {
+                bssid |= (getByte() & 0xFFL) << shift;
+            }
+            mDictionary[i] = bssid;
+        }
+
+        for (int i = 0; i < count; i++) {
+            long index = getVarint();
+
+            if ((index < 0) || (index >= dictionarySize)) {
+                throw new IOException("Corrupt BSSID index, block " + mNumberOfBlocks);
+            }
+            mIndices[i] = (int) index;
+            mBssids[i] = mDictionary[(int) index];
+        }
+
+        long timestampMillis = 0;
+
+        for (int i = 0; i < count; i++) {
+            timestampMillis += SessionExport.unZigZag(getVarint());
+            mTimestampsMillis[i] = timestampMillis;
+        }
+
+        getColumn(count, mStatuses);
+        getDeltaColumn(count, dictionarySize, mDistancesMm);
+        getColumn(count, mDistanceStdDevsMm);
+        getDeltaColumn(count, dictionarySize, mRssis);
+        getColumn(count, mNumAttemptedMeasurements);
+        getColumn(count, mNumSuccessfulMeasurements);
+    }
+
+    private void getColumn(int count, int[] values) throws IOException {
+        for (int i = 0; i < count; i++) {
+            values[i] = (int) SessionExport.unZigZag(getVarint());
+        }
+    }
+
+    private void getDeltaColumn(int count, int dictionarySize, int[] values) throws IOException {
+        Arrays.fill(mPreviousValues, 0, dictionarySize, 0);
+
+        for (int i = 0; i < count; i++) {
+            int index = mIndices[i];
+            int value = (int) (mPreviousValues[index] + SessionExport.unZigZag(getVarint()));
+
+            values[i] = value;
+            mPreviousValues[index] = value;
+        }
+    }
+
+    private long getVarint() throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = getByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt varint, block " + mNumberOfBlocks);
+    }
+
+    private int getByte() throws IOException {
+        if (mOffset >= mEncodedSize) {
+            throw new IOException("Truncated columns, block " + mNumberOfBlocks);
+        }
+        return mEncoded[mOffset++];
+    }
+
+    /*
+     * Reads length bytes into buffer (from its start). Returns false at the end of the file,
+     * throws an IOException if it ends within them.
+     */
+    private boolean readFully(ByteBuffer buffer, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer) < 0) {
+                if (buffer.position() == 0) {
+                    return false;
+                }
+                throw new IOException("Truncated session export, block " + mNumberOfBlocks);
+            }
+        }
+        return true;
+    }
+}
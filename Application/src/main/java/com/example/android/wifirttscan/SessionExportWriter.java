@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes {@link RangingMeasurement}s as a {@link SessionExport}. Results are collected by column
+ * for one block, which is then encoded, deflated and written in one go. Memory use is fixed by the
+ * block size (about 50 bytes per record), and appending doesn't allocate. Not thread safe.
+ *
+ * <p>A file export is written to a temporary file and renamed on {@link #close()}, so readers
+ * never see a partial export.
+ */
+public class SessionExportWriter implements Closeable {
+
+    public static final int BLOCK_RECORDS_DEFAULT = 4096;
+
+    // Fast enough to keep up with hours of ranging on a phone, and nearly as small as level 9.
+    public static final int COMPRESSION_LEVEL_DEFAULT = Deflater.BEST_SPEED;
+
+    private final File mFile;
+    private final File mTemporaryFile;
+    private final FileChannel mFileChannel;
+    private WritableByteChannel mChannel;
+
+    private final int mBlockRecords;
+
+    // For the file header and the block headers, which are the same size.
+    private final ByteBuffer mHeaderBuffer =
+            ByteBuffer.allocate(SessionExport.BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Columns of the current block.
+    private int mCount;
+    private final long[] mTimestampsMillis;
+    private final long[] mBssids;
+    private final int[] mStatuses;
+    private final int[] mDistancesMm;
+    private final int[] mDistanceStdDevsMm;
+    private final int[] mRssis;
+    private final int[] mNumAttemptedMeasurements;
+    private final int[] mNumSuccessfulMeasurements;
+
+    // BSSIDs of the current block, with an open addressing table from BSSID to index + 1.
+    private int mDictionarySize;
+    private final long[] mDictionary;
+    private final int[] mDictionarySlots;
+    private final int[] mIndices;
+    private final int[] mPreviousValues;
+
+    private final byte[] mEncoded;
+    private final byte[] mCompressed;
+    private final ByteBuffer mCompressedBuffer;
+    private final Deflater mDeflater;
+    private final CRC32 mCrc = new CRC32();
+
+    private long mNumberOfRecords;
+    private int mNumberOfBlocks;
+    private long mBytesWritten;
+
+    // Exports to file with the default block size and compression level.
+    public SessionExportWriter(File file) throws IOException {
+        this(file, BLOCK_RECORDS_DEFAULT, COMPRESSION_LEVEL_DEFAULT);
+    }
+
+    public SessionExportWriter(File file, int blockRecords, int compressionLevel)
+            throws IOException {
+        this(file, null, blockRecords, compressionLevel);
+    }
+
+    // Exports to channel, which is closed by close().
+    public SessionExportWriter(
+            WritableByteChannel channel, int blockRecords, int compressionLevel)
+            throws IOException {
+        this(null, channel, blockRecords, compressionLevel);
+    }
+
+    private SessionExportWriter(
+            File file, WritableByteChannel channel, int blockRecords, int compressionLevel)
+            throws IOException {
+        if ((blockRecords < 1) || (blockRecords > SessionExport.MAX_BLOCK_RECORDS)) {
+            throw new IllegalArgumentException("blockRecords out of range: " + blockRecords);
+        }
+
+        mBlockRecords = blockRecords;
+        mTimestampsMillis = new long[blockRecords];
+        mBssids = new long[blockRecords];
+        mStatuses = new int[blockRecords];
+        mDistancesMm = new int[blockRecords];
+        mDistanceStdDevsMm = new int[blockRecords];
+        mRssis = new int[blockRecords];
+        mNumAttemptedMeasurements = new int[blockRecords];
+        mNumSuccessfulMeasurements = new int[blockRecords];
+
+        mDictionary = new long[blockRecords];
+        mDictionarySlots = new int[Integer.highestOneBit(blockRecords) * 4];
+        mIndices = new int[blockRecords];
+        mPreviousValues = new int[blockRecords];
+
+        mEncoded = new byte[SessionExport.getMaxEncodedSize(blockRecords)];
+        mCompressed = new byte[SessionExport.getMaxCompressedSize(mEncoded.length)];
+        mCompressedBuffer = ByteBuffer.wrap(mCompressed);
+        mDeflater = new Deflater(compressionLevel, true);
+
+        mFile = file;
+
+        if (file != null) {
+            mTemporaryFile = new File(file.getPath() + ".tmp");
+            mFileChannel = new RandomAccessFile(mTemporaryFile, "rw").getChannel();
+            mFileChannel.truncate(0);
+            mChannel = mFileChannel;
+        } else {
+            mTemporaryFile = null;
+            mFileChannel = null;
+            mChannel = channel;
+        }
+
+        mHeaderBuffer.clear();
+        SessionExport.writeHeader(mHeaderBuffer, blockRecords);
+        mHeaderBuffer.flip();
+        write(mHeaderBuffer);
+    }
+
+    public void append(RangingMeasurement measurement) throws IOException {
+        append(
+                measurement.getTimestampMillis(),
+                measurement.getBssid(),
+                measurement.getStatus(),
+                measurement.getDistanceMm(),
+                measurement.getDistanceStdDevMm(),
+                measurement.getRssi(),
+                measurement.getNumAttemptedMeasurements(),
+                measurement.getNumSuccessfulMeasurements());
+    }
+
+    public void append(
+            long timestampMillis,
+            long bssid,
+            int status,
+            int distanceMm,
+            int distanceStdDevMm,
+            int rssi,
+            int numAttemptedMeasurements,
+            int numSuccessfulMeasurements)
+            throws IOException {
+        if (mChannel == null) {
+            throw new IOException("Writer is closed");
+        }
+
+        mTimestampsMillis[mCount] = timestampMillis;
+        mBssids[mCount] = bssid;
+        mStatuses[mCount] = status;
+        mDistancesMm[mCount] = distanceMm;
+        mDistanceStdDevsMm[mCount] = distanceStdDevMm;
+        mRssis[mCount] = rssi;
+        mNumAttemptedMeasurements[mCount] = numAttemptedMeasurements;
+        mNumSuccessfulMeasurements[mCount] = numSuccessfulMeasurements;
+        mCount++;
+        mNumberOfRecords++;
+
+        if (mCount == mBlockRecords) {
+            writeBlock();
+        }
+    }
+
+    // Writes the results appended so far as a (possibly short) block.
+    public void flush() throws IOException {
+        if (mCount > 0) {
+            writeBlock();
+        }
+    }
+
+    /*
+     * Flushes and closes the export. A file export is only renamed to its name if everything was
+     * written, otherwise the temporary file is deleted.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mChannel == null) {
+            return;
+        }
+
+        boolean complete = false;
+
+        try {
+            flush();
+
+            if (mFileChannel != null) {
+                mFileChannel.force(false);
+            }
+            complete = true;
+        } finally {
+            mDeflater.end();
+            mChannel.close();
+            mChannel = null;
+
+            if (mFile != null) {
+                finishFile(complete);
+            }
+        }
+    }
+
+    public long getNumberOfRecords() {
+        return mNumberOfRecords;
+    }
+
+    public int getNumberOfBlocks() {
+        return mNumberOfBlocks;
+    }
+
+    // Bytes written so far, headers included.
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    private void writeBlock() throws IOException {
+        int encodedSize = encodeBlock();
+
+        mCrc.reset();
+        mCrc.update(mEncoded, 0, encodedSize);
+
+        mDeflater.reset();
+        mDeflater.setInput(mEncoded, 0, encodedSize);
+        mDeflater.finish();
+
+        int compressedSize = 0;
+
+        while (!mDeflater.finished() && (compressedSize < mCompressed.length)) {
+            compressedSize +=
+                    mDeflater.deflate(
+                            mCompressed, compressedSize, mCompressed.length - compressedSize);
+        }
+
+        if (!mDeflater.finished()) {
+            throw new IllegalStateException("Deflated block exceeds its bound");
+        }
+
+        mHeaderBuffer.clear();
+        mHeaderBuffer.putInt(mCount);
+        mHeaderBuffer.putInt(encodedSize);
+        mHeaderBuffer.putInt(compressedSize);
+        mHeaderBuffer.putInt((int) mCrc.getValue());
+        mHeaderBuffer.flip();
+        write(mHeaderBuffer);
+
+        mCompressedBuffer.clear();
+        mCompressedBuffer.limit(compressedSize);
+        write(mCompressedBuffer);
+
+        mCount = 0;
+        mNumberOfBlocks++;
+    }
+
+    // Encodes the columns of the current block into mEncoded, returns the encoded size.
+    private int encodeBlock() {
+        mDictionarySize = 0;
+        Arrays.fill(mDictionarySlots, 0);
+
+        for (int i = 0; i < mCount; i++) {
+            mIndices[i] = indexOf(mBssids[i]);
+        }
+
+        byte[] out = mEncoded;
+        int offset = SessionExport.putVarint(out, 0, mDictionarySize);
+
+        for (int i = 0; i < mDictionarySize; i++) {
+            long bssid = mDictionary[i];
+
+            for (int shift = 0; shift < 48; shift += 8) {
+                out[offset++] = (byte) (bssid >>> shift);
+            }
+        }
+
+        for (int i = 0; i < mCount; i++) {
+            offset = SessionExport.putVarint(out, offset, mIndices[i]);
+        }
+
+        long previousTimestampMillis = 0;
+
+        for (int i = 0; i < mCount; i++) {
+            offset =
+                    SessionExport.putVarint(
+                            out,
+                            offset,
+                            SessionExport.zigZag(mTimestampsMillis[i] - previousTimestampMillis));
+            previousTimestampMillis = mTimestampsMillis[i];
+        }
+
+        offset = putColumn(out, offset, mStatuses);
+        offset = putDeltaColumn(out, offset, mDistancesMm);
+        offset = putColumn(out, offset, mDistanceStdDevsMm);
+        offset = putDeltaColumn(out, offset, mRssis);
+        offset = putColumn(out, offset, mNumAttemptedMeasurements);
+        return putColumn(out, offset, mNumSuccessfulMeasurements);
+    }
+
+    private int putColumn(byte[] out, int offset, int[] values) {
+        for (int i = 0; i < mCount; i++) {
+            offset = SessionExport.putVarint(out, offset, SessionExport.zigZag(values[i]));
+        }
+        return offset;
+    }
+
+    // Each value as the delta to the previous one of the same BSSID.
+    private int putDeltaColumn(byte[] out, int offset, int[] values) {
+        Arrays.fill(mPreviousValues, 0, mDictionarySize, 0);
+
+        for (int i = 0; i < mCount; i++) {
+            int index = mIndices[i];
+            long delta = (long) values[i] - mPreviousValues[index];
+
+            offset = SessionExport.putVarint(out, offset, SessionExport.zigZag(delta));
+            mPreviousValues[index] = values[i];
+        }
+        return offset;
+    }
+
+    // Returns the dictionary index of bssid, adding it if it's new to the block.
+    private int indexOf(long bssid) {
+        int mask = mDictionarySlots.length - 1;
+        long hash = bssid * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash >>> 32) & mask;
+
+        while (mDictionarySlots[slot] != 0) {
+            int index = mDictionarySlots[slot] - 1;
+
+            if (mDictionary[index] == bssid) {
+                return index;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        mDictionary[mDictionarySize] = bssid;
+        mDictionarySlots[slot] = mDictionarySize + 1;
+        return mDictionarySize++;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mBytesWritten += mChannel.write(buffer);
+        }
+    }
+
+    private void finishFile(boolean complete) throws IOException {
+        if (!complete) {
+            mTemporaryFile.delete();
+            return;
+        }
+
+        if (!mTemporaryFile.renameTo(mFile)) {
+            throw new IOException("Can't rename " + mTemporaryFile + " to " + mFile);
+        }
+    }
+}
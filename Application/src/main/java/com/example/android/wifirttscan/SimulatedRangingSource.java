@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deterministic {@link RangingSource} that simulates a number of virtual 802.11mc responders, so
+ * ranging and statistics code can be load tested and benchmarked off-device. For the same seed and
+ * sequence of requests it always produces the same results.
+ *
+ * <p>Each responder drifts slowly around its own true distance. Results get noisier, weaker and
+ * less likely to succeed with distance, occasionally carry a multipath (NLOS) spike, and whole
+ * requests fail with {@link #FAILURE_CODE} at the configured rate.
+ */
+public class SimulatedRangingSource implements RangingSource {
+
+    // Same as RangingResultCallback.STATUS_CODE_FAIL.
+    public static final int FAILURE_CODE = 1;
+
+    // Locally administered BSSIDs: 02:00:00:00:xx:xx.
+    private static final long BSSID_BASE = 0x020000000000L;
+
+    private static final int MAX_PEERS = 10;
+    private static final int ATTEMPTED_MEASUREMENTS_PER_BURST = 8;
+
+    private static final int MIN_DISTANCE_MM = 500;
+    private static final int MAX_DISTANCE_MM = 40000;
+
+    private final Random mRandom;
+    private final long[] mResponderBssids;
+    private final double[] mResponderDistancesMm;
+
+    private final int mRoundTripMillis;
+    private double mRequestFailureRate = 0.01;
+    private double mMultipathRate = 0.05;
+
+    // Simulated clock, advanced by mRoundTripMillis on every request.
+    private long mClockMillis;
+
+    private final ScheduledExecutorService mScheduler;
+
+    private final ArrayList<RangingMeasurement> mMeasurements = new ArrayList<>();
+    private final ArrayList<RangingMeasurement> mMeasurementPool = new ArrayList<>();
+
+    /*
+     * Results are delivered roundTripMillis after each request on a dedicated thread, or
+     * synchronously from startRanging() if roundTripMillis is 0 (as fast as possible).
+     */
+    public SimulatedRangingSource(long seed, int responderCount, int roundTripMillis) {
+        mRandom = new Random(seed);
+        mRoundTripMillis = roundTripMillis;
+
+        mResponderBssids = new long[responderCount];
+        mResponderDistancesMm = new double[responderCount];
+
+        for (int i = 0; i < responderCount; i++) {
+            mResponderBssids[i] = BSSID_BASE + i + 1;
+            mResponderDistancesMm[i] =
+                    MIN_DISTANCE_MM + mRandom.nextDouble() * (MAX_DISTANCE_MM - MIN_DISTANCE_MM);
+        }
+
+        if (roundTripMillis > 0) {
+            mScheduler =
+                    Executors.newSingleThreadScheduledExecutor(
+                            new ThreadFactory() {
+                                @Override
+                                public Thread newThread(Runnable runnable) {
+                                    Thread thread = new Thread(runnable, "SimulatedRanging");
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            });
+        } else {
+            mScheduler = null;
+        }
+    }
+
+    // BSSIDs of all virtual responders.
+    public long[] getResponderBssids() {
+        return mResponderBssids.clone();
+    }
+
+    public void setRequestFailureRate(double requestFailureRate) {
+        mRequestFailureRate = requestFailureRate;
+    }
+
+    public void setMultipathRate(double multipathRate) {
+        mMultipathRate = multipathRate;
+    }
+
+    public void shutdown() {
+        if (mScheduler != null) {
+            mScheduler.shutdownNow();
+        }
+    }
+
+    @Override
+    public int getMaxPeers() {
+        return MAX_PEERS;
+    }
+
+    @Override
+    public void startRanging(final long[] bssids, final int peerCount, final Callback callback) {
+        if (mScheduler == null) {
+            deliver(bssids, peerCount, callback);
+            return;
+        }
+
+        // Copy, since the caller may reuse the array before the results are delivered.
+        final long[] requestBssids = new long[peerCount];
+        System.arraycopy(bssids, 0, requestBssids, 0, peerCount);
+
+        mScheduler.schedule(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(requestBssids, peerCount, callback);
+                    }
+                },
+                mRoundTripMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void deliver(long[] bssids, int peerCount, Callback callback) {
+        mClockMillis += Math.max(mRoundTripMillis, 1);
+
+        if (mRandom.nextDouble() < mRequestFailureRate) {
+            callback.onRangingFailure(FAILURE_CODE);
+            return;
+        }
+
+        callback.onRangingResults(generate(bssids, peerCount));
+    }
+
+    /*
+     * Generates one measurement per BSSID. The returned list and its measurements are reused by
+     * the next call.
+     */
+    public synchronized List<RangingMeasurement> generate(long[] bssids, int peerCount) {
+        mMeasurements.clear();
+
+        for (int i = 0; i < peerCount; i++) {
+            RangingMeasurement measurement = obtainMeasurement(i);
+            int responder = indexOf(bssids[i]);
+
+            if (responder < 0) {
+                measurement.set(
+                        bssids[i],
+                        RangingMeasurement.STATUS_RESPONDER_DOES_NOT_SUPPORT_IEEE80211MC,
+                        0,
+                        0,
+                        0,
+                        0,
+                        0,
+                        mClockMillis);
+            } else {
+                simulate(responder, measurement);
+            }
+
+            mMeasurements.add(measurement);
+        }
+        return mMeasurements;
+    }
+
+    private void simulate(int responder, RangingMeasurement measurement) {
+        // Slow random walk (user moving around), kept inside the simulated range.
+        double distanceMm = mResponderDistancesMm[responder] + mRandom.nextGaussian() * 50;
+        distanceMm = Math.max(MIN_DISTANCE_MM, Math.min(MAX_DISTANCE_MM, distanceMm));
+        mResponderDistancesMm[responder] = distanceMm;
+
+        double distanceMeters = distanceMm / 1000;
+
+        // Free space path loss style RSSI, with fading noise.
+        int rssi =
+                (int)
+                        Math.round(
+                                -40
+                                        - 20 * Math.log10(distanceMeters)
+                                        + mRandom.nextGaussian() * 3);
+
+        // Chance of a successful measurement in the burst drops with distance.
+        double measurementSuccessRate = Math.max(0.1, 0.98 - distanceMeters / 60);
+        int successfulMeasurements = 0;
+
+        for (int i = 0; i < ATTEMPTED_MEASUREMENTS_PER_BURST; i++) {
+            if (mRandom.nextDouble() < measurementSuccessRate) {
+                successfulMeasurements++;
+            }
+        }
+
+        if (successfulMeasurements == 0) {
+            measurement.set(
+                    mResponderBssids[responder],
+                    RangingMeasurement.STATUS_FAIL,
+                    0,
+                    0,
+                    0,
+                    0,
+                    0,
+                    mClockMillis);
+            return;
+        }
+
+        double stdDevMm = 150 + 10 * distanceMeters + mRandom.nextDouble() * 100;
+        double measuredMm =
+                distanceMm + mRandom.nextGaussian() * stdDevMm / Math.sqrt(successfulMeasurements);
+
+        // Multipath only ever makes the path longer.
+        if (mRandom.nextDouble() < mMultipathRate) {
+            measuredMm += 1000 + mRandom.nextDouble() * 5000;
+            stdDevMm *= 2;
+        }
+
+        measurement.set(
+                mResponderBssids[responder],
+                RangingMeasurement.STATUS_SUCCESS,
+                (int) Math.round(measuredMm),
+                (int) Math.round(stdDevMm),
+                rssi,
+                ATTEMPTED_MEASUREMENTS_PER_BURST,
+                successfulMeasurements,
+                mClockMillis);
+    }
+
+    private int indexOf(long bssid) {
+        long index = bssid - BSSID_BASE - 1;
+        return ((index >= 0) && (index < mResponderBssids.length)) ? (int) index : -1;
+    }
+
+    private RangingMeasurement obtainMeasurement(int index) {
+        while (mMeasurementPool.size() <= index) {
+            mMeasurementPool.add(new RangingMeasurement());
+        }
+        return mMeasurementPool.get(index);
+    }
+}
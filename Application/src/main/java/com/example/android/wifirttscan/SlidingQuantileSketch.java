@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+/**
+ * {@link QuantileSketch} over a sliding time window, e.g. the distances of the last minute.
+ *
+ * <p>The window is split into panes of equal duration, each with its own sketch, used as a ring:
+ * when time moves past the newest pane, the oldest one is cleared and reused. Queries combine the
+ * ranks of all panes, so they cover between (paneCount - 1) / paneCount of the window and the
+ * whole window, ending at the newest sample. Memory is fixed on construction (paneCount sketches)
+ * no matter how long the window is or how many samples it holds, and nothing is allocated
+ * afterwards.
+ */
+public class SlidingQuantileSketch {
+
+    private final QuantileSketch[] mPanes;
+    private final long mPaneMillis;
+
+    // Newest pane, and the time at which the next one starts.
+    private int mPane;
+    private long mPaneEndMillis;
+    private boolean mStarted;
+
+    public SlidingQuantileSketch(long windowMillis, int paneCount, int k) {
+        if ((paneCount < 1) || (windowMillis < paneCount)) {
+            throw new IllegalArgumentException(
+                    windowMillis + " ms / " + paneCount + " panes isn't a valid window.");
+        }
+        mPaneMillis = windowMillis / paneCount;
+        mPanes = new QuantileSketch[paneCount];
+
+        for (int i = 0; i < paneCount; i++) {
+            mPanes[i] = new QuantileSketch(k);
+        }
+    }
+
+    public void reset() {
+        for (QuantileSketch pane : mPanes) {
+            pane.reset();
+        }
+        mPane = 0;
+        mStarted = false;
+    }
+
+    public long getWindowMillis() {
+        return mPaneMillis * mPanes.length;
+    }
+
+    // Adds a sample taken at timeMillis. Times are expected not to go backwards; samples older
+    // than the newest pane are added to it.
+    public void add(long timeMillis, int value) {
+        advanceTo(timeMillis);
+        mPanes[mPane].add(value);
+    }
+
+    // Moves the window to end at timeMillis, dropping the panes that fall out of it.
+    public void advanceTo(long timeMillis) {
+        if (!mStarted) {
+            mPaneEndMillis = timeMillis + mPaneMillis;
+            mStarted = true;
+            return;
+        }
+
+        if (timeMillis >= mPaneEndMillis + mPaneMillis * mPanes.length) {
+            // Past the whole window, every pane is stale.
+            for (QuantileSketch pane : mPanes) {
+                pane.reset();
+            }
+            mPaneEndMillis = timeMillis + mPaneMillis;
+            return;
+        }
+
+        while (timeMillis >= mPaneEndMillis) {
+            mPane = (mPane + 1) % mPanes.length;
+            mPanes[mPane].reset();
+            mPaneEndMillis += mPaneMillis;
+        }
+    }
+
+    // Number of samples in the window.
+    public long getCount() {
+        long count = 0;
+
+        for (QuantileSketch pane : mPanes) {
+            count += pane.getCount();
+        }
+        return count;
+    }
+
+    public int getMin() {
+        checkNotEmpty();
+        int min = Integer.MAX_VALUE;
+
+        for (QuantileSketch pane : mPanes) {
+            if (pane.getCount() > 0) {
+                min = Math.min(min, pane.getMin());
+            }
+        }
+        return min;
+    }
+
+    public int getMax() {
+        checkNotEmpty();
+        int max = Integer.MIN_VALUE;
+
+        for (QuantileSketch pane : mPanes) {
+            if (pane.getCount() > 0) {
+                max = Math.max(max, pane.getMax());
+            }
+        }
+        return max;
+    }
+
+    // Estimated number of samples in the window less than or equal to value.
+    public long getRank(int value) {
+        long rank = 0;
+
+        for (QuantileSketch pane : mPanes) {
+            if (pane.getCount() > 0) {
+                rank += pane.getRank(value);
+            }
+        }
+        return rank;
+    }
+
+    // Estimated nearest-rank percentile of the window, where percentile is in [0, 100].
+    public int getPercentile(double percentile) {
+        long count = getCount();
+        long rank = QuantileSketch.rankOfPercentile(percentile, count);
+
+        // The extremes are known exactly.
+        if (rank == 1) {
+            return getMin();
+        } else if (rank >= count) {
+            return getMax();
+        }
+
+        long low = getMin();
+        long high = getMax();
+
+        while (low < high) {
+            long middle = (low + high) >> 1;
+
+            if (getRank((int) middle) >= rank) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return (int) low;
+    }
+
+    public int getMedian() {
+        return getPercentile(50);
+    }
+
+    private void checkNotEmpty() {
+        if (getCount() == 0) {
+            throw new IllegalStateException("No samples in window.");
+        }
+    }
+}
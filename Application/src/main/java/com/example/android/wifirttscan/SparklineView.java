@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+import androidx.core.content.ContextCompat;
+
+/**
+ * Draws the samples of a {@link SampleRingBuffer} as a line, oldest on the left and newest on the
+ * right edge, scaled to the range of the samples. The line is drawn with a single drawLines()
+ * call from a point array sized on construction, so drawing doesn't allocate. Call {@link
+ * #invalidate()} after samples were added.
+ */
+public class SparklineView extends View {
+
+    // Capacity of the rings drawn, so a full ring spans the whole width.
+    public static final int SAMPLE_CAPACITY = 120;
+
+    private final Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    // Start and end of every segment (4 floats per segment).
+    private final float[] mPoints = new float[4 * (SAMPLE_CAPACITY - 1)];
+
+    private SampleRingBuffer mSamples;
+
+    public SparklineView(Context context) {
+        this(context, null);
+    }
+
+    public SparklineView(Context context, AttributeSet attributeSet) {
+        super(context, attributeSet);
+        mPaint.setStyle(Paint.Style.STROKE);
+        mPaint.setStrokeCap(Paint.Cap.ROUND);
+        mPaint.setStrokeWidth(
+                context.getResources().getDimension(R.dimen.sparkline_stroke_width));
+        mPaint.setColor(ContextCompat.getColor(context, R.color.colorPrimary));
+    }
+
+    // Sets the samples drawn (at most SAMPLE_CAPACITY are shown). Doesn't invalidate.
+    public void setSamples(SampleRingBuffer samples) {
+        mSamples = samples;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        SampleRingBuffer samples = mSamples;
+
+        if ((samples == null) || (samples.size() < 2)) {
+            return;
+        }
+
+        int count = Math.min(samples.size(), SAMPLE_CAPACITY);
+        int first = samples.size() - count;
+
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        float height = getHeight() - getPaddingTop() - getPaddingBottom();
+        float step = width / (SAMPLE_CAPACITY - 1);
+
+        // Newest sample on the right edge.
+        float x = left + width - (count - 1) * step;
+
+        float min = samples.getMin();
+        float range = samples.getMax() - min;
+        float scale = (range > 0) ? height / range : 0;
+        float middle = (range > 0) ? 0 : height / 2;
+
+        float previousY = top + height - middle - (samples.get(first) - min) * scale;
+        int point = 0;
+
+        for (int i = first + 1; i < samples.size(); i++) {
+            float y = top + height - middle - (samples.get(i) - min) * scale;
+
+            mPoints[point++] = x;
+            mPoints[point++] = previousY;
+            x += step;
+            mPoints[point++] = x;
+            mPoints[point++] = y;
+
+            previousY = y;
+        }
+        canvas.drawLines(mPoints, 0, point, mPaint);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import android.annotation.SuppressLint;
+import android.net.MacAddress;
+import android.net.wifi.ScanResult;
+import android.net.wifi.rtt.RangingRequest;
+import android.net.wifi.rtt.RangingResult;
+import android.net.wifi.rtt.RangingResultCallback;
+import android.net.wifi.rtt.WifiRttManager;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link RangingSource} backed by {@link WifiRttManager}. Only BSSIDs of access points passed to
+ * {@link #addAccessPoints(List)} can be ranged, since a {@link RangingRequest} is built from
+ * {@link ScanResult}s. Access points can be added from any thread.
+ */
+public class WifiRttRangingSource implements RangingSource {
+
+    private final WifiRttManager mWifiRttManager;
+    private final Executor mExecutor;
+
+    // Known access points, with their packed BSSIDs and MacAddresses (compared with results).
+    private final ArrayList<ScanResult> mAccessPoints = new ArrayList<>();
+    private long[] mAccessPointBssids = new long[0];
+    private MacAddress[] mAccessPointMacAddresses = new MacAddress[0];
+
+    // Reused for every request / callback (callbacks are serialized on mExecutor).
+    private final ArrayList<ScanResult> mRequestAccessPoints = new ArrayList<>();
+    private final ArrayList<RangingMeasurement> mMeasurements = new ArrayList<>();
+    private final ArrayList<RangingMeasurement> mMeasurementPool = new ArrayList<>();
+
+    public WifiRttRangingSource(WifiRttManager wifiRttManager, Executor executor) {
+        mWifiRttManager = wifiRttManager;
+        mExecutor = executor;
+    }
+
+    // Adds access points that can be ranged, replacing known ones with the same BSSID.
+    public synchronized void addAccessPoints(List<ScanResult> accessPoints) {
+        for (ScanResult scanResult : accessPoints) {
+            int index = indexOf(MacAddressUtils.toLong(scanResult.BSSID));
+
+            if (index >= 0) {
+                mAccessPoints.set(index, scanResult);
+            } else {
+                mAccessPoints.add(scanResult);
+            }
+        }
+
+        int size = mAccessPoints.size();
+        mAccessPointBssids = new long[size];
+        mAccessPointMacAddresses = new MacAddress[size];
+
+        for (int i = 0; i < size; i++) {
+            String bssid = mAccessPoints.get(i).BSSID;
+            mAccessPointBssids[i] = MacAddressUtils.toLong(bssid);
+            mAccessPointMacAddresses[i] = MacAddress.fromString(bssid);
+        }
+    }
+
+    @Override
+    public int getMaxPeers() {
+        return RangingRequest.getMaxPeers();
+    }
+
+    // Fine location permission is checked by the activities before ranging is started.
+    @SuppressLint("MissingPermission")
+    @Override
+    public synchronized void startRanging(long[] bssids, int peerCount, final Callback callback) {
+        mRequestAccessPoints.clear();
+
+        for (int i = 0; i < peerCount; i++) {
+            int index = indexOf(bssids[i]);
+
+            if (index >= 0) {
+                mRequestAccessPoints.add(mAccessPoints.get(index));
+            }
+        }
+
+        RangingRequest rangingRequest =
+                new RangingRequest.Builder().addAccessPoints(mRequestAccessPoints).build();
+
+        mWifiRttManager.startRanging(
+                rangingRequest,
+                mExecutor,
+                new RangingResultCallback() {
+                    @Override
+                    public void onRangingFailure(int code) {
+                        callback.onRangingFailure(code);
+                    }
+
+                    @Override
+                    public void onRangingResults(@NonNull List<RangingResult> list) {
+                        callback.onRangingResults(toMeasurements(list));
+                    }
+                });
+    }
+
+    private int indexOf(long bssid) {
+        for (int i = 0; i < mAccessPointBssids.length; i++) {
+            if (mAccessPointBssids[i] == bssid) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(MacAddress macAddress) {
+        for (int i = 0; i < mAccessPointMacAddresses.length; i++) {
+            if (mAccessPointMacAddresses[i].equals(macAddress)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private synchronized List<RangingMeasurement> toMeasurements(List<RangingResult> list) {
+        mMeasurements.clear();
+
+        // Failed results have no ranging timestamp, so they're stamped with the same clock (time
+        // since boot) when the results arrive, like the simulated source does.
+        long failureTimestampMillis = SystemClock.elapsedRealtime();
+
+        for (int i = 0; i < list.size(); i++) {
+            RangingResult rangingResult = list.get(i);
+            RangingMeasurement measurement = obtainMeasurement(i);
+
+            int index = indexOf(rangingResult.getMacAddress());
+            long bssid =
+                    (index >= 0)
+                            ? mAccessPointBssids[index]
+                            : MacAddressUtils.toLong(rangingResult.getMacAddress().toByteArray());
+
+            if (rangingResult.getStatus() == RangingResult.STATUS_SUCCESS) {
+                measurement.set(
+                        bssid,
+                        rangingResult.getStatus(),
+                        rangingResult.getDistanceMm(),
+                        rangingResult.getDistanceStdDevMm(),
+                        rangingResult.getRssi(),
+                        rangingResult.getNumAttemptedMeasurements(),
+                        rangingResult.getNumSuccessfulMeasurements(),
+                        rangingResult.getRangingTimestampMillis());
+            } else {
+                // Other getters throw IllegalStateException if the status isn't success.
+                measurement.set(
+                        bssid, rangingResult.getStatus(), 0, 0, 0, 0, 0, failureTimestampMillis);
+            }
+
+            mMeasurements.add(measurement);
+        }
+        return mMeasurements;
+    }
+
+    private RangingMeasurement obtainMeasurement(int index) {
+        while (mMeasurementPool.size() <= index) {
+            mMeasurementPool.add(new RangingMeasurement());
+        }
+        return mMeasurementPool.get(index);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import android.annotation.SuppressLint;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the {@link ScanResultCache} fresh without wasting the platform scan budget. Scan results
+ * are delivered to every app whenever anyone scans, so results from other apps' (or the system's)
+ * scans are used as is, and an active scan is only started when nothing fresh arrived for {@link
+ * #SCAN_INTERVAL_MILLIS}. Active scans are budgeted with a {@link ScanBudget} matching the
+ * platform throttle, so a throttled WifiManager#startScan() is never relied on; when it fails
+ * anyway, the next attempt waits for the budget.
+ *
+ * <p>Listeners are only told when the set of access points actually changed, once per batch of
+ * results (coalesced on the main thread). Process wide, reference counted with {@link #start()} /
+ * {@link #stop()} and only used on the main thread. Callers must hold the fine location
+ * permission while started.
+ */
+public class WifiScanScheduler {
+    private static final String TAG = "WifiScanScheduler";
+
+    // Scans at most this often on its own, leaving part of the budget for requestScan().
+    private static final long SCAN_INTERVAL_MILLIS = 45 * 1000;
+
+    // Results younger than this satisfy requestScan() without scanning.
+    private static final long FRESH_RESULTS_MILLIS = 10 * 1000;
+
+    // A started scan without results for this long is considered lost.
+    private static final long SCAN_TIMEOUT_MILLIS = 10 * 1000;
+
+    public interface Listener {
+        // Called on the main thread after the access points in the ScanResultCache changed.
+        void onAccessPointsChanged();
+    }
+
+    private static WifiScanScheduler sInstance;
+
+    private final Context mContext;
+    private final WifiManager mWifiManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ScanBudget mScanBudget =
+            new ScanBudget(ScanBudget.FOREGROUND_MAX_SCANS, ScanBudget.FOREGROUND_WINDOW_MILLIS);
+    private final ArrayList<Listener> mListeners = new ArrayList<>();
+
+    private int mStartCount;
+    private long mLastResultsMillis = Long.MIN_VALUE / 2;
+    private long mScanStartMillis = Long.MIN_VALUE / 2;
+    private boolean mNotificationPending;
+
+    private int mNumberOfScans;
+    private int mNumberOfThrottledScans;
+    private int mNumberOfResults;
+
+    private final BroadcastReceiver mScanReceiver =
+            new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    onScanResultsAvailable(
+                            intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, true));
+                }
+            };
+
+    private final Runnable mScanRunnable =
+            new Runnable() {
+                @Override
+                public void run() {
+                    scanIfDue();
+                }
+            };
+
+    private final Runnable mNotifyRunnable =
+            new Runnable() {
+                @Override
+                public void run() {
+                    mNotificationPending = false;
+
+                    for (int i = 0; i < mListeners.size(); i++) {
+                        mListeners.get(i).onAccessPointsChanged();
+                    }
+                }
+            };
+
+    public static WifiScanScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WifiScanScheduler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WifiScanScheduler(Context context) {
+        mContext = context;
+        mWifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    // Starts listening for results and scanning in the background (if not started already).
+    public void start() {
+        if (mStartCount++ > 0) {
+            return;
+        }
+
+        mContext.registerReceiver(
+                mScanReceiver, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+
+        // Picks up whatever the platform already has, then scans if that isn't fresh.
+        onScanResultsAvailable(false);
+    }
+
+    // Undoes one start(); stops once every start() was undone.
+    public void stop() {
+        if ((mStartCount == 0) || (--mStartCount > 0)) {
+            return;
+        }
+
+        mContext.unregisterReceiver(mScanReceiver);
+        mHandler.removeCallbacks(mScanRunnable);
+    }
+
+    /*
+     * Asks for fresh results (e.g. on a user tap); listeners hear about them only if they change
+     * the access points. Returns false if the scan budget is used up: the next background scan
+     * then happens as soon as the budget allows.
+     */
+    public boolean requestScan() {
+        long nowMillis = SystemClock.elapsedRealtime();
+
+        if ((nowMillis - mLastResultsMillis < FRESH_RESULTS_MILLIS) || isScanning(nowMillis)) {
+            // Coalesced with the results just received, or with the scan in flight.
+            return true;
+        }
+
+        if (startScan(nowMillis)) {
+            return true;
+        }
+
+        scheduleScan(mScanBudget.getNextAvailableMillis(nowMillis));
+        return false;
+    }
+
+    // Milliseconds until an active scan is allowed again (0 if one is allowed now).
+    public long getMillisUntilNextScan() {
+        long nowMillis = SystemClock.elapsedRealtime();
+        return mScanBudget.getNextAvailableMillis(nowMillis) - nowMillis;
+    }
+
+    public int getNumberOfScans() {
+        return mNumberOfScans;
+    }
+
+    // Scans started but refused by the platform.
+    public int getNumberOfThrottledScans() {
+        return mNumberOfThrottledScans;
+    }
+
+    // Batches of results received, from our scans or anyone else's.
+    public int getNumberOfResults() {
+        return mNumberOfResults;
+    }
+
+    // Fine location permission is checked by the activities before the scheduler is started.
+    @SuppressLint("MissingPermission")
+    private void onScanResultsAvailable(boolean updated) {
+        long nowMillis = SystemClock.elapsedRealtime();
+
+        // Not updated means a scan failed (e.g. throttled) and the results are old ones.
+        if (updated) {
+            mLastResultsMillis = nowMillis;
+            mScanStartMillis = Long.MIN_VALUE / 2;
+            mNumberOfResults++;
+        }
+
+        List<ScanResult> scanResults = mWifiManager.getScanResults();
+
+        if (scanResults != null) {
+            // Results of scans nobody told us about (e.g. before start()) are as fresh as the
+            // newest sighting in them (timestamps are in microseconds since boot).
+            for (int i = 0; i < scanResults.size(); i++) {
+                mLastResultsMillis =
+                        Math.max(mLastResultsMillis, scanResults.get(i).timestamp / 1000);
+            }
+
+            if (ScanResultCache.getInstance().onScanResults(scanResults)) {
+                scheduleNotification();
+            }
+        }
+
+        scheduleScan(mLastResultsMillis + SCAN_INTERVAL_MILLIS);
+    }
+
+    // Scans unless fresh results arrived meanwhile (and reschedules itself either way).
+    private void scanIfDue() {
+        long nowMillis = SystemClock.elapsedRealtime();
+        long dueMillis = mLastResultsMillis + SCAN_INTERVAL_MILLIS;
+
+        if ((nowMillis >= dueMillis) && !isScanning(nowMillis)) {
+            if (startScan(nowMillis)) {
+                // Results are expected, but retries if they never come.
+                dueMillis = nowMillis + SCAN_TIMEOUT_MILLIS;
+            } else {
+                dueMillis = mScanBudget.getNextAvailableMillis(nowMillis);
+            }
+        } else if (isScanning(nowMillis)) {
+            dueMillis = mScanStartMillis + SCAN_TIMEOUT_MILLIS;
+        }
+
+        scheduleScan(dueMillis);
+    }
+
+    // Starts a scan if the budget allows, returns false if it didn't or the platform refused.
+    private boolean startScan(long nowMillis) {
+        if (!mScanBudget.tryAcquire(nowMillis)) {
+            return false;
+        }
+
+        mNumberOfScans++;
+
+        if (!mWifiManager.startScan()) {
+            // Throttled anyway (e.g. the budget was shared with scans before the app started).
+            Log.d(TAG, "startScan() refused by the platform.");
+            mNumberOfThrottledScans++;
+            return false;
+        }
+
+        mScanStartMillis = nowMillis;
+        return true;
+    }
+
+    private boolean isScanning(long nowMillis) {
+        return nowMillis - mScanStartMillis < SCAN_TIMEOUT_MILLIS;
+    }
+
+    private void scheduleScan(long timeMillis) {
+        if (mStartCount == 0) {
+            return;
+        }
+
+        mHandler.removeCallbacks(mScanRunnable);
+        mHandler.postDelayed(
+                mScanRunnable, Math.max(0, timeMillis - SystemClock.elapsedRealtime()));
+    }
+
+    // Coalesces notifications of several batches of results into one.
+    private void scheduleNotification() {
+        if (!mNotificationPending) {
+            mNotificationPending = true;
+            mHandler.post(mNotifyRunnable);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** Checks {@link RangeStatistics} against a brute-force computation over the same window. */
+public class RangeStatisticsTest {
+
+    private static final double DELTA = 1e-6;
+
+    @Test
+    public void windowEvictsOldestSamples() {
+        RangeStatistics statistics = new RangeStatistics(3);
+
+        for (int value = 1; value <= 5; value++) {
+            statistics.add(value * 1000);
+        }
+
+        assertEquals(3, statistics.getCount());
+        assertEquals(5000, statistics.getLatest());
+        assertEquals(3000, statistics.getMin());
+        assertEquals(5000, statistics.getMax());
+        assertEquals(4000, statistics.getMean(), DELTA);
+    }
+
+    @Test
+    public void matchesReferenceAfterWraparound() {
+        Random random = new Random(42);
+
+        for (int windowSize : new int[] {1, 2, 7, 64}) {
+            RangeStatistics statistics = new RangeStatistics(windowSize);
+            int[] history = new int[10 * windowSize + 3];
+
+            for (int i = 0; i < history.length; i++) {
+                // A small range of values, so the window holds duplicates.
+                history[i] = 5000 + random.nextInt(200) - 100;
+                statistics.add(history[i]);
+
+                int[] window = window(history, i + 1, windowSize);
+                String message = "window " + windowSize + ", sample " + i;
+
+                assertEquals(message, window.length, statistics.getCount());
+                assertEquals(message, mean(window), statistics.getMean(), DELTA);
+                assertEquals(message, variance(window), statistics.getVariance(), 1e-3);
+                assertEquals(message, window[0], statistics.getMin());
+                assertEquals(message, window[window.length - 1], statistics.getMax());
+                assertEquals(message, percentile(window, 50), statistics.getMedian());
+                assertEquals(
+                        message,
+                        medianAbsoluteDeviation(window),
+                        statistics.getMedianAbsoluteDeviation());
+            }
+        }
+    }
+
+    @Test
+    public void varianceOfConstantWindowIsZero() {
+        RangeStatistics statistics = new RangeStatistics(8);
+
+        for (int i = 0; i < 100; i++) {
+            statistics.add((i < 50) ? i * 37 : 1234);
+        }
+
+        assertEquals(1234, statistics.getMean(), DELTA);
+        assertEquals(0, statistics.getVariance(), DELTA);
+    }
+
+    @Test
+    public void percentilesUseNearestRank() {
+        Random random = new Random(7);
+        RangeStatistics statistics = new RangeStatistics(50);
+        int[] history = new int[137];
+
+        for (int i = 0; i < history.length; i++) {
+            history[i] = random.nextInt(20000);
+            statistics.add(history[i]);
+        }
+
+        int[] window = window(history, history.length, 50);
+
+        for (double percentile = 0; percentile <= 100; percentile += 2.5) {
+            assertEquals(
+                    "percentile " + percentile,
+                    percentile(window, percentile),
+                    statistics.getPercentile(percentile));
+        }
+    }
+
+    @Test
+    public void resetClearsSamples() {
+        RangeStatistics statistics = new RangeStatistics(4);
+        statistics.add(100);
+        statistics.add(200);
+
+        statistics.reset(16);
+
+        assertEquals(0, statistics.getCount());
+        assertEquals(16, statistics.getWindowSize());
+        assertEquals(Double.NaN, statistics.getMean(), 0);
+
+        statistics.add(300);
+        assertEquals(0, statistics.getMedianAbsoluteDeviation());
+        assertEquals(300, statistics.getMedian());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void emptyWindowHasNoMedian() {
+        new RangeStatistics(4).getMedian();
+    }
+
+    // The last windowSize of the first count samples, sorted.
+    private static int[] window(int[] history, int count, int windowSize) {
+        int from = Math.max(0, count - windowSize);
+        int[] window = Arrays.copyOfRange(history, from, count);
+        Arrays.sort(window);
+        return window;
+    }
+
+    private static double mean(int[] values) {
+        double sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double variance(int[] values) {
+        double mean = mean(values);
+        double sum = 0;
+        for (int value : values) {
+            sum += (value - mean) * (value - mean);
+        }
+        return sum / values.length;
+    }
+
+    private static int percentile(int[] sorted, double percentile) {
+        int rank = (int) Math.ceil((percentile / 100) * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private static int medianAbsoluteDeviation(int[] sorted) {
+        int median = percentile(sorted, 50);
+        int[] deviations = new int[sorted.length];
+
+        for (int i = 0; i < sorted.length; i++) {
+            deviations[i] = Math.abs(sorted[i] - median);
+        }
+        Arrays.sort(deviations);
+        return percentile(deviations, 50);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import android.Manifest.permission;
+import android.content.Context;
+import android.content.Intent;
+import android.net.wifi.ScanResult;
+import android.os.SystemClock;
+import android.widget.CompoundButton;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.rule.GrantPermissionRule;
+import androidx.test.rule.ServiceTestRule;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks that {@link AccessPointRangingResultsActivity} keeps its session (and the statistics) in
+ * {@link RangingService} when it is recreated. Needs a device with Wi-Fi RTT, like the app itself.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AccessPointRangingResultsActivityTest {
+
+    private static final String SELECTED_BSSID = "02:00:00:00:00:01";
+    private static final String OTHER_BSSID = "02:00:00:00:00:02";
+
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final long POLL_MILLIS = 50;
+
+    @Rule
+    public final GrantPermissionRule mPermissionRule =
+            GrantPermissionRule.grant(permission.ACCESS_FINE_LOCATION);
+
+    @Rule public final ServiceTestRule mServiceRule = new ServiceTestRule();
+
+    @Test
+    public void recreatedActivityReattachesToBatchedSession() throws Exception {
+        Context context = ApplicationProvider.getApplicationContext();
+        RangingService service =
+                ((RangingService.LocalBinder)
+                                mServiceRule.bindService(new Intent(context, RangingService.class)))
+                        .getService();
+
+        long[] bssids = {
+            MacAddressUtils.toLong(SELECTED_BSSID), MacAddressUtils.toLong(OTHER_BSSID)
+        };
+
+        ArrayList<ScanResult> accessPoints = new ArrayList<>();
+        accessPoints.add(createScanResult(SELECTED_BSSID));
+        accessPoints.add(createScanResult(OTHER_BSSID));
+
+        Intent intent = new Intent(context, AccessPointRangingResultsActivity.class);
+        intent.putExtra(AccessPointRangingResultsActivity.SCAN_RESULT_EXTRA, accessPoints.get(0));
+        intent.putParcelableArrayListExtra(
+                AccessPointRangingResultsActivity.ACCESS_POINTS_EXTRA, accessPoints);
+
+        ActivityScenario<AccessPointRangingResultsActivity> scenario =
+                ActivityScenario.launch(intent);
+
+        try {
+            // Once bound, the activity starts ranging the selected access point on its own.
+            awaitSession(service, bssids, 1);
+
+            // Batched ranging (after a reset) gets a session for both access points.
+            scenario.onActivity(
+                    new ActivityScenario.ActivityAction<AccessPointRangingResultsActivity>() {
+                        @Override
+                        public void perform(AccessPointRangingResultsActivity activity) {
+                            CompoundButton batchedRangingSwitch =
+                                    activity.findViewById(R.id.batched_ranging_switch);
+                            batchedRangingSwitch.setChecked(true);
+                            activity.onResetButtonClick(null);
+                        }
+                    });
+            RangingSession session = awaitSession(service, bssids, 2);
+            long startTimeMillis = session.getStartTimeMillis();
+
+            // Restarting the session would then change its start time.
+            SystemClock.sleep(POLL_MILLIS);
+            scenario.recreate();
+            awaitBound(scenario);
+
+            assertSame(session, findSession(service, bssids, 2));
+            assertEquals(startTimeMillis, session.getStartTimeMillis());
+            assertNull(findSession(service, bssids, 1));
+
+        } finally {
+            // Finishing the activity stops its session.
+            scenario.close();
+        }
+    }
+
+    // ScanResult has no public constructor before API level 30.
+    private static ScanResult createScanResult(String bssid) throws Exception {
+        ScanResult scanResult = ScanResult.class.getConstructor().newInstance();
+        scanResult.BSSID = bssid;
+        scanResult.SSID = "RTT test";
+        return scanResult;
+    }
+
+    // Sessions are only looked up on the main thread, like the activity does.
+    private static RangingSession findSession(
+            final RangingService service, final long[] bssids, final int peerCount) {
+        final RangingSession[] session = new RangingSession[1];
+
+        InstrumentationRegistry.getInstrumentation()
+                .runOnMainSync(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                session[0] = service.findSession(bssids, peerCount);
+                            }
+                        });
+        return session[0];
+    }
+
+    private static RangingSession awaitSession(RangingService service, long[] bssids, int peerCount)
+            throws TimeoutException {
+        long deadlineMillis = SystemClock.elapsedRealtime() + TIMEOUT_MILLIS;
+
+        while (SystemClock.elapsedRealtime() < deadlineMillis) {
+            RangingSession session = findSession(service, bssids, peerCount);
+
+            if (session != null) {
+                return session;
+            }
+            SystemClock.sleep(POLL_MILLIS);
+        }
+        throw new TimeoutException("No session for " + peerCount + " peers.");
+    }
+
+    // The export button is only enabled while the activity is bound to the service.
+    private static void awaitBound(ActivityScenario<AccessPointRangingResultsActivity> scenario)
+            throws TimeoutException {
+        final boolean[] bound = new boolean[1];
+        long deadlineMillis = SystemClock.elapsedRealtime() + TIMEOUT_MILLIS;
+
+        while (SystemClock.elapsedRealtime() < deadlineMillis) {
+            scenario.onActivity(
+                    new ActivityScenario.ActivityAction<AccessPointRangingResultsActivity>() {
+                        @Override
+                        public void perform(AccessPointRangingResultsActivity activity) {
+                            bound[0] = activity.findViewById(R.id.export_button).isEnabled();
+                        }
+                    });
+
+            if (bound[0]) {
+                return;
+            }
+            SystemClock.sleep(POLL_MILLIS);
+        }
+        throw new TimeoutException("Activity wasn't bound to the service.");
+    }
+}
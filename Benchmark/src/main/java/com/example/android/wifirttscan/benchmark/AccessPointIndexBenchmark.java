@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.AccessPointIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the {@link AccessPointIndex} operations done per scan result (update) and per ranging
+ * request (top-K selection of the peers to range) as the number of indexed access points grows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessPointIndexBenchmark {
+
+    private static final long BSSID_BASE = 0x020000000000L;
+    private static final int K = 10;
+
+    @Param({"10", "100", "1000"})
+    public int accessPointCount;
+
+    private AccessPointIndex<Object> mIndex;
+    private final int[] mSelection = new int[K];
+
+    private Random mRandom;
+    private long mNowMillis;
+
+    @Setup
+    public void setUp() {
+        mRandom = new Random(1);
+        mIndex = new AccessPointIndex<>(accessPointCount, Long.MAX_VALUE);
+
+        for (int i = 0; i < accessPointCount; i++) {
+            mIndex.update(
+                    BSSID_BASE + i,
+                    null,
+                    -40 - mRandom.nextInt(50),
+                    5180,
+                    mRandom.nextBoolean(),
+                    mNowMillis);
+
+            for (int r = 0; r < 10; r++) {
+                mIndex.onRangingResult(BSSID_BASE + i, mRandom.nextBoolean());
+            }
+        }
+    }
+
+    @Benchmark
+    public int update() {
+        mNowMillis++;
+        long bssid = BSSID_BASE + mRandom.nextInt(accessPointCount);
+        return mIndex.update(bssid, null, -40 - mRandom.nextInt(50), 5180, true, mNowMillis);
+    }
+
+    @Benchmark
+    public int selectTopK() {
+        return mIndex.selectTopK(K, true, mSelection);
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.AccessPointLocations;
+import com.example.android.wifirttscan.CharFormatter;
+import com.example.android.wifirttscan.FingerprintMap;
+import com.example.android.wifirttscan.FingerprintMapWriter;
+import com.example.android.wifirttscan.PipelinedRangingController;
+import com.example.android.wifirttscan.RangeCalibration;
+import com.example.android.wifirttscan.RangingMeasurement;
+import com.example.android.wifirttscan.RangingMetrics;
+import com.example.android.wifirttscan.RangingSessionListener;
+import com.example.android.wifirttscan.RangingSnapshot;
+import com.example.android.wifirttscan.SampleRingBuffer;
+import com.example.android.wifirttscan.SimulatedRangingSource;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Counts the bytes allocated per ranging result in steady state, on the path every result takes
+ * in the app: the PipelinedRangingController (with peer selection and metrics) and the
+ * RangingSessionListener of RangingSession (calibration, statistics, snapshot, and position fixes
+ * from access point locations or a fingerprint map), then the copy and formatting of
+ * AccessPointRangingResultsActivity#displaySnapshot and the rows of PeerDashboardAdapter#update
+ * (with their sparkline histories). Results come synchronously from the simulated source. Only
+ * the Android pieces (Handler, logging, TextView, Canvas) are left out.
+ *
+ * <p>Usage: AllocationCheckTool [peerCount] [requests]. Exits with status 1 if anything was
+ * allocated after the warm up. Needs a JVM with per thread allocation counting (HotSpot). The
+ * same check runs with the unit tests (AllocationCheckTest), so "gradlew check" fails on any
+ * allocation.
+ */
+public class AllocationCheckTool {
+
+    static final int PEER_COUNT_DEFAULT = 24;
+    private static final int REQUESTS_DEFAULT = 200000;
+
+    private static final int SAMPLE_SIZE = 50;
+    private static final int PERIOD_MILLIS = 100;
+    private static final long TIMEOUT_MILLIS = 1000;
+
+    // Access points on a circle of this radius (m), and a survey of a grid of fingerprints inside.
+    private static final double LOCATION_RADIUS = 20;
+    private static final int SURVEY_GRID_SIZE = 8;
+
+    // SparklineView.SAMPLE_CAPACITY (the view itself needs Android).
+    private static final int SAMPLE_CAPACITY = 120;
+
+    private final SimulatedRangingSource mSource;
+    private final long[] mBssids;
+    private final int mPeerCount;
+
+    private final RangingSnapshot mSnapshot = new RangingSnapshot();
+    private final RangingSnapshot mDisplaySnapshot = new RangingSnapshot();
+    private final RangingSessionListener mSessionListener;
+    private final PipelinedRangingController mController;
+
+    // One per value shown by the activity.
+    private final CharFormatter[] mTexts = new CharFormatter[12];
+
+    // Per peer, as in PeerDashboardAdapter: distance history, last successful request count and
+    // the values of its row.
+    private final SampleRingBuffer[] mDistanceHistories;
+    private final int[] mNumberOfSuccessfulRequests;
+    private final CharFormatter[] mRowTexts = new CharFormatter[3];
+    private float mSparklineRange;
+
+    private long mNowMillis;
+    private long mWakeUpMillis;
+    private long mNumberOfResults;
+    private long mNumberOfMeasuredResults;
+    private long mNumberOfPositions;
+
+    AllocationCheckTool(int peerCount) {
+        mPeerCount = peerCount;
+        mSource = new SimulatedRangingSource(1, peerCount, 0);
+        mBssids = mSource.getResponderBssids();
+
+        for (int i = 0; i < mTexts.length; i++) {
+            mTexts[i] = new CharFormatter();
+        }
+
+        mDistanceHistories = new SampleRingBuffer[peerCount];
+        mNumberOfSuccessfulRequests = new int[peerCount];
+
+        for (int i = 0; i < peerCount; i++) {
+            mDistanceHistories[i] = new SampleRingBuffer(SAMPLE_CAPACITY);
+        }
+
+        for (int i = 0; i < mRowTexts.length; i++) {
+            mRowTexts[i] = new CharFormatter();
+        }
+
+        PipelinedRangingController.Host host =
+                new PipelinedRangingController.Host() {
+                    @Override
+                    public long nowMillis() {
+                        return mNowMillis;
+                    }
+
+                    @Override
+                    public void wakeUpAt(long timeMillis) {
+                        mWakeUpMillis = timeMillis;
+                    }
+                };
+
+        // Set up and started as in RangingSession, with one request in flight.
+        mSessionListener = new RangingSessionListener(mSnapshot, mSource.getMaxPeers(), host);
+        mSessionListener.setCalibration(createCalibration(mBssids, peerCount));
+        mSessionListener.setAccessPointLocations(createLocations(mBssids, peerCount));
+        mSessionListener.setFingerprintMap(createFingerprintMap(mSource, mBssids, peerCount));
+
+        mController =
+                new PipelinedRangingController(mSource, 1, TIMEOUT_MILLIS, host, new Listener());
+        mController.setMetrics(new RangingMetrics(0));
+        mSessionListener.start(mController, mBssids, peerCount, SAMPLE_SIZE, PERIOD_MILLIS, true);
+        mController.start();
+    }
+
+    public static void main(String[] args) {
+        int peerCount = (args.length > 0) ? Integer.parseInt(args[0]) : PEER_COUNT_DEFAULT;
+        int requests = (args.length > 1) ? Integer.parseInt(args[1]) : REQUESTS_DEFAULT;
+
+        AllocationCheckTool tool = new AllocationCheckTool(peerCount);
+        long bytes = tool.measureAllocatedBytes(requests);
+        long results = tool.getNumberOfMeasuredResults();
+
+        System.out.println(
+                String.format(
+                        Locale.US,
+                        "%d peers, %d results: %d bytes allocated (%.3f bytes/result)",
+                        peerCount,
+                        results,
+                        bytes,
+                        (double) bytes / results));
+        System.exit((bytes == 0) ? 0 : 1);
+    }
+
+    /*
+     * Runs requests to warm up (fills the windows and pools, and gets the code compiled), then
+     * returns the bytes this thread allocated while running requests more.
+     */
+    long measureAllocatedBytes(int requests) {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        run(requests);
+
+        long results = mNumberOfResults;
+        long bytes = threadBean.getThreadAllocatedBytes(threadId);
+        run(requests);
+        bytes = threadBean.getThreadAllocatedBytes(threadId) - bytes;
+        mNumberOfMeasuredResults = mNumberOfResults - results;
+        return bytes;
+    }
+
+    // Results covered by the last measureAllocatedBytes().
+    long getNumberOfMeasuredResults() {
+        return mNumberOfMeasuredResults;
+    }
+
+    // Batches of results after which the snapshot had a position.
+    long getNumberOfPositions() {
+        return mNumberOfPositions;
+    }
+
+    private void run(int requests) {
+        int end = mController.getNumberOfRequests() + requests;
+
+        while (mController.getNumberOfRequests() < end) {
+            mNowMillis = mWakeUpMillis;
+            mController.pump();
+        }
+    }
+
+    // RangingSession#RangingListener without its logging and capturing, and the activity's
+    // displaySnapshot() for every published snapshot.
+    private class Listener implements PipelinedRangingController.Listener {
+        @Override
+        public void onRangingRequest(int sequence, long[] bssids, int peerCount) {
+            mSessionListener.onRangingRequest(sequence, bssids, peerCount);
+        }
+
+        @Override
+        public long onRangingResults(int sequence, List<RangingMeasurement> list) {
+            long delayMillis = mSessionListener.onRangingResults(sequence, list);
+            mNumberOfResults += list.size();
+
+            synchronized (mSnapshot) {
+                mDisplaySnapshot.copyFrom(mSnapshot);
+            }
+
+            if (mDisplaySnapshot.hasPosition()) {
+                mNumberOfPositions++;
+            }
+            format(mDisplaySnapshot, 0);
+            updateDashboard(mDisplaySnapshot);
+            return delayMillis;
+        }
+
+        @Override
+        public long onRangingFailure(int sequence, int code) {
+            return mSessionListener.onRangingFailure(sequence, code);
+        }
+
+        @Override
+        public long onRangingTimeout(int sequence) {
+            return mSessionListener.onRangingTimeout(sequence);
+        }
+    }
+
+    private void format(RangingSnapshot snapshot, int index) {
+        if (!snapshot.hasResult(index)) {
+            return;
+        }
+
+        mTexts[0].clear().append(snapshot.getDistanceMm(index) / 1000.0, 3);
+        mTexts[1].clear().append(snapshot.getDistanceMeanMm(index) / 1000.0, 3);
+        mTexts[2].clear().append(snapshot.getDistanceFilteredMm(index) / 1000.0, 3);
+        mTexts[3]
+                .clear()
+                .append(snapshot.getDistanceP50Mm(index) / 1000.0, 3)
+                .append(" / ")
+                .append(snapshot.getDistanceP90Mm(index) / 1000.0, 3)
+                .append(" / ")
+                .append(snapshot.getDistanceP99Mm(index) / 1000.0, 3);
+        mTexts[4].clear().append(snapshot.getDistanceStdDevMm(index) / 1000.0, 3);
+        mTexts[5].clear().append(snapshot.getDistanceStdDevMeanMm(index) / 1000.0, 3);
+        mTexts[6].clear().append(snapshot.getDistanceStdDevMedianMm(index) / 1000.0, 3);
+        mTexts[7].clear().append(snapshot.getRssi(index));
+        mTexts[8]
+                .clear()
+                .append(snapshot.getNumSuccessfulMeasurements(index))
+                .append('/')
+                .append(snapshot.getNumAttemptedMeasurements(index));
+        mTexts[9].clear().append(snapshot.getSuccessRatio(index), 1).append('%');
+        mTexts[10].clear().append(snapshot.getNumberOfRequests(index));
+        mTexts[11].clear().append(snapshot.getResultsPerSecond(index), 1);
+    }
+
+    private void updateDashboard(RangingSnapshot snapshot) {
+        for (int i = 0; i < snapshot.getPeerCount(); i++) {
+            int numberOfSuccessfulRequests = snapshot.getNumberOfSuccessfulRequests(i);
+
+            if (snapshot.hasResult(i)
+                    && (numberOfSuccessfulRequests != mNumberOfSuccessfulRequests[i])) {
+                mNumberOfSuccessfulRequests[i] = numberOfSuccessfulRequests;
+                mDistanceHistories[i].add(snapshot.getDistanceMm(i) / 1000f);
+            }
+
+            if (snapshot.hasResult(i)) {
+                mRowTexts[0].clear().append(snapshot.getDistanceMm(i) / 1000.0, 3);
+                mRowTexts[1].clear().append(snapshot.getDistanceFilteredMm(i) / 1000.0, 3);
+            }
+            mRowTexts[2].clear().append(snapshot.getSuccessRatio(i), 1).append('%');
+
+            // What SparklineView#onDraw reads.
+            SampleRingBuffer history = mDistanceHistories[i];
+
+            if (history.size() > 1) {
+                mSparklineRange = history.getMax() - history.getMin();
+            }
+        }
+    }
+
+    // Every other peer has a profile of its own, the rest get the device profile.
+    private static RangeCalibration createCalibration(long[] bssids, int peerCount) {
+        long[] calibratedBssids = new long[(peerCount + 1) / 2];
+
+        for (int i = 0; i < calibratedBssids.length; i++) {
+            calibratedBssids[i] = bssids[2 * i];
+        }
+        Arrays.sort(calibratedBssids);
+
+        float[] scales = new float[calibratedBssids.length];
+        int[] offsetsMm = new int[calibratedBssids.length];
+        Arrays.fill(scales, 0.98f);
+        Arrays.fill(offsetsMm, -300);
+
+        return new RangeCalibration(
+                "simulated",
+                0.99f,
+                -200,
+                calibratedBssids,
+                scales,
+                offsetsMm,
+                calibratedBssids.length);
+    }
+
+    // Every peer on a circle around the origin, evenly spaced.
+    private static AccessPointLocations createLocations(long[] bssids, int peerCount) {
+        AccessPointLocations locations = new AccessPointLocations();
+
+        for (int i = 0; i < peerCount; i++) {
+            double angle = 2 * Math.PI * i / peerCount;
+            locations.put(
+                    bssids[i],
+                    LOCATION_RADIUS * Math.cos(angle),
+                    LOCATION_RADIUS * Math.sin(angle));
+        }
+        return locations;
+    }
+
+    // Fingerprints on a grid inside the circle, with the ranges the source gives at each.
+    private static FingerprintMap createFingerprintMap(
+            SimulatedRangingSource source, long[] bssids, int peerCount) {
+        FingerprintMapWriter writer = new FingerprintMapWriter();
+        double spacing = 2 * LOCATION_RADIUS / SURVEY_GRID_SIZE;
+
+        for (int i = 0; i < SURVEY_GRID_SIZE; i++) {
+            for (int j = 0; j < SURVEY_GRID_SIZE; j++) {
+                writer.beginFingerprint(
+                        (float) ((i + 0.5) * spacing - LOCATION_RADIUS),
+                        (float) ((j + 0.5) * spacing - LOCATION_RADIUS),
+                        0);
+
+                for (RangingMeasurement measurement : source.generate(bssids, peerCount)) {
+                    if (measurement.isSuccess()) {
+                        writer.addRange(
+                                measurement.getBssid(),
+                                measurement.getDistanceMm(),
+                                measurement.getRssi());
+                    }
+                }
+            }
+        }
+
+        try {
+            return new FingerprintMap(writer.toByteBuffer());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.CaptureLogReader;
+import com.example.android.wifirttscan.MacAddressUtils;
+import com.example.android.wifirttscan.RangeCalibration;
+import com.example.android.wifirttscan.RangeCalibrator;
+import com.example.android.wifirttscan.RangingMeasurement;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Fits a {@link RangeCalibration} from reference captures and writes it, to be copied to
+ * "calibration.rttcal" in the app files.
+ *
+ * <p>Every capture is recorded standing still at known distances from the access points, listed
+ * in its reference file: one access point per line, "aa:bb:cc:dd:ee:ff distance" (meters). Empty
+ * lines and lines starting with '#' are ignored. Take captures at a few different distances, so
+ * the scale can be fitted as well as the offset.
+ *
+ * <p>Usage: CalibrationTool &lt;device&gt; &lt;output&gt; &lt;directory&gt; (&lt;prefix&gt;
+ * &lt;reference file&gt;)..., where device is the name printed by "adb shell dumpsys activity
+ * service RangingService".
+ */
+public class CalibrationTool {
+
+    public static void main(String[] args) throws Exception {
+        if ((args.length < 5) || ((args.length - 3) % 2 != 0)) {
+            System.err.println(
+                    "Usage: CalibrationTool <device> <output> <directory>"
+                            + " (<prefix> <reference file>)...");
+            System.exit(1);
+        }
+
+        RangeCalibrator calibrator = new RangeCalibrator(args[0]);
+        File directory = new File(args[2]);
+        RangingMeasurement measurement = new RangingMeasurement();
+
+        for (int i = 3; i < args.length; i += 2) {
+            Map<Long, Integer> referenceDistancesMm = readReferenceDistances(new File(args[i + 1]));
+            CaptureLogReader reader = new CaptureLogReader(directory, args[i]);
+
+            try {
+                while (reader.next(measurement)) {
+                    Integer referenceDistanceMm = referenceDistancesMm.get(measurement.getBssid());
+
+                    if (measurement.isSuccess() && (referenceDistanceMm != null)) {
+                        calibrator.add(
+                                measurement.getBssid(),
+                                referenceDistanceMm,
+                                measurement.getDistanceMm());
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        RangeCalibration calibration = calibrator.fit();
+        calibration.write(new File(args[1]));
+        print(calibrator, calibration);
+    }
+
+    private static void print(RangeCalibrator calibrator, RangeCalibration calibration) {
+        for (int i = 0; i < calibrator.getBssidCount(); i++) {
+            long bssid = calibrator.getBssid(i);
+            int index = calibration.indexOfBssid(bssid);
+            float scale = (index >= 0) ? calibration.getScale(index) : calibration.getDeviceScale();
+            int offsetMm =
+                    (index >= 0) ? calibration.getOffsetMm(index) : calibration.getDeviceOffsetMm();
+
+            System.out.println(
+                    String.format(
+                            Locale.US,
+                            "%s: %d samples, %s scale %.4f, offset %d mm, RMS %.0f -> %.0f mm",
+                            MacAddressUtils.toString(bssid),
+                            calibrator.getNumberOfSamples(i),
+                            (index >= 0) ? "own" : "device",
+                            scale,
+                            offsetMm,
+                            calibrator.getRmsErrorMm(i, 1, 0),
+                            calibrator.getRmsErrorMm(i, scale, offsetMm)));
+        }
+
+        System.out.println(
+                String.format(
+                        Locale.US,
+                        "%s: device scale %.4f, offset %d mm, %d access point profiles (%d bytes)",
+                        calibration.getDeviceName(),
+                        calibration.getDeviceScale(),
+                        calibration.getDeviceOffsetMm(),
+                        calibration.getBssidCount(),
+                        calibration.toByteBuffer().limit()));
+        System.out.println(
+                String.format(
+                        Locale.US,
+                        "%d samples, RMS error %.0f mm calibrated",
+                        calibrator.getNumberOfSamples(),
+                        calibrator.getRmsErrorMm(calibration)));
+    }
+
+    // Reads "aa:bb:cc:dd:ee:ff distance" lines (meters) into distances in mm by packed BSSID.
+    private static Map<Long, Integer> readReferenceDistances(File file) throws IOException {
+        Map<Long, Integer> referenceDistancesMm = new HashMap<>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+
+        try {
+            String line;
+            int lineNumber = 0;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                String[] fields = line.split("[,\\s]+");
+                long bssid = MacAddressUtils.toLong(fields[0]);
+
+                if ((bssid == MacAddressUtils.INVALID_MAC_ADDRESS) || (fields.length != 2)) {
+                    throw new IOException(file + ": malformed reference, line " + lineNumber);
+                }
+
+                try {
+                    referenceDistancesMm.put(
+                            bssid, (int) Math.round(Double.parseDouble(fields[1]) * 1000));
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ": malformed reference, line " + lineNumber);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return referenceDistancesMm;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.CaptureLog;
+import com.example.android.wifirttscan.CaptureLogReader;
+import com.example.android.wifirttscan.CaptureLogWriter;
+import com.example.android.wifirttscan.RangingMeasurement;
+import com.example.android.wifirttscan.SimulatedRangingSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-record cost of appending results to a capture log (buffered writes and file rotation
+ * included) and of streaming them back with {@link CaptureLogReader}. Files go to a temporary
+ * directory that is deleted after the run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureLogBenchmark {
+
+    private static final int RESULT_COUNT = 4096;
+    private static final int PEER_COUNT = 10;
+
+    // Captures written by append() are rotated at this size (instead of the default 16 MB).
+    private static final long MAX_FILE_BYTES = 4 * 1024 * 1024;
+
+    // append() starts over after this many records, so the disk doesn't fill up.
+    private static final int APPEND_RECORD_COUNT = 1 << 20;
+
+    // Records in the capture read by read().
+    private static final int READ_RECORD_COUNT = 1 << 20;
+
+    private RangingMeasurement[] mResults;
+    private int mNextResult;
+
+    private File mDirectory;
+    private CaptureLogWriter mWriter;
+    private CaptureLogReader mReader;
+    private final RangingMeasurement mMeasurement = new RangingMeasurement();
+
+    @Setup
+    public void setUp() throws IOException {
+        SimulatedRangingSource source = new SimulatedRangingSource(1, PEER_COUNT, 0);
+        long[] bssids = source.getResponderBssids();
+
+        mResults = new RangingMeasurement[RESULT_COUNT];
+        int count = 0;
+
+        while (count < RESULT_COUNT) {
+            List<RangingMeasurement> batch = source.generate(bssids, PEER_COUNT);
+
+            for (int i = 0; (i < batch.size()) && (count < RESULT_COUNT); i++) {
+                mResults[count] = new RangingMeasurement();
+                mResults[count].set(batch.get(i));
+                count++;
+            }
+        }
+
+        mDirectory = File.createTempFile("capture", "");
+        mDirectory.delete();
+
+        CaptureLogWriter writer = new CaptureLogWriter(mDirectory, "read");
+
+        for (int i = 0; i < READ_RECORD_COUNT; i++) {
+            writer.append(mResults[i % RESULT_COUNT]);
+        }
+        writer.close();
+
+        mWriter = openAppendWriter();
+        mReader = new CaptureLogReader(mDirectory, "read");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mWriter.close();
+        mReader.close();
+        deleteFiles(mDirectory.listFiles());
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public long append() throws IOException {
+        if (mWriter.getNumberOfRecords() == APPEND_RECORD_COUNT) {
+            mWriter.close();
+            deleteFiles(CaptureLog.listFiles(mDirectory, "append"));
+            mWriter = openAppendWriter();
+        }
+
+        mWriter.append(mResults[mNextResult]);
+        mNextResult = (mNextResult + 1) % RESULT_COUNT;
+        return mWriter.getNumberOfRecords();
+    }
+
+    @Benchmark
+    public int read() throws IOException {
+        if (!mReader.next(mMeasurement)) {
+            // Starts over at the end of the capture.
+            mReader.close();
+            mReader = new CaptureLogReader(mDirectory, "read");
+            mReader.next(mMeasurement);
+        }
+        return mMeasurement.getDistanceMm();
+    }
+
+    private CaptureLogWriter openAppendWriter() throws IOException {
+        return new CaptureLogWriter(
+                mDirectory, "append", MAX_FILE_BYTES, CaptureLogWriter.BUFFER_RECORDS_DEFAULT);
+    }
+
+    private static void deleteFiles(File[] files) {
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+}
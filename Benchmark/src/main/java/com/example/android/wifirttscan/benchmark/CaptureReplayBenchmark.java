@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.CaptureLog;
+import com.example.android.wifirttscan.CaptureLogReader;
+import com.example.android.wifirttscan.CaptureLogWriter;
+import com.example.android.wifirttscan.CaptureReplayer;
+import com.example.android.wifirttscan.RangingMeasurement;
+import com.example.android.wifirttscan.RangingResultProcessor;
+import com.example.android.wifirttscan.SimulatedRangingSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end replay throughput: reading a capture from disk and feeding every result through the
+ * {@link RangingResultProcessor}. One operation is one result, so the score is results per
+ * second. The capture is recorded from the simulator during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureReplayBenchmark {
+
+    private static final int RECORD_COUNT = 1 << 20;
+    private static final String PREFIX = "replay";
+
+    @Param({"1", "10"})
+    public int peerCount;
+
+    @Param({"50", "500"})
+    public int sampleSize;
+
+    private File mDirectory;
+    private RangingResultProcessor mProcessor;
+    private CaptureLogReader mReader;
+    private CaptureReplayer mReplayer;
+
+    @Setup
+    public void setUp() throws IOException {
+        SimulatedRangingSource source = new SimulatedRangingSource(1, peerCount, 0);
+        long[] bssids = source.getResponderBssids();
+
+        mDirectory = File.createTempFile("replay", "");
+        mDirectory.delete();
+
+        CaptureLogWriter writer = new CaptureLogWriter(mDirectory, PREFIX);
+        int count = 0;
+
+        while (count < RECORD_COUNT) {
+            List<RangingMeasurement> batch = source.generate(bssids, peerCount);
+
+            for (int i = 0; i < batch.size(); i++) {
+                writer.append(batch.get(i));
+                count++;
+            }
+        }
+        writer.close();
+
+        mProcessor = new RangingResultProcessor();
+        openReplayer();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mReader.close();
+
+        for (File file : CaptureLog.listFiles(mDirectory, PREFIX)) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printResultsPerSecond() {
+        // Includes the benchmark loop overhead, but shows the number the replayer itself reports.
+        System.out.println("  replayer: " + (long) mReplayer.getResultsPerSecond() + " results/s");
+    }
+
+    @Benchmark
+    public long replayResult() throws IOException, InterruptedException {
+        if (!mReplayer.replayNext()) {
+            // Starts over (with fresh statistics) at the end of the capture.
+            mReader.close();
+            openReplayer();
+            mReplayer.replayNext();
+        }
+        return mReplayer.getNumberOfResults();
+    }
+
+    private void openReplayer() {
+        mProcessor.reset(new long[0], 0, sampleSize, true);
+        mReader = new CaptureLogReader(mDirectory, PREFIX);
+        mReplayer = new CaptureReplayer(mReader, mProcessor, CaptureReplayer.SPEED_MAX);
+    }
+}
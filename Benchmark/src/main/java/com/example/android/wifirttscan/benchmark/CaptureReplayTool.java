@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.AccessPointStatistics;
+import com.example.android.wifirttscan.CaptureLogReader;
+import com.example.android.wifirttscan.CaptureReplayer;
+import com.example.android.wifirttscan.MacAddressUtils;
+import com.example.android.wifirttscan.OutlierRejector;
+import com.example.android.wifirttscan.RangingResultProcessor;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Command line replay of a capture pulled from a device (adb pull of files/captures), e.g. to
+ * compare processing changes on the same data. Prints the replay throughput and the final
+ * statistics of every peer.
+ *
+ * <p>Usage: CaptureReplayTool &lt;directory&gt; &lt;prefix&gt; [speed] [sampleSize], where speed 0
+ * (the default) replays as fast as possible and 1 in real time.
+ */
+public class CaptureReplayTool {
+
+    private static final int SAMPLE_SIZE_DEFAULT = 50;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println(
+                    "Usage: CaptureReplayTool <directory> <prefix> [speed] [sampleSize]");
+            System.exit(1);
+        }
+
+        double speed = (args.length > 2) ? Double.parseDouble(args[2]) : CaptureReplayer.SPEED_MAX;
+        int sampleSize = (args.length > 3) ? Integer.parseInt(args[3]) : SAMPLE_SIZE_DEFAULT;
+
+        RangingResultProcessor processor = new RangingResultProcessor();
+        processor.setOutlierRejectorFactory(OutlierRejector.FACTORY);
+        processor.reset(new long[0], 0, sampleSize, true);
+
+        CaptureLogReader reader = new CaptureLogReader(new File(args[0]), args[1]);
+
+        try {
+            CaptureReplayer replayer = new CaptureReplayer(reader, processor, speed);
+            replayer.replayAll();
+
+            System.out.println(
+                    String.format(
+                            Locale.US,
+                            "%d results in %.1f ms: %.0f results/s (%d corrupt records)",
+                            replayer.getNumberOfResults(),
+                            replayer.getElapsedNanos() / 1e6,
+                            replayer.getResultsPerSecond(),
+                            reader.getNumberOfCorruptRecords()));
+        } finally {
+            reader.close();
+        }
+
+        for (AccessPointStatistics statistics : processor.getStatistics()) {
+            System.out.println(
+                    String.format(
+                            Locale.US,
+                            "%s: %d/%d successful (%.1f%%), distance mean %.0f mm, SD mean %.0f mm",
+                            MacAddressUtils.toString(statistics.getBssid()),
+                            statistics.getNumberOfSuccessfulRangeRequests(),
+                            statistics.getNumberOfRangeRequests(),
+                            statistics.getSuccessRatio(),
+                            statistics.getDistanceMean(),
+                            statistics.getStandardDeviationOfDistanceMean()));
+        }
+
+        System.out.println(
+                String.format(
+                        Locale.US,
+                        "%d outliers rejected (burst %d, SD %d, Hampel %d), %d down-weighted",
+                        processor.getNumberOfRejectedResults(),
+                        processor.getNumberOfRejectedResults(OutlierRejector.STAGE_BURST),
+                        processor.getNumberOfRejectedResults(OutlierRejector.STAGE_STD_DEV),
+                        processor.getNumberOfRejectedResults(OutlierRejector.STAGE_HAMPEL),
+                        processor.getNumberOfRejectedResults(OutlierRejector.STAGE_RSSI)));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.FingerprintLocator;
+import com.example.android.wifirttscan.FingerprintMap;
+import com.example.android.wifirttscan.FingerprintMapWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of one {@link FingerprintLocator} fix (adding the live ranges and searching) in a
+ * memory-mapped {@link FingerprintMap}, as the number of fingerprints grows. The map is a grid
+ * surveyed every 1.5 m over a floor with 48 access points, each heard up to 35 m away. Live
+ * vectors are pre-generated at random positions with noisy distances and RSSIs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FingerprintLocatorBenchmark {
+
+    private static final int ACCESS_POINT_COUNT = 48;
+    private static final double GRID_METERS = 1.5;
+    private static final double RANGE_METERS = 35;
+    private static final int DISTANCE_NOISE_MM = 500;
+    private static final int QUERY_COUNT = 256;
+    private static final int NEIGHBORS = 4;
+
+    @Param({"1000", "5000", "20000"})
+    public int fingerprintCount;
+
+    @Param({"4", "10"})
+    public int rangeCount;
+
+    private File mFile;
+    private FingerprintLocator mLocator;
+
+    // Per query: rangeCount BSSIDs with their ranges.
+    private long[][] mBssids;
+    private int[][] mDistancesMm;
+    private int[][] mRssis;
+    private int mNextQuery;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(1);
+
+        // A floor twice as long as wide, holding fingerprintCount grid points.
+        int columns = (int) Math.ceil(Math.sqrt(fingerprintCount * 2.0));
+        double width = columns * GRID_METERS;
+        double height = width / 2;
+
+        long[] bssids = new long[ACCESS_POINT_COUNT];
+        double[] accessPointX = new double[ACCESS_POINT_COUNT];
+        double[] accessPointY = new double[ACCESS_POINT_COUNT];
+
+        for (int a = 0; a < ACCESS_POINT_COUNT; a++) {
+            bssids[a] = 0x02000000000L + a;
+            accessPointX[a] = random.nextDouble() * width;
+            accessPointY[a] = random.nextDouble() * height;
+        }
+
+        FingerprintMapWriter writer = new FingerprintMapWriter();
+
+        for (int point = 0; point < fingerprintCount; point++) {
+            double x = (point % columns) * GRID_METERS;
+            double y = (point / columns) * GRID_METERS;
+            writer.beginFingerprint((float) x, (float) y, 0);
+
+            for (int a = 0; a < ACCESS_POINT_COUNT; a++) {
+                double distance = Math.hypot(x - accessPointX[a], y - accessPointY[a]);
+
+                if (distance < RANGE_METERS) {
+                    writer.addRange(bssids[a], (int) (distance * 1000), rssi(distance));
+                }
+            }
+        }
+
+        mFile = File.createTempFile("fingerprints", ".rttmap");
+        writer.write(mFile);
+        mLocator = new FingerprintLocator(FingerprintMap.open(mFile), NEIGHBORS);
+
+        mBssids = new long[QUERY_COUNT][rangeCount];
+        mDistancesMm = new int[QUERY_COUNT][rangeCount];
+        mRssis = new int[QUERY_COUNT][rangeCount];
+
+        for (int query = 0; query < QUERY_COUNT; query++) {
+            double x = random.nextDouble() * width;
+            double y = random.nextDouble() * height;
+
+            // Up to rangeCount of the access points in range.
+            int count = 0;
+
+            for (int a = 0; (a < ACCESS_POINT_COUNT) && (count < rangeCount); a++) {
+                double distance = Math.hypot(x - accessPointX[a], y - accessPointY[a]);
+
+                if (distance < RANGE_METERS) {
+                    double noiseMm = random.nextGaussian() * DISTANCE_NOISE_MM;
+                    mBssids[query][count] = bssids[a];
+                    mDistancesMm[query][count] = Math.max(0, (int) (distance * 1000 + noiseMm));
+                    mRssis[query][count] = rssi(distance);
+                    count++;
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Benchmark
+    public double locate() {
+        int query = mNextQuery;
+        mNextQuery = (mNextQuery + 1) % QUERY_COUNT;
+
+        mLocator.clear();
+
+        for (int i = 0; i < rangeCount; i++) {
+            mLocator.addRange(mBssids[query][i], mDistancesMm[query][i], mRssis[query][i]);
+        }
+
+        return mLocator.locate() ? mLocator.getX() : Double.NaN;
+    }
+
+    private static int rssi(double distance) {
+        return -40 - (int) (distance * 1.5);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import java.util.ArrayList;
+
+/**
+ * Copy of the original ArrayList based history from AccessPointRangingResultsActivity, kept as a
+ * baseline for {@link RangingResultBenchmark}. (The SD mean is divided by its own history size
+ * here, so both implementations compute the same values.)
+ */
+public class LegacyAccessPointStatistics {
+
+    private final int mSampleSize;
+
+    private int mStatisticRangeHistoryEndIndex;
+    private final ArrayList<Integer> mStatisticRangeHistory = new ArrayList<>();
+
+    private int mStatisticRangeSDHistoryEndIndex;
+    private final ArrayList<Integer> mStatisticRangeSDHistory = new ArrayList<>();
+
+    public LegacyAccessPointStatistics(int sampleSize) {
+        mSampleSize = sampleSize;
+    }
+
+    public void onRangingSuccess(int distanceMm, int distanceStdDevMm) {
+        addDistanceToHistory(distanceMm);
+        addStandardDeviationOfDistanceToHistory(distanceStdDevMm);
+    }
+
+    public float getDistanceMean() {
+        float distanceSum = 0;
+
+        for (int distance : mStatisticRangeHistory) {
+            distanceSum += distance;
+        }
+
+        return distanceSum / mStatisticRangeHistory.size();
+    }
+
+    private void addDistanceToHistory(int distance) {
+
+        if (mStatisticRangeHistory.size() >= mSampleSize) {
+
+            if (mStatisticRangeHistoryEndIndex >= mSampleSize) {
+                mStatisticRangeHistoryEndIndex = 0;
+            }
+
+            mStatisticRangeHistory.set(mStatisticRangeHistoryEndIndex, distance);
+            mStatisticRangeHistoryEndIndex++;
+
+        } else {
+            mStatisticRangeHistory.add(distance);
+        }
+    }
+
+    public float getStandardDeviationOfDistanceMean() {
+        float distanceSdSum = 0;
+
+        for (int distanceSd : mStatisticRangeSDHistory) {
+            distanceSdSum += distanceSd;
+        }
+
+        return distanceSdSum / mStatisticRangeSDHistory.size();
+    }
+
+    private void addStandardDeviationOfDistanceToHistory(int distanceSd) {
+
+        if (mStatisticRangeSDHistory.size() >= mSampleSize) {
+
+            if (mStatisticRangeSDHistoryEndIndex >= mSampleSize) {
+                mStatisticRangeSDHistoryEndIndex = 0;
+            }
+
+            mStatisticRangeSDHistory.set(mStatisticRangeSDHistoryEndIndex, distanceSd);
+            mStatisticRangeSDHistoryEndIndex++;
+
+        } else {
+            mStatisticRangeSDHistory.add(distanceSd);
+        }
+    }
+}
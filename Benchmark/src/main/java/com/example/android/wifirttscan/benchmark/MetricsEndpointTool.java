@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.MetricsHttpServer;
+import com.example.android.wifirttscan.PeerSelectionPolicy;
+import com.example.android.wifirttscan.PipelinedRangingController;
+import com.example.android.wifirttscan.PrometheusTextWriter;
+import com.example.android.wifirttscan.RangingMeasurement;
+import com.example.android.wifirttscan.RangingMetrics;
+import com.example.android.wifirttscan.RangingMetricsExporter;
+import com.example.android.wifirttscan.RangingSource;
+import com.example.android.wifirttscan.SimulatedRangingSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the metrics endpoint of the app off-device: ranges simulated responders with the {@link
+ * PipelinedRangingController} (as RangingService does), serves the {@link RangingMetrics} with a
+ * {@link MetricsHttpServer} on the loopback interface, and scrapes it once per second like
+ * Prometheus would, checking every page against the text format (sample syntax, families
+ * announced once and not interleaved, counters not going backwards).
+ *
+ * <p>Usage: MetricsEndpointTool [seconds] [port]. Exits with status 1 if any scrape failed the
+ * checks. While it runs, the endpoint can also be scraped by hand (e.g. with curl).
+ */
+public class MetricsEndpointTool {
+
+    private static final int SECONDS_DEFAULT = 10;
+
+    // More responders than fit in one request, so peer selection is exercised too.
+    private static final int RESPONDER_COUNT = 24;
+    private static final int ROUND_TRIP_MILLIS = 30;
+    private static final int REQUESTS_IN_FLIGHT = 2;
+    private static final long REQUEST_PERIOD_MILLIS = 50;
+    private static final long REQUEST_TIMEOUT_MILLIS = 1000;
+
+    private static final Pattern SAMPLE_PATTERN =
+            Pattern.compile(
+                    "([a-zA-Z_:][a-zA-Z0-9_:]*)(\\{[a-zA-Z_][a-zA-Z0-9_]*=\"[^\"]*\""
+                            + "(,[a-zA-Z_][a-zA-Z0-9_]*=\"[^\"]*\")*\\})? "
+                            + "(-?[0-9]+(\\.[0-9]+)?|NaN|[+-]Inf)");
+    private static final Pattern FAMILY_PATTERN =
+            Pattern.compile("# (HELP|TYPE) ([a-zA-Z_:][a-zA-Z0-9_:]*) .+");
+
+    private static final String[] REQUIRED_FAMILIES = {
+        "wifirtt_requests_total",
+        "wifirtt_successful_results_per_second",
+        "wifirtt_request_latency_milliseconds",
+        "wifirtt_peer_success_ratio",
+        "wifirtt_peer_distance_meters"
+    };
+
+    private static final String REQUESTS_SAMPLE = "wifirtt_requests_total ";
+
+    public static void main(String[] args) throws Exception {
+        int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : SECONDS_DEFAULT;
+        int port = (args.length > 1) ? Integer.parseInt(args[1]) : 0;
+
+        final Object lock = new Object();
+        final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        final SimulatedRangingSource simulatedSource =
+                new SimulatedRangingSource(1, RESPONDER_COUNT, ROUND_TRIP_MILLIS);
+
+        final RangingMetrics metrics = new RangingMetrics(nowMillis());
+        final PipelinedRangingController[] controller = new PipelinedRangingController[1];
+
+        final Runnable pumpRunnable =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (lock) {
+                            controller[0].pump();
+                        }
+                    }
+                };
+
+        controller[0] =
+                new PipelinedRangingController(
+                        new LockedRangingSource(simulatedSource, lock),
+                        REQUESTS_IN_FLIGHT,
+                        REQUEST_TIMEOUT_MILLIS,
+                        new PipelinedRangingController.Host() {
+                            @Override
+                            public long nowMillis() {
+                                return MetricsEndpointTool.nowMillis();
+                            }
+
+                            @Override
+                            public void wakeUpAt(long timeMillis) {
+                                executor.schedule(
+                                        pumpRunnable,
+                                        Math.max(0, timeMillis - nowMillis()),
+                                        TimeUnit.MILLISECONDS);
+                            }
+                        },
+                        new FixedPeriodListener());
+        controller[0].setPeerSelectionPolicy(new PeerSelectionPolicy());
+        controller[0].setMetrics(metrics);
+        controller[0].setPeers(simulatedSource.getResponderBssids(), RESPONDER_COUNT);
+
+        synchronized (lock) {
+            controller[0].start();
+        }
+
+        final RangingMetricsExporter exporter = new RangingMetricsExporter(metrics);
+        MetricsHttpServer server =
+                new MetricsHttpServer(
+                        new MetricsHttpServer.Renderer() {
+                            @Override
+                            public void render(PrometheusTextWriter writer) {
+                                exporter.render(writer, nowMillis());
+                            }
+                        });
+        server.start(InetAddress.getLoopbackAddress(), port);
+
+        URL url = new URL("http://127.0.0.1:" + server.getPort() + MetricsHttpServer.METRICS_PATH);
+        System.out.println("Serving " + url + " for " + seconds + " s");
+
+        int failedScrapes = 0;
+        long lastRequests = 0;
+        String page = "";
+
+        for (int i = 0; i < seconds; i++) {
+            Thread.sleep(1000);
+
+            long startNanos = System.nanoTime();
+            page = scrape(url);
+            long scrapeMicros = (System.nanoTime() - startNanos) / 1000;
+
+            List<String> problems = validate(page);
+            long requests = parseRequests(page);
+
+            if (requests < lastRequests) {
+                problems.add("wifirtt_requests_total went backwards: " + requests);
+            }
+            lastRequests = requests;
+
+            System.out.println(
+                    String.format(
+                            Locale.US,
+                            "scrape %d: %d bytes in %d us, %d requests, %s",
+                            i + 1,
+                            page.length(),
+                            scrapeMicros,
+                            requests,
+                            problems.isEmpty() ? "ok" : problems.toString()));
+
+            if (!problems.isEmpty()) {
+                failedScrapes++;
+            }
+        }
+
+        synchronized (lock) {
+            controller[0].stop();
+        }
+        server.stop();
+        simulatedSource.shutdown();
+        executor.shutdownNow();
+
+        System.out.println();
+        System.out.print(page);
+        System.out.println();
+        System.out.println(
+                String.format(
+                        Locale.US,
+                        "%d scrapes, %d failed checks, %d connection errors",
+                        server.getNumberOfScrapes(),
+                        failedScrapes,
+                        server.getNumberOfErrors()));
+        System.exit((failedScrapes == 0) ? 0 : 1);
+    }
+
+    private static long nowMillis() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private static String scrape(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + connection.getResponseCode());
+            }
+
+            if (!PrometheusTextWriter.CONTENT_TYPE.equals(connection.getContentType())) {
+                throw new IOException("Content type " + connection.getContentType());
+            }
+
+            InputStream in = connection.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    // Returns what is wrong with a page (empty if nothing).
+    private static List<String> validate(String page) {
+        List<String> problems = new ArrayList<>();
+        HashSet<String> families = new HashSet<>();
+        String family = null;
+
+        for (String line : page.split("\n")) {
+            if (line.startsWith("#")) {
+                Matcher matcher = FAMILY_PATTERN.matcher(line);
+
+                if (!matcher.matches()) {
+                    problems.add("bad comment: " + line);
+                } else if (matcher.group(1).equals("TYPE")) {
+                    family = matcher.group(2);
+
+                    if (!families.add(family)) {
+                        problems.add("family announced twice: " + family);
+                    }
+                }
+                continue;
+            }
+
+            Matcher matcher = SAMPLE_PATTERN.matcher(line);
+
+            if (!matcher.matches()) {
+                problems.add("bad sample: " + line);
+            } else if ((family == null) || !belongsTo(matcher.group(1), family)) {
+                problems.add("sample outside of its family: " + line);
+            }
+        }
+
+        for (String required : REQUIRED_FAMILIES) {
+            if (!families.contains(required)) {
+                problems.add("missing " + required);
+            }
+        }
+        return problems;
+    }
+
+    private static boolean belongsTo(String name, String family) {
+        return name.equals(family)
+                || name.equals(family + "_bucket")
+                || name.equals(family + "_sum")
+                || name.equals(family + "_count");
+    }
+
+    private static long parseRequests(String page) {
+        for (String line : page.split("\n")) {
+            if (line.startsWith(REQUESTS_SAMPLE)) {
+                return Long.parseLong(line.substring(REQUESTS_SAMPLE.length()));
+            }
+        }
+        return -1;
+    }
+
+    // Requests every slot again REQUEST_PERIOD_MILLIS after its callback (or timeout).
+    private static class FixedPeriodListener implements PipelinedRangingController.Listener {
+        @Override
+        public void onRangingRequest(int sequence, long[] bssids, int peerCount) {}
+
+        @Override
+        public long onRangingResults(int sequence, List<RangingMeasurement> measurements) {
+            return REQUEST_PERIOD_MILLIS;
+        }
+
+        @Override
+        public long onRangingFailure(int sequence, int code) {
+            return REQUEST_PERIOD_MILLIS;
+        }
+
+        @Override
+        public long onRangingTimeout(int sequence) {
+            return REQUEST_PERIOD_MILLIS;
+        }
+    }
+
+    /*
+     * Delivers the callbacks of a source holding a lock, so the controller (which isn't thread
+     * safe) only ever runs under it, as it runs on a single Handler thread in the app.
+     */
+    private static class LockedRangingSource implements RangingSource {
+        private final RangingSource mSource;
+        private final Object mLock;
+
+        private LockedRangingSource(RangingSource source, Object lock) {
+            mSource = source;
+            mLock = lock;
+        }
+
+        @Override
+        public int getMaxPeers() {
+            return mSource.getMaxPeers();
+        }
+
+        @Override
+        public void startRanging(long[] bssids, int peerCount, final Callback callback) {
+            mSource.startRanging(
+                    bssids,
+                    peerCount,
+                    new Callback() {
+                        @Override
+                        public void onRangingFailure(int code) {
+                            synchronized (mLock) {
+                                callback.onRangingFailure(code);
+                            }
+                        }
+
+                        @Override
+                        public void onRangingResults(List<RangingMeasurement> measurements) {
+                            synchronized (mLock) {
+                                callback.onRangingResults(measurements);
+                            }
+                        }
+                    });
+        }
+    }
+}
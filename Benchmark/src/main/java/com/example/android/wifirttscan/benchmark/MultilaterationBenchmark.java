@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.MultilaterationSolver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Position fixes per second of {@link MultilaterationSolver} as the number of access points
+ * (anchors) grows. Every operation is one complete fix (adding all ranges and solving) for one of
+ * a set of pre-generated noisy scenes in a 30 x 30 x 3 m room, alternately from the centroid and
+ * from the previous fix (as when tracking).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultilaterationBenchmark {
+
+    private static final int SCENE_COUNT = 256;
+    private static final double ROOM_SIZE_METERS = 30;
+    private static final double ROOM_HEIGHT_METERS = 3;
+    private static final int DISTANCE_NOISE_MM = 300;
+
+    @Param({"3", "4", "6", "10", "20"})
+    public int anchorCount;
+
+    @Param({"false", "true"})
+    public boolean threeDimensional;
+
+    // Per scene: anchorCount anchors (x, y, z) with their ranges.
+    private double[][] mAnchors;
+    private int[][] mDistancesMm;
+    private int[][] mRssis;
+    private int mNextScene;
+
+    private MultilaterationSolver mSolver;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+
+        mAnchors = new double[SCENE_COUNT][anchorCount * 3];
+        mDistancesMm = new int[SCENE_COUNT][anchorCount];
+        mRssis = new int[SCENE_COUNT][anchorCount];
+
+        for (int scene = 0; scene < SCENE_COUNT; scene++) {
+            double x = random.nextDouble() * ROOM_SIZE_METERS;
+            double y = random.nextDouble() * ROOM_SIZE_METERS;
+            double z = threeDimensional ? random.nextDouble() * ROOM_HEIGHT_METERS : 0;
+
+            for (int a = 0; a < anchorCount; a++) {
+                double ax = random.nextDouble() * ROOM_SIZE_METERS;
+                double ay = random.nextDouble() * ROOM_SIZE_METERS;
+                double az = threeDimensional ? random.nextDouble() * ROOM_HEIGHT_METERS : 0;
+
+                double distance =
+                        Math.sqrt((x - ax) * (x - ax) + (y - ay) * (y - ay) + (z - az) * (z - az));
+
+                mAnchors[scene][a * 3] = ax;
+                mAnchors[scene][a * 3 + 1] = ay;
+                mAnchors[scene][a * 3 + 2] = az;
+                double noiseMm = random.nextGaussian() * DISTANCE_NOISE_MM;
+                mDistancesMm[scene][a] = Math.max(0, (int) (distance * 1000 + noiseMm));
+                mRssis[scene][a] = -40 - (int) (distance * 2);
+            }
+        }
+
+        mSolver = new MultilaterationSolver(anchorCount, threeDimensional);
+    }
+
+    @Benchmark
+    public double fix() {
+        int scene = mNextScene;
+        mNextScene = (mNextScene + 1) % SCENE_COUNT;
+
+        if ((scene & 1) == 0) {
+            mSolver.clearInitialPosition();
+        }
+
+        double[] anchors = mAnchors[scene];
+        mSolver.clear();
+
+        for (int a = 0; a < anchorCount; a++) {
+            mSolver.addRange(
+                    anchors[a * 3],
+                    anchors[a * 3 + 1],
+                    anchors[a * 3 + 2],
+                    mDistancesMm[scene][a],
+                    DISTANCE_NOISE_MM,
+                    mRssis[scene][a]);
+        }
+
+        return mSolver.solve() ? mSolver.getX() : Double.NaN;
+    }
+}
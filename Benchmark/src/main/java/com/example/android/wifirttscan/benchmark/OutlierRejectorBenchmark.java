@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.OutlierRejector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-measurement cost of the {@link OutlierRejector} at several Hampel window sizes, on a noisy
+ * walk with 5% multipath spikes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutlierRejectorBenchmark {
+
+    private static final int SAMPLE_COUNT = 4096;
+
+    @Param({"5", "9", "31"})
+    public int hampelWindow;
+
+    private int[] mDistancesMm;
+    private int[] mRssis;
+    private int mNextSample;
+
+    private OutlierRejector mOutlierRejector;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+
+        mDistancesMm = new int[SAMPLE_COUNT];
+        mRssis = new int[SAMPLE_COUNT];
+
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            // Walks back and forth between 2 and 12 m at 1 m/s.
+            double distanceMm = 2000 + Math.abs((i * 100) % 20000 - 10000);
+            mRssis[i] = (int) (-40 - 20 * Math.log10(distanceMm / 1000));
+
+            if (random.nextDouble() < 0.05) {
+                distanceMm += 1000 + random.nextDouble() * 5000;
+            }
+            mDistancesMm[i] = (int) (distanceMm + random.nextGaussian() * 300);
+        }
+
+        mOutlierRejector =
+                new OutlierRejector(
+                        hampelWindow,
+                        OutlierRejector.HAMPEL_THRESHOLD_DEFAULT,
+                        OutlierRejector.MIN_BURST_SUCCESS_RATIO_DEFAULT,
+                        OutlierRejector.MAX_STD_DEV_MM_DEFAULT,
+                        OutlierRejector.RSSI_MARGIN_DB_DEFAULT);
+    }
+
+    @Benchmark
+    public int check() {
+        int sample = mNextSample;
+        mNextSample = (mNextSample + 1) % SAMPLE_COUNT;
+
+        return mOutlierRejector.check(mDistancesMm[sample], 300, mRssis[sample], 8, 8);
+    }
+}
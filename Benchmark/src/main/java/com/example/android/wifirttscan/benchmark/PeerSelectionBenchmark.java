@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.PeerSelectionPolicy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of picking the peers of one request (plus feeding back their results) with the {@link
+ * PeerSelectionPolicy}, with and without access point locations, as the number of peers grows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeerSelectionBenchmark {
+
+    private static final int MAX_PEERS = 10;
+
+    @Param({"20", "40", "200"})
+    public int peerCount;
+
+    @Param({"false", "true"})
+    public boolean located;
+
+    private final PeerSelectionPolicy mPolicy = new PeerSelectionPolicy();
+    private final int[] mPeers = new int[MAX_PEERS];
+
+    private Random mRandom;
+    private double[] mSuccessProbabilities;
+
+    @Setup
+    public void setUp() {
+        mRandom = new Random(1);
+        mSuccessProbabilities = new double[peerCount];
+
+        mPolicy.setPinnedPeerCount(1);
+        mPolicy.reset(peerCount);
+
+        for (int i = 0; i < peerCount; i++) {
+            mSuccessProbabilities[i] = mRandom.nextDouble();
+
+            if (located) {
+                mPolicy.setPeerLocation(i, mRandom.nextDouble() * 50, mRandom.nextDouble() * 50);
+            }
+        }
+
+        if (located) {
+            mPolicy.setReferencePosition(25, 25);
+        }
+    }
+
+    @Benchmark
+    public int selectAndUpdate() {
+        int count = mPolicy.select(MAX_PEERS, mPeers);
+
+        for (int i = 0; i < count; i++) {
+            int peer = mPeers[i];
+            boolean success = mRandom.nextDouble() < mSuccessProbabilities[peer];
+            mPolicy.onRangingResult(peer, success, -40 - peer % 50);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.RangeStatistics;
+import com.example.android.wifirttscan.SlidingQuantileSketch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of keeping distance percentiles per peer: adding a sample to a {@link
+ * SlidingQuantileSketch} (one minute in four panes, as in AccessPointStatistics) against a {@link
+ * RangeStatistics} window holding the same minute of samples, and reading p50/p90/p99 from each.
+ * Samples are a noisy distance with multipath outliers, one every 1000 / samplesPerSecond ms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuantileSketchBenchmark {
+
+    private static final long WINDOW_MILLIS = 60 * 1000;
+    private static final int PANES = 4;
+    private static final int K = 64;
+
+    // Pre-generated samples, so the random generator isn't part of the measurement.
+    private static final int SAMPLE_COUNT = 4096;
+
+    @Param({"1", "10", "50"})
+    public int samplesPerSecond;
+
+    private int[] mSamples;
+    private int mNextSample;
+    private long mNowMillis;
+    private long mPeriodMillis;
+
+    private SlidingQuantileSketch mSketch;
+    private RangeStatistics mStatistics;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        mSamples = new int[SAMPLE_COUNT];
+
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            int outlier = (random.nextInt(10) == 0) ? random.nextInt(5000) : 0;
+            mSamples[i] = 10000 + (int) (300 * random.nextGaussian()) + outlier;
+        }
+
+        mPeriodMillis = 1000 / samplesPerSecond;
+        mSketch = new SlidingQuantileSketch(WINDOW_MILLIS, PANES, K);
+        mStatistics = new RangeStatistics((int) (WINDOW_MILLIS / mPeriodMillis));
+
+        // Fill the windows, so the benchmarks measure the steady state.
+        for (int i = 0; i < 2 * mStatistics.getWindowSize(); i++) {
+            addToSketch();
+            addToStatistics();
+        }
+    }
+
+    private int nextSample() {
+        int index = mNextSample;
+        mNextSample = (index + 1) & (SAMPLE_COUNT - 1);
+        return mSamples[index];
+    }
+
+    @Benchmark
+    public void addToSketch() {
+        mNowMillis += mPeriodMillis;
+        mSketch.add(mNowMillis, nextSample());
+    }
+
+    @Benchmark
+    public void addToStatistics() {
+        mStatistics.add(nextSample());
+    }
+
+    @Benchmark
+    public void percentilesFromSketch(Blackhole blackhole) {
+        blackhole.consume(mSketch.getPercentile(50));
+        blackhole.consume(mSketch.getPercentile(90));
+        blackhole.consume(mSketch.getPercentile(99));
+    }
+
+    @Benchmark
+    public void percentilesFromStatistics(Blackhole blackhole) {
+        blackhole.consume(mStatistics.getPercentile(50));
+        blackhole.consume(mStatistics.getPercentile(90));
+        blackhole.consume(mStatistics.getPercentile(99));
+    }
+}
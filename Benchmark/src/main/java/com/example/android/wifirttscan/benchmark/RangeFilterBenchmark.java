@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.KalmanRangeFilter;
+import com.example.android.wifirttscan.MovingAverageRangeFilter;
+import com.example.android.wifirttscan.RangeFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-update cost of the {@link RangeFilter}s (the moving average at several window sizes against
+ * the Kalman filter) on a noisy 10 Hz walk. How fast they converge is measured by {@link
+ * RangeFilterConvergenceTool}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangeFilterBenchmark {
+
+    private static final int SAMPLE_COUNT = 4096;
+
+    @Param({"kalman", "average10", "average50", "average500"})
+    public String filter;
+
+    private int[] mDistancesMm;
+    private int[] mStdDevsMm;
+    private int mNextSample;
+    private long mTimestampMillis;
+
+    private RangeFilter mFilter;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+
+        mDistancesMm = new int[SAMPLE_COUNT];
+        mStdDevsMm = new int[SAMPLE_COUNT];
+
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            // Walks back and forth between 2 and 12 m at 1 m/s.
+            double distanceMm = 2000 + Math.abs((i * 100) % 20000 - 10000);
+            mDistancesMm[i] = (int) (distanceMm + random.nextGaussian() * 300);
+            mStdDevsMm[i] = 300;
+        }
+
+        mFilter = createFilter(filter);
+    }
+
+    static RangeFilter createFilter(String name) {
+        if (name.equals("kalman")) {
+            return new KalmanRangeFilter(KalmanRangeFilter.PROCESS_NOISE_DEFAULT);
+        }
+        return new MovingAverageRangeFilter(Integer.parseInt(name.substring("average".length())));
+    }
+
+    @Benchmark
+    public double update() {
+        int sample = mNextSample;
+        mNextSample = (mNextSample + 1) % SAMPLE_COUNT;
+
+        mTimestampMillis += 100;
+        mFilter.update(mTimestampMillis, mDistancesMm[sample], mStdDevsMm[sample]);
+        return mFilter.getDistanceMm();
+    }
+}
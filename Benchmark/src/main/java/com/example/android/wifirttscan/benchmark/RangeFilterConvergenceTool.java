@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.RangeFilter;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares how fast the {@link RangeFilter}s converge on simulated 10 Hz ranges (300 mm noise,
+ * 5% multipath spikes of 2-8 m):
+ *
+ * <ul>
+ *   <li>step: the user jumps from 5 to 10 m (e.g. after walking around a corner); reports the
+ *       time until the estimate first stays within 0.5 m of the truth for 1 s.
+ *   <li>walk: the user walks away at 1 m/s; reports the mean error (mostly lag).
+ *   <li>still: the user stands at 5 m; reports the RMS error (noise left after smoothing).
+ * </ul>
+ */
+public class RangeFilterConvergenceTool {
+
+    private static final String[] FILTERS = {"kalman", "average10", "average50"};
+
+    private static final int PERIOD_MILLIS = 100;
+    private static final int NOISE_MM = 300;
+    private static final double MULTIPATH_RATE = 0.05;
+    private static final int CONVERGED_MM = 500;
+    private static final int CONVERGED_SAMPLES = 10;
+    private static final int RUNS = 100;
+
+    public static void main(String[] args) {
+        System.out.println("filter       step (ms)  walk error (mm)  still RMS error (mm)");
+
+        for (String name : FILTERS) {
+            Random random = new Random(1);
+            double stepMillis = 0;
+            double walkErrorMm = 0;
+            double stillErrorMm = 0;
+
+            for (int run = 0; run < RUNS; run++) {
+                stepMillis += step(RangeFilterBenchmark.createFilter(name), random);
+                walkErrorMm += walk(RangeFilterBenchmark.createFilter(name), random);
+                stillErrorMm += still(RangeFilterBenchmark.createFilter(name), random);
+            }
+
+            System.out.println(
+                    String.format(
+                            Locale.US,
+                            "%-12s %9.0f  %15.0f  %20.0f",
+                            name,
+                            stepMillis / RUNS,
+                            walkErrorMm / RUNS,
+                            stillErrorMm / RUNS));
+        }
+    }
+
+    // Time after the step until the estimate stays within CONVERGED_MM for CONVERGED_SAMPLES.
+    private static long step(RangeFilter filter, Random random) {
+        int samples = 200;
+        int convergedAt = -1;
+
+        for (int i = -100; i < samples; i++) {
+            int truthMm = (i < 0) ? 5000 : 10000;
+            double estimateMm = update(filter, i, truthMm, random);
+
+            if (i < 0) {
+                continue;
+            }
+
+            if (Math.abs(estimateMm - truthMm) > CONVERGED_MM) {
+                convergedAt = -1;
+            } else if (convergedAt < 0) {
+                convergedAt = i;
+            } else if (i - convergedAt + 1 == CONVERGED_SAMPLES) {
+                return (long) convergedAt * PERIOD_MILLIS;
+            }
+        }
+        return (long) samples * PERIOD_MILLIS;
+    }
+
+    // Mean absolute error while walking away at 1 m/s (after a 5 s start).
+    private static double walk(RangeFilter filter, Random random) {
+        double errorSum = 0;
+        int count = 0;
+
+        for (int i = 0; i < 300; i++) {
+            int truthMm = 2000 + i * PERIOD_MILLIS;
+            double estimateMm = update(filter, i, truthMm, random);
+
+            if (i >= 50) {
+                errorSum += Math.abs(estimateMm - truthMm);
+                count++;
+            }
+        }
+        return errorSum / count;
+    }
+
+    // RMS error standing still (after a 5 s start).
+    private static double still(RangeFilter filter, Random random) {
+        double errorSquaredSum = 0;
+        int count = 0;
+
+        for (int i = 0; i < 300; i++) {
+            double estimateMm = update(filter, i, 5000, random);
+
+            if (i >= 50) {
+                errorSquaredSum += (estimateMm - 5000) * (estimateMm - 5000);
+                count++;
+            }
+        }
+        return Math.sqrt(errorSquaredSum / count);
+    }
+
+    private static double update(RangeFilter filter, int sample, int truthMm, Random random) {
+        double distanceMm = truthMm + random.nextGaussian() * NOISE_MM;
+
+        if (random.nextDouble() < MULTIPATH_RATE) {
+            distanceMm += 2000 + random.nextDouble() * 6000;
+        }
+
+        filter.update((long) sample * PERIOD_MILLIS + 100000, (int) distanceMm, NOISE_MM);
+        return filter.getDistanceMm();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.RangingMeasurement;
+import com.example.android.wifirttscan.RangingMetrics;
+import com.example.android.wifirttscan.RangingMetricsSnapshot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording into {@link RangingMetrics} on the hot path (one result, one callback
+ * latency), from one thread and with four threads contending on the same registry, and of taking
+ * a snapshot.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangingMetricsBenchmark {
+
+    private static final int PEER_COUNT = 10;
+
+    @State(Scope.Benchmark)
+    public static class SharedMetrics {
+        private final RangingMetrics mMetrics = new RangingMetrics(0);
+        private final RangingMetricsSnapshot mSnapshot = new RangingMetricsSnapshot();
+    }
+
+    @State(Scope.Thread)
+    public static class Results {
+        private final RangingMeasurement[] mMeasurements = new RangingMeasurement[PEER_COUNT];
+        private int mNext;
+
+        @Setup
+        public void setUp() {
+            for (int i = 0; i < PEER_COUNT; i++) {
+                mMeasurements[i] = new RangingMeasurement();
+                mMeasurements[i].set(
+                        0x020000000000L + i,
+                        (i % 4 == 0)
+                                ? RangingMeasurement.STATUS_FAIL
+                                : RangingMeasurement.STATUS_SUCCESS,
+                        5000 + i,
+                        300,
+                        -60,
+                        8,
+                        7,
+                        i);
+            }
+        }
+
+        private RangingMeasurement next() {
+            mNext = (mNext + 1) % PEER_COUNT;
+            return mMeasurements[mNext];
+        }
+    }
+
+    @Benchmark
+    public void recordResult(SharedMetrics metrics, Results results) {
+        metrics.mMetrics.onRangingResult(results.next());
+        metrics.mMetrics.onRangingCallback(results.mNext * 7);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordResultContended(SharedMetrics metrics, Results results) {
+        metrics.mMetrics.onRangingResult(results.next());
+        metrics.mMetrics.onRangingCallback(results.mNext * 7);
+    }
+
+    @Benchmark
+    public RangingMetricsSnapshot snapshot(SharedMetrics metrics, Results results) {
+        metrics.mMetrics.onRangingResult(results.next());
+        metrics.mMetrics.copyTo(metrics.mSnapshot, 1000);
+        return metrics.mSnapshot;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.AccessPointStatistics;
+import com.example.android.wifirttscan.CharFormatter;
+import com.example.android.wifirttscan.RangingMeasurement;
+import com.example.android.wifirttscan.SimulatedRangingSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-result cost of the work done in RttRangingResultCallback#onRangingResults: adding the
+ * result to the statistics of its BSSID, reading the mean / SD mean, and formatting the values
+ * shown in the UI. Every operation processes a single result; results rotate over peerCount
+ * simulated responders. Run with "-prof gc" (the default for the jmh task) to see allocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangingResultBenchmark {
+
+    // Pre-generated results, so the simulator isn't part of the measurement.
+    private static final int RESULT_COUNT = 4096;
+
+    @Param({"10", "50", "500", "5000"})
+    public int windowSize;
+
+    @Param({"1", "4", "10"})
+    public int peerCount;
+
+    private long[] mBssids;
+    private int[] mPeerIndices;
+    private RangingMeasurement[] mResults;
+    private int mNextResult;
+
+    private AccessPointStatistics[] mStatistics;
+    private final CharFormatter mText = new CharFormatter();
+    private LegacyAccessPointStatistics[] mLegacyStatistics;
+
+    @Setup
+    public void setUp() {
+        SimulatedRangingSource source = new SimulatedRangingSource(1, peerCount, 0);
+        source.setRequestFailureRate(0);
+        mBssids = source.getResponderBssids();
+
+        mResults = new RangingMeasurement[RESULT_COUNT];
+        mPeerIndices = new int[RESULT_COUNT];
+
+        int count = 0;
+
+        while (count < RESULT_COUNT) {
+            List<RangingMeasurement> batch = source.generate(mBssids, peerCount);
+
+            for (int i = 0; (i < batch.size()) && (count < RESULT_COUNT); i++) {
+                if (batch.get(i).isSuccess()) {
+                    mResults[count] = new RangingMeasurement();
+                    mResults[count].set(batch.get(i));
+                    mPeerIndices[count] = i;
+                    count++;
+                }
+            }
+        }
+
+        mStatistics = new AccessPointStatistics[peerCount];
+        mLegacyStatistics = new LegacyAccessPointStatistics[peerCount];
+
+        for (int i = 0; i < peerCount; i++) {
+            mStatistics[i] = new AccessPointStatistics(mBssids[i], windowSize);
+            mLegacyStatistics[i] = new LegacyAccessPointStatistics(windowSize);
+        }
+
+        // Fill the windows, so the benchmarks measure the steady state.
+        for (int i = 0; i < windowSize; i++) {
+            RangingMeasurement result = mResults[i % RESULT_COUNT];
+            int peer = mPeerIndices[i % RESULT_COUNT];
+
+            for (int j = 0; j < peerCount; j++) {
+                mStatistics[(peer + j) % peerCount].onRangingResult(result);
+                mLegacyStatistics[(peer + j) % peerCount]
+                        .onRangingSuccess(result.getDistanceMm(), result.getDistanceStdDevMm());
+            }
+        }
+    }
+
+    private int nextResult() {
+        int index = mNextResult;
+        mNextResult = (index + 1) & (RESULT_COUNT - 1);
+        return index;
+    }
+
+    // Same linear lookup as AccessPointRangingResultsActivity#findStatistics.
+    private AccessPointStatistics findStatistics(long bssid) {
+        for (AccessPointStatistics statistics : mStatistics) {
+            if (statistics.getBssid() == bssid) {
+                return statistics;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public void addToHistory() {
+        int index = nextResult();
+        RangingMeasurement result = mResults[index];
+        mStatistics[mPeerIndices[index]].onRangingResult(result);
+    }
+
+    @Benchmark
+    public void addToHistoryLegacy() {
+        int index = nextResult();
+        RangingMeasurement result = mResults[index];
+        mLegacyStatistics[mPeerIndices[index]]
+                .onRangingSuccess(result.getDistanceMm(), result.getDistanceStdDevMm());
+    }
+
+    @Benchmark
+    public void meanAndStandardDeviation(Blackhole blackhole) {
+        AccessPointStatistics statistics = mStatistics[mPeerIndices[nextResult()]];
+        blackhole.consume(statistics.getDistanceMean());
+        blackhole.consume(statistics.getStandardDeviationOfDistanceMean());
+    }
+
+    @Benchmark
+    public void meanAndStandardDeviationLegacy(Blackhole blackhole) {
+        LegacyAccessPointStatistics statistics = mLegacyStatistics[mPeerIndices[nextResult()]];
+        blackhole.consume(statistics.getDistanceMean());
+        blackhole.consume(statistics.getStandardDeviationOfDistanceMean());
+    }
+
+    @Benchmark
+    public void formatResult(Blackhole blackhole) {
+        int index = nextResult();
+        format(mResults[index], mStatistics[mPeerIndices[index]], blackhole);
+    }
+
+    // Whole per-result path: lookup by BSSID, statistics update and UI formatting.
+    @Benchmark
+    public void onRangingResult(Blackhole blackhole) {
+        RangingMeasurement result = mResults[nextResult()];
+        AccessPointStatistics statistics = findStatistics(result.getBssid());
+
+        if (statistics.onRangingResult(result)) {
+            format(result, statistics, blackhole);
+        }
+    }
+
+    @Benchmark
+    public void onRangingResultLegacy(Blackhole blackhole) {
+        int index = nextResult();
+        RangingMeasurement result = mResults[index];
+        LegacyAccessPointStatistics statistics = mLegacyStatistics[mPeerIndices[index]];
+
+        statistics.onRangingSuccess(result.getDistanceMm(), result.getDistanceStdDevMm());
+        formatLegacy(result, statistics, blackhole);
+    }
+
+    // Same text as AccessPointRangingResultsActivity#displaySnapshot, formatted into a reused
+    // buffer (the activity has one per view).
+    private void format(
+            RangingMeasurement result, AccessPointStatistics statistics, Blackhole blackhole) {
+        CharFormatter text = mText;
+        blackhole.consume(text.clear().append(result.getDistanceMm() / 1000.0, 3).length());
+        blackhole.consume(text.clear().append(statistics.getDistanceMean() / 1000.0, 3).length());
+        blackhole.consume(text.clear().append(result.getDistanceStdDevMm() / 1000.0, 3).length());
+        blackhole.consume(
+                text.clear()
+                        .append(statistics.getStandardDeviationOfDistanceMean() / 1000.0, 3)
+                        .length());
+        blackhole.consume(text.clear().append(result.getRssi()).length());
+        blackhole.consume(
+                text.clear()
+                        .append(result.getNumSuccessfulMeasurements())
+                        .append('/')
+                        .append(result.getNumAttemptedMeasurements())
+                        .length());
+        blackhole.consume(
+                text.clear().append(statistics.getSuccessRatio(), 1).append('%').length());
+        blackhole.consume(text.clear().append(statistics.getNumberOfRangeRequests()).length());
+    }
+
+    // The Strings built before CharFormatter.
+
+    private static void formatLegacy(
+            RangingMeasurement result,
+            LegacyAccessPointStatistics statistics,
+            Blackhole blackhole) {
+        blackhole.consume((result.getDistanceMm() / 1000f) + "");
+        blackhole.consume((statistics.getDistanceMean() / 1000f) + "");
+        blackhole.consume((result.getDistanceStdDevMm() / 1000f) + "");
+        blackhole.consume((statistics.getStandardDeviationOfDistanceMean() / 1000f) + "");
+        blackhole.consume(result.getRssi() + "");
+        blackhole.consume(
+                result.getNumSuccessfulMeasurements() + "/" + result.getNumAttemptedMeasurements());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.RangingMeasurement;
+import com.example.android.wifirttscan.SessionExportWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-result cost of encoding and compressing simulated ranging into a {@link
+ * SessionExportWriter}, at several block sizes and compression levels. The export goes to a
+ * channel that only counts bytes, so file I/O isn't measured. The size of the export against CSV
+ * is printed by {@link SessionExportTool}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionExportBenchmark {
+
+    private static final int RESULT_COUNT = 65536;
+
+    @Param({"1024", "4096", "16384"})
+    public int blockRecords;
+
+    @Param({"1", "6"})
+    public int compressionLevel;
+
+    private long[] mTimestampsMillis;
+    private long[] mBssids;
+    private int[] mStatuses;
+    private int[] mDistancesMm;
+    private int[] mDistanceStdDevsMm;
+    private int[] mRssis;
+    private int[] mNumAttemptedMeasurements;
+    private int[] mNumSuccessfulMeasurements;
+
+    private final CountingChannel mChannel = new CountingChannel();
+
+    // Discards everything written, only counting the bytes.
+    private static class CountingChannel implements WritableByteChannel {
+        long mBytes;
+
+        @Override
+        public int write(ByteBuffer buffer) {
+            int length = buffer.remaining();
+            buffer.position(buffer.limit());
+            mBytes += length;
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        mTimestampsMillis = new long[RESULT_COUNT];
+        mBssids = new long[RESULT_COUNT];
+        mStatuses = new int[RESULT_COUNT];
+        mDistancesMm = new int[RESULT_COUNT];
+        mDistanceStdDevsMm = new int[RESULT_COUNT];
+        mRssis = new int[RESULT_COUNT];
+        mNumAttemptedMeasurements = new int[RESULT_COUNT];
+        mNumSuccessfulMeasurements = new int[RESULT_COUNT];
+
+        SessionExportTool.Results results =
+                SessionExportTool.simulate(
+                        1,
+                        SessionExportTool.SIMULATED_PEERS,
+                        RESULT_COUNT / SessionExportTool.SIMULATED_PEERS);
+        RangingMeasurement measurement = new RangingMeasurement();
+
+        for (int i = 0; results.next(measurement); i++) {
+            mTimestampsMillis[i] = measurement.getTimestampMillis();
+            mBssids[i] = measurement.getBssid();
+            mStatuses[i] = measurement.getStatus();
+            mDistancesMm[i] = measurement.getDistanceMm();
+            mDistanceStdDevsMm[i] = measurement.getDistanceStdDevMm();
+            mRssis[i] = measurement.getRssi();
+            mNumAttemptedMeasurements[i] = measurement.getNumAttemptedMeasurements();
+            mNumSuccessfulMeasurements[i] = measurement.getNumSuccessfulMeasurements();
+        }
+        results.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RESULT_COUNT)
+    public long export() throws IOException {
+        mChannel.mBytes = 0;
+
+        SessionExportWriter writer =
+                new SessionExportWriter(mChannel, blockRecords, compressionLevel);
+
+        for (int i = 0; i < RESULT_COUNT; i++) {
+            writer.append(
+                    mTimestampsMillis[i],
+                    mBssids[i],
+                    mStatuses[i],
+                    mDistancesMm[i],
+                    mDistanceStdDevsMm[i],
+                    mRssis[i],
+                    mNumAttemptedMeasurements[i],
+                    mNumSuccessfulMeasurements[i]);
+        }
+        writer.close();
+        return mChannel.mBytes;
+    }
+}
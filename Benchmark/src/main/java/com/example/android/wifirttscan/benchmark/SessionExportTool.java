@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import com.example.android.wifirttscan.CaptureLog;
+import com.example.android.wifirttscan.CaptureLogReader;
+import com.example.android.wifirttscan.MacAddressUtils;
+import com.example.android.wifirttscan.RangingMeasurement;
+import com.example.android.wifirttscan.SessionExportReader;
+import com.example.android.wifirttscan.SessionExportWriter;
+import com.example.android.wifirttscan.SimulatedRangingSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Exports a capture (or an hour of simulated ranging) as a {@link
+ * com.example.android.wifirttscan.SessionExport}, reads it back and compares it with the source.
+ * Prints how long writing took and the size of the export against the same results as CSV and as
+ * the capture log.
+ *
+ * <p>Usage: SessionExportTool &lt;output&gt; [&lt;directory&gt; &lt;prefix&gt;]. Exits with
+ * status 1 if the export doesn't read back the same.
+ */
+public class SessionExportTool {
+
+    // Results of a capture or a simulation, in order.
+    interface Results {
+        boolean next(RangingMeasurement out) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    // An hour of 10 Hz batched ranging of 8 simulated responders.
+    static final int SIMULATED_PEERS = 8;
+    static final int SIMULATED_REQUESTS = 36000;
+    private static final int PERIOD_MILLIS = 100;
+
+    public static void main(String[] args) throws Exception {
+        if ((args.length != 1) && (args.length != 3)) {
+            System.err.println("Usage: SessionExportTool <output> [<directory> <prefix>]");
+            System.exit(1);
+        }
+
+        File output = new File(args[0]);
+        RangingMeasurement measurement = new RangingMeasurement();
+
+        Results results = openResults(args);
+        long startNanos = System.nanoTime();
+        SessionExportWriter writer = new SessionExportWriter(output);
+        long csvBytes = 0;
+
+        try {
+            while (results.next(measurement)) {
+                writer.append(measurement);
+                csvBytes += toCsv(measurement).length() + 1;
+            }
+        } finally {
+            results.close();
+            writer.close();
+        }
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long records = writer.getNumberOfRecords();
+        long captureBytes = CaptureLog.HEADER_SIZE + records * CaptureLog.RECORD_SIZE;
+        long exportBytes = output.length();
+
+        System.out.println(
+                String.format(
+                        Locale.US,
+                        "%d results in %d blocks, written in %.1f ms (%.0f results/s)",
+                        records,
+                        writer.getNumberOfBlocks(),
+                        elapsedNanos / 1e6,
+                        records * 1e9 / elapsedNanos));
+        System.out.println(
+                String.format(
+                        Locale.US,
+                        "export %d bytes (%.2f bytes/result): CSV %d bytes (%.1fx), capture log %d"
+                                + " bytes (%.1fx)",
+                        exportBytes,
+                        (double) exportBytes / Math.max(1, records),
+                        csvBytes,
+                        (double) csvBytes / exportBytes,
+                        captureBytes,
+                        (double) captureBytes / exportBytes));
+
+        long mismatches = compare(openResults(args), output);
+        System.out.println(mismatches == 0 ? "Read back OK" : mismatches + " results differ");
+
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    static Results openResults(String[] args) {
+        if (args.length == 3) {
+            final CaptureLogReader reader = new CaptureLogReader(new File(args[1]), args[2]);
+
+            return new Results() {
+                @Override
+                public boolean next(RangingMeasurement out) throws IOException {
+                    return reader.next(out);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    reader.close();
+                }
+            };
+        }
+        return simulate(1, SIMULATED_PEERS, SIMULATED_REQUESTS);
+    }
+
+    /*
+     * Results of ranging peerCount simulated responders every PERIOD_MILLIS, requests times. The
+     * results of a request are a few ms apart, as in a real burst.
+     */
+    static Results simulate(long seed, final int peerCount, final int requests) {
+        final SimulatedRangingSource source = new SimulatedRangingSource(seed, peerCount, 0);
+        final long[] bssids = source.getResponderBssids();
+
+        return new Results() {
+            private List<RangingMeasurement> mList;
+            private int mRequest;
+            private int mNext;
+
+            @Override
+            public boolean next(RangingMeasurement out) {
+                if ((mList == null) || (mNext == mList.size())) {
+                    if (mRequest == requests) {
+                        return false;
+                    }
+
+                    mList = source.generate(bssids, peerCount);
+                    mRequest++;
+                    mNext = 0;
+                }
+
+                RangingMeasurement measurement = mList.get(mNext);
+                out.set(
+                        measurement.getBssid(),
+                        measurement.getStatus(),
+                        measurement.getDistanceMm(),
+                        measurement.getDistanceStdDevMm(),
+                        measurement.getRssi(),
+                        measurement.getNumAttemptedMeasurements(),
+                        measurement.getNumSuccessfulMeasurements(),
+                        1500000000000L + (long) mRequest * PERIOD_MILLIS + 3 * mNext);
+                mNext++;
+                return true;
+            }
+
+            @Override
+            public void close() {
+                source.shutdown();
+            }
+        };
+    }
+
+    // Number of results in output that differ from (or are missing in) results.
+    private static long compare(Results results, File output) throws IOException {
+        SessionExportReader reader = new SessionExportReader(output);
+        RangingMeasurement expected = new RangingMeasurement();
+        RangingMeasurement actual = new RangingMeasurement();
+        long mismatches = 0;
+
+        try {
+            while (results.next(expected)) {
+                if (!reader.next(actual) || !toCsv(expected).equals(toCsv(actual))) {
+                    mismatches++;
+                }
+            }
+
+            while (reader.next(actual)) {
+                mismatches++;
+            }
+        } finally {
+            results.close();
+            reader.close();
+        }
+        return mismatches;
+    }
+
+    private static String toCsv(RangingMeasurement measurement) {
+        return measurement.getTimestampMillis()
+                + ","
+                + MacAddressUtils.toString(measurement.getBssid())
+                + ","
+                + measurement.getStatus()
+                + ","
+                + measurement.getDistanceMm()
+                + ","
+                + measurement.getDistanceStdDevMm()
+                + ","
+                + measurement.getRssi()
+                + ","
+                + measurement.getNumAttemptedMeasurements()
+                + ","
+                + measurement.getNumSuccessfulMeasurements();
+    }
+}
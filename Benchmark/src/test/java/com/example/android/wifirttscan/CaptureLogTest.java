@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that {@link CaptureLogWriter} and {@link CaptureLogReader} round trip the records of a
+ * {@link CaptureLog}, and that torn or corrupt records end a file without failing the read.
+ */
+public class CaptureLogTest {
+
+    private static final String PREFIX = "capture";
+    private static final int RECORDS = 10;
+
+    @Rule public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsRecordsAcrossFiles() throws IOException {
+        File directory = mFolder.newFolder();
+        // Three records per file and a buffer of two, so flushes span files.
+        CaptureLogWriter writer =
+                new CaptureLogWriter(
+                        directory, PREFIX, CaptureLog.HEADER_SIZE + 3 * CaptureLog.RECORD_SIZE, 2);
+
+        for (int i = 0; i < RECORDS; i++) {
+            appendRecord(writer, i);
+        }
+        writer.close();
+
+        assertEquals(RECORDS, writer.getNumberOfRecords());
+        assertEquals(4, CaptureLog.listFiles(directory, PREFIX).length);
+        assertRecords(new CaptureLogReader(directory, PREFIX), RECORDS, 0);
+    }
+
+    @Test
+    public void clampsFieldsToTheirRecordSize() throws IOException {
+        File directory = mFolder.newFolder();
+        CaptureLogWriter writer = new CaptureLogWriter(directory, PREFIX);
+        writer.append(1, 2, RangingMeasurement.STATUS_SUCCESS, -5, 7, -40000, 300, -1);
+        writer.close();
+
+        CaptureLogReader reader = new CaptureLogReader(directory, PREFIX);
+        RangingMeasurement measurement = new RangingMeasurement();
+
+        try {
+            reader.next(measurement);
+        } finally {
+            reader.close();
+        }
+
+        assertEquals(-5, measurement.getDistanceMm());
+        assertEquals(Short.MIN_VALUE, measurement.getRssi());
+        assertEquals(255, measurement.getNumAttemptedMeasurements());
+        assertEquals(0, measurement.getNumSuccessfulMeasurements());
+    }
+
+    @Test
+    public void truncatedLastRecordIsDropped() throws IOException {
+        File file = writeCapture();
+        byte[] bytes = readBytes(file);
+        int lastRecordOffset = CaptureLog.HEADER_SIZE + (RECORDS - 1) * CaptureLog.RECORD_SIZE;
+
+        for (int cut = 0; cut < CaptureLog.RECORD_SIZE; cut++) {
+            writeBytes(file, bytes, lastRecordOffset + cut);
+            String message = "cut at " + cut;
+
+            // Only a partial record counts as corrupt, a cut at a record boundary is a clean end.
+            CaptureLogReader reader = new CaptureLogReader(file);
+            assertRecords(message, reader, RECORDS - 1, (cut == 0) ? 0 : 1);
+
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+            try {
+                assertEquals(
+                        message,
+                        lastRecordOffset,
+                        CaptureLog.recover(randomAccessFile.getChannel()));
+                assertEquals(message, lastRecordOffset, randomAccessFile.length());
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+    }
+
+    @Test
+    public void writerRecoversTornTailAndContinues() throws IOException {
+        File file = writeCapture();
+        byte[] bytes = readBytes(file);
+        writeBytes(file, bytes, bytes.length - CaptureLog.RECORD_SIZE / 2);
+
+        CaptureLogWriter writer = new CaptureLogWriter(file.getParentFile(), PREFIX);
+        appendRecord(writer, RECORDS - 1);
+        writer.close();
+
+        // The torn record is cut off the first file, and appending continues in a second one.
+        assertEquals(2, CaptureLog.listFiles(file.getParentFile(), PREFIX).length);
+        assertRecords(new CaptureLogReader(file.getParentFile(), PREFIX), RECORDS, 0);
+    }
+
+    @Test
+    public void corruptChecksumEndsTheFile() throws IOException {
+        for (int corruptRecord = 0; corruptRecord < RECORDS; corruptRecord++) {
+            File file = writeCapture();
+            byte[] bytes = readBytes(file);
+            // The last byte of the checksum.
+            bytes[CaptureLog.HEADER_SIZE + (corruptRecord + 1) * CaptureLog.RECORD_SIZE - 1] ^= 1;
+            writeBytes(file, bytes, bytes.length);
+
+            assertRecords(
+                    "corrupt record " + corruptRecord,
+                    new CaptureLogReader(file),
+                    corruptRecord,
+                    1);
+        }
+    }
+
+    @Test
+    public void corruptPayloadFailsChecksum() throws IOException {
+        File file = writeCapture();
+        byte[] bytes = readBytes(file);
+        // A bit of the distance of the middle record.
+        bytes[CaptureLog.HEADER_SIZE + (RECORDS / 2) * CaptureLog.RECORD_SIZE + 17] ^= 0x10;
+        writeBytes(file, bytes, bytes.length);
+
+        assertRecords(new CaptureLogReader(file), RECORDS / 2, 1);
+    }
+
+    // Writes RECORDS records into a single capture file in a new folder.
+    private File writeCapture() throws IOException {
+        File directory = mFolder.newFolder();
+        CaptureLogWriter writer = new CaptureLogWriter(directory, PREFIX);
+
+        for (int i = 0; i < RECORDS; i++) {
+            appendRecord(writer, i);
+        }
+        writer.close();
+        return writer.getCurrentFile();
+    }
+
+    private static void appendRecord(CaptureLogWriter writer, int index) throws IOException {
+        writer.append(
+                1000 + index * 100,
+                0x020000000000L + index,
+                (index % 3 == 0)
+                        ? RangingMeasurement.STATUS_FAIL
+                        : RangingMeasurement.STATUS_SUCCESS,
+                4000 + index * 10,
+                100 + index,
+                -40 - index,
+                8,
+                8 - index % 4);
+    }
+
+    private static void assertRecords(CaptureLogReader reader, int records, int corruptRecords)
+            throws IOException {
+        assertRecords("", reader, records, corruptRecords);
+    }
+
+    // Reads the capture to its end and checks it holds the first records appended by appendRecord.
+    private static void assertRecords(
+            String message, CaptureLogReader reader, int records, int corruptRecords)
+            throws IOException {
+        RangingMeasurement measurement = new RangingMeasurement();
+
+        try {
+            for (int i = 0; i < records; i++) {
+                String recordMessage = message + ", record " + i;
+                assertTrue(recordMessage, reader.next(measurement));
+                assertEquals(recordMessage, 1000 + i * 100, measurement.getTimestampMillis());
+                assertEquals(recordMessage, 0x020000000000L + i, measurement.getBssid());
+                assertEquals(
+                        recordMessage,
+                        (i % 3 == 0)
+                                ? RangingMeasurement.STATUS_FAIL
+                                : RangingMeasurement.STATUS_SUCCESS,
+                        measurement.getStatus());
+                assertEquals(recordMessage, 4000 + i * 10, measurement.getDistanceMm());
+                assertEquals(recordMessage, 100 + i, measurement.getDistanceStdDevMm());
+                assertEquals(recordMessage, -40 - i, measurement.getRssi());
+                assertEquals(recordMessage, 8, measurement.getNumAttemptedMeasurements());
+                assertEquals(recordMessage, 8 - i % 4, measurement.getNumSuccessfulMeasurements());
+            }
+
+            assertFalse(message, reader.next(measurement));
+            assertEquals(message, records, reader.getNumberOfRecords());
+            assertEquals(message, corruptRecords, reader.getNumberOfCorruptRecords());
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+        try {
+            byte[] bytes = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(bytes);
+            return bytes;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    // Replaces the contents of file with the first length bytes.
+    private static void writeBytes(File file, byte[] bytes, int length) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+        try {
+            randomAccessFile.setLength(0);
+            randomAccessFile.write(bytes, 0, length);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Checks the pacing of {@link CaptureReplayer} on captures with untimestamped failures. */
+public class CaptureReplayerTest {
+
+    private static final String PREFIX = "capture";
+    private static final long BSSID = 0x020000000001L;
+
+    // An hour of uptime, which must not be waited for.
+    private static final long FIRST_TIMESTAMP_MILLIS = 3600 * 1000;
+    private static final long RECORDED_MILLIS = 100;
+
+    @Rule public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test(timeout = 5000)
+    public void leadingFailureDoesNotDelayReplay() throws Exception {
+        File directory = mFolder.newFolder();
+        CaptureLogWriter writer = new CaptureLogWriter(directory, PREFIX);
+
+        // Captures from before failures were timestamped have them at 0, anywhere in the log.
+        appendFailure(writer, 0);
+        appendSuccess(writer, FIRST_TIMESTAMP_MILLIS);
+        appendFailure(writer, 0);
+        appendSuccess(writer, FIRST_TIMESTAMP_MILLIS + RECORDED_MILLIS / 2);
+        appendSuccess(writer, FIRST_TIMESTAMP_MILLIS + RECORDED_MILLIS);
+        // Out of order, so it's due in the past.
+        appendSuccess(writer, FIRST_TIMESTAMP_MILLIS + RECORDED_MILLIS / 4);
+        writer.close();
+
+        RangingResultProcessor processor = new RangingResultProcessor();
+        processor.reset(new long[0], 0, 10, true);
+        CaptureLogReader reader = new CaptureLogReader(directory, PREFIX);
+
+        try {
+            CaptureReplayer replayer =
+                    new CaptureReplayer(reader, processor, CaptureReplayer.SPEED_REAL_TIME);
+            final int[] failures = new int[1];
+            replayer.setListener(
+                    new CaptureReplayer.Listener() {
+                        @Override
+                        public void onResult(RangingMeasurement measurement, int index) {
+                            if (!measurement.isSuccess()) {
+                                failures[0]++;
+                            }
+                        }
+                    });
+
+            assertEquals(6, replayer.replayAll());
+            assertEquals(2, failures[0]);
+
+            // Paced over the recorded time from the first timestamp, but not much longer.
+            long elapsedMillis = replayer.getElapsedNanos() / 1000000;
+            assertTrue("elapsed " + elapsedMillis, elapsedMillis >= RECORDED_MILLIS - 1);
+            assertTrue("elapsed " + elapsedMillis, elapsedMillis < 10 * RECORDED_MILLIS);
+
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void appendSuccess(CaptureLogWriter writer, long timestampMillis)
+            throws IOException {
+        writer.append(
+                timestampMillis, BSSID, RangingMeasurement.STATUS_SUCCESS, 5000, 200, -50, 8, 8);
+    }
+
+    private static void appendFailure(CaptureLogWriter writer, long timestampMillis)
+            throws IOException {
+        writer.append(timestampMillis, BSSID, RangingMeasurement.STATUS_FAIL, 0, 0, 0, 0, 0);
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that {@link FingerprintMapWriter} and {@link FingerprintMap} round trip a survey through
+ * the memory-mapped file, and that {@link FingerprintLocator} finds the nearest fingerprints.
+ */
+public class FingerprintMapTest {
+
+    private static final long BSSID_A = 0x0000a0a0a0a0L;
+    private static final long BSSID_B = 0x0000b0b0b0b0L;
+    private static final long BSSID_C = 0x0000c0c0c0c0L;
+    private static final long BSSID_UNKNOWN = 0x0000d0d0d0d0L;
+
+    private static final int RSSI = -60;
+    private static final double EPSILON = 1e-6;
+
+    @Rule public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsThroughMappedFile() throws IOException {
+        File file = new File(mFolder.getRoot(), "survey.map");
+        newSurvey().write(file);
+
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertEquals(FingerprintMap.getSize(3, 3), file.length());
+        assertSurvey(FingerprintMap.open(file));
+    }
+
+    @Test
+    public void continuesSurveyFromMappedFile() throws IOException {
+        File file = new File(mFolder.getRoot(), "survey.map");
+        newSurvey().write(file);
+
+        // Remap the file, add a fingerprint and write it over itself.
+        FingerprintMapWriter writer = new FingerprintMapWriter();
+        writer.addAll(FingerprintMap.open(file));
+        writer.beginFingerprint(9, 9, 9);
+        writer.addRange(BSSID_UNKNOWN, 4000, -80);
+        writer.write(file);
+
+        FingerprintMap map = FingerprintMap.open(file);
+        assertEquals(4, map.getBssidCount());
+        assertEquals(4, map.getPointCount());
+        assertEquals(3, map.indexOfBssid(BSSID_UNKNOWN));
+
+        for (int point = 0; point < 3; point++) {
+            assertEquals(FingerprintMap.MISSING_DISTANCE, map.getDistanceCm(point, 3));
+            assertEquals(FingerprintMap.MISSING_RSSI, map.getRssi(point, 3));
+        }
+        assertEquals(400, map.getDistanceCm(3, 3));
+        assertEquals(-80, map.getRssi(3, 3));
+        assertEquals(FingerprintMap.MISSING_DISTANCE, map.getDistanceCm(3, 0));
+
+        // The surveyed points are unchanged.
+        assertEquals(200, map.getDistanceCm(0, 0));
+        assertEquals(FingerprintMap.MAX_DISTANCE_MM / 10, map.getDistanceCm(1, 1));
+        assertEquals(1235, map.getDistanceCm(1, 2));
+        assertEquals(-45, map.getRssi(1, 2));
+        assertEquals(-4f, map.getX(1), 0);
+    }
+
+    @Test
+    public void emptySurveyRoundTrips() throws IOException {
+        File file = new File(mFolder.getRoot(), "empty.map");
+        new FingerprintMapWriter().write(file);
+
+        FingerprintMap map = FingerprintMap.open(file);
+        assertEquals(0, map.getBssidCount());
+        assertEquals(0, map.getPointCount());
+        assertEquals(-1, map.indexOfBssid(BSSID_A));
+        assertFalse(new FingerprintLocator(map, 3).locate());
+    }
+
+    @Test
+    public void rejectsCorruptMaps() throws IOException {
+        File file = new File(mFolder.getRoot(), "survey.map");
+        newSurvey().write(file);
+
+        // Truncated by one byte.
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(file.length() - 1);
+        } finally {
+            randomAccessFile.close();
+        }
+        assertNotMap(file);
+
+        // Wrong magic.
+        ByteBuffer buffer = newSurvey().toByteBuffer();
+        buffer.put(0, (byte) 0);
+        assertNotMap(buffer);
+
+        // Wrong version.
+        buffer = newSurvey().toByteBuffer();
+        buffer.put(4, (byte) (FingerprintMap.VERSION + 1));
+        assertNotMap(buffer);
+
+        // Point count that doesn't match the size.
+        buffer = newSurvey().toByteBuffer();
+        buffer.put(12, (byte) 4);
+        assertNotMap(buffer);
+
+        assertNotMap(ByteBuffer.allocate(FingerprintMap.HEADER_SIZE - 1));
+    }
+
+    @Test
+    public void locatorRanksNearestFingerprints() throws IOException {
+        // Ranges to A and B of 10 m each, fingerprints mismatched by known amounts.
+        FingerprintMapWriter writer = new FingerprintMapWriter();
+        addFingerprint(writer, 0, 10000, 10000); // cost 0
+        addFingerprint(writer, 1, 11000, 10000); // cost 1
+        addFingerprint(writer, 2, 10000, 12000); // cost 4
+        addFingerprint(writer, 3, 13000, 10000); // cost 9
+        addFingerprint(writer, 4, 20000, 20000); // cost 200
+
+        FingerprintLocator locator = new FingerprintLocator(newMap(writer), 3);
+        addLiveRanges(locator);
+        assertTrue(locator.locate());
+
+        assertNeighbors(locator, 0, 1, 2);
+        assertPosition(locator, new double[] {0, 1, 4}, new int[] {0, 1, 2});
+        assertEquals(0, locator.getMatchRms(), EPSILON);
+    }
+
+    @Test
+    public void locatorPrunesOnPartialScore() throws IOException {
+        // The k best come last; the first ones fill the neighbors, then every later one is
+        // compared to the k-th best so far. Point 3 is abandoned after its first range, point 5
+        // replaces a neighbor, and point 6 is only worse after its second range.
+        FingerprintMapWriter writer = new FingerprintMapWriter();
+        addFingerprint(writer, 0, 16000, 10000); // cost 36
+        addFingerprint(writer, 1, 10000, 15000); // cost 25
+        addFingerprint(writer, 2, 14000, 10000); // cost 16
+        addFingerprint(writer, 3, 30000, 10000); // cost 400, pruned after A
+        addFingerprint(writer, 4, 10000, 10500); // cost 0.25
+        addFingerprint(writer, 5, 11000, 11000); // cost 2
+        addFingerprint(writer, 6, 10000, 15000); // cost 25, worse after B
+        addFingerprint(writer, 7, 10000, 10000); // cost 0
+
+        FingerprintLocator locator = new FingerprintLocator(newMap(writer), 3);
+        addLiveRanges(locator);
+        assertTrue(locator.locate());
+
+        assertNeighbors(locator, 7, 4, 5);
+        assertPosition(locator, new double[] {0, 0.25, 2}, new int[] {7, 4, 5});
+
+        // Same answer with room for every fingerprint, where nothing is pruned.
+        FingerprintLocator exhaustive = new FingerprintLocator(locator.getMap(), 8);
+        addLiveRanges(exhaustive);
+        assertTrue(exhaustive.locate());
+        assertNeighbors(exhaustive, 7, 4, 5, 2, 1, 6, 0, 3);
+    }
+
+    @Test
+    public void locatorPenalizesMissingAccessPoints() throws IOException {
+        FingerprintMapWriter writer = new FingerprintMapWriter();
+        // Exact on A, B not seen: costs the missing penalty (5 m squared).
+        writer.beginFingerprint(0, 0, 0);
+        writer.addRange(BSSID_A, 10000, RSSI);
+        // Exact on B, A not seen; C isn't ranged, so it doesn't count.
+        writer.beginFingerprint(1, 0, 0);
+        writer.addRange(BSSID_B, 10000, RSSI);
+        writer.addRange(BSSID_C, 1000, RSSI);
+        // Off by 4 m on A, 3 m on B.
+        addFingerprint(writer, 2, 14000, 13000);
+
+        FingerprintLocator locator = new FingerprintLocator(newMap(writer), 1);
+        addLiveRanges(locator);
+        assertTrue(locator.locate());
+
+        // All three cost as much as a missing access point; the first one found is kept.
+        assertNeighbors(locator, 0);
+        assertEquals(Math.sqrt(25.0 / 2), locator.getMatchRms(), EPSILON);
+
+        // An RSSI mismatch of 6 dB on A costs as much as 1 m, so point 0 drops behind.
+        locator.clear();
+        assertTrue(locator.addRange(BSSID_A, 10000, RSSI + 6));
+        assertTrue(locator.addRange(BSSID_B, 10000, RSSI));
+        assertTrue(locator.locate());
+        assertNeighbors(locator, 1);
+        assertEquals(Math.sqrt(25.0 / 2), locator.getMatchRms(), EPSILON);
+    }
+
+    @Test
+    public void locatorRejectsUnusableRanges() throws IOException {
+        FingerprintMapWriter writer = new FingerprintMapWriter();
+        addFingerprint(writer, 0, 10000, 10000);
+        FingerprintLocator locator = new FingerprintLocator(newMap(writer), 3);
+
+        assertFalse(locator.addRange(BSSID_UNKNOWN, 10000, RSSI));
+        assertTrue(locator.addRange(BSSID_A, 10000, RSSI));
+        assertFalse(locator.addRange(BSSID_A, 11000, RSSI));
+        assertEquals(1, locator.getRangeCount());
+
+        // A single range can't tell fingerprints apart.
+        assertFalse(locator.locate());
+        assertFalse(locator.isValid());
+
+        assertTrue(locator.addRange(BSSID_B, 10000, RSSI));
+        assertTrue(locator.locate());
+        assertTrue(locator.isValid());
+        assertEquals(1, locator.getNeighborCount());
+        assertEquals(0, locator.getX(), EPSILON);
+
+        try {
+            new FingerprintLocator(locator.getMap(), 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    // Three fingerprints over three access points, with a missing range, a BSSID added twice and
+    // values out of range.
+    private static FingerprintMapWriter newSurvey() {
+        FingerprintMapWriter writer = new FingerprintMapWriter();
+
+        writer.beginFingerprint(1.5f, -2.25f, 0.5f);
+        writer.addRange(BSSID_C, 3004, -70);
+        writer.addRange(BSSID_A, 1996, -50);
+
+        writer.beginFingerprint(-4, 8, 1);
+        writer.addRange(BSSID_B, 700000, 200);
+        writer.addRange(BSSID_C, 5000, -90);
+        writer.addRange(BSSID_C, 12345, -45);
+
+        writer.beginFingerprint(0, 0, 0);
+        writer.addRange(BSSID_A, -10, -200);
+        return writer;
+    }
+
+    private static void assertSurvey(FingerprintMap map) {
+        assertEquals(3, map.getBssidCount());
+        assertEquals(3, map.getPointCount());
+
+        // BSSIDs are sorted.
+        assertEquals(BSSID_A, map.getBssid(0));
+        assertEquals(BSSID_B, map.getBssid(1));
+        assertEquals(BSSID_C, map.getBssid(2));
+        assertEquals(1, map.indexOfBssid(BSSID_B));
+        assertEquals(-1, map.indexOfBssid(BSSID_UNKNOWN));
+
+        assertEquals(1.5f, map.getX(0), 0);
+        assertEquals(-2.25f, map.getY(0), 0);
+        assertEquals(0.5f, map.getZ(0), 0);
+        assertEquals(-4f, map.getX(1), 0);
+        assertEquals(8f, map.getY(1), 0);
+
+        // Distances are rounded to cm.
+        assertEquals(200, map.getDistanceCm(0, 0));
+        assertEquals(-50, map.getRssi(0, 0));
+        assertEquals(FingerprintMap.MISSING_DISTANCE, map.getDistanceCm(0, 1));
+        assertEquals(FingerprintMap.MISSING_RSSI, map.getRssi(0, 1));
+        assertEquals(300, map.getDistanceCm(0, 2));
+
+        // Out of range values are clamped, and the last range of a BSSID is kept.
+        assertEquals(FingerprintMap.MAX_DISTANCE_MM / 10, map.getDistanceCm(1, 1));
+        assertEquals(FingerprintMap.MISSING_RSSI - 1, map.getRssi(1, 1));
+        assertEquals(1235, map.getDistanceCm(1, 2));
+        assertEquals(-45, map.getRssi(1, 2));
+
+        assertEquals(0, map.getDistanceCm(2, 0));
+        assertEquals(Byte.MIN_VALUE, map.getRssi(2, 0));
+        assertEquals(FingerprintMap.MISSING_DISTANCE, map.getDistanceCm(2, 2));
+    }
+
+    // A fingerprint at (x, 0, 0) with ranges to A and B.
+    private static void addFingerprint(
+            FingerprintMapWriter writer, float x, int distanceAMm, int distanceBMm) {
+        writer.beginFingerprint(x, 0, 0);
+        writer.addRange(BSSID_A, distanceAMm, RSSI);
+        writer.addRange(BSSID_B, distanceBMm, RSSI);
+    }
+
+    private static void addLiveRanges(FingerprintLocator locator) {
+        locator.clear();
+        assertTrue(locator.addRange(BSSID_A, 10000, RSSI));
+        assertTrue(locator.addRange(BSSID_B, 10000, RSSI));
+    }
+
+    private static FingerprintMap newMap(FingerprintMapWriter writer) throws IOException {
+        return new FingerprintMap(writer.toByteBuffer());
+    }
+
+    private static void assertNeighbors(FingerprintLocator locator, int... points) {
+        assertEquals(points.length, locator.getNeighborCount());
+
+        for (int i = 0; i < points.length; i++) {
+            assertEquals("Neighbor " + i, points[i], locator.getNeighbor(i));
+        }
+    }
+
+    // Fingerprint i is at (x = point i, 0, 0), weighted by the inverse of its cost.
+    private static void assertPosition(FingerprintLocator locator, double[] costs, int[] points) {
+        double weightSum = 0;
+        double x = 0;
+
+        for (int i = 0; i < costs.length; i++) {
+            double weight = 1 / Math.max(0.01, costs[i]);
+            weightSum += weight;
+            x += weight * points[i];
+        }
+        assertEquals(x / weightSum, locator.getX(), EPSILON);
+        assertEquals(0, locator.getY(), EPSILON);
+        assertEquals(0, locator.getZ(), EPSILON);
+    }
+
+    private static void assertNotMap(File file) {
+        try {
+            FingerprintMap.open(file);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    private static void assertNotMap(ByteBuffer buffer) {
+        try {
+            new FingerprintMap(buffer);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Scrapes the metrics of simulated ranging from a {@link MetricsHttpServer} on the loopback
+ * interface over a plain socket, like a Prometheus scraper would, and checks the exposition format
+ * written by {@link RangingMetricsExporter} and {@link PrometheusTextWriter}.
+ */
+public class MetricsHttpServerTest {
+
+    private static final int RESPONDER_COUNT = 4;
+    private static final int REQUESTS = 30;
+
+    // Latencies that fall clearly into the 5, 50 and 500 ms buckets.
+    private static final long[] LATENCIES_MILLIS = {3, 40, 400};
+
+    // A peer outside of the simulated ones, with hex letters in its BSSID.
+    private static final long EXTRA_BSSID = 0xfedcba987654L;
+
+    // Label values, where only backslashes, double quotes and line feeds are escaped.
+    private static final String LABEL_VALUE = "(?:\\\\[\\\\\"n]|[^\"\\\\\\n])*";
+    private static final String LABEL = "[a-zA-Z_][a-zA-Z0-9_]*=\"" + LABEL_VALUE + "\"";
+    private static final Pattern SAMPLE_PATTERN =
+            Pattern.compile(
+                    "([a-zA-Z_:][a-zA-Z0-9_:]*)(?:\\{("
+                            + LABEL
+                            + "(?:,"
+                            + LABEL
+                            + ")*)\\})? (-?[0-9]+(?:\\.[0-9]+)?|NaN|[+-]Inf)");
+    private static final Pattern LABEL_PATTERN =
+            Pattern.compile("([a-zA-Z_][a-zA-Z0-9_]*)=\"(" + LABEL_VALUE + ")\"");
+    private static final Pattern HELP_PATTERN =
+            Pattern.compile("# HELP ([a-zA-Z_:][a-zA-Z0-9_:]*) [^\\n]+");
+    private static final Pattern TYPE_PATTERN =
+            Pattern.compile("# TYPE ([a-zA-Z_:][a-zA-Z0-9_:]*) (counter|gauge|histogram)");
+    private static final Pattern BSSID_PATTERN =
+            Pattern.compile("[0-9a-f]{2}(:[0-9a-f]{2}){5}");
+
+    private static final String LATENCY = "wifirtt_request_latency_milliseconds";
+
+    private SimulatedRangingSource mSource;
+    private RangingMetrics mMetrics;
+    private MetricsHttpServer mServer;
+
+    private int mCallbacks;
+    private long mLatencySumMillis;
+
+    @Before
+    public void setUp() throws IOException {
+        // Results are delivered synchronously from startRanging().
+        mSource = new SimulatedRangingSource(1, RESPONDER_COUNT, 0);
+        mSource.setRequestFailureRate(0.2);
+        mMetrics = new RangingMetrics(0);
+
+        long[] bssids = mSource.getResponderBssids();
+
+        for (int i = 0; i < REQUESTS; i++) {
+            mMetrics.onRangingRequest(bssids, RESPONDER_COUNT);
+            final long latencyMillis = LATENCIES_MILLIS[i % LATENCIES_MILLIS.length];
+
+            mSource.startRanging(
+                    bssids,
+                    RESPONDER_COUNT,
+                    new RangingSource.Callback() {
+                        @Override
+                        public void onRangingFailure(int code) {
+                            onCallback(latencyMillis);
+                            mMetrics.onRangingFailure(code);
+                        }
+
+                        @Override
+                        public void onRangingResults(List<RangingMeasurement> measurements) {
+                            onCallback(latencyMillis);
+
+                            for (int j = 0; j < measurements.size(); j++) {
+                                mMetrics.onRangingResult(measurements.get(j));
+                            }
+                        }
+                    });
+        }
+
+        RangingMeasurement extra = new RangingMeasurement();
+        extra.set(EXTRA_BSSID, RangingMeasurement.STATUS_SUCCESS, 1234, 50, -61, 8, 7, 1);
+        mMetrics.onRangingRequest(new long[] {EXTRA_BSSID}, 1);
+        mMetrics.onRangingResult(extra);
+
+        final RangingMetricsExporter exporter = new RangingMetricsExporter(mMetrics);
+        mServer =
+                new MetricsHttpServer(
+                        new MetricsHttpServer.Renderer() {
+                            @Override
+                            public void render(PrometheusTextWriter writer) {
+                                exporter.render(writer, 10000);
+                            }
+                        });
+        // Port 0 picks a free one.
+        mServer.start(InetAddress.getLoopbackAddress(), 0);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mServer.stop();
+        mSource.shutdown();
+    }
+
+    @Test
+    public void servesValidExposition() throws IOException {
+        Response response = scrape("GET /metrics HTTP/1.1\r\nHost: localhost\r\n\r\n");
+
+        assertEquals("HTTP/1.1 200 OK", response.mStatusLine);
+        assertEquals(PrometheusTextWriter.CONTENT_TYPE, response.mHeaders.get("content-type"));
+        assertEquals(
+                Integer.toString(response.mBody.length()), response.mHeaders.get("content-length"));
+        assertEquals(1, mServer.getNumberOfScrapes());
+
+        HashMap<String, String> samples = checkFamilies(response.mBody);
+
+        assertEquals(Integer.toString(REQUESTS + 1), samples.get("wifirtt_requests_total"));
+        checkLatencyHistogram(response.mBody, samples);
+        checkBssidLabels(response.mBody);
+    }
+
+    @Test
+    public void answersOtherRequestsWithoutBody() throws IOException {
+        Response head = scrape("HEAD /metrics HTTP/1.0\r\n\r\n");
+        assertEquals("HTTP/1.1 200 OK", head.mStatusLine);
+        assertEquals("", head.mBody);
+        assertFalse("0".equals(head.mHeaders.get("content-length")));
+
+        assertEquals("HTTP/1.1 404 Not Found", scrape("GET / HTTP/1.1\r\n\r\n").mStatusLine);
+        assertEquals(
+                "HTTP/1.1 405 Method Not Allowed",
+                scrape("POST /metrics HTTP/1.1\r\n\r\n").mStatusLine);
+
+        // A query doesn't change the page, and a lax client's bare line feeds end the head too.
+        assertEquals("HTTP/1.1 200 OK", scrape("GET /metrics?x=1 HTTP/1.1\n\n").mStatusLine);
+        assertEquals(2, mServer.getNumberOfScrapes());
+    }
+
+    @Test
+    public void escapesLabelValues() {
+        PrometheusTextWriter writer = new PrometheusTextWriter(16);
+        writer.startSample("m").label("path", "C:\\dir \"x\"\nnext").label("code", 3).endSample(1);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        try {
+            writer.writeTo(out);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+
+        String line = new String(out.toByteArray());
+        assertEquals("m{path=\"C:\\\\dir \\\"x\\\"\\nnext\",code=\"3\"} 1\n", line);
+        assertTrue(SAMPLE_PATTERN.matcher(line.trim()).matches());
+    }
+
+    /*
+     * Checks that every family has a HELP and then a TYPE line, is announced once, and is
+     * followed by its samples only. Returns the value of every sample without labels by name.
+     */
+    private static HashMap<String, String> checkFamilies(String page) {
+        HashMap<String, String> samples = new HashMap<>();
+        HashSet<String> families = new HashSet<>();
+        String help = null;
+        String family = null;
+        String type = null;
+
+        assertTrue(page.endsWith("\n"));
+
+        for (String line : page.split("\n")) {
+            Matcher helpMatcher = HELP_PATTERN.matcher(line);
+            Matcher typeMatcher = TYPE_PATTERN.matcher(line);
+
+            if (helpMatcher.matches()) {
+                assertTrue("HELP twice: " + line, help == null);
+                help = helpMatcher.group(1);
+                continue;
+            }
+
+            if (typeMatcher.matches()) {
+                assertEquals("TYPE without HELP: " + line, help, typeMatcher.group(1));
+                assertTrue("family announced twice: " + line, families.add(help));
+                family = help;
+                type = typeMatcher.group(2);
+                help = null;
+                continue;
+            }
+
+            Matcher matcher = SAMPLE_PATTERN.matcher(line);
+            assertTrue("bad line: " + line, matcher.matches());
+            assertTrue("HELP without TYPE before: " + line, help == null);
+
+            String name = matcher.group(1);
+            boolean inFamily = name.equals(family);
+
+            if ("histogram".equals(type)) {
+                inFamily =
+                        name.equals(family + "_bucket")
+                                || name.equals(family + "_sum")
+                                || name.equals(family + "_count");
+            }
+            assertTrue("sample outside of its family " + family + ": " + line, inFamily);
+
+            if (matcher.group(2) == null) {
+                samples.put(name, matcher.group(3));
+            }
+        }
+
+        assertTrue(families.contains(LATENCY));
+        assertTrue(families.contains("wifirtt_peer_distance_meters"));
+        return samples;
+    }
+
+    // Checks the cumulative buckets, _sum and _count of the request latency histogram.
+    private void checkLatencyHistogram(String page, HashMap<String, String> samples) {
+        assertEquals(Integer.toString(mCallbacks), samples.get(LATENCY + "_count"));
+        assertEquals(Long.toString(mLatencySumMillis), samples.get(LATENCY + "_sum"));
+
+        Matcher matcher =
+                Pattern.compile(LATENCY + "_bucket\\{le=\"([^\"]+)\"\\} ([0-9]+)").matcher(page);
+
+        List<String> bounds = new ArrayList<>();
+        HashMap<String, Long> counts = new HashMap<>();
+        double lastBound = Double.NEGATIVE_INFINITY;
+        long lastCount = 0;
+
+        while (matcher.find()) {
+            String bound = matcher.group(1);
+            long count = Long.parseLong(matcher.group(2));
+            double value = bound.equals("+Inf") ? Double.POSITIVE_INFINITY : Double.valueOf(bound);
+
+            assertTrue("bounds not increasing at " + bound, value > lastBound);
+            assertTrue("counts not cumulative at " + bound, count >= lastCount);
+            bounds.add(bound);
+            counts.put(bound, count);
+            lastBound = value;
+            lastCount = count;
+        }
+
+        assertEquals("+Inf", bounds.get(bounds.size() - 1));
+        assertEquals(Long.valueOf(mCallbacks), counts.get("+Inf"));
+
+        // Every third callback has each of the latencies.
+        int perLatency = REQUESTS / LATENCIES_MILLIS.length;
+        assertEquals(Long.valueOf(perLatency), counts.get("5"));
+        assertEquals(Long.valueOf(perLatency), counts.get("25"));
+        assertEquals(Long.valueOf(2 * perLatency), counts.get("50"));
+        assertEquals(Long.valueOf(2 * perLatency), counts.get("250"));
+        assertEquals(Long.valueOf(3 * perLatency), counts.get("500"));
+    }
+
+    // Checks that all peers, and only those, are labeled with well formed BSSIDs.
+    private void checkBssidLabels(String page) {
+        HashSet<String> expected = new HashSet<>();
+
+        for (long bssid : mSource.getResponderBssids()) {
+            expected.add(MacAddressUtils.toString(bssid));
+        }
+        expected.add("fe:dc:ba:98:76:54");
+
+        HashSet<String> labeled = new HashSet<>();
+
+        for (String line : page.split("\n")) {
+            Matcher sample = SAMPLE_PATTERN.matcher(line);
+
+            if (line.startsWith("#") || !sample.matches() || (sample.group(2) == null)) {
+                continue;
+            }
+
+            Matcher label = LABEL_PATTERN.matcher(sample.group(2));
+
+            while (label.find()) {
+                if (label.group(1).equals("bssid")) {
+                    assertTrue(
+                            "bad BSSID: " + line,
+                            BSSID_PATTERN.matcher(label.group(2)).matches());
+                    labeled.add(label.group(2));
+                }
+            }
+        }
+        assertEquals(expected, labeled);
+    }
+
+    private void onCallback(long latencyMillis) {
+        mMetrics.onRangingCallback(latencyMillis);
+        mCallbacks++;
+        mLatencySumMillis += latencyMillis;
+    }
+
+    // Sends request to the server and reads the response up to the end of the connection.
+    private Response scrape(String request) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), mServer.getPort());
+
+        try {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes("US-ASCII"));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+
+            while ((count = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, count);
+            }
+
+            String text = bytes.toString("UTF-8");
+            int headEnd = text.indexOf("\r\n\r\n");
+
+            if (headEnd < 0) {
+                fail("no end of head: " + text);
+            }
+
+            Response response = new Response();
+            String[] head = text.substring(0, headEnd).split("\r\n");
+            response.mStatusLine = head[0];
+
+            for (int i = 1; i < head.length; i++) {
+                int colon = head[i].indexOf(':');
+                response.mHeaders.put(
+                        head[i].substring(0, colon).trim().toLowerCase(),
+                        head[i].substring(colon + 1).trim());
+            }
+            response.mBody = text.substring(headEnd + 4);
+            return response;
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static class Response {
+        String mStatusLine;
+        final HashMap<String, String> mHeaders = new HashMap<>();
+        String mBody;
+    }
+}
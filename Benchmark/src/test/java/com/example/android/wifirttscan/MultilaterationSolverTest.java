@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link MultilaterationSolver} only returns fixes that converged and explain the
+ * ranges, with an accuracy that covers the residuals.
+ */
+public class MultilaterationSolverTest {
+
+    private static final int STD_DEV_MM = 100;
+    private static final int RSSI = -50;
+
+    // Anchors at the corners of a 10 m square (2D).
+    private static final double[][] SQUARE = {{0, 0}, {10, 0}, {0, 10}, {10, 10}};
+
+    @Test
+    public void solvesWellPosedFix() {
+        MultilaterationSolver solver = new MultilaterationSolver(4, false);
+        addExactRanges(solver, SQUARE, 3, 4, 0);
+
+        assertTrue(solver.solve());
+        assertEquals(3, solver.getX(), 0.01);
+        assertEquals(4, solver.getY(), 0.01);
+        assertTrue(solver.getIterations() < MultilaterationSolver.MAX_ITERATIONS);
+        assertTrue(solver.getPosteriorVariance() < 1);
+        // About a sigma, spread over the ranges.
+        assertTrue("accuracy " + solver.getAccuracy(), solver.getAccuracy() > 0.05);
+        assertTrue("accuracy " + solver.getAccuracy(), solver.getAccuracy() < 0.2);
+    }
+
+    @Test
+    public void solvesWellPosedFixIn3d() {
+        double[][] anchors = {{0, 0, 0}, {10, 0, 3}, {0, 10, 3}, {10, 10, 0}, {5, 5, 6}};
+        MultilaterationSolver solver = new MultilaterationSolver(anchors.length, true);
+
+        for (double[] anchor : anchors) {
+            solver.addRange(
+                    anchor[0],
+                    anchor[1],
+                    anchor[2],
+                    distanceMm(anchor[0] - 4, anchor[1] - 7, anchor[2] - 1.5),
+                    STD_DEV_MM,
+                    RSSI);
+        }
+
+        assertTrue(solver.solve());
+        assertEquals(4, solver.getX(), 0.01);
+        assertEquals(7, solver.getY(), 0.01);
+        assertEquals(1.5, solver.getZ(), 0.01);
+        assertTrue("accuracy " + solver.getAccuracy(), solver.getAccuracy() < 0.5);
+    }
+
+    @Test
+    public void inconsistentRangesWidenAccuracy() {
+        MultilaterationSolver solver = new MultilaterationSolver(4, false);
+        addExactRanges(solver, SQUARE, 3, 4, 0);
+        assertTrue(solver.solve());
+        double exactAccuracy = solver.getAccuracy();
+
+        // One range 2.5 sigma too long.
+        solver.clear();
+        solver.clearInitialPosition();
+        addExactRanges(solver, SQUARE, 3, 4, 250);
+
+        assertTrue(solver.solve());
+        assertTrue(solver.getPosteriorVariance() > 1);
+        assertEquals(
+                exactAccuracy * Math.sqrt(solver.getPosteriorVariance()),
+                solver.getAccuracy(),
+                0.01 * exactAccuracy);
+    }
+
+    @Test
+    public void tooFewAnchorsFail() {
+        MultilaterationSolver solver = new MultilaterationSolver(4, true);
+        double[][] anchors = {{0, 0, 0}, {10, 0, 3}, {0, 10, 3}};
+
+        for (double[] anchor : anchors) {
+            solver.addRange(anchor[0], anchor[1], anchor[2], 5000, STD_DEV_MM, RSSI);
+        }
+
+        assertFalse(solver.solve());
+        assertFalse(solver.isValid());
+    }
+
+    @Test
+    public void collinearAnchorsFail() {
+        // The centroid is on the line, where the position across it is undetermined.
+        double[][] anchors = {{0, 0}, {5, 0}, {10, 0}, {15, 0}};
+        MultilaterationSolver solver = new MultilaterationSolver(4, false);
+        addExactRanges(solver, anchors, 7, 4, 0);
+
+        assertFalse(solver.solve());
+        assertFalse(solver.isValid());
+    }
+
+    @Test
+    public void coincidentAnchorsFail() {
+        MultilaterationSolver solver = new MultilaterationSolver(4, false);
+
+        for (int i = 0; i < 4; i++) {
+            solver.addRange(5, 5, 0, 3000, STD_DEV_MM, RSSI);
+        }
+
+        assertFalse(solver.solve());
+    }
+
+    @Test
+    public void localMinimumIsRejected() {
+        // Exact ranges from (13, 14), but the centroid is in the basin of a minimum near (7, 3).
+        double[][] anchors = {{16, 9}, {2, 10}, {15, 1}, {11, 7}};
+        MultilaterationSolver solver = new MultilaterationSolver(4, false);
+        addExactRanges(solver, anchors, 13, 14, 0);
+
+        assertFalse(solver.solve());
+        assertTrue(solver.getIterations() < MultilaterationSolver.MAX_ITERATIONS);
+        assertTrue(
+                solver.getPosteriorVariance() > MultilaterationSolver.MAX_POSTERIOR_VARIANCE);
+
+        // Started close enough, the same ranges give the right fix.
+        solver.setInitialPosition(12, 13, 0);
+        assertTrue(solver.solve());
+        assertEquals(13, solver.getX(), 0.01);
+        assertEquals(14, solver.getY(), 0.01);
+    }
+
+    @Test
+    public void nonConvergingFixFails() {
+        // Nearly coplanar anchors and noisy ranges from (10.5, 14.9, 0.4): the height is weakly
+        // determined, and Gauss-Newton zigzags far longer than the iterations allow.
+        double[][] anchors = {{9.6, 10.9, 1.7}, {3.7, 0.2, 0.5}, {3.6, 10.8, 2.9}, {4.4, 8.6, 0.7}};
+        int[] distancesMm = {3930, 16350, 7970, 8590};
+        MultilaterationSolver solver = new MultilaterationSolver(4, true);
+
+        for (int i = 0; i < anchors.length; i++) {
+            solver.addRange(
+                    anchors[i][0], anchors[i][1], anchors[i][2], distancesMm[i], 300, RSSI);
+        }
+
+        assertFalse(solver.solve());
+        assertEquals(MultilaterationSolver.MAX_ITERATIONS, solver.getIterations());
+        assertFalse(solver.isValid());
+    }
+
+    // Adds the exact (2D) ranges from (x, y) to anchors, the first one errorMm too long.
+    private static void addExactRanges(
+            MultilaterationSolver solver, double[][] anchors, double x, double y, int errorMm) {
+        for (int i = 0; i < anchors.length; i++) {
+            int distanceMm = distanceMm(anchors[i][0] - x, anchors[i][1] - y, 0);
+            solver.addRange(
+                    anchors[i][0],
+                    anchors[i][1],
+                    0,
+                    (i == 0) ? distanceMm + errorMm : distanceMm,
+                    STD_DEV_MM,
+                    RSSI);
+        }
+    }
+
+    private static int distanceMm(double dx, double dy, double dz) {
+        return (int) Math.round(Math.sqrt(dx * dx + dy * dy + dz * dz) * 1000);
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link QuantileSketch} and {@link SlidingQuantileSketch} against exact ranks, within the
+ * error documented for k = 64, and that the sliding window drops its expired panes.
+ */
+public class QuantileSketchTest {
+
+    private static final int K = 64;
+    // Documented bound on the rank error for k = 64, as a fraction of the number of samples.
+    private static final double EPSILON = 0.04;
+
+    private static final int SAMPLES = 100000;
+    private static final long SEED = 42;
+
+    private static final double[] PERCENTILES = {0, 1, 5, 10, 25, 50, 75, 90, 95, 99, 100};
+
+    @Test
+    public void uniformRandomSamplesStayWithinBound() {
+        Random random = new Random(SEED);
+        int[] samples = new int[SAMPLES];
+
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = random.nextInt(50000);
+        }
+        assertWithinBound(samples);
+    }
+
+    @Test
+    public void gaussianSamplesStayWithinBound() {
+        Random random = new Random(SEED);
+        int[] samples = new int[SAMPLES];
+
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = 5000 + (int) Math.round(random.nextGaussian() * 300);
+        }
+        assertWithinBound(samples);
+    }
+
+    @Test
+    public void ascendingSamplesStayWithinBound() {
+        int[] samples = new int[SAMPLES];
+
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = i;
+        }
+        assertWithinBound(samples);
+    }
+
+    @Test
+    public void descendingSamplesStayWithinBound() {
+        int[] samples = new int[SAMPLES];
+
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = SAMPLES - i;
+        }
+        assertWithinBound(samples);
+    }
+
+    @Test
+    public void alternatingExtremesStayWithinBound() {
+        // Each new sample is the largest or the smallest so far, so every compaction sees the
+        // same sample at either end of a level.
+        int[] samples = new int[SAMPLES];
+
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = ((i & 1) == 0) ? i : -i;
+        }
+        assertWithinBound(samples);
+    }
+
+    @Test
+    public void sortedRunsStayWithinBound() {
+        // Runs the size of a level, each sorted and covering the same range.
+        int[] samples = new int[SAMPLES];
+
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (i % K) * 1000 + i / K;
+        }
+        assertWithinBound(samples);
+    }
+
+    @Test
+    public void repeatedValuesStayWithinBound() {
+        // Few distinct values, as with distances quantized by the hardware.
+        Random random = new Random(SEED);
+        int[] samples = new int[SAMPLES];
+
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (random.nextInt(100) < 90) ? 3000 : random.nextInt(4) * 1000;
+        }
+        assertWithinBound(samples);
+    }
+
+    @Test
+    public void smallStreamsAreExact() {
+        Random random = new Random(SEED);
+        QuantileSketch sketch = new QuantileSketch(K);
+        int[] samples = new int[K];
+
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = random.nextInt(1000);
+            sketch.add(samples[i]);
+        }
+        Arrays.sort(samples);
+
+        for (double percentile : PERCENTILES) {
+            int rank = (int) QuantileSketch.rankOfPercentile(percentile, samples.length);
+            assertEquals(samples[rank - 1], sketch.getPercentile(percentile));
+        }
+        for (int value = -1; value <= 1000; value += 7) {
+            assertEquals(exactRank(samples, value), sketch.getRank(value));
+        }
+    }
+
+    @Test
+    public void memoryStaysBounded() {
+        QuantileSketch sketch = new QuantileSketch(K);
+        Random random = new Random(SEED);
+
+        for (int i = 0; i < 10 * SAMPLES; i++) {
+            sketch.add(random.nextInt());
+            assertTrue(sketch.getRetainedCount() <= 4 * K);
+        }
+        assertEquals(10 * SAMPLES, sketch.getCount());
+    }
+
+    @Test
+    public void emptySketchHasNoPercentile() {
+        QuantileSketch sketch = new QuantileSketch(K);
+        sketch.add(1);
+        sketch.reset();
+
+        assertEquals(0, sketch.getRank(1));
+        try {
+            sketch.getMedian();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void slidingWindowDropsExpiredPanes() {
+        // Four panes of 250 ms.
+        SlidingQuantileSketch sketch = new SlidingQuantileSketch(1000, 4, K);
+
+        for (int time = 0; time < 250; time++) {
+            sketch.add(time, 100);
+        }
+        for (int time = 250; time < 1000; time++) {
+            sketch.add(time, 200);
+        }
+        assertEquals(1000, sketch.getCount());
+        assertEquals(100, sketch.getMin());
+        assertEquals(250, sketch.getRank(150));
+
+        // The first pane is reused once time reaches the end of the window.
+        sketch.advanceTo(999);
+        assertEquals(1000, sketch.getCount());
+        sketch.advanceTo(1000);
+        assertEquals(750, sketch.getCount());
+        assertEquals(200, sketch.getMin());
+        assertEquals(0, sketch.getRank(150));
+        assertEquals(200, sketch.getPercentile(0));
+
+        // The other panes expire one at a time.
+        sketch.add(1250, 300);
+        assertEquals(501, sketch.getCount());
+        assertEquals(300, sketch.getMax());
+
+        sketch.advanceTo(1999);
+        assertEquals(1, sketch.getCount());
+        assertEquals(300, sketch.getMedian());
+    }
+
+    @Test
+    public void slidingWindowClearsAfterLongGap() {
+        SlidingQuantileSketch sketch = new SlidingQuantileSketch(1000, 4, K);
+
+        for (int time = 0; time < 1000; time++) {
+            sketch.add(time, time);
+        }
+        sketch.advanceTo(10000);
+        assertEquals(0, sketch.getCount());
+
+        sketch.add(10001, 7);
+        assertEquals(1, sketch.getCount());
+        assertEquals(7, sketch.getMedian());
+    }
+
+    @Test
+    public void slidingWindowStaysWithinBound() {
+        // 50 samples a second over a 60 s window in 6 panes, for five windows.
+        SlidingQuantileSketch sketch = new SlidingQuantileSketch(60000, 6, K);
+        Random random = new Random(SEED);
+        int[] values = new int[5 * 60 * 50];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 4000 + (int) Math.round(random.nextGaussian() * 200) + i / 10;
+            sketch.add(i * 20L, values[i]);
+        }
+
+        // The window covers whole panes, ending at the newest sample.
+        int first = values.length - (int) sketch.getCount();
+        assertEquals(0, first % (10000 / 20));
+        assertTrue(sketch.getCount() >= 5 * 60 * 50 / 6);
+
+        int[] window = Arrays.copyOfRange(values, first, values.length);
+        Arrays.sort(window);
+        long bound = (long) Math.ceil(EPSILON * window.length);
+
+        for (double percentile : PERCENTILES) {
+            int target = (int) QuantileSketch.rankOfPercentile(percentile, window.length);
+            int estimate = sketch.getPercentile(percentile);
+            assertRankWithin(window, estimate, target, bound);
+        }
+    }
+
+    private static void assertWithinBound(int[] samples) {
+        QuantileSketch sketch = new QuantileSketch(K);
+
+        for (int sample : samples) {
+            sketch.add(sample);
+        }
+        assertEquals(samples.length, sketch.getCount());
+
+        int[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        long bound = (long) Math.ceil(EPSILON * sorted.length);
+
+        assertEquals(sorted[0], sketch.getMin());
+        assertEquals(sorted[sorted.length - 1], sketch.getMax());
+
+        // Ranks of every 100th sample, and the percentiles they give.
+        for (int i = 0; i < sorted.length; i += 100) {
+            long error = sketch.getRank(sorted[i]) - exactRank(sorted, sorted[i]);
+            assertTrue("Rank error " + error + " at " + sorted[i], Math.abs(error) <= bound);
+        }
+        for (double percentile : PERCENTILES) {
+            int target = (int) QuantileSketch.rankOfPercentile(percentile, sorted.length);
+            assertRankWithin(sorted, sketch.getPercentile(percentile), target, bound);
+        }
+    }
+
+    // Checks that value is within bound samples of the target rank (1 based) in sorted, allowing
+    // for repeated values, which span a range of ranks.
+    private static void assertRankWithin(int[] sorted, int value, int target, long bound) {
+        long highest = exactRank(sorted, value);
+        long lowest = highest - count(sorted, value) + 1;
+        assertTrue(
+                "Percentile " + value + " has ranks [" + lowest + ", " + highest + "], target "
+                        + target,
+                (lowest <= target + bound) && (highest >= target - bound));
+    }
+
+    // Number of samples less than or equal to value.
+    private static long exactRank(int[] sorted, int value) {
+        int low = 0;
+        int high = sorted.length;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (sorted[middle] <= value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static long count(int[] sorted, int value) {
+        return exactRank(sorted, value) - exactRank(sorted, value - 1);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+/** Checks the corrections of {@link RangeCalibration} and how they reach the statistics. */
+public class RangeCalibrationTest {
+
+    private static final long CALIBRATED_BSSID = 0x020000000001L;
+    private static final long OTHER_BSSID = 0x020000000002L;
+
+    private final RangeCalibration mCalibration =
+            new RangeCalibration(
+                    "test",
+                    0.5f,
+                    100,
+                    new long[] {CALIBRATED_BSSID},
+                    new float[] {0.9f},
+                    new int[] {-500},
+                    1);
+
+    @Test
+    public void correctsWithAccessPointOrDeviceProfile() {
+        RangingMeasurement measurement = success(CALIBRATED_BSSID, 10000);
+        mCalibration.correct(measurement);
+        assertEquals(8500, measurement.getDistanceMm());
+        assertEquals(180, measurement.getDistanceStdDevMm());
+
+        measurement = success(OTHER_BSSID, 10000);
+        mCalibration.correct(measurement);
+        assertEquals(5100, measurement.getDistanceMm());
+        assertEquals(100, measurement.getDistanceStdDevMm());
+    }
+
+    @Test
+    public void negativeCorrectionIsRejectedAsInvalid() {
+        RangingMeasurement measurement = success(CALIBRATED_BSSID, 300);
+        mCalibration.correct(measurement);
+        assertEquals(-230, measurement.getDistanceMm());
+
+        RangingResultProcessor processor = new RangingResultProcessor();
+        processor.setOutlierRejectorFactory(OutlierRejector.FACTORY);
+        processor.setCalibration(mCalibration);
+        processor.reset(new long[] {CALIBRATED_BSSID}, 1, 10, false);
+
+        int index = processor.onRangingResult(success(CALIBRATED_BSSID, 300));
+
+        assertFalse(processor.getStatistics(index).isLastResultSuccessful());
+        assertEquals(1, processor.getNumberOfRejectedResults(OutlierRejector.STAGE_INVALID));
+    }
+
+    private static RangingMeasurement success(long bssid, int distanceMm) {
+        RangingMeasurement measurement = new RangingMeasurement();
+        measurement.set(bssid, RangingMeasurement.STATUS_SUCCESS, distanceMm, 200, -50, 8, 8, 1);
+        return measurement;
+    }
+}
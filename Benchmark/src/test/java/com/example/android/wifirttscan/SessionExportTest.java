@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that {@link SessionExportWriter} and {@link SessionExportReader} round trip every field
+ * of a session, and that damaged blocks are rejected.
+ */
+public class SessionExportTest {
+
+    private static final int BLOCK_RECORDS = 16;
+    private static final long BSSID = 0x112233445566L;
+
+    @Rule public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void roundTripsRandomSessionAcrossBlocks() throws IOException {
+        Random random = new Random(42);
+        RangingMeasurement[] measurements = new RangingMeasurement[10 * BLOCK_RECORDS + 3];
+        long timestampMillis = 1500000000000L;
+
+        for (int i = 0; i < measurements.length; i++) {
+            timestampMillis += random.nextInt(200);
+            measurements[i] = new RangingMeasurement();
+            measurements[i].set(
+                    0xa0b0c0d00000L + random.nextInt(5),
+                    random.nextInt(3),
+                    random.nextInt(30000) - 1000,
+                    random.nextInt(2000),
+                    -30 - random.nextInt(60),
+                    8,
+                    random.nextInt(9),
+                    timestampMillis);
+        }
+
+        File file = write(measurements);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertEquals(11, readAndCompare(file, measurements));
+    }
+
+    @Test
+    public void roundTripsNegativeDeltas() throws IOException {
+        // Timestamps going backwards, distances and RSSIs falling and jumping across the whole
+        // int range, so deltas overflow an int.
+        RangingMeasurement[] measurements = {
+            newMeasurement(BSSID, 1000, Integer.MAX_VALUE, -1, 5000L),
+            newMeasurement(BSSID, 1000, Integer.MIN_VALUE, Integer.MIN_VALUE, 4000L),
+            newMeasurement(BSSID + 1, 1000, -5, 0, -4000L),
+            newMeasurement(BSSID, 1000, Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MIN_VALUE / 2),
+            newMeasurement(BSSID + 1, -7, -10, -127, Long.MAX_VALUE / 2),
+            newMeasurement(BSSID, Integer.MIN_VALUE, 0, -128, 0L),
+        };
+
+        assertEquals(1, readAndCompare(write(measurements), measurements));
+    }
+
+    @Test
+    public void roundTripsEmptySession() throws IOException {
+        File file = write(new RangingMeasurement[0]);
+        assertEquals(SessionExport.HEADER_SIZE, file.length());
+
+        SessionExportReader reader = new SessionExportReader(file);
+        try {
+            assertFalse(reader.next(new RangingMeasurement()));
+            assertEquals(0, reader.getNumberOfRecords());
+            assertEquals(0, reader.getNumberOfBlocks());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void roundTripsSingleSample() throws IOException {
+        RangingMeasurement[] measurements = {newMeasurement(BSSID, 0, 4321, -55, 123456789L)};
+        assertEquals(1, readAndCompare(write(measurements), measurements));
+    }
+
+    @Test
+    public void rejectsChecksumMismatch() throws IOException {
+        File file = write(newSession(2 * BLOCK_RECORDS));
+        int secondBlock = getSecondBlockOffset(file);
+
+        // The CRC of the second block no longer matches its columns.
+        flipByte(file, secondBlock + 12);
+
+        SessionExportReader reader = new SessionExportReader(file);
+        try {
+            RangingMeasurement measurement = new RangingMeasurement();
+
+            for (int i = 0; i < BLOCK_RECORDS; i++) {
+                assertTrue(reader.next(measurement));
+            }
+            reader.next(measurement);
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("Checksum mismatch"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void rejectsDamagedBlocks() throws IOException {
+        // Compressed bytes of the only block, within the deflate stream.
+        File file = write(newSession(BLOCK_RECORDS));
+        flipByte(file, SessionExport.HEADER_SIZE + SessionExport.BLOCK_HEADER_SIZE + 20);
+        assertUnreadable(file);
+
+        // Record count larger than the block size.
+        file = write(newSession(BLOCK_RECORDS));
+        flipByte(file, SessionExport.HEADER_SIZE + 1);
+        assertUnreadable(file);
+
+        // Truncated within the compressed bytes.
+        file = write(newSession(BLOCK_RECORDS));
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(file.length() - 1);
+        } finally {
+            randomAccessFile.close();
+        }
+        assertUnreadable(file);
+
+        // Not an export at all.
+        file = write(newSession(1));
+        flipByte(file, 0);
+
+        try {
+            new SessionExportReader(file).close();
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    private File write(RangingMeasurement[] measurements) throws IOException {
+        File file = mFolder.newFile();
+        SessionExportWriter writer =
+                new SessionExportWriter(file, BLOCK_RECORDS, Deflater.BEST_SPEED);
+
+        try {
+            for (RangingMeasurement measurement : measurements) {
+                writer.append(measurement);
+            }
+        } finally {
+            writer.close();
+        }
+
+        assertEquals(measurements.length, writer.getNumberOfRecords());
+        assertEquals(file.length(), writer.getBytesWritten());
+        return file;
+    }
+
+    // Reads file back, checking every field against measurements; returns the number of blocks.
+    private static int readAndCompare(File file, RangingMeasurement[] measurements)
+            throws IOException {
+        SessionExportReader reader = new SessionExportReader(file);
+
+        try {
+            RangingMeasurement actual = new RangingMeasurement();
+
+            for (int i = 0; i < measurements.length; i++) {
+                assertTrue(reader.next(actual));
+                assertMeasurementEquals(i, measurements[i], actual);
+            }
+            assertFalse(reader.next(actual));
+            assertEquals(measurements.length, reader.getNumberOfRecords());
+            return reader.getNumberOfBlocks();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void assertMeasurementEquals(
+            int i, RangingMeasurement expected, RangingMeasurement actual) {
+        String message = "Result " + i;
+
+        assertEquals(message, expected.getTimestampMillis(), actual.getTimestampMillis());
+        assertEquals(message, expected.getBssid(), actual.getBssid());
+        assertEquals(message, expected.getStatus(), actual.getStatus());
+        assertEquals(message, expected.getDistanceMm(), actual.getDistanceMm());
+        assertEquals(message, expected.getDistanceStdDevMm(), actual.getDistanceStdDevMm());
+        assertEquals(message, expected.getRssi(), actual.getRssi());
+        assertEquals(
+                message,
+                expected.getNumAttemptedMeasurements(),
+                actual.getNumAttemptedMeasurements());
+        assertEquals(
+                message,
+                expected.getNumSuccessfulMeasurements(),
+                actual.getNumSuccessfulMeasurements());
+    }
+
+    private static RangingMeasurement newMeasurement(
+            long bssid, int status, int distanceMm, int rssi, long timestampMillis) {
+        RangingMeasurement measurement = new RangingMeasurement();
+        measurement.set(bssid, status, distanceMm, -distanceMm, rssi, 8, -3, timestampMillis);
+        return measurement;
+    }
+
+    private static RangingMeasurement[] newSession(int count) {
+        RangingMeasurement[] measurements = new RangingMeasurement[count];
+
+        for (int i = 0; i < count; i++) {
+            measurements[i] = newMeasurement(BSSID + (i % 3), 0, 5000 - 10 * i, -60, 1000L * i);
+        }
+        return measurements;
+    }
+
+    private static int getSecondBlockOffset(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+
+        try {
+            randomAccessFile.seek(SessionExport.HEADER_SIZE + 8);
+            int compressedSize = Integer.reverseBytes(randomAccessFile.readInt());
+            return SessionExport.HEADER_SIZE + SessionExport.BLOCK_HEADER_SIZE + compressedSize;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static void flipByte(File file, long offset) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+
+        try {
+            randomAccessFile.seek(offset);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(offset);
+            randomAccessFile.write(value ^ 0xFF);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static void assertUnreadable(File file) throws IOException {
+        SessionExportReader reader = new SessionExportReader(file);
+
+        try {
+            RangingMeasurement measurement = new RangingMeasurement();
+
+            while (reader.next(measurement)) {}
+            fail();
+        } catch (IOException expected) {
+        } finally {
+            reader.close();
+        }
+    }
+}
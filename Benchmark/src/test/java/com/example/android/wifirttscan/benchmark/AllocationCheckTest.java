@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2018 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.wifirttscan.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Fails the build if a steady state ranging result allocates anything, on the path checked by
+ * {@link AllocationCheckTool}: the RangingSessionListener of the app's RangingSession, fed by a
+ * SimulatedRangingSource. Needs a JVM with per thread allocation counting (HotSpot), run with
+ * -XX:TieredStopAtLevel=1 like the Gradle test task does.
+ */
+public class AllocationCheckTest {
+
+    // Enough for the warm up to compile the path (at C1).
+    private static final int REQUESTS = 10000;
+
+    @Test
+    public void singlePeerResultsDontAllocate() {
+        checkNoAllocation(1);
+    }
+
+    @Test
+    public void batchedResultsDontAllocate() {
+        AllocationCheckTool tool = checkNoAllocation(AllocationCheckTool.PEER_COUNT_DEFAULT);
+
+        // Batches were solved (or located) for positions too.
+        assertTrue(tool.getNumberOfPositions() > 0);
+    }
+
+    private static AllocationCheckTool checkNoAllocation(int peerCount) {
+        AllocationCheckTool tool = new AllocationCheckTool(peerCount);
+        long bytes = tool.measureAllocatedBytes(REQUESTS);
+        long results = tool.getNumberOfMeasuredResults();
+
+        assertTrue(results > 0);
+        assertEquals(
+                peerCount + " peers, bytes allocated for " + results + " results", 0, bytes);
+        return tool;
+    }
+}